@@ -40,7 +40,7 @@ import org.apache.log4j.Logger;
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  */
-public class BufferedFileDataInput
+public class BufferedFileDataInput implements FileDataInput
 {
     private static Logger       logger = Logger.getLogger(BufferedFileDataInput.class);
     // Read parameters.
@@ -0,0 +1,88 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s): 
+ */
+
+package com.continuent.tungsten.common.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Denotes a positioned reader on a file that may still be growing. This is
+ * implemented by {@link BufferedFileDataInput} for general use and by
+ * {@link MappedFileDataInput} for fast reads of files that are complete.
+ */
+public interface FileDataInput
+{
+    /** Returns the current offset position. */
+    public long getOffset();
+
+    /**
+     * Returns the number of bytes available for immediate read without
+     * blocking. This may result in a file system metadata call.
+     */
+    public long available() throws IOException, InterruptedException;
+
+    /**
+     * Waits for a specified number of bytes to be available for a non-blocking
+     * read.
+     * 
+     * @param requested Number of bytes to read
+     * @param waitMillis Milliseconds to wait before timeout
+     * @return Number of bytes available for non-blocking read
+     */
+    public long waitAvailable(int requested, int waitMillis)
+            throws IOException, InterruptedException;
+
+    /** Marks the stream to read up to limit before a reset. */
+    public void mark(int readLimit);
+
+    /** Resets the stream back to last mark. */
+    public void reset() throws IOException, InterruptedException;
+
+    /** Skips requested number of bytes and returns the number skipped. */
+    public long skip(long bytes) throws IOException;
+
+    /** Seeks to a specific offset from the start of the file. */
+    public void seek(long seekBytes) throws FileNotFoundException,
+            IOException, InterruptedException;
+
+    /** Reads a single byte. */
+    public byte readByte() throws IOException;
+
+    /** Reads a single short. */
+    public short readShort() throws IOException;
+
+    /** Reads a single integer. */
+    public int readInt() throws IOException;
+
+    /** Reads a single long. */
+    public long readLong() throws IOException;
+
+    /** Reads a full byte array completely. */
+    public void readFully(byte[] bytes) throws IOException;
+
+    /** Reads len bytes completely into the array starting at start. */
+    public void readFully(byte[] bytes, int start, int len) throws IOException;
+
+    /** Closes and releases all resources. */
+    public void close();
+}
@@ -0,0 +1,406 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s): 
+ */
+
+package com.continuent.tungsten.common.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads a file through a read-only memory mapping so that reads do not
+ * require system calls. This is intended for files that are complete, such as
+ * older binlogs read during catch-up. If the file grows after it is mapped,
+ * the mapping is extended once the reader reaches the end of the mapped data.
+ * <p/>
+ * An optional read-ahead thread touches pages up to a fixed number of bytes
+ * ahead of the reader so that disk reads overlap with processing. Files must
+ * be smaller than 2GB.
+ */
+public class MappedFileDataInput implements FileDataInput
+{
+    private static Logger             logger    = Logger.getLogger(MappedFileDataInput.class);
+
+    // Assumed page size for read-ahead.
+    private static final int          PAGE_SIZE = 4096;
+
+    // Read parameters.
+    private final File                file;
+    private final int                 readAheadBytes;
+
+    // Mapping and position. The offset is read by the read-ahead thread.
+    private FileInputStream           fileInput;
+    private FileChannel               fileChannel;
+    private volatile MappedByteBuffer buffer;
+    private volatile long             offset;
+    private long                      markOffset;
+    private volatile boolean          closed    = false;
+    private Thread                    readAheadThread;
+
+    /**
+     * Pages in the mapping ahead of the reader until closed.
+     */
+    private class ReadAhead implements Runnable
+    {
+        public void run()
+        {
+            long touched = 0;
+            try
+            {
+                while (!closed)
+                {
+                    MappedByteBuffer mapped = buffer;
+                    long readerOffset = offset;
+                    long limit = Math.min(mapped.capacity(), readerOffset
+                            + readAheadBytes);
+                    if (touched < readerOffset)
+                        touched = readerOffset - (readerOffset % PAGE_SIZE);
+                    while (touched < limit && !closed)
+                    {
+                        mapped.get((int) touched);
+                        touched += PAGE_SIZE;
+                    }
+                    Thread.sleep(5);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Normal shutdown.
+            }
+            catch (Throwable t)
+            {
+                logger.warn("Read-ahead failed: file=" + file.getName()
+                        + " exception=" + t.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates instance positioned on start of file.
+     * 
+     * @param file File from which to read
+     * @param readAheadBytes Number of bytes to page in ahead of the reader
+     *            using a background thread; 0 disables read-ahead
+     */
+    public MappedFileDataInput(File file, int readAheadBytes)
+            throws FileNotFoundException, IOException, InterruptedException
+    {
+        this.file = file;
+        this.readAheadBytes = readAheadBytes;
+        fileInput = new FileInputStream(file);
+        fileChannel = fileInput.getChannel();
+        map();
+        seek(0);
+
+        if (readAheadBytes > 0)
+        {
+            readAheadThread = new Thread(new ReadAhead(), "Read-ahead - "
+                    + file.getName());
+            readAheadThread.setDaemon(true);
+            readAheadThread.start();
+        }
+    }
+
+    // Maps the current length of the file.
+    private void map() throws IOException, InterruptedException
+    {
+        try
+        {
+            long size = fileChannel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("File too large to map: file="
+                        + file.getName() + " size=" + size);
+            }
+            buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        catch (ClosedByInterruptException e)
+        {
+            // This is NIO's version of an interrupt, which we convert
+            // for convenience of callers.
+            throw new InterruptedException(e.getClass().getName());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#getOffset()
+     */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * Returns the number of mapped bytes left to read. The file length is
+     * checked only once the reader reaches the end of the mapping.
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#available()
+     */
+    public long available() throws IOException, InterruptedException
+    {
+        long available = buffer.capacity() - offset;
+        if (available <= 0 && fileChannel.size() > buffer.capacity())
+        {
+            map();
+            buffer.position((int) offset);
+            available = buffer.capacity() - offset;
+        }
+        return available;
+    }
+
+    /**
+     * Waits for data, polling with a short initial delay that backs off so
+     * that we notice new data quickly without spinning.
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#waitAvailable(int,
+     *      int)
+     */
+    public long waitAvailable(int requested, int waitMillis)
+            throws IOException, InterruptedException
+    {
+        long available = available();
+        long timeoutMillis = System.currentTimeMillis() + waitMillis;
+        long sleepMillis = 1;
+        while (available < requested
+                && System.currentTimeMillis() < timeoutMillis)
+        {
+            Thread.sleep(sleepMillis);
+            sleepMillis = Math.min(sleepMillis * 2, 50);
+            available = available();
+        }
+        return available;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#mark(int)
+     */
+    public void mark(int readLimit)
+    {
+        markOffset = offset;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#reset()
+     */
+    public void reset() throws IOException, InterruptedException
+    {
+        if (markOffset < 0)
+            throw new IOException("Mark not set: file=" + file.getName());
+        seek(markOffset);
+        markOffset = -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#skip(long)
+     */
+    public long skip(long bytes) throws IOException
+    {
+        long skipped = Math.max(0, Math.min(bytes, buffer.remaining()));
+        buffer.position(buffer.position() + (int) skipped);
+        offset += skipped;
+        return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#seek(long)
+     */
+    public void seek(long seekBytes) throws FileNotFoundException,
+            IOException, InterruptedException
+    {
+        if (seekBytes > buffer.capacity())
+            map();
+        if (seekBytes > buffer.capacity())
+        {
+            throw new EOFException("Seek beyond end of file: file="
+                    + file.getName() + " offset=" + seekBytes + " size="
+                    + buffer.capacity());
+        }
+        buffer.position((int) seekBytes);
+        offset = seekBytes;
+        markOffset = -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readByte()
+     */
+    public byte readByte() throws IOException
+    {
+        ensureRemaining(1);
+        byte v = buffer.get();
+        offset += 1;
+        return v;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readShort()
+     */
+    public short readShort() throws IOException
+    {
+        ensureRemaining(2);
+        short v = buffer.getShort();
+        offset += 2;
+        return v;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readInt()
+     */
+    public int readInt() throws IOException
+    {
+        ensureRemaining(4);
+        int v = buffer.getInt();
+        offset += 4;
+        return v;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readLong()
+     */
+    public long readLong() throws IOException
+    {
+        ensureRemaining(8);
+        long v = buffer.getLong();
+        offset += 8;
+        return v;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readFully(byte[])
+     */
+    public void readFully(byte[] bytes) throws IOException
+    {
+        readFully(bytes, 0, bytes.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#readFully(byte[],
+     *      int, int)
+     */
+    public void readFully(byte[] bytes, int start, int len) throws IOException
+    {
+        ensureRemaining(len);
+        buffer.get(bytes, start, len);
+        offset += len;
+    }
+
+    // Ensures enough bytes are mapped, extending the mapping if the file has
+    // grown, and throws an EOFException otherwise as a stream would.
+    private void ensureRemaining(int len) throws IOException
+    {
+        if (buffer.remaining() >= len)
+            return;
+        try
+        {
+            if (fileChannel.size() > buffer.capacity())
+            {
+                map();
+                buffer.position((int) offset);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while mapping file: "
+                    + file.getName());
+        }
+        if (buffer.remaining() < len)
+        {
+            throw new EOFException("Read beyond end of file: file="
+                    + file.getName() + " offset=" + offset + " requested="
+                    + len);
+        }
+    }
+
+    /**
+     * Closes the file and stops read-ahead. The mapping itself is released
+     * when it is garbage collected.
+     * 
+     * @see com.continuent.tungsten.common.io.FileDataInput#close()
+     */
+    public void close()
+    {
+        closed = true;
+        if (readAheadThread != null)
+        {
+            readAheadThread.interrupt();
+            readAheadThread = null;
+        }
+        try
+        {
+            if (fileChannel != null)
+                fileChannel.close();
+            if (fileInput != null)
+                fileInput.close();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to close mapped file reader: file="
+                    + file.getName() + " exception=" + e.getMessage());
+        }
+        fileChannel = null;
+        fileInput = null;
+        offset = -1;
+    }
+
+    /**
+     * Print contents of the reader.
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(this.getClass().getSimpleName());
+        sb.append(" file=").append(file.getName());
+        sb.append(" mapped=").append(buffer.capacity());
+        sb.append(" readAhead=").append(readAheadBytes);
+        sb.append(" offset=").append(offset);
+        return sb.toString();
+    }
+}
@@ -83,6 +83,8 @@ public class MySQLPacket
     private int                 position;
     /** Data size */
     private int                 dataLength               = 0;
+    /** End of valid data in the buffer, which may be shorter than the array */
+    private int                 limit;
     /** The input stream used to read this packet */
     InputStream                 inputStream              = null;
 
@@ -98,6 +100,7 @@ public class MySQLPacket
         this.byteBuffer[3] = packetNumber;
         this.dataLength = dataLength;
         this.position = HEADER_LENGTH;
+        this.limit = buffer.length;
     }
 
     /**
@@ -118,6 +121,7 @@ public class MySQLPacket
         }
         this.byteBuffer[3] = packetNumber;
         this.position = HEADER_LENGTH;
+        this.limit = byteBuffer.length;
     }
 
     /**
@@ -213,6 +217,26 @@ public class MySQLPacket
      * @return a MySQLPacket object or null if the MySQL packet cannot be read
      */
     public static MySQLPacket readPacket(InputStream in, long timeoutMillis)
+    {
+        return readPacket(in, timeoutMillis, null);
+    }
+
+    /**
+     * Reads a MySQL packet from the input stream into an existing packet,
+     * reusing its buffer if it is large enough to hold the data. This avoids
+     * allocating a new buffer for each packet when reading a long stream of
+     * packets such as binlog events. The returned packet and its buffer are
+     * only valid until the next read into the same packet.
+     * 
+     * @param in the data input stream from where we read the MySQL packet
+     * @param timeoutMillis Number of milliseconds we will pause while waiting
+     *            for data from the the network during a packet.
+     * @param reuse Packet to read into or null to allocate a new packet
+     * @return the packet containing the data or null if the MySQL packet cannot
+     *         be read
+     */
+    public static MySQLPacket readPacket(InputStream in, long timeoutMillis,
+            MySQLPacket reuse)
     {
         try
         {
@@ -235,8 +259,13 @@ public class MySQLPacket
                 throw new EOFException("Reached end of input stream.");
             }
 
-            // read the body of the packet
-            byte[] packetData = new byte[packetLen + HEADER_LENGTH];
+            // read the body of the packet, reusing the buffer if possible
+            byte[] packetData;
+            if (reuse != null
+                    && reuse.byteBuffer.length >= packetLen + HEADER_LENGTH)
+                packetData = reuse.byteBuffer;
+            else
+                packetData = new byte[packetLen + HEADER_LENGTH];
             // copy header
             packetData[0] = (byte) packetLen1;
             packetData[1] = (byte) packetLen2;
@@ -313,6 +342,15 @@ public class MySQLPacket
 
                 n += count;
             }
+            if (reuse != null)
+            {
+                reuse.byteBuffer = packetData;
+                reuse.dataLength = packetLen;
+                reuse.position = HEADER_LENGTH;
+                reuse.limit = packetLen + HEADER_LENGTH;
+                reuse.setInputStream(in);
+                return reuse;
+            }
             MySQLPacket p = new MySQLPacket(packetLen, packetData,
                     (byte) packetNumber);
             p.setInputStream(in);
@@ -354,6 +392,7 @@ public class MySQLPacket
     {
         this.byteBuffer = newByteBuffer;
         this.dataLength = newByteBuffer.length - HEADER_LENGTH;
+        this.limit = newByteBuffer.length;
     }
 
     /**
@@ -640,7 +679,7 @@ public class MySQLPacket
      */
     public int getRemainingBytes()
     {
-        return this.byteBuffer.length - this.position;
+        return this.limit - this.position;
     }
 
     /**
@@ -865,7 +904,7 @@ public class MySQLPacket
     {
         int i = this.position;
         int len = 0;
-        int maxLen = this.byteBuffer.length;
+        int maxLen = this.limit;
 
         while ((i < maxLen) && (this.byteBuffer[i] != 0))
         {
@@ -885,7 +924,7 @@ public class MySQLPacket
     {
         int i = startPosition;
         int len = 0;
-        int maxLen = this.byteBuffer.length;
+        int maxLen = this.limit;
 
         while ((i < maxLen) && (this.byteBuffer[i] != 0))
         {
@@ -904,7 +943,7 @@ public class MySQLPacket
      */
     public String peekString(int offset, int len)
     {
-        int maxLen = this.byteBuffer.length - this.position;
+        int maxLen = this.limit - this.position;
 
         String s = new String(this.byteBuffer, offset, len < maxLen
                 ? len
@@ -921,7 +960,7 @@ public class MySQLPacket
      */
     public String getString(int len)
     {
-        int maxLen = this.byteBuffer.length - this.position;
+        int maxLen = this.limit - this.position;
 
         String s = new String(this.byteBuffer, this.position, len < maxLen
                 ? len
@@ -1449,6 +1488,7 @@ public class MySQLPacket
             System.arraycopy(this.byteBuffer, 0, newBytes, 0,
                     this.byteBuffer.length);
             this.byteBuffer = newBytes;
+            this.limit = newLength;
         }
     }
 
@@ -1543,6 +1583,7 @@ public class MySQLPacket
         }
         byteBuffer = newBytes;
         dataLength = newSize;
+        limit = newBytes.length;
     }
 
     /**
@@ -1616,7 +1657,7 @@ public class MySQLPacket
         {
             sb.append(Utils.byteArrayToHexString(byteBuffer));
             sb.append(" text data=");
-            for (int i = 0; i < this.byteBuffer.length; i++)
+            for (int i = 0; i < this.limit; i++)
             {
                 if (this.byteBuffer[i] != 0)
                     sb.append((char) this.byteBuffer[i]);
@@ -0,0 +1,154 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.common.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Test reads from memory-mapped files.
+ */
+public class MappedFileDataInputTest extends TestCase
+{
+    /**
+     * Confirm that values read through the mapping match those read with
+     * buffered I/O.
+     */
+    public void testReadMatchesBuffered() throws Exception
+    {
+        File f = initFile("testMappedRead");
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(f));
+        dos.writeByte(Byte.MIN_VALUE);
+        dos.writeShort(Short.MAX_VALUE);
+        dos.writeInt(Integer.MIN_VALUE);
+        dos.writeLong(Long.MAX_VALUE);
+        byte[] byteArray = new byte[10];
+        for (int i = 0; i < byteArray.length; i++)
+            byteArray[i] = (byte) i;
+        dos.write(byteArray);
+        dos.close();
+
+        FileDataInput[] readers = {new BufferedFileDataInput(f),
+                new MappedFileDataInput(f, 0)};
+        for (FileDataInput in : readers)
+        {
+            assertEquals("available", 25, in.available());
+            assertEquals("byte", Byte.MIN_VALUE, in.readByte());
+            assertEquals("short", Short.MAX_VALUE, in.readShort());
+            assertEquals("int", Integer.MIN_VALUE, in.readInt());
+            in.mark(100);
+            assertEquals("long", Long.MAX_VALUE, in.readLong());
+            in.reset();
+            assertEquals("offset after reset", 7, in.getOffset());
+            assertEquals("skip", 8, in.skip(8));
+            byte[] myBytes = new byte[10];
+            in.readFully(myBytes);
+            for (int i = 0; i < byteArray.length; i++)
+                assertEquals("byte: " + i, byteArray[i], myBytes[i]);
+            assertEquals("offset at end", 25, in.getOffset());
+            assertEquals("available at end", 0, in.available());
+            try
+            {
+                in.readInt();
+                fail("Read beyond end of file: " + in);
+            }
+            catch (EOFException e)
+            {
+            }
+            in.close();
+        }
+    }
+
+    /**
+     * Confirm that we can seek in a large mapped file with read-ahead
+     * enabled.
+     */
+    public void testSeekWithReadAhead() throws Exception
+    {
+        int size = 1000000;
+        File f = initFile("testMappedSeek");
+        writeAscendingIntFile(f, size);
+
+        MappedFileDataInput in = new MappedFileDataInput(f, 1024 * 1024);
+        for (int i = 0; i < size; i += 997)
+        {
+            in.seek(i * 4);
+            assertEquals("value at " + i, i, in.readInt());
+        }
+        in.seek(0);
+        for (int i = 0; i < size; i++)
+            assertEquals("sequential value", i, in.readInt());
+        in.close();
+    }
+
+    /**
+     * Confirm that data appended after the file is mapped become visible once
+     * the reader reaches the end of the mapping.
+     */
+    public void testFileGrowth() throws Exception
+    {
+        File f = initFile("testMappedGrowth");
+        BufferedFileDataOutput out = new BufferedFileDataOutput(f);
+        out.writeInt(1);
+        out.flush();
+
+        MappedFileDataInput in = new MappedFileDataInput(f, 0);
+        assertEquals(1, in.readInt());
+        assertEquals("Nothing left", 0, in.available());
+
+        out.writeInt(2);
+        out.writeLong(3);
+        out.flush();
+        assertEquals("Appended data visible", 12, in.waitAvailable(12, 1000));
+        assertEquals(2, in.readInt());
+        assertEquals(3, in.readLong());
+
+        out.close();
+        in.close();
+    }
+
+    // Returns a file, deleting any previous file of the same name.
+    private File initFile(String name)
+    {
+        File f = new File(name);
+        if (f.exists())
+            f.delete();
+        return f;
+    }
+
+    // Writes a file filled with ascending int values.
+    private void writeAscendingIntFile(File f, int n) throws IOException
+    {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(f)));
+        for (int i = 0; i < n; i++)
+            dos.writeInt(i);
+        dos.close();
+    }
+}
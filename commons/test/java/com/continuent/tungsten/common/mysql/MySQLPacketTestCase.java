@@ -22,6 +22,7 @@
 
 package com.continuent.tungsten.common.mysql;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.sql.Date;
@@ -619,6 +620,41 @@ public class MySQLPacketTestCase extends TestCase
         }
     }
 
+    /**
+     * Verify that packets read into a reused packet share one buffer and that
+     * reads are bounded by the current packet data rather than the buffer.
+     */
+    public void testReadPacketReuse() throws IOException
+    {
+        // Write a long packet followed by a short one.
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        MySQLPacket p1 = new MySQLPacket(64, (byte) 1);
+        p1.putString("a much longer string value");
+        p1.write(bos);
+        MySQLPacket p2 = new MySQLPacket(64, (byte) 2);
+        p2.putStringNoNull("short");
+        p2.write(bos);
+        ByteArrayInputStream in = new ByteArrayInputStream(bos.toByteArray());
+
+        MySQLPacket reuse = new MySQLPacket(128, (byte) 0);
+        byte[] buffer = reuse.getByteBuffer();
+
+        MySQLPacket r1 = MySQLPacket.readPacket(in, 1000, reuse);
+        assertSame("Packet reused", reuse, r1);
+        assertSame("Buffer reused", buffer, r1.getByteBuffer());
+        assertEquals("Packet number", 1, r1.getPacketNumber());
+        assertEquals("a much longer string value", r1.getString());
+
+        MySQLPacket r2 = MySQLPacket.readPacket(in, 1000, reuse);
+        assertSame("Buffer reused", buffer, r2.getByteBuffer());
+        assertEquals("Packet number", 2, r2.getPacketNumber());
+        assertEquals("Data length", 5, r2.getDataLength());
+        assertEquals("Remaining bytes", 5, r2.getRemainingBytes());
+        assertEquals("String ends at packet data", "short", r2.getString());
+
+        assertNull("End of stream", MySQLPacket.readPacket(in, 1000, reuse));
+    }
+
     /**
      * Compare two byte arrays.
      * 
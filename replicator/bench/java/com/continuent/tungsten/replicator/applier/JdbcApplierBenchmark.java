@@ -0,0 +1,95 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.applier;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.replicator.bench.BenchmarkEvents;
+import com.continuent.tungsten.replicator.database.MySQLDatabase;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+
+/**
+ * Measures construction of SQL statements for row changes by the JDBC
+ * applier using MySQL naming and placeholders. No connection is opened.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JdbcApplierBenchmark
+{
+    private JdbcApplier  applier;
+    private OneRowChange orc;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        applier = new JdbcApplier();
+        applier.conn = new MySQLDatabase();
+        orc = BenchmarkEvents.createRowChange("db1", "t1", 1);
+    }
+
+    /** Constructs an INSERT statement. */
+    @Benchmark
+    public int insert()
+    {
+        return construct(RowChangeData.ActionType.INSERT);
+    }
+
+    /** Constructs an UPDATE statement. */
+    @Benchmark
+    public int update()
+    {
+        return construct(RowChangeData.ActionType.UPDATE);
+    }
+
+    /** Constructs a DELETE statement. */
+    @Benchmark
+    public int delete()
+    {
+        return construct(RowChangeData.ActionType.DELETE);
+    }
+
+    // Constructs a statement for the first row and returns its length.
+    private int construct(RowChangeData.ActionType action)
+    {
+        return applier.constructStatement(action, orc.getSchemaName(),
+                orc.getTableName(), orc.getColumnSpec(), orc.getKeySpec(),
+                orc.getKeyValues().get(0), orc.getColumnValues().get(0))
+                .length();
+    }
+}
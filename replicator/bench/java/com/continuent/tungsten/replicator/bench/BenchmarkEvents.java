@@ -0,0 +1,139 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.bench;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplOptionParams;
+import com.continuent.tungsten.replicator.thl.THLEvent;
+
+/**
+ * Generates events used as input to micro-benchmarks. Row changes update a
+ * table with a typical mix of column types keyed on an integer ID.
+ */
+public class BenchmarkEvents
+{
+    /** Names of the columns in generated row changes. */
+    public static final String[] COLUMN_NAMES = {"id", "counter", "name",
+            "amount", "updated"                  };
+
+    /**
+     * Creates an update row change.
+     * 
+     * @param schema Schema name
+     * @param table Table name
+     * @param rows Number of rows
+     */
+    public static OneRowChange createRowChange(String schema, String table,
+            int rows)
+    {
+        OneRowChange orc = new OneRowChange(schema, table,
+                RowChangeData.ActionType.UPDATE);
+        orc.setTableId(100);
+        orc.getColumnSpec().add(createSpec(orc, 1, Types.INTEGER, 4));
+        orc.getColumnSpec().add(createSpec(orc, 2, Types.INTEGER, 8));
+        orc.getColumnSpec().add(createSpec(orc, 3, Types.VARCHAR, 64));
+        orc.getColumnSpec().add(createSpec(orc, 4, Types.DECIMAL, 12));
+        orc.getColumnSpec().add(createSpec(orc, 5, Types.TIMESTAMP, 0));
+        orc.getKeySpec().add(createSpec(orc, 1, Types.INTEGER, 4));
+
+        Timestamp ts = new Timestamp(1400000000000L);
+        for (int i = 0; i < rows; i++)
+        {
+            ArrayList<ColumnVal> row = new ArrayList<ColumnVal>();
+            row.add(createValue(orc, new Integer(i)));
+            row.add(createValue(orc, new Long(1000000000000L + i)));
+            row.add(createValue(orc, "customer name " + i));
+            row.add(createValue(orc, new BigDecimal(i).movePointLeft(2)));
+            row.add(createValue(orc, ts));
+            orc.getColumnValues().add(row);
+
+            ArrayList<ColumnVal> key = new ArrayList<ColumnVal>();
+            key.add(createValue(orc, new Integer(i)));
+            orc.getKeyValues().add(key);
+        }
+        return orc;
+    }
+
+    /**
+     * Creates a replication event containing a single row change.
+     * 
+     * @param seqno Sequence number
+     * @param shardId Shard ID, which is also used as the schema name
+     * @param rows Number of rows
+     */
+    public static ReplDBMSEvent createRowEvent(long seqno, String shardId,
+            int rows)
+    {
+        RowChangeData rcd = new RowChangeData();
+        rcd.appendOneRowChange(createRowChange(shardId, "t1", rows));
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(rcd);
+        DBMSEvent dbmsEvent = new DBMSEvent(Long.toString(seqno), null, data,
+                true, new Timestamp(System.currentTimeMillis()));
+        ReplDBMSEvent event = new ReplDBMSEvent(seqno, dbmsEvent);
+        event.getDBMSEvent().addMetadataOption(ReplOptionParams.SHARD_ID,
+                shardId);
+        return event;
+    }
+
+    /**
+     * Creates a log event containing a single row change.
+     */
+    public static THLEvent createTHLEvent(long seqno, String shardId, int rows)
+    {
+        return new THLEvent(Long.toString(seqno), createRowEvent(seqno,
+                shardId, rows));
+    }
+
+    // Creates a column specification.
+    private static ColumnSpec createSpec(OneRowChange orc, int index,
+            int type, int length)
+    {
+        ColumnSpec spec = orc.new ColumnSpec();
+        spec.setIndex(index);
+        spec.setName(COLUMN_NAMES[index - 1]);
+        spec.setType(type);
+        spec.setLength(length);
+        return spec;
+    }
+
+    // Creates a column value.
+    private static ColumnVal createValue(OneRowChange orc, Serializable value)
+    {
+        ColumnVal val = orc.new ColumnVal();
+        val.setValue(value);
+        return val;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+
+/**
+ * Measures decoding of rows events into row changes. Events come from a
+ * row-based binlog in the working directory, by default the sample binlog
+ * used by unit tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowsLogEventBenchmark
+{
+    /** Base name of the binlog to read. */
+    @Param({"binlog_rbr_1"})
+    public String                          binlog;
+
+    private List<RowsLogEvent>             rowsEvents  = new ArrayList<RowsLogEvent>();
+    private HashMap<Long, TableMapLogEvent> tableEvents = new HashMap<Long, TableMapLogEvent>();
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        BinlogReader reader = new BinlogReader(4, binlog + ".000001", ".",
+                binlog, 64000);
+        reader.open();
+        FormatDescriptionLogEvent descriptionEvent = new FormatDescriptionLogEvent(
+                4, 0, false);
+        try
+        {
+            while (reader.available() > 0)
+            {
+                LogEvent event = LogEvent.readLogEvent(null, reader,
+                        descriptionEvent, false, false, false);
+                if (event instanceof TableMapLogEvent)
+                {
+                    TableMapLogEvent tableEvent = (TableMapLogEvent) event;
+                    tableEvents.put(tableEvent.getTableId(), tableEvent);
+                }
+                else if (event instanceof RowsLogEvent)
+                    rowsEvents.add((RowsLogEvent) event);
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        if (rowsEvents.size() == 0)
+            throw new Exception("No rows events found in binlog: " + binlog);
+    }
+
+    /** Decodes every rows event in the binlog. */
+    @Benchmark
+    public int decodeRows() throws Exception
+    {
+        int rowChanges = 0;
+        for (RowsLogEvent rowsEvent : rowsEvents)
+        {
+            RowChangeData rcd = new RowChangeData();
+            rowsEvent.processExtractedEvent(rcd,
+                    tableEvents.get(rowsEvent.getTableId()));
+            rowChanges += rcd.getRowChanges().size();
+        }
+        return rowChanges;
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.storage;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.replicator.bench.BenchmarkEvents;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.storage.parallel.HashPartitioner;
+import com.continuent.tungsten.replicator.storage.parallel.ParallelQueueStore;
+
+/**
+ * Measures handoff of events through in-memory queue stores. The benchmark
+ * thread puts events while daemon threads take them from every partition,
+ * so the result is the sustained producer to consumer rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueStoreBenchmark
+{
+    // Number of distinct events, which must be a power of 2.
+    private static final int EVENTS = 1024;
+
+    /**
+     * Store to measure: "queue" and "ring" are InMemoryQueueStore with a
+     * linked queue or ring buffer; "parallel" and "parallel-ring" are the
+     * equivalent ParallelQueueStore configurations.
+     */
+    @Param({"queue", "ring", "parallel", "parallel-ring"})
+    public String            store;
+
+    /** Number of partitions for parallel stores. */
+    @Param({"4"})
+    public int               partitions;
+
+    /** Maximum number of events per queue. */
+    @Param({"1000"})
+    public int               maxSize;
+
+    private InMemoryQueueStore inMemoryStore;
+    private ParallelQueueStore parallelStore;
+    private ReplDBMSEvent[]  events;
+    private Thread[]         consumers;
+    private int              next = 0;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        boolean ringBuffer = store.endsWith("ring");
+        if (store.startsWith("parallel"))
+        {
+            HashPartitioner partitioner = new HashPartitioner();
+            partitioner.setPartitions(partitions);
+            parallelStore = new ParallelQueueStore();
+            parallelStore.setPartitions(partitions);
+            parallelStore.setPartitioner(partitioner);
+            parallelStore.setMaxSize(maxSize);
+            parallelStore.setSyncEnabled(false);
+            parallelStore.setRingBuffer(ringBuffer);
+            parallelStore.configure(null);
+            parallelStore.prepare(null);
+            consumers = new Thread[partitions];
+        }
+        else
+        {
+            inMemoryStore = new InMemoryQueueStore();
+            inMemoryStore.setMaxSize(maxSize);
+            inMemoryStore.setRingBuffer(ringBuffer);
+            inMemoryStore.configure(null);
+            inMemoryStore.prepare(null);
+            consumers = new Thread[1];
+        }
+
+        events = new ReplDBMSEvent[EVENTS];
+        for (int i = 0; i < EVENTS; i++)
+            events[i] = BenchmarkEvents.createRowEvent(i, "db" + (i % 100), 1);
+
+        for (int i = 0; i < consumers.length; i++)
+        {
+            consumers[i] = new Thread(new Consumer(i), "bench-consumer-" + i);
+            consumers[i].setDaemon(true);
+            consumers[i].start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        for (Thread consumer : consumers)
+        {
+            consumer.interrupt();
+            consumer.join(2000);
+        }
+    }
+
+    /** Puts the next event in the store. */
+    @Benchmark
+    public void put() throws Exception
+    {
+        ReplDBMSEvent event = events[next++ & (EVENTS - 1)];
+        if (parallelStore != null)
+            parallelStore.put(0, event);
+        else
+            inMemoryStore.put(event);
+    }
+
+    // Takes events from one partition until interrupted.
+    private class Consumer implements Runnable
+    {
+        private final int partition;
+
+        Consumer(int partition)
+        {
+            this.partition = partition;
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    if (parallelStore != null)
+                        parallelStore.get(partition);
+                    else
+                        inMemoryStore.get();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Benchmark is done.
+            }
+            catch (Exception e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.storage.parallel;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.replicator.bench.BenchmarkEvents;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+
+/**
+ * Measures assignment of events to partitions by each partitioner. Events
+ * rotate through a fixed set of shards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PartitionerBenchmark
+{
+    // Number of distinct events, which must be a power of 2.
+    private static final int EVENTS = 1024;
+
+    /** Simple name of the partitioner class. */
+    @Param({"SimplePartitioner", "RoundRobinPartitioner", "HashPartitioner",
+            "ShardListPartitioner", "LoadBalancingPartitioner"})
+    public String            partitionerClass;
+
+    /** Number of partitions. */
+    @Param({"8"})
+    public int               partitions;
+
+    /** Number of distinct shards. */
+    @Param({"100"})
+    public int               shards;
+
+    private Partitioner      partitioner;
+    private ReplDBMSEvent[]  events;
+    private File             shardMap;
+    private int              next = 0;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        partitioner = (Partitioner) Class.forName(
+                Partitioner.class.getPackage().getName() + "."
+                        + partitionerClass).newInstance();
+        partitioner.setPartitions(partitions);
+
+        if (partitioner instanceof ShardListPartitioner)
+        {
+            // Hash shards that are not listed explicitly.
+            shardMap = File.createTempFile("bench-shard", ".list", new File(
+                    "."));
+            FileWriter fw = new FileWriter(shardMap);
+            fw.write("(hash-method)=string-hash\n");
+            fw.write("db0=0\n");
+            fw.close();
+            ((ShardListPartitioner) partitioner).setShardMap(shardMap);
+        }
+        else if (partitioner instanceof StatefulPartitioner)
+        {
+            // Report empty partitions.
+            List<PartitionMetadata> metadata = new ArrayList<PartitionMetadata>();
+            for (int i = 0; i < partitions; i++)
+            {
+                final int partition = i;
+                metadata.add(new PartitionMetadata()
+                {
+                    public int getPartitionNumber()
+                    {
+                        return partition;
+                    }
+
+                    public long getCurrentSize()
+                    {
+                        return 0;
+                    }
+                });
+            }
+            ((StatefulPartitioner) partitioner).setPartitionMetadata(metadata);
+        }
+
+        events = new ReplDBMSEvent[EVENTS];
+        for (int i = 0; i < EVENTS; i++)
+            events[i] = BenchmarkEvents.createRowEvent(i, "db" + (i % shards),
+                    1);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        if (shardMap != null)
+            shardMap.delete();
+    }
+
+    /** Assigns the next event to a partition. */
+    @Benchmark
+    public int partition() throws Exception
+    {
+        ReplDBMSEvent event = events[next++ & (EVENTS - 1)];
+        return partitioner.partition(event, 0).getPartition();
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing and reading of records in a single log file. Writes are
+ * not flushed, so the measurement covers record framing and buffering rather
+ * than the storage device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogFileBenchmark
+{
+    // Size at which the write file is started over.
+    private static final int MAX_FILE_SIZE = 256 * 1024 * 1024;
+
+    // Number of records in the read file.
+    private static final int READ_RECORDS  = 10000;
+
+    /** Number of data bytes per record. */
+    @Param({"256", "4096"})
+    public int               recordSize;
+
+    private LogRecord        record;
+    private File             writeFile;
+    private LogFile          writer;
+    private File             readFile;
+    private LogFile          reader;
+    private long             readStart;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        byte[] data = new byte[recordSize];
+        new Random(recordSize).nextBytes(data);
+        record = new LogRecord(null, -1, data, LogRecord.CRC_TYPE_32,
+                LogRecord.computeCrc32(data));
+
+        // Create the file used for writes.
+        writeFile = File.createTempFile("bench-write", ".dat", new File("."));
+        writer = createFile(writeFile);
+
+        // Create and fill the file used for reads.
+        readFile = File.createTempFile("bench-read", ".dat", new File("."));
+        LogFile fill = createFile(readFile);
+        for (int i = 0; i < READ_RECORDS; i++)
+            fill.writeRecord(record, 0);
+        fill.flush();
+        fill.close();
+        reader = new LogFile(readFile);
+        reader.openRead();
+        readStart = reader.getOffset();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        writer.close();
+        reader.close();
+        writeFile.delete();
+        readFile.delete();
+    }
+
+    /** Writes a record. */
+    @Benchmark
+    public boolean writeRecord() throws Exception
+    {
+        boolean full = writer.writeRecord(record, MAX_FILE_SIZE);
+        if (full)
+        {
+            writer.close();
+            writer = createFile(writeFile);
+        }
+        return full;
+    }
+
+    /** Reads the next record, starting over at the end of the file. */
+    @Benchmark
+    public LogRecord readRecord() throws Exception
+    {
+        LogRecord next = reader.readRecord(LogFile.NO_WAIT);
+        if (next.isEmpty())
+        {
+            reader.seekOffset(readStart);
+            next = reader.readRecord(LogFile.NO_WAIT);
+        }
+        return next;
+    }
+
+    // Creates an empty log file open for writing.
+    private LogFile createFile(File file) throws Exception
+    {
+        file.delete();
+        LogFile logFile = new LogFile(file);
+        logFile.create(0);
+        return logFile;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures CRC computation on log record contents, both as a separate pass
+ * over the data and while the data are written to a record buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogRecordBenchmark
+{
+    /** Number of data bytes per record. */
+    @Param({"256", "4096", "65536"})
+    public int              recordSize;
+
+    private byte[]          data;
+    private LogRecordBuffer buffer;
+
+    @Setup
+    public void setUp()
+    {
+        data = new byte[recordSize];
+        new Random(recordSize).nextBytes(data);
+        buffer = new LogRecordBuffer(1024, 1024 * 1024);
+    }
+
+    /** Computes the CRC in a separate pass. */
+    @Benchmark
+    public long computeCrc32() throws Exception
+    {
+        return LogRecord.computeCrc32(data);
+    }
+
+    /** Copies data to a record buffer, computing the CRC as it goes. */
+    @Benchmark
+    public long bufferWithCrc32()
+    {
+        buffer.reset(true);
+        buffer.write(data, 0, data.length);
+        return buffer.getCrc();
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.continuent.tungsten.replicator.bench.BenchmarkEvents;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.thl.THLEvent;
+
+/**
+ * Measures encoding and decoding of row change events by the protobuf
+ * serializer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtobufSerializerBenchmark
+{
+    /** Number of rows per event. */
+    @Param({"1", "100"})
+    public int                    rows;
+
+    private ProtobufSerializer    serializer;
+    private THLEvent              event;
+    private byte[]                serialized;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        serializer = new ProtobufSerializer();
+        event = BenchmarkEvents.createTHLEvent(1, "db1", rows);
+        out = new ByteArrayOutputStream();
+        serializer.serializeEvent(event, out);
+        serialized = out.toByteArray();
+    }
+
+    /** Serializes an event. */
+    @Benchmark
+    public int serialize() throws Exception
+    {
+        out.reset();
+        serializer.serializeEvent(event, out);
+        return out.size();
+    }
+
+    /** Deserializes an event without touching its rows. */
+    @Benchmark
+    public THLEvent deserialize() throws Exception
+    {
+        return serializer.deserializeEvent(new ByteArrayInputStream(
+                serialized));
+    }
+
+    /** Deserializes an event and reads its rows. */
+    @Benchmark
+    public int deserializeRows() throws Exception
+    {
+        THLEvent thlEvent = serializer
+                .deserializeEvent(new ByteArrayInputStream(serialized));
+        ReplDBMSEvent replEvent = (ReplDBMSEvent) thlEvent.getReplEvent();
+        RowChangeData rcd = (RowChangeData) replEvent.getData().get(0);
+        OneRowChange orc = rcd.getRowChanges().get(0);
+        return orc.getColumnValues().size();
+    }
+}
@@ -10,3 +10,20 @@ replicator.applier.dbms.optimizeRowEvents=@{REPL_SVC_APPLIER_OPTIMIZE_ROW_EVENTS
 # This option is only required when there is a chance of processing an older
 # replicator log. 
 replicator.applier.dbms.supportNonTzAwareMode=true
+
+# Number of database sessions used to apply a large transaction. If greater
+# than 1, row changes of fragmented transactions and of transactions with at
+# least applySessionsMinRows rows are split across sessions: by table, or by
+# primary key if applySessionsByKey is true. A split transaction always
+# commits when it ends, even within a block. Other sessions commit just before
+# the main session commits the restart position, so a crash in between can
+# leave rows that fail with duplicate keys when the transaction is replayed.
+# Only enable this for tables without foreign keys between them and, when
+# splitting by key, without other unique keys. A table whose primary key is
+# updated before its rows are split is applied by one session; a later update
+# that moves a row to another session stops the applier with an error. A
+# statement after row changes on other sessions also stops the applier, since
+# it could wait on their locks. Set applySessions=1 to apply such transactions.
+replicator.applier.dbms.applySessions=1
+replicator.applier.dbms.applySessionsMinRows=1000
+replicator.applier.dbms.applySessionsByKey=false
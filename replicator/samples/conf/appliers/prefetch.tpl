@@ -25,3 +25,16 @@ replicator.applier.dbms.prefetchRowLimit=25000
 
 # Maximum number of SQL errors to tolerate before logging a replicator error. 
 replicator.applier.dbms.maxErrors=1000
+
+# Number of worker threads, each with its own DBMS connection, used to run
+# index prefetch queries concurrently.  The applier hands queries to the 
+# workers through a queue of the given size and blocks when it is full.  
+# 0 runs all queries on the applier thread. 
+replicator.applier.dbms.prefetchWorkers=0
+replicator.applier.dbms.prefetchQueueSize=1000
+
+# Number of seconds after prefetching a key during which the same key is
+# considered warm and is not fetched again, plus the maximum number of keys
+# to remember.  0 disables de-duplication of keys. 
+replicator.applier.dbms.warmKeyWindow=0
+replicator.applier.dbms.warmKeyCacheSize=10000
@@ -40,6 +40,17 @@ replicator.extractor.dbms.relayLogWaitTimeout=0
 # EOFExceptions from reading relay logs. 
 replicator.extractor.dbms.relayLogReadTimeout=30
 
+# The relay log buffer size is the number of bytes of binlog data to buffer
+# before writing to relay logs while catching up.  Buffered data are written
+# as soon as the master has no more data to send.  0 writes each event
+# separately. 
+replicator.extractor.dbms.relayLogBufferSize=65536
+
+# The relay log event queue size is the number of binlog events the relay
+# client may pass to the extractor in memory, which avoids reading events
+# back from relay logs.  Relay logs are still written.  0 disables the queue. 
+replicator.extractor.dbms.relayLogEventQueueSize=0
+
 # The relay log retention is the number of relay logs to keep before deleting
 # them automatically.
 replicator.extractor.dbms.relayLogRetention=10
@@ -50,3 +61,16 @@ replicator.extractor.dbms.relayLogRetention=10
 # values are different or MySQL will kill the earlier session with the 
 # same server ID. 
 replicator.extractor.dbms.serverId=@{REPL_MYSQL_SERVER_ID}
+
+# Number of threads used to decode row images of large row events while the
+# extractor continues to read the binlog.  Row changes keep binlog order.  0
+# decodes all events on the extractor thread.  Row events smaller than the
+# minimum size in bytes are always decoded on the extractor thread.
+replicator.extractor.dbms.rowsEventDecodeThreads=0
+replicator.extractor.dbms.rowsEventDecodeMinSize=16384
+
+# Number of bytes to read ahead when extracting from binlogs that are no
+# longer being written, for example while catching up after a failover.  Such
+# binlogs are memory-mapped and paged in by a background thread.  The active
+# binlog always uses buffered reads.  0 uses buffered reads for all binlogs. 
+replicator.extractor.dbms.binlogReadAheadBytes=0
@@ -3,4 +3,7 @@
 # need to call more than one script.
 replicator.filter.javascript=com.continuent.tungsten.replicator.filter.JavaScriptFilter
 replicator.filter.javascript.script=${replicator.home.dir}/samples/extensions/javascript/filter.js
-replicator.filter.javascript.sample_custom_property=Sample
\ No newline at end of file
+replicator.filter.javascript.sample_custom_property=Sample
+# Rhino optimization level used to compile the script (-1 to 9). Level -1
+# runs the interpreter, which is slower but can help with debugging.
+replicator.filter.javascript.optimizationLevel=9
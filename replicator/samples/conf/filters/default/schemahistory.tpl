@@ -0,0 +1,18 @@
+# Schema history filter.  Records versions of table definitions in the THL 
+# so that downstream filters such as colnames and pkey resolve column 
+# metadata as of each event without querying the DBMS.  Place this filter 
+# ahead of other filters that use table metadata. 
+replicator.filter.schemahistory=com.continuent.tungsten.replicator.filter.SchemaHistoryFilter
+
+# Use the default data source. 
+replicator.filter.schemahistory.dataSource=global
+
+# Set to true on the master to add table definitions to events when they 
+# change.  Replicas only load definitions from events and should leave this 
+# false. 
+replicator.filter.schemahistory.captureDefinitions=false
+
+# File in which to keep the history so that it survives restarts.  Without 
+# it, replicas fall back to DBMS queries for tables whose definitions were 
+# recorded before the replicator started. 
+replicator.filter.schemahistory.historyFile=@{SERVICE.REPL_LOG_DIR}/schema-history
@@ -0,0 +1,298 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.applier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+
+/**
+ * Runs additional JDBC applier sessions so that a single channel can apply
+ * the row changes of a large transaction over several connections. Each
+ * helper session has its own worker thread, which executes tasks in the
+ * order they are submitted. The applier that owns the pool applies its own
+ * share on the calling thread and remains responsible for trep_commit_seqno.
+ * <p/>
+ * Helpers are committed before the owning session, which acts as an ordered
+ * commit barrier: the transaction only counts as applied once the owner
+ * commits its position.
+ * <p/>
+ * This class is used only by the thread of the owning applier apart from the
+ * workers it owns.
+ */
+public class ApplySessionPool
+{
+    private static Logger     logger  = Logger.getLogger(ApplySessionPool.class);
+
+    private List<JdbcApplier> helpers;
+    private List<Worker>      workers = new ArrayList<Worker>();
+
+    // Tasks submitted since the last wait.
+    private List<SessionTask> pending = new ArrayList<SessionTask>();
+
+    /**
+     * Executes a single operation on a helper session and records the outcome.
+     */
+    private abstract class SessionTask implements Runnable
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable   failure;
+
+        abstract void execute(JdbcApplier session) throws Exception;
+
+        public void run()
+        {
+            // Each task is queued to exactly one worker.
+            try
+            {
+                execute(((Worker) Thread.currentThread()).session);
+            }
+            catch (Throwable t)
+            {
+                failure = t;
+            }
+            finally
+            {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Executes tasks for one helper session until interrupted.
+     */
+    private class Worker extends Thread
+    {
+        private final JdbcApplier                       session;
+        private final LinkedBlockingQueue<SessionTask> queue = new LinkedBlockingQueue<SessionTask>();
+
+        Worker(JdbcApplier session, String name)
+        {
+            super(name);
+            this.session = session;
+            setDaemon(true);
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (!isInterrupted())
+                {
+                    queue.take().run();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Normal shutdown.
+            }
+        }
+    }
+
+    /**
+     * Creates a new pool.
+     * 
+     * @param helpers Prepared appliers with one connection each
+     */
+    public ApplySessionPool(List<JdbcApplier> helpers)
+    {
+        this.helpers = helpers;
+    }
+
+    /** Returns the number of sessions including the owning applier. */
+    public int getSessions()
+    {
+        return helpers.size() + 1;
+    }
+
+    /** Starts worker threads. */
+    public synchronized void start(String name)
+    {
+        for (int i = 0; i < helpers.size(); i++)
+        {
+            Worker w = new Worker(helpers.get(i), name + "-" + (i + 1));
+            workers.add(w);
+            w.start();
+        }
+        logger.info("Started apply sessions: sessions=" + getSessions());
+    }
+
+    /**
+     * Submits shares of row changes to helper sessions. The share for session
+     * 0 is not submitted, as the caller applies it. Callers must call
+     * {@link #waitForCompletion()} before they commit.
+     * 
+     * @param shares Shares indexed by session
+     * @param event Event that contains the row changes
+     * @param header Header of the event
+     */
+    public void apply(List<List<RowChangeData>> shares, final DBMSEvent event,
+            final ReplDBMSHeader header)
+    {
+        for (int i = 0; i < workers.size(); i++)
+        {
+            final List<RowChangeData> share = shares.get(i + 1);
+            if (share.size() == 0)
+                continue;
+            SessionTask task = new SessionTask()
+            {
+                void execute(JdbcApplier session) throws Exception
+                {
+                    session.applySessionShare(share, event, header);
+                }
+            };
+            submit(workers.get(i), task);
+        }
+    }
+
+    /**
+     * Commits open transactions on all helper sessions and waits for the
+     * commits to finish.
+     */
+    public void commit() throws ReplicatorException, InterruptedException
+    {
+        for (Worker w : workers)
+        {
+            SessionTask task = new SessionTask()
+            {
+                void execute(JdbcApplier session) throws Exception
+                {
+                    session.commitSession();
+                }
+            };
+            submit(w, task);
+        }
+        waitForCompletion();
+    }
+
+    /**
+     * Rolls back open transactions on all helper sessions. Failures are logged
+     * as helpers are left in autocommit mode regardless.
+     */
+    public void rollback() throws InterruptedException
+    {
+        for (Worker w : workers)
+        {
+            SessionTask task = new SessionTask()
+            {
+                void execute(JdbcApplier session) throws Exception
+                {
+                    session.rollbackSession();
+                }
+            };
+            submit(w, task);
+        }
+        try
+        {
+            waitForCompletion();
+        }
+        catch (ReplicatorException e)
+        {
+            logger.info("Unable to roll back apply session: " + e.getMessage());
+            if (logger.isDebugEnabled())
+                logger.debug("Apply session rollback error", e);
+        }
+    }
+
+    /**
+     * Waits for all tasks submitted since the last call to finish.
+     * 
+     * @throws ReplicatorException Thrown if any task failed, in which case the
+     *             first failure in submission order is returned
+     */
+    public void waitForCompletion() throws ReplicatorException,
+            InterruptedException
+    {
+        Throwable first = null;
+        try
+        {
+            for (SessionTask task : pending)
+            {
+                task.done.await();
+                if (first == null)
+                    first = task.failure;
+            }
+        }
+        finally
+        {
+            pending.clear();
+        }
+        if (first instanceof ReplicatorException)
+            throw (ReplicatorException) first;
+        else if (first != null)
+            throw new ApplierException("Apply session failed: "
+                    + first.getMessage(), first);
+    }
+
+    // Queues a task to a worker.
+    private void submit(Worker worker, SessionTask task)
+    {
+        pending.add(task);
+        worker.queue.add(task);
+    }
+
+    /** Stops worker threads and releases helper sessions. */
+    public synchronized void release(PluginContext context)
+    {
+        for (Worker w : workers)
+            w.interrupt();
+        for (Worker w : workers)
+        {
+            try
+            {
+                w.join(5000);
+            }
+            catch (InterruptedException e)
+            {
+                logger.warn("Interrupted while waiting for apply sessions to exit");
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.clear();
+        pending.clear();
+
+        for (JdbcApplier helper : helpers)
+        {
+            try
+            {
+                helper.release(context);
+            }
+            catch (Exception e)
+            {
+                logger.warn("Unable to release apply session: "
+                        + e.getMessage());
+            }
+        }
+    }
+}
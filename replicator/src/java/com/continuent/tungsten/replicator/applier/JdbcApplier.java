@@ -50,6 +50,7 @@ import com.continuent.tungsten.replicator.consistency.ConsistencyException;
 import com.continuent.tungsten.replicator.consistency.ConsistencyTable;
 import com.continuent.tungsten.replicator.database.Column;
 import com.continuent.tungsten.replicator.database.Database;
+import com.continuent.tungsten.replicator.database.Key;
 import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
 import com.continuent.tungsten.replicator.database.SqlOperation;
 import com.continuent.tungsten.replicator.database.SqlOperationMatcher;
@@ -57,6 +58,8 @@ import com.continuent.tungsten.replicator.database.Table;
 import com.continuent.tungsten.replicator.database.TableMetadataCache;
 import com.continuent.tungsten.replicator.datasource.CommitSeqno;
 import com.continuent.tungsten.replicator.datasource.CommitSeqnoAccessor;
+import com.continuent.tungsten.replicator.datasource.SqlDataSource;
+import com.continuent.tungsten.replicator.datasource.TableMetadataRegistry;
 import com.continuent.tungsten.replicator.datasource.UniversalDataSource;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.LoadDataFileDelete;
@@ -76,6 +79,7 @@ import com.continuent.tungsten.replicator.event.ReplOption;
 import com.continuent.tungsten.replicator.event.ReplOptionParams;
 import com.continuent.tungsten.replicator.heartbeat.HeartbeatTable;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
+import com.continuent.tungsten.replicator.plugin.PluginSpecification;
 import com.continuent.tungsten.replicator.thl.THLManagerCtrl;
 
 /**
@@ -86,7 +90,7 @@ import com.continuent.tungsten.replicator.thl.THLManagerCtrl;
  * @author <a href="mailto:teemu.ollakka@continuent.com">Teemu Ollakka</a>
  * @version 1.0
  */
-public class JdbcApplier implements RawApplier
+public class JdbcApplier implements MultiSessionApplier
 {
     static Logger                     logger                     = Logger.getLogger(JdbcApplier.class);
 
@@ -124,7 +128,10 @@ public class JdbcApplier implements RawApplier
      */
     protected int                     maxSQLLogLength            = 5000;
 
+    // Table metadata comes from the shared registry of SQL data sources and
+    // otherwise from a private cache.
     private TableMetadataCache        tableMetadataCache;
+    private TableMetadataRegistry     tableMetadataRegistry;
 
     private boolean                   transactionStarted         = false;
 
@@ -150,6 +157,21 @@ public class JdbcApplier implements RawApplier
     private String                    setTimestampQuery          = "";
     private boolean                   applyTS                    = false;
 
+    // Row changes of large transactions may be split across additional
+    // sessions, which are created from the same plugin specification.
+    private PluginSpecification       applierSpecification       = null;
+    protected int                     applySessions              = 1;
+    protected int                     applySessionsMinRows       = 1000;
+    protected boolean                 applySessionsByKey         = false;
+    private ApplySessionPool          sessionPool                = null;
+    private RowChangePartitioner      partitioner                = null;
+
+    // True while other sessions hold uncommitted changes, which commit only
+    // with this session, and while row changes are routed to them.
+    private boolean                   sessionsActive             = false;
+    private boolean                   splitting                  = false;
+    private boolean                   helpersUsed                = false;
+
     /**
      * Sets the optimizeRowEvents value.
      * 
@@ -160,6 +182,43 @@ public class JdbcApplier implements RawApplier
         this.optimizeRowEvents = optimizeRowEvents;
     }
 
+    /**
+     * Sets the number of sessions used to apply large transactions. The
+     * default of 1 applies all changes on a single connection.
+     */
+    public void setApplySessions(int applySessions)
+    {
+        this.applySessions = applySessions;
+    }
+
+    /**
+     * Sets the minimum number of rows in an unfragmented transaction before it
+     * is split across sessions. Fragmented transactions are always split.
+     */
+    public void setApplySessionsMinRows(int applySessionsMinRows)
+    {
+        this.applySessionsMinRows = applySessionsMinRows;
+    }
+
+    /**
+     * If true, rows of tables with a primary key are split across sessions by
+     * key; otherwise each table is applied by a single session.
+     */
+    public void setApplySessionsByKey(boolean applySessionsByKey)
+    {
+        this.applySessionsByKey = applySessionsByKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.applier.MultiSessionApplier#setApplierSpecification(com.continuent.tungsten.replicator.plugin.PluginSpecification)
+     */
+    public void setApplierSpecification(PluginSpecification applierSpecification)
+    {
+        this.applierSpecification = applierSpecification;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -496,6 +555,29 @@ public class JdbcApplier implements RawApplier
             ApplierException
     {
         Table t;
+        if (tableMetadataRegistry != null)
+        {
+            // Look up with our own connection so that we see tables we have
+            // altered in the current transaction.
+            try
+            {
+                t = tableMetadataRegistry.findTable(conn,
+                        data.getSchemaName(), data.getTableName(), -1);
+            }
+            catch (ReplicatorException e)
+            {
+                throw new ApplierException(e);
+            }
+            if (t == null)
+                throw new ApplierException(
+                        "Table "
+                                + data.getSchemaName()
+                                + "."
+                                + data.getTableName()
+                                + " not found in database. Unable to generate a valid statement.");
+            return t;
+        }
+
         t = tableMetadataCache.retrieve(data.getSchemaName(),
                 data.getTableName());
         if (t == null)
@@ -849,9 +931,9 @@ public class JdbcApplier implements RawApplier
      *            used.
      * @return Constructed SQL statement with "?" instead of real values.
      */
-    private StringBuffer constructStatement(RowChangeData.ActionType action,
-            String schemaName, String tableName,
-            ArrayList<OneRowChange.ColumnSpec> columns,
+    protected StringBuffer constructStatement(
+            RowChangeData.ActionType action, String schemaName,
+            String tableName, ArrayList<OneRowChange.ColumnSpec> columns,
             ArrayList<OneRowChange.ColumnSpec> keys,
             ArrayList<OneRowChange.ColumnVal> keyValues,
             ArrayList<OneRowChange.ColumnVal> colValues)
@@ -1308,6 +1390,14 @@ public class JdbcApplier implements RawApplier
             logger.debug("Applying event: seqno=" + header.getSeqno()
                     + " fragno=" + header.getFragno() + " commit=" + doCommit);
 
+        // A transaction that is split across sessions must not share a
+        // transaction with earlier events, so commit any open block first.
+        boolean splitTransaction = sessionPool != null
+                && header.getFragno() == 0 && !doRollback
+                && isSplittable(event, header);
+        if (splitTransaction && transactionStarted)
+            commit();
+
         try
         {
             if (!transactionStarted)
@@ -1365,7 +1455,15 @@ public class JdbcApplier implements RawApplier
             else
             {
                 ArrayList<DBMSData> data = event.getData();
-                for (DBMSData dataElem : data)
+                int next = 0;
+                if (splitTransaction)
+                {
+                    sessionsActive = true;
+                    splitting = true;
+                }
+                if (splitting)
+                    next = applyRowChangesInSessions(event, header);
+                for (DBMSData dataElem : data.subList(next, data.size()))
                 {
                     if (dataElem instanceof RowChangeData)
                     {
@@ -1398,8 +1496,14 @@ public class JdbcApplier implements RawApplier
                             query = new String(sdata.getQueryAsBytes());
                         SqlOperation sqlOperation = sqlMatcher.match(query);
 
-                        int invalidated = tableMetadataCache.invalidate(
-                                sqlOperation, sdata.getDefaultSchema());
+                        int invalidated;
+                        if (tableMetadataRegistry != null)
+                            invalidated = tableMetadataRegistry.invalidate(
+                                    header.getEventId(), sqlOperation,
+                                    sdata.getDefaultSchema());
+                        else
+                            invalidated = tableMetadataCache.invalidate(
+                                    sqlOperation, sdata.getDefaultSchema());
                         if (invalidated > 0)
                         {
                             if (logger.isDebugEnabled())
@@ -1412,6 +1516,12 @@ public class JdbcApplier implements RawApplier
                         applyRowIdData((RowIdData) dataElem);
                     }
                 }
+
+                // A split transaction commits when it ends, even inside a
+                // block, as other sessions must not carry its changes into
+                // later transactions that could still roll back.
+                if (sessionsActive && header.getLastFrag() && !doRollback)
+                    doCommit = true;
             }
 
             if (doCommit)
@@ -1566,6 +1676,161 @@ public class JdbcApplier implements RawApplier
         }
     }
 
+    /**
+     * Returns true if an event starts a transaction that should be split across
+     * sessions. The event must contain only row changes and either be the
+     * first fragment of a larger transaction or contain enough rows.
+     */
+    private boolean isSplittable(DBMSEvent event, ReplDBMSHeader header)
+    {
+        if (event instanceof DBMSEmptyEvent
+                || header instanceof ReplDBMSFilteredEvent)
+            return false;
+        ArrayList<DBMSData> data = event.getData();
+        if (data == null || data.size() == 0)
+            return false;
+
+        long rows = 0;
+        for (DBMSData dataElem : data)
+        {
+            if (!(dataElem instanceof RowChangeData))
+                return false;
+            for (OneRowChange rowChange : ((RowChangeData) dataElem)
+                    .getRowChanges())
+            {
+                rows += Math.max(rowChange.getColumnValues().size(),
+                        rowChange.getKeyValues().size());
+            }
+        }
+        return !header.getLastFrag() || rows >= applySessionsMinRows;
+    }
+
+    /**
+     * Applies the leading row changes of an event across sessions. Other
+     * sessions keep their changes open until this session commits. If the
+     * event contains anything else, the remainder of the transaction is
+     * applied on this session alone, which is only possible while other
+     * sessions hold no changes. Otherwise a statement or a later row change on
+     * this session could wait for locks that other sessions release only when
+     * this session commits, so we fail instead.
+     * 
+     * @return Index of the first element of the event left to apply
+     */
+    private int applyRowChangesInSessions(DBMSEvent event,
+            ReplDBMSHeader header) throws ReplicatorException,
+            InterruptedException
+    {
+        ArrayList<DBMSData> data = event.getData();
+        List<RowChangeData> rowChanges = new ArrayList<RowChangeData>();
+        int next = 0;
+        while (next < data.size() && data.get(next) instanceof RowChangeData)
+            rowChanges.add((RowChangeData) data.get(next++));
+
+        if (rowChanges.size() > 0)
+        {
+            // Other sessions work while we apply our own share. If our share
+            // fails, their tasks are awaited when the transaction rolls back.
+            List<List<RowChangeData>> shares = partitioner
+                    .partition(rowChanges);
+            for (int i = 1; i < shares.size(); i++)
+            {
+                if (shares.get(i).size() > 0)
+                    helpersUsed = true;
+            }
+            sessionPool.apply(shares, event, header);
+            for (RowChangeData share : shares.get(0))
+                applyRowChangeData(share, event.getOptions());
+            sessionPool.waitForCompletion();
+        }
+
+        if (next < data.size())
+        {
+            if (helpersUsed)
+            {
+                throw new ApplierException(
+                        "Transaction split across apply sessions contains a statement or other non-row data; "
+                                + "it cannot be applied while other sessions hold row locks. "
+                                + "Set applySessions=1 to apply this transaction: seqno="
+                                + header.getSeqno() + " fragno="
+                                + header.getFragno());
+            }
+            splitting = false;
+        }
+        return next;
+    }
+
+    // Commits other sessions and returns to applying on this session alone.
+    private void commitSessions() throws ReplicatorException,
+            InterruptedException
+    {
+        sessionsActive = false;
+        splitting = false;
+        helpersUsed = false;
+        partitioner.reset();
+        sessionPool.commit();
+    }
+
+    // Returns the positions of primary key columns for splitting rows across
+    // sessions or null if the table has no primary key.
+    private int[] getKeyPositions(OneRowChange rowChange)
+            throws ReplicatorException
+    {
+        Table t;
+        try
+        {
+            t = getTableMetadata(rowChange);
+        }
+        catch (SQLException e)
+        {
+            throw new ApplierException("Unable to find table metadata: "
+                    + rowChange.getSchemaName() + "."
+                    + rowChange.getTableName(), e);
+        }
+        Key pk = t.getPrimaryKey();
+        if (pk == null || pk.getColumns().size() == 0)
+            return null;
+        int[] positions = new int[pk.getColumns().size()];
+        for (int i = 0; i < positions.length; i++)
+            positions[i] = pk.getColumns().get(i).getPosition();
+        return positions;
+    }
+
+    /**
+     * Applies row changes on behalf of another applier, starting a transaction
+     * if necessary. Called by {@link ApplySessionPool} on a helper session.
+     */
+    void applySessionShare(List<RowChangeData> share, DBMSEvent event,
+            ReplDBMSHeader header) throws ReplicatorException, SQLException
+    {
+        if (!transactionStarted)
+            startTransaction();
+        checkEventCompatibility(header, event);
+        for (RowChangeData rowChanges : share)
+            applyRowChangeData(rowChanges, event.getOptions());
+    }
+
+    /**
+     * Commits the transaction of a helper session, if any.
+     */
+    void commitSession() throws ReplicatorException, SQLException,
+            InterruptedException
+    {
+        if (transactionStarted)
+            commitTransaction();
+    }
+
+    /**
+     * Rolls back the transaction of a helper session, if any.
+     */
+    void rollbackSession() throws SQLException, InterruptedException
+    {
+        if (transactionStarted)
+        {
+            transactionStarted = false;
+            rollbackTransaction();
+        }
+    }
+
     /**
      * Perform compatibility check on event in case we need to do fix-ups due to
      * older log versions.
@@ -1721,12 +1986,28 @@ public class JdbcApplier implements RawApplier
     }
 
     /**
-     * commitTransaction commits the current transaction.
+     * commitTransaction commits the current transaction. Other sessions that
+     * hold part of the transaction commit first, so that the transaction only
+     * counts as applied once this session commits its position.
      * 
      * @throws SQLException if a problem occurs.
      */
-    private void commitTransaction() throws SQLException
+    private void commitTransaction() throws SQLException,
+            ReplicatorException, InterruptedException
     {
+        if (sessionsActive)
+        {
+            try
+            {
+                commitSessions();
+            }
+            catch (ReplicatorException e)
+            {
+                logger.error("Failed to commit apply sessions: " + e);
+                throw e;
+            }
+        }
+
         try
         {
             conn.commit();
@@ -1750,8 +2031,18 @@ public class JdbcApplier implements RawApplier
      * 
      * @throws SQLException if a problem occurs.
      */
-    private void rollbackTransaction() throws SQLException
+    private void rollbackTransaction() throws SQLException,
+            InterruptedException
     {
+        if (sessionPool != null)
+        {
+            sessionsActive = false;
+            splitting = false;
+            helpersUsed = false;
+            partitioner.reset();
+            sessionPool.rollback();
+        }
+
         try
         {
             conn.rollback();
@@ -1830,6 +2121,11 @@ public class JdbcApplier implements RawApplier
             }
 
             tableMetadataCache = new TableMetadataCache(5000);
+            if (dataSourceImpl instanceof SqlDataSource)
+            {
+                tableMetadataRegistry = ((SqlDataSource) dataSourceImpl)
+                        .getTableMetadataRegistry();
+            }
 
             // Set up heartbeat table.
             heartbeatTable = new HeartbeatTable(
@@ -1838,6 +2134,10 @@ public class JdbcApplier implements RawApplier
 
             // Fetch the last processed event.
             lastProcessedEvent = commitSeqnoAccessor.lastCommitSeqno();
+
+            // Open additional sessions for large transactions.
+            if (applySessions > 1)
+                prepareSessions(context);
         }
         catch (SQLException e)
         {
@@ -1848,6 +2148,65 @@ public class JdbcApplier implements RawApplier
         }
     }
 
+    // Creates helper appliers from our own specification, each with its own
+    // connection, and starts the threads that run them.
+    private void prepareSessions(PluginContext context)
+            throws ReplicatorException, InterruptedException
+    {
+        if (applierSpecification == null)
+        {
+            logger.warn("Applier specification not available; apply sessions disabled: applySessions="
+                    + applySessions);
+            return;
+        }
+
+        List<JdbcApplier> helpers = new ArrayList<JdbcApplier>();
+        try
+        {
+            for (int i = 1; i < applySessions; i++)
+            {
+                JdbcApplier helper = (JdbcApplier) applierSpecification
+                        .instantiate(taskId);
+                helper.setTaskId(taskId);
+                helper.setApplySessions(1);
+                helpers.add(helper);
+                helper.configure(context);
+                helper.prepare(context);
+            }
+        }
+        catch (ReplicatorException e)
+        {
+            new ApplySessionPool(helpers).release(context);
+            throw e;
+        }
+
+        startSessions(helpers);
+    }
+
+    /**
+     * Starts threads that apply part of large transactions on prepared helper
+     * appliers.
+     */
+    void startSessions(List<JdbcApplier> helpers)
+    {
+        sessionPool = new ApplySessionPool(helpers);
+        sessionPool.start("apply-session-" + taskId);
+        partitioner = new RowChangePartitioner(helpers.size() + 1,
+                applySessionsByKey)
+        {
+            protected int[] getKeyPositions(OneRowChange rowChange)
+                    throws ReplicatorException
+            {
+                return JdbcApplier.this.getKeyPositions(rowChange);
+            }
+        };
+        logger.info("Large transactions will be split across sessions: applySessions="
+                + sessionPool.getSessions()
+                + " applySessionsMinRows="
+                + applySessionsMinRows
+                + " applySessionsByKey=" + applySessionsByKey);
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -1874,6 +2233,16 @@ public class JdbcApplier implements RawApplier
     public void release(PluginContext context) throws ReplicatorException,
             InterruptedException
     {
+        if (sessionPool != null)
+        {
+            sessionPool.release(context);
+            sessionPool = null;
+            partitioner = null;
+            sessionsActive = false;
+            splitting = false;
+            helpersUsed = false;
+        }
+
         if (commitSeqno != null)
         {
             commitSeqno.release();
@@ -1894,6 +2263,7 @@ public class JdbcApplier implements RawApplier
             tableMetadataCache.invalidateAll();
             tableMetadataCache = null;
         }
+        tableMetadataRegistry = null;
     }
 
     protected void applyVariables(Long timestamp, List<ReplOption> options)
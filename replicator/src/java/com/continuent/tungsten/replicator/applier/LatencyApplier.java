@@ -0,0 +1,235 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.applier;
+
+import java.sql.Timestamp;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.event.DBMSEmptyEvent;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+
+/**
+ * Discards events while counting events, transactions, and rows and recording
+ * the latency of each transaction, i.e., the time from the source timestamp to
+ * the time the applier receives the last fragment. Latencies are kept in a
+ * histogram with millisecond buckets up to maxLatencyMillis; longer latencies
+ * fall into the last bucket. Used with a load generator this measures the
+ * throughput and latency of the pipeline itself.
+ * <p/>
+ * Each apply task has its own instance. Use
+ * {@link #percentile(long[], double)} on merged histograms to compute
+ * latencies across tasks.
+ */
+public class LatencyApplier implements RawApplier
+{
+    private int            maxLatencyMillis = 60000;
+    private long[]         histogram;
+    private long           eventCount;
+    private long           txnCount;
+    private long           rowCount;
+    private long           maxLatency;
+    private ReplDBMSHeader lastHeader;
+
+    /** Sets the largest latency tracked individually in the histogram. */
+    public void setMaxLatencyMillis(int maxLatencyMillis)
+    {
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.applier.RawApplier#setTaskId(int)
+     */
+    public void setTaskId(int id)
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.applier.RawApplier#apply(com.continuent.tungsten.replicator.event.DBMSEvent,
+     *      com.continuent.tungsten.replicator.event.ReplDBMSHeader, boolean,
+     *      boolean)
+     */
+    public synchronized void apply(DBMSEvent event, ReplDBMSHeader header,
+            boolean doCommit, boolean doRollback) throws ReplicatorException
+    {
+        if (doCommit)
+            lastHeader = header;
+
+        // Empty events only update the position of parallel channels.
+        if (event instanceof DBMSEmptyEvent)
+            return;
+
+        eventCount++;
+        for (DBMSData data : event.getData())
+        {
+            if (data instanceof RowChangeData)
+            {
+                for (OneRowChange orc : ((RowChangeData) data).getRowChanges())
+                {
+                    int rows = orc.getColumnValues().size();
+                    if (rows == 0)
+                        rows = orc.getKeyValues().size();
+                    rowCount += rows;
+                }
+            }
+            else
+                rowCount++;
+        }
+
+        Timestamp sourceTstamp = event.getSourceTstamp();
+        if (header.getLastFrag() && sourceTstamp != null)
+        {
+            long latency = Math.max(0, System.currentTimeMillis()
+                    - sourceTstamp.getTime());
+            histogram[(int) Math.min(latency, maxLatencyMillis)]++;
+            maxLatency = Math.max(maxLatency, latency);
+            txnCount++;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.applier.RawApplier#commit()
+     */
+    public void commit()
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.applier.RawApplier#rollback()
+     */
+    public void rollback()
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.applier.RawApplier#getLastEvent()
+     */
+    public synchronized ReplDBMSHeader getLastEvent()
+    {
+        return lastHeader;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#configure(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void configure(PluginContext context) throws ReplicatorException
+    {
+        if (maxLatencyMillis < 1)
+            throw new ReplicatorException(
+                    "maxLatencyMillis must be at least 1: " + maxLatencyMillis);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#prepare(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public synchronized void prepare(PluginContext context)
+    {
+        histogram = new long[maxLatencyMillis + 1];
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#release(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void release(PluginContext context)
+    {
+    }
+
+    public synchronized long getEventCount()
+    {
+        return eventCount;
+    }
+
+    public synchronized long getTxnCount()
+    {
+        return txnCount;
+    }
+
+    public synchronized long getRowCount()
+    {
+        return rowCount;
+    }
+
+    /** Returns the largest latency seen in milliseconds. */
+    public synchronized long getMaxLatency()
+    {
+        return maxLatency;
+    }
+
+    /**
+     * Returns a copy of the latency histogram, where element i counts
+     * transactions with a latency of i milliseconds.
+     */
+    public synchronized long[] getLatencyHistogram()
+    {
+        return histogram.clone();
+    }
+
+    /**
+     * Returns the latency in milliseconds below or at which the given
+     * fraction of transactions fall.
+     * 
+     * @param histogram A latency histogram
+     * @param fraction Fraction between 0 and 1, e.g. 0.99 for the 99th
+     *            percentile
+     * @return Latency or -1 if the histogram is empty
+     */
+    public static long percentile(long[] histogram, double fraction)
+    {
+        long total = 0;
+        for (long count : histogram)
+            total += count;
+        if (total == 0)
+            return -1;
+
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++)
+        {
+            seen += histogram[i];
+            if (seen >= rank && seen > 0)
+                return i;
+        }
+        return histogram.length - 1;
+    }
+}
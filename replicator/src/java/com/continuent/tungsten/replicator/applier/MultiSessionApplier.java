@@ -0,0 +1,42 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.applier;
+
+import com.continuent.tungsten.replicator.plugin.PluginSpecification;
+
+/**
+ * Denotes a raw applier that can open additional appliers of the same kind to
+ * apply a single transaction over several database sessions.
+ */
+public interface MultiSessionApplier extends RawApplier
+{
+    /**
+     * Sets the specification this applier was created from, which is used to
+     * create appliers for additional sessions. This is called before
+     * configure().
+     * 
+     * @param spec Applier plugin specification
+     */
+    public void setApplierSpecification(PluginSpecification spec);
+}
@@ -0,0 +1,374 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.applier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.event.ReplOption;
+
+/**
+ * Splits the row changes of a transaction into shares for several database
+ * sessions so that no two sessions change the same row. By default every
+ * table goes to a single session, chosen as the least loaded session when the
+ * table first appears in the transaction. If splitting by key is enabled,
+ * tables with a primary key are instead split by a hash of the key so that a
+ * single large table can use all sessions.
+ * <p/>
+ * Assignments hold until {@link #reset()} is called at the end of the
+ * transaction, so that later fragments of a transaction send each table or
+ * row to the session that already holds its locks. Within a session, changes
+ * keep their original order.
+ * <p/>
+ * An update that changes the primary key locks both the old and the new key.
+ * If such an update arrives before any rows of its table have been split by
+ * key, the table is applied by a single session for the rest of the
+ * transaction. Otherwise the update is routed by its old key, which is only
+ * safe if the new key hashes to the same session; if not, partitioning fails
+ * since another session may already hold locks on the new key.
+ * <p/>
+ * This class is not synchronized; it is used by the thread that applies the
+ * transaction.
+ */
+public class RowChangePartitioner
+{
+    private final int                sessions;
+    private final boolean            splitByKey;
+
+    // Session assigned to each table and rows assigned to each session in the
+    // current transaction.
+    private HashMap<String, Integer> tableSessions = new HashMap<String, Integer>();
+    private long[]                   load;
+
+    // Tables split by key and tables that must not be split by key in the
+    // current transaction.
+    private HashSet<String>          keyedTables   = new HashSet<String>();
+    private HashSet<String>          unkeyedTables = new HashSet<String>();
+
+    /**
+     * Creates a new partitioner.
+     * 
+     * @param sessions Number of sessions
+     * @param splitByKey If true, split tables that have a primary key by key
+     */
+    public RowChangePartitioner(int sessions, boolean splitByKey)
+    {
+        this.sessions = sessions;
+        this.splitByKey = splitByKey;
+        this.load = new long[sessions];
+    }
+
+    /** Returns the number of sessions. */
+    public int getSessions()
+    {
+        return sessions;
+    }
+
+    /**
+     * Splits row changes into one share per session. Each share contains
+     * copies of the row change data that hold only rows for that session and
+     * the same options as the original.
+     * 
+     * @param data Row changes in transaction order
+     * @return List of shares indexed by session, some of which may be empty
+     */
+    public List<List<RowChangeData>> partition(List<RowChangeData> data)
+            throws ReplicatorException
+    {
+        List<List<RowChangeData>> shares = new ArrayList<List<RowChangeData>>(
+                sessions);
+        for (int i = 0; i < sessions; i++)
+            shares.add(new ArrayList<RowChangeData>());
+
+        // Keep tables whose keys change together before splitting any rows.
+        if (splitByKey)
+        {
+            for (RowChangeData rowChanges : data)
+            {
+                for (OneRowChange rowChange : rowChanges.getRowChanges())
+                {
+                    String table = tableName(rowChange);
+                    if (keyedTables.contains(table)
+                            || unkeyedTables.contains(table))
+                        continue;
+                    int[] keys = getKeyPositions(rowChange);
+                    if (keys != null && changesKey(rowChange, keys))
+                        unkeyedTables.add(table);
+                }
+            }
+        }
+
+        for (RowChangeData rowChanges : data)
+        {
+            RowChangeData[] pieces = new RowChangeData[sessions];
+            for (OneRowChange rowChange : rowChanges.getRowChanges())
+            {
+                String table = tableName(rowChange);
+                int[] keys = null;
+                if (splitByKey && !unkeyedTables.contains(table))
+                    keys = getKeyPositions(rowChange);
+                if (keys == null)
+                {
+                    int session = sessionForTable(rowChange);
+                    piece(pieces, session, rowChanges).appendOneRowChange(
+                            rowChange);
+                    load[session] += rowCount(rowChange);
+                }
+                else
+                {
+                    keyedTables.add(table);
+                    OneRowChange[] parts = new OneRowChange[sessions];
+                    int rows = rowCount(rowChange);
+                    for (int row = 0; row < rows; row++)
+                    {
+                        int session = sessionForKey(rowChange, row, keys);
+                        if (parts[session] == null)
+                            parts[session] = newOneRowChange(rowChange);
+                        copyRow(rowChange, row, parts[session]);
+                        load[session]++;
+                    }
+                    for (int session = 0; session < sessions; session++)
+                    {
+                        if (parts[session] != null)
+                            piece(pieces, session, rowChanges)
+                                    .appendOneRowChange(parts[session]);
+                    }
+                }
+            }
+            for (int session = 0; session < sessions; session++)
+            {
+                if (pieces[session] != null)
+                    shares.get(session).add(pieces[session]);
+            }
+        }
+        return shares;
+    }
+
+    /** Clears assignments at the end of a transaction. */
+    public void reset()
+    {
+        tableSessions.clear();
+        keyedTables.clear();
+        unkeyedTables.clear();
+        Arrays.fill(load, 0);
+    }
+
+    /**
+     * Returns the positions of the primary key columns of the table changed by
+     * a row change, or null if the table has no primary key and must be
+     * applied by a single session. The default implementation always returns
+     * null.
+     */
+    protected int[] getKeyPositions(OneRowChange rowChange)
+            throws ReplicatorException
+    {
+        return null;
+    }
+
+    // Returns the qualified name of the table changed by a row change.
+    private static String tableName(OneRowChange rowChange)
+    {
+        return rowChange.getSchemaName() + "." + rowChange.getTableName();
+    }
+
+    // Returns the session for a table, assigning the least loaded session if
+    // the table has not been seen in this transaction.
+    private int sessionForTable(OneRowChange rowChange)
+    {
+        String table = tableName(rowChange);
+        Integer session = tableSessions.get(table);
+        if (session == null)
+        {
+            int least = 0;
+            for (int i = 1; i < sessions; i++)
+            {
+                if (load[i] < load[least])
+                    least = i;
+            }
+            session = least;
+            tableSessions.put(table, session);
+        }
+        return session;
+    }
+
+    // Returns the session for a row from a hash of its primary key. Inserts
+    // take the key from the new values; updates and deletes from the key
+    // values, which identify the row before the change. An update that moves
+    // a row to a key of another session cannot be split safely.
+    private int sessionForKey(OneRowChange rowChange, int row, int[] keys)
+            throws ApplierException
+    {
+        if (row >= rowChange.getKeyValues().size())
+        {
+            return sessionForKey(rowKey(rowChange.getColumnSpec(), rowChange
+                    .getColumnValues().get(row), keys, null));
+        }
+
+        Object[] oldKey = rowKey(rowChange.getKeySpec(), rowChange
+                .getKeyValues().get(row), keys, null);
+        int session = sessionForKey(oldKey);
+        if (row < rowChange.getColumnValues().size())
+        {
+            Object[] newKey = rowKey(rowChange.getColumnSpec(), rowChange
+                    .getColumnValues().get(row), keys, oldKey);
+            if (sessionForKey(newKey) != session)
+            {
+                throw new ApplierException(
+                        "Update changes the primary key of a row that cannot be moved between apply sessions; "
+                                + "set applySessionsByKey=false to apply this transaction: table="
+                                + tableName(rowChange));
+            }
+        }
+        return session;
+    }
+
+    // Returns the session for a key.
+    private int sessionForKey(Object[] key)
+    {
+        int hash = 1;
+        for (Object value : key)
+            hash = 31 * hash + hashValue(value);
+        return (hash & Integer.MAX_VALUE) % sessions;
+    }
+
+    // Returns the key values of a row. Key columns missing from the row, as
+    // in minimal row images, take their value from the default key if given.
+    private static Object[] rowKey(ArrayList<ColumnSpec> specs,
+            ArrayList<ColumnVal> values, int[] keys, Object[] defaultKey)
+    {
+        Object[] key = new Object[keys.length];
+        for (int k = 0; k < keys.length; k++)
+        {
+            key[k] = (defaultKey == null) ? null : defaultKey[k];
+            for (int i = 0; i < specs.size(); i++)
+            {
+                if (specs.get(i).getIndex() == keys[k])
+                {
+                    key[k] = values.get(i).getValue();
+                    break;
+                }
+            }
+        }
+        return key;
+    }
+
+    // Returns true if an update changes the primary key of any row.
+    private static boolean changesKey(OneRowChange rowChange, int[] keys)
+    {
+        int rows = Math.min(rowChange.getKeyValues().size(), rowChange
+                .getColumnValues().size());
+        for (int row = 0; row < rows; row++)
+        {
+            Object[] oldKey = rowKey(rowChange.getKeySpec(), rowChange
+                    .getKeyValues().get(row), keys, null);
+            Object[] newKey = rowKey(rowChange.getColumnSpec(), rowChange
+                    .getColumnValues().get(row), keys, oldKey);
+            if (!Arrays.deepEquals(oldKey, newKey))
+                return true;
+        }
+        return false;
+    }
+
+    // Hashes a column value. Strings may be stored as bytes, which need a
+    // content hash.
+    private static int hashValue(Object value)
+    {
+        if (value == null)
+            return 0;
+        else if (value instanceof byte[])
+            return Arrays.hashCode((byte[]) value);
+        else
+            return value.hashCode();
+    }
+
+    // Returns the number of rows in a row change. Inserts have only values,
+    // deletes have only keys, and updates have both.
+    private static int rowCount(OneRowChange rowChange)
+    {
+        return Math.max(rowChange.getColumnValues().size(), rowChange
+                .getKeyValues().size());
+    }
+
+    // Copies the values and keys of one row to a part of a row change.
+    private static void copyRow(OneRowChange source, int row,
+            OneRowChange target)
+    {
+        if (row < source.getColumnValues().size())
+            target.getColumnValues().add(source.getColumnValues().get(row));
+        if (row < source.getKeyValues().size())
+            target.getKeyValues().add(source.getKeyValues().get(row));
+    }
+
+    // Creates an empty part of a row change. Specifications are copied because
+    // appliers fill in column names and types as they apply each part.
+    private static OneRowChange newOneRowChange(OneRowChange rowChange)
+    {
+        OneRowChange part = new OneRowChange(rowChange.getSchemaName(),
+                rowChange.getTableName(), rowChange.getAction());
+        part.setTableId(rowChange.getTableId());
+        part.setColumnSpec(copySpecs(part, rowChange.getColumnSpec()));
+        part.setKeySpec(copySpecs(part, rowChange.getKeySpec()));
+        return part;
+    }
+
+    private static ArrayList<ColumnSpec> copySpecs(OneRowChange part,
+            ArrayList<ColumnSpec> specs)
+    {
+        ArrayList<ColumnSpec> copies = new ArrayList<ColumnSpec>(specs.size());
+        for (ColumnSpec spec : specs)
+        {
+            ColumnSpec copy = part.new ColumnSpec(spec);
+            copy.setIndex(spec.getIndex());
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    // Returns the piece of row change data for a session, creating it with
+    // the options of the original if necessary.
+    private static RowChangeData piece(RowChangeData[] pieces, int session,
+            RowChangeData rowChanges)
+    {
+        if (pieces[session] == null)
+        {
+            RowChangeData piece = new RowChangeData();
+            if (rowChanges.getOptions() != null)
+            {
+                for (ReplOption option : rowChanges.getOptions())
+                    piece.addOption(option.getOptionName(),
+                            option.getOptionValue());
+            }
+            pieces[session] = piece;
+        }
+        return pieces[session];
+    }
+}
@@ -90,6 +90,13 @@ public class ReplicatorConf
     static public final String   AUTO_MASTER_REPOSITIONING             = "replicator.repositionOnSourceIdChange";
     static public final String   AUTO_MASTER_REPOSITIONING_DEFAULT     = "true";
 
+    /**
+     * Approximate maximum size in bytes of extracted transaction fragments.
+     * Larger events are split before they are stored. 0 disables splitting.
+     */
+    static public final String   MAX_FRAGMENT_SIZE                     = "replicator.maxFragmentSize";
+    static public final String   MAX_FRAGMENT_SIZE_DEFAULT             = "0";
+
     /** Whether to automatically provision this server at startup time. */
     static public final String   AUTO_PROVISION                        = "replicator.auto_provision";
     static public final String   AUTO_PROVISION_DEFAULT                = "false";
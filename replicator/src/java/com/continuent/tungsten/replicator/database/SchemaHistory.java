@@ -0,0 +1,397 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.database;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+
+/**
+ * Records versions of table definitions by the seqno of the first event that
+ * used them, so that column names, types, and keys can be resolved as they
+ * were when an event was extracted rather than as they are now in the DBMS.
+ * <p/>
+ * Definitions are exchanged as strings produced by {@link #encode(Table)},
+ * which allows them to travel in event metadata. The history may optionally
+ * be persisted to an append-only file so that it survives restarts.
+ */
+public class SchemaHistory
+{
+    private static Logger                             logger   = Logger.getLogger(SchemaHistory.class);
+
+    private static final String                       ENCODING = "UTF-8";
+
+    // Table definitions indexed by schema.table and then by seqno.
+    private final Map<String, TreeMap<Long, Version>> versions = new HashMap<String, TreeMap<Long, Version>>();
+    private File                                      file;
+    private BufferedWriter                            writer;
+
+    // A table definition along with its encoded form.
+    private static class Version
+    {
+        final Table  table;
+        final String definition;
+
+        Version(Table table, String definition)
+        {
+            this.table = table;
+            this.definition = definition;
+        }
+    }
+
+    /** Creates an empty history held only in memory. */
+    public SchemaHistory()
+    {
+    }
+
+    /**
+     * Loads versions from a history file, if it exists, and appends new
+     * versions to it from this point on.
+     */
+    public synchronized void open(File file) throws ReplicatorException
+    {
+        close();
+        this.file = file;
+        int loaded = 0;
+        if (file.exists())
+        {
+            BufferedReader reader = null;
+            try
+            {
+                reader = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(file), ENCODING));
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    // A partial line may remain after a crash.
+                    int tab = line.indexOf('\t');
+                    try
+                    {
+                        long seqno = Long.parseLong(line.substring(0, tab));
+                        if (store(seqno, line.substring(tab + 1)))
+                            loaded++;
+                    }
+                    catch (Exception e)
+                    {
+                        logger.warn("Skipping invalid schema history entry: file="
+                                + file.getAbsolutePath() + " entry=" + line);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                throw new ReplicatorException(
+                        "Unable to read schema history: file="
+                                + file.getAbsolutePath(), e);
+            }
+            finally
+            {
+                closeQuietly(reader);
+            }
+        }
+
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file, true), ENCODING));
+        }
+        catch (IOException e)
+        {
+            throw new ReplicatorException(
+                    "Unable to open schema history for writing: file="
+                            + file.getAbsolutePath(), e);
+        }
+        logger.info("Opened schema history: file=" + file.getAbsolutePath()
+                + " versions=" + loaded);
+    }
+
+    /** Closes the history file, if any. The history remains usable. */
+    public synchronized void close()
+    {
+        closeQuietly(writer);
+        writer = null;
+        file = null;
+    }
+
+    /**
+     * Records a table definition as of the given seqno.
+     *
+     * @return The encoded definition if it differs from the definition in
+     *         effect at that seqno, otherwise null
+     */
+    public synchronized String record(long seqno, Table table)
+            throws ReplicatorException
+    {
+        String definition = encode(table);
+        if (record(seqno, definition))
+            return definition;
+        else
+            return null;
+    }
+
+    /**
+     * Records an encoded table definition as of the given seqno.
+     *
+     * @return True if the definition differs from the definition in effect at
+     *         that seqno
+     */
+    public synchronized boolean record(long seqno, String definition)
+            throws ReplicatorException
+    {
+        if (!store(seqno, definition))
+            return false;
+
+        if (writer != null)
+        {
+            try
+            {
+                writer.write(Long.toString(seqno));
+                writer.write('\t');
+                writer.write(definition);
+                writer.newLine();
+                writer.flush();
+            }
+            catch (IOException e)
+            {
+                throw new ReplicatorException(
+                        "Unable to write schema history: file="
+                                + file.getAbsolutePath(), e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the definition of a table in effect at the given seqno or null
+     * if the history does not know the table at that point.
+     */
+    public synchronized Table find(String schema, String tableName, long seqno)
+    {
+        TreeMap<Long, Version> tableVersions = versions.get(key(schema,
+                tableName));
+        if (tableVersions == null)
+            return null;
+        Map.Entry<Long, Version> entry = tableVersions.floorEntry(seqno);
+        if (entry == null)
+            return null;
+        else
+            return entry.getValue().table;
+    }
+
+    /** Returns the number of table definitions in the history. */
+    public synchronized int size()
+    {
+        int size = 0;
+        for (TreeMap<Long, Version> tableVersions : versions.values())
+            size += tableVersions.size();
+        return size;
+    }
+
+    // Adds a definition unless it is already in effect at the seqno.
+    private boolean store(long seqno, String definition)
+            throws ReplicatorException
+    {
+        Table table = decode(definition);
+        String key = key(table.getSchema(), table.getName());
+        TreeMap<Long, Version> tableVersions = versions.get(key);
+        if (tableVersions == null)
+        {
+            tableVersions = new TreeMap<Long, Version>();
+            versions.put(key, tableVersions);
+        }
+        Map.Entry<Long, Version> current = tableVersions.floorEntry(seqno);
+        if (current != null && current.getValue().definition.equals(definition))
+            return false;
+        tableVersions.put(seqno, new Version(table, definition));
+        return true;
+    }
+
+    private String key(String schema, String tableName)
+    {
+        return schema + "." + tableName;
+    }
+
+    /**
+     * Encodes a table definition, including columns and keys, as a single line
+     * of text. Records are separated by semicolons and fields by commas; field
+     * values are URL-encoded.
+     */
+    public static String encode(Table table)
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(escape(table.getSchema())).append(',');
+        sb.append(escape(table.getName()));
+        for (Column col : table.getAllColumns())
+        {
+            sb.append(";c,").append(col.getPosition());
+            sb.append(',').append(escape(col.getName()));
+            sb.append(',').append(col.getType());
+            sb.append(',').append(col.getLength());
+            sb.append(',').append(col.isNotNull() ? "t" : "f");
+            sb.append(',');
+            if (col.isSignedSet())
+                sb.append(col.isSigned() ? "t" : "f");
+            sb.append(',').append(col.isBlob() ? "t" : "f");
+            sb.append(',').append(escape(col.getTypeDescription()));
+        }
+        for (Key key : table.getKeys())
+        {
+            sb.append(";k,").append(key.getType());
+            sb.append(',').append(escape(key.getName()));
+            sb.append(',');
+            for (int i = 0; i < key.getColumns().size(); i++)
+            {
+                if (i > 0)
+                    sb.append(':');
+                sb.append(key.getColumns().get(i).getPosition());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes a table definition produced by {@link #encode(Table)}.
+     */
+    public static Table decode(String definition) throws ReplicatorException
+    {
+        try
+        {
+            String[] records = definition.split(";");
+            String[] name = records[0].split(",", -1);
+            Table table = new Table(unescape(name[0]), unescape(name[1]));
+            Map<Integer, Column> byPosition = new HashMap<Integer, Column>();
+            for (int r = 1; r < records.length; r++)
+            {
+                String[] f = records[r].split(",", -1);
+                if ("c".equals(f[0]))
+                {
+                    Column col = new Column(unescape(f[2]),
+                            Integer.parseInt(f[3]), "t".equals(f[5]));
+                    col.setLength(Long.parseLong(f[4]));
+                    col.setPosition(Integer.parseInt(f[1]));
+                    if (f[6].length() > 0)
+                        col.setSigned("t".equals(f[6]));
+                    col.setBlob("t".equals(f[7]));
+                    col.setTypeDescription(unescape(f[8]));
+                    table.AddColumn(col);
+                    byPosition.put(col.getPosition(), col);
+                }
+                else if ("k".equals(f[0]))
+                {
+                    Key key = new Key(Integer.parseInt(f[1]));
+                    key.setName(unescape(f[2]));
+                    if (f[3].length() > 0)
+                    {
+                        for (String pos : f[3].split(":"))
+                        {
+                            Column col = byPosition.get(Integer.valueOf(pos));
+                            if (col != null)
+                                key.AddColumn(col);
+                        }
+                    }
+                    table.AddKey(key);
+                }
+            }
+            return table;
+        }
+        catch (RuntimeException e)
+        {
+            throw new ReplicatorException("Invalid table definition: "
+                    + definition, e);
+        }
+    }
+
+    // Escapes a field value. Null values are stored as empty strings.
+    private static String escape(String value)
+    {
+        if (value == null)
+            return "";
+        try
+        {
+            return URLEncoder.encode(value, ENCODING);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String unescape(String value)
+    {
+        if (value.length() == 0)
+            return null;
+        try
+        {
+            return URLDecoder.decode(value, ENCODING);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException e)
+            {
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public synchronized String toString()
+    {
+        StringBuffer sb = new StringBuffer(this.getClass().getSimpleName());
+        sb.append(" tables=").append(versions.size());
+        sb.append(" versions=").append(size());
+        if (file != null)
+            sb.append(" file=").append(file.getAbsolutePath());
+        return sb.toString();
+    }
+}
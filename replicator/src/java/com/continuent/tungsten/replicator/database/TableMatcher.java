@@ -22,6 +22,10 @@
 
 package com.continuent.tungsten.replicator.database;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,6 +42,11 @@ import org.apache.log4j.Logger;
  * series of characters or a single character, respectively. For example,
  * "test.*" matches all tables in database test, and "test?.foo" matches tables
  * "test1.foo" and "test2.foo" but not "test.foo".
+ * <p/>
+ * Lists may hold thousands of entries, so entries are compiled into the
+ * cheapest structure that matches them. Plain names are looked up in hash
+ * sets, names that end with a single trailing * are matched with a prefix
+ * trie, and only the remaining entries are combined into regular expressions.
  * 
  * @author <a href="mailto:stephane.giron@continuent.com">Stephane Giron</a>
  * @version 1.0
@@ -49,12 +58,60 @@ public class TableMatcher
     /** Comma separated list of schema/table patterns. */
     private String        patternString;
 
+    // Plain names and prefixes of names ending in *.
+    private Set<String>   dbNames;
+    private PrefixTrie    dbPrefixes;
+    private Set<String>   tableNames;
+    private PrefixTrie    tablePrefixes;
+
     private Pattern       dbPattern;
     private Matcher       dbMatcher;
 
     private Pattern       tablePattern;
     private Matcher       tableMatcher;
 
+    /**
+     * Matches strings that begin with any of a set of prefixes by walking a
+     * tree of characters, so that the cost depends on the length of the name
+     * rather than the number of prefixes.
+     */
+    private static class PrefixTrie
+    {
+        private final Map<Character, PrefixTrie> children = new HashMap<Character, PrefixTrie>();
+        private boolean                          terminal;
+
+        void add(String prefix)
+        {
+            PrefixTrie node = this;
+            for (int i = 0; i < prefix.length(); i++)
+            {
+                Character c = prefix.charAt(i);
+                PrefixTrie next = node.children.get(c);
+                if (next == null)
+                {
+                    next = new PrefixTrie();
+                    node.children.put(c, next);
+                }
+                node = next;
+            }
+            node.terminal = true;
+        }
+
+        boolean matchesPrefixOf(String name)
+        {
+            PrefixTrie node = this;
+            for (int i = 0; i < name.length(); i++)
+            {
+                if (node.terminal)
+                    return true;
+                node = node.children.get(name.charAt(i));
+                if (node == null)
+                    return false;
+            }
+            return node.terminal;
+        }
+    }
+
     /**
      * Prepares matcher for use.
      * 
@@ -66,6 +123,10 @@ public class TableMatcher
         this.patternString = patternString;
 
         // Clear patterns.
+        dbNames = new HashSet<String>();
+        dbPrefixes = null;
+        tableNames = new HashSet<String>();
+        tablePrefixes = null;
         dbPattern = null;
         dbMatcher = null;
         tablePattern = null;
@@ -92,8 +153,38 @@ public class TableMatcher
                 continue;
 
             // Decide whether this is a table or database.
+            boolean isTable = filter.contains(".");
+
+            // Plain names and trailing wildcards do not need a regex.
+            if (isLiteral(filter, 0, filter.length()))
+            {
+                if (isTable)
+                    tableNames.add(filter);
+                else
+                    dbNames.add(filter);
+                continue;
+            }
+            else if (filter.indexOf('*') == filter.length() - 1
+                    && isLiteral(filter, 0, filter.length() - 1))
+            {
+                String prefix = filter.substring(0, filter.length() - 1);
+                if (isTable)
+                {
+                    if (tablePrefixes == null)
+                        tablePrefixes = new PrefixTrie();
+                    tablePrefixes.add(prefix);
+                }
+                else
+                {
+                    if (dbPrefixes == null)
+                        dbPrefixes = new PrefixTrie();
+                    dbPrefixes.add(prefix);
+                }
+                continue;
+            }
+
             boolean useSchemaPattern = false;
-            if (filter.contains("."))
+            if (isTable)
             {
                 // This is a table.
                 filter = filter.replace(".", "\\.");
@@ -141,6 +232,19 @@ public class TableMatcher
         }
     }
 
+    // Returns true if the characters have no special meaning in patterns,
+    // ignoring the dot that separates schema and table names.
+    private boolean isLiteral(String filter, int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            char c = filter.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '.'))
+                return false;
+        }
+        return true;
+    }
+
     /**
      * Performs a scan of all rules to see if we have a match.
      * 
@@ -151,6 +255,10 @@ public class TableMatcher
     public boolean match(String schema, String table)
     {
         // Check for an explicitly replicated schema.
+        if (dbNames != null && dbNames.contains(schema))
+            return true;
+        if (dbPrefixes != null && dbPrefixes.matchesPrefixOf(schema))
+            return true;
         if (dbPattern != null)
         {
             if (logger.isDebugEnabled())
@@ -173,6 +281,11 @@ public class TableMatcher
         {
             String searchedTable = fullyQualifiedName(schema, table);
 
+            if (tableNames != null && tableNames.contains(searchedTable))
+                return true;
+            if (tablePrefixes != null
+                    && tablePrefixes.matchesPrefixOf(searchedTable))
+                return true;
             if (tablePattern != null)
             {
                 if (tableMatcher == null)
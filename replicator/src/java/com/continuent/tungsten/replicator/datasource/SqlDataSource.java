@@ -58,6 +58,9 @@ public class SqlDataSource extends AbstractDataSource
     // SQL connection manager.
     SqlConnectionManager  connectionManager;
 
+    // Table metadata shared by plugins that use this data source.
+    TableMetadataRegistry metadataRegistry;
+
     /** Create new instance. */
     public SqlDataSource()
     {
@@ -147,6 +150,8 @@ public class SqlDataSource extends AbstractDataSource
         connectionManager.setPrivileged(privileged);
         connectionManager.setLogOperations(logOperations);
         connectionManager.prepare();
+        metadataRegistry = new TableMetadataRegistry(name, connectionManager,
+                5000);
 
         // Prepare commit seqno table. Channels must be set here as they
         // are unsafe to set earlier as the pipeline does not know the value.
@@ -215,6 +220,15 @@ public class SqlDataSource extends AbstractDataSource
             commitSeqno = null;
         }
 
+        // Release shared metadata before the connection manager goes away.
+        if (metadataRegistry != null)
+        {
+            logger.info("Releasing table metadata registry: "
+                    + metadataRegistry);
+            metadataRegistry.release();
+            metadataRegistry = null;
+        }
+
         // Followed by the connection manager.
         if (connectionManager != null)
         {
@@ -431,6 +445,15 @@ public class SqlDataSource extends AbstractDataSource
         return connectionManager.getWrappedConnection();
     }
 
+    /**
+     * Returns the table metadata registry shared by all plugins that use this
+     * data source, or null if the data source is not prepared.
+     */
+    public TableMetadataRegistry getTableMetadataRegistry()
+    {
+        return metadataRegistry;
+    }
+
     /**
      * Returns a connection that caller is responsible for closing
      * independently. This is synchronized with ReplicatorPlugin life cycle
@@ -0,0 +1,403 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.datasource;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.database.Database;
+import com.continuent.tungsten.replicator.database.SchemaHistory;
+import com.continuent.tungsten.replicator.database.SqlOperation;
+import com.continuent.tungsten.replicator.database.Table;
+import com.continuent.tungsten.replicator.database.TableMetadataCache;
+
+/**
+ * Holds table metadata for a single SQL data source so that every plugin in
+ * the pipeline that reads metadata from the same DBMS shares one cache and one
+ * catalog connection. Extractors, filters, and appliers look up tables here
+ * instead of keeping private caches.
+ * <p/>
+ * Plugins report DDL they see using {@link #invalidate(String, SqlOperation, String)}.
+ * The registry remembers the event IDs of recent statements so that a
+ * statement reported by several plugins changes the schema version only once,
+ * unless a plugin in a later stage reloaded the table in the meantime. Plugins
+ * may use the schema version to key data they derive from table metadata.
+ * <p/>
+ * Methods are synchronized as plugins call them from different stage threads.
+ * Catalog queries run outside the registry lock so that a slow query does not
+ * hold up lookups of cached tables; queries on the shared registry connection
+ * are serialized by a separate lock.
+ */
+public class TableMetadataRegistry
+{
+    private static Logger              logger        = Logger.getLogger(TableMetadataRegistry.class);
+
+    // Number of recent DDL invalidations remembered to suppress repeats.
+    private static final int           RECENT_DDL    = 100;
+
+    private final String               name;
+    private final SqlConnectionManager connectionManager;
+    private final TableMetadataCache   cache;
+    private final Map<String, String>  recentDdl;
+    private final SchemaHistory        schemaHistory;
+    private final Object               connLock      = new Object();
+    private Database                   conn;
+
+    // Statistics.
+    private long                       schemaVersion = 0;
+    private long                       queries       = 0;
+    private long                       hits          = 0;
+
+    /**
+     * Creates a new registry.
+     *
+     * @param name Name of the data source
+     * @param connectionManager Source of connections for catalog queries
+     * @param capacity Maximum number of tables to cache
+     */
+    public TableMetadataRegistry(String name,
+            SqlConnectionManager connectionManager, int capacity)
+    {
+        this.name = name;
+        this.connectionManager = connectionManager;
+        this.cache = new TableMetadataCache(capacity);
+        this.schemaHistory = new SchemaHistory();
+        this.recentDdl = new LinkedHashMap<String, String>()
+        {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, String> e)
+            {
+                return size() > RECENT_DDL;
+            }
+        };
+    }
+
+    /**
+     * Returns metadata for a table, querying the DBMS if it is not cached.
+     *
+     * @return Table metadata or null if the table does not exist
+     */
+    public Table findTable(String schema, String tableName)
+            throws ReplicatorException
+    {
+        return findTable(null, schema, tableName, -1);
+    }
+
+    /**
+     * Returns metadata for a table, querying the DBMS if it is not cached or
+     * if the cached table has a different MySQL table ID, which indicates the
+     * table definition changed.
+     *
+     * @param tableId Table ID from the log or -1 if unknown
+     * @return Table metadata or null if the table does not exist
+     */
+    public Table findTable(String schema, String tableName, long tableId)
+            throws ReplicatorException
+    {
+        return findTable(null, schema, tableName, tableId);
+    }
+
+    /**
+     * Returns metadata for a table as it was at the given seqno if the schema
+     * history knows it, otherwise current metadata from the DBMS. Plugins
+     * that handle replicated events should use this call so that they can run
+     * without catalog queries when definitions arrive with the events.
+     *
+     * @param tableId Table ID from the log or -1 if unknown
+     * @param seqno Seqno of the event being processed
+     * @return Table metadata or null if the table does not exist
+     */
+    public Table findTable(String schema, String tableName, long tableId,
+            long seqno) throws ReplicatorException
+    {
+        Table table = schemaHistory.find(schema, tableName, seqno);
+        if (table != null)
+        {
+            synchronized (this)
+            {
+                hits++;
+            }
+            return table;
+        }
+        return findTable(null, schema, tableName, tableId);
+    }
+
+    /**
+     * Returns metadata for a table, using the caller's connection to query the
+     * DBMS. This allows an applier to see tables it has altered in its own
+     * session.
+     *
+     * @param callerConn Connection to use for queries or null to use the
+     *            registry connection
+     * @param tableId Table ID from the log or -1 if unknown
+     * @return Table metadata or null if the table does not exist
+     */
+    public Table findTable(Database callerConn, String schema,
+            String tableName, long tableId) throws ReplicatorException
+    {
+        long version;
+        synchronized (this)
+        {
+            Table table = cache.retrieve(schema, tableName);
+            if (table != null)
+            {
+                if (tableId == -1 || table.getTableId() == tableId)
+                {
+                    hits++;
+                    return table;
+                }
+                else if (table.getTableId() == -1)
+                {
+                    // Loaded by a plugin that does not know table IDs. DDL
+                    // would have invalidated it, so we can adopt the ID.
+                    table.setTableId(tableId);
+                    hits++;
+                    return table;
+                }
+                else if (logger.isDebugEnabled())
+                {
+                    logger.debug("Table ID changed, reloading metadata: table="
+                            + schema + "." + tableName + " old="
+                            + table.getTableId() + " new=" + tableId);
+                }
+            }
+            queries++;
+            version = schemaVersion;
+        }
+
+        // Query without holding the registry lock.
+        Table table = fetchTable(callerConn, schema, tableName);
+        if (table != null)
+            table.setTableId(tableId);
+
+        // Publish the result unless DDL invalidated metadata while we were
+        // querying, in which case it may already be out of date.
+        synchronized (this)
+        {
+            if (version == schemaVersion)
+            {
+                if (table != null)
+                    cache.store(table);
+                else
+                    cache.invalidateTable(schema, tableName);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Invalidates metadata affected by a DDL statement. Cached tables are
+     * always dropped, since a plugin that lags behind the reporter may have
+     * reloaded them, but a repeated report of a statement that removes
+     * nothing does not change the schema version.
+     *
+     * @param eventId Native event ID of the event containing the statement
+     * @param sqlOperation Parsed statement
+     * @param defaultSchema Default schema of the statement
+     * @return Number of tables invalidated
+     */
+    public synchronized int invalidate(String eventId,
+            SqlOperation sqlOperation, String defaultSchema)
+    {
+        if (!isSchemaChange(sqlOperation))
+            return 0;
+
+        // Check for statements we have already seen.
+        boolean repeated = false;
+        if (eventId != null)
+        {
+            StringBuffer key = new StringBuffer(eventId);
+            key.append(':').append(sqlOperation.getOperation());
+            key.append(':').append(sqlOperation.getSchema());
+            key.append('.').append(sqlOperation.getName());
+            repeated = recentDdl.containsKey(key.toString());
+            if (!repeated)
+                recentDdl.put(key.toString(), eventId);
+        }
+
+        int count = cache.invalidate(sqlOperation, defaultSchema);
+        if (repeated && count == 0)
+            return 0;
+
+        schemaVersion++;
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Invalidated table metadata: data source=" + name
+                    + " eventId=" + eventId + " schemaVersion="
+                    + schemaVersion + " invalidated=" + count);
+        }
+        return count;
+    }
+
+    /** Invalidates metadata for a single table. */
+    public synchronized int invalidateTable(String schema, String tableName)
+    {
+        schemaVersion++;
+        return cache.invalidateTable(schema, tableName);
+    }
+
+    /** Invalidates all metadata. */
+    public synchronized void invalidateAll()
+    {
+        schemaVersion++;
+        cache.invalidateAll();
+    }
+
+    /**
+     * Returns the history of table definitions recorded from replicated
+     * events.
+     */
+    public SchemaHistory getSchemaHistory()
+    {
+        return schemaHistory;
+    }
+
+    /**
+     * Returns a number that increases each time metadata is invalidated.
+     */
+    public synchronized long getSchemaVersion()
+    {
+        return schemaVersion;
+    }
+
+    /** Returns the number of metadata queries issued to the DBMS. */
+    public synchronized long getQueryCount()
+    {
+        return queries;
+    }
+
+    /** Returns the number of lookups answered from the cache. */
+    public synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    /** Returns the number of cached tables. */
+    public synchronized int size()
+    {
+        return cache.size();
+    }
+
+    /** Releases the registry connection and clears cached metadata. */
+    public synchronized void release()
+    {
+        cache.invalidateAll();
+        recentDdl.clear();
+        schemaHistory.close();
+        synchronized (connLock)
+        {
+            closeConnection();
+        }
+    }
+
+    /**
+     * Queries the DBMS for table metadata. If the registry connection fails
+     * the query is retried once on a new connection, since idle connections
+     * are often closed by the server.
+     */
+    protected Table fetchTable(Database callerConn, String schema,
+            String tableName) throws ReplicatorException
+    {
+        if (callerConn != null)
+        {
+            try
+            {
+                return callerConn.findTable(schema, tableName, false);
+            }
+            catch (SQLException e)
+            {
+                throw new ReplicatorException(
+                        "Unable to retrieve table metadata: schema=" + schema
+                                + " table=" + tableName, e);
+            }
+        }
+
+        synchronized (connLock)
+        {
+            for (int attempt = 1;; attempt++)
+            {
+                try
+                {
+                    if (conn == null)
+                        conn = connectionManager.getWrappedConnection();
+                    return conn.findTable(schema, tableName, false);
+                }
+                catch (SQLException e)
+                {
+                    closeConnection();
+                    if (attempt > 1)
+                    {
+                        throw new ReplicatorException(
+                                "Unable to retrieve table metadata: data source="
+                                        + name + " schema=" + schema
+                                        + " table=" + tableName, e);
+                    }
+                    logger.warn("Table metadata query failed, reconnecting: data source="
+                            + name + " message=" + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Returns true if the statement may change table definitions.
+    private boolean isSchemaChange(SqlOperation sqlOperation)
+    {
+        int op = sqlOperation.getOperation();
+        int type = sqlOperation.getObjectType();
+        if (op == SqlOperation.DROP)
+            return type == SqlOperation.SCHEMA || type == SqlOperation.TABLE;
+        else
+            return op == SqlOperation.ALTER || op == SqlOperation.RENAME;
+    }
+
+    // Closes the registry connection if open. Callers hold connLock.
+    private void closeConnection()
+    {
+        if (conn != null)
+        {
+            connectionManager.releaseConnection(conn);
+            conn = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public synchronized String toString()
+    {
+        StringBuffer sb = new StringBuffer(this.getClass().getSimpleName());
+        sb.append(" name=").append(name);
+        sb.append(" tables=").append(cache.size());
+        sb.append(" schemaVersion=").append(schemaVersion);
+        sb.append(" queries=").append(queries);
+        sb.append(" hits=").append(hits);
+        return sb.toString();
+    }
+}
@@ -22,6 +22,8 @@
 
 package com.continuent.tungsten.replicator.dbms;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -34,6 +36,11 @@ import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
  * changes include "keys," which are effectively the before images of rows that
  * can be used to identify rows to update or delete, and "values," which are the
  * after images of rows that should be inserted or updated.
+ * <p/>
+ * Deserializers may defer decoding of column specifications and values by
+ * installing a {@link Decoder}. The schema name, table name, action, and table
+ * ID are always available; specifications and values are decoded on first
+ * access, so consumers that only route on names never pay for decoding rows.
  */
 public class OneRowChange implements Serializable
 {
@@ -207,6 +214,23 @@ public class OneRowChange implements Serializable
         }
     }
 
+    /**
+     * Supplies column specifications and values of a row change on first
+     * access.
+     */
+    public interface Decoder
+    {
+        /**
+         * Adds decoded specifications and values to the lists of the row
+         * change. Implementations must not call accessors of the row change.
+         */
+        public void decode(OneRowChange rowChange,
+                ArrayList<ColumnSpec> keySpec,
+                ArrayList<ColumnSpec> columnSpec,
+                ArrayList<ArrayList<ColumnVal>> keyValues,
+                ArrayList<ArrayList<ColumnVal>> columnValues);
+    }
+
     private String                          schemaName;
     private String                          tableName;
     private ActionType                      action;
@@ -226,47 +250,59 @@ public class OneRowChange implements Serializable
     // present. This value is not serialized.
     private HashMap<Integer, Integer>       typeCountCache;
 
+    // Decoder for specifications and values that have not been decoded yet.
+    // This value is not serialized.
+    private transient volatile Decoder      decoder;
+
     public ArrayList<ColumnSpec> getColumnSpec()
     {
+        decode();
         return columnSpec;
     }
 
     public void setColumnSpec(ArrayList<ColumnSpec> columnSpec)
     {
         // Set the key specifications and invalidate type cache.
+        decode();
         this.columnSpec = columnSpec;
         this.typeCountCache = null;
     }
 
     public ArrayList<ArrayList<ColumnVal>> getColumnValues()
     {
+        decode();
         return columnValues;
     }
 
     public void setColumnValues(ArrayList<ArrayList<ColumnVal>> columnValues)
     {
+        decode();
         this.columnValues = columnValues;
     }
 
     public ArrayList<ColumnSpec> getKeySpec()
     {
+        decode();
         return keySpec;
     }
 
     public void setKeySpec(ArrayList<ColumnSpec> keySpec)
     {
         // Set the key specifications and invalidate type cache.
+        decode();
         this.keySpec = keySpec;
         this.typeCountCache = null;
     }
 
     public ArrayList<ArrayList<ColumnVal>> getKeyValues()
     {
+        decode();
         return keyValues;
     }
 
     public void setKeyValues(ArrayList<ArrayList<ColumnVal>> keyValues)
     {
+        decode();
         this.keyValues = keyValues;
     }
 
@@ -327,12 +363,57 @@ public class OneRowChange implements Serializable
         return tableId;
     }
 
+    /**
+     * Defers decoding of specifications and values to the given decoder, which
+     * runs on first access to them.
+     */
+    public void setDecoder(Decoder decoder)
+    {
+        this.decoder = decoder;
+    }
+
+    /**
+     * Returns the decoder if specifications and values have not been decoded
+     * yet, otherwise null.
+     */
+    public Decoder getDecoder()
+    {
+        return decoder;
+    }
+
+    // Runs the pending decoder, if any. The decoder is cleared only after the
+    // lists are filled so that other threads never see partial values.
+    private void decode()
+    {
+        if (decoder != null)
+        {
+            synchronized (this)
+            {
+                Decoder pending = decoder;
+                if (pending != null)
+                {
+                    pending.decode(this, keySpec, columnSpec, keyValues,
+                            columnValues);
+                    decoder = null;
+                }
+            }
+        }
+    }
+
+    // Decode before default serialization as the decoder is transient.
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        decode();
+        out.defaultWriteObject();
+    }
+
     /**
      * Returns the count of a particular column specification type within either
      * the values or keys. If the count is 0, the type is not present.
      */
     public int typeCount(int aType)
     {
+        decode();
         if (this.typeCountCache == null)
         {
             HashMap<Integer, Integer> countCache = new HashMap<Integer, Integer>();
@@ -168,4 +168,11 @@ public class ReplOptionParams
      * </ul>
      */
     public static final String STRINGS                 = "strings";
+
+    /**
+     * Table definition in the form produced by SchemaHistory.encode(). An
+     * event carries one such option for each table whose definition changed
+     * from the definition recorded by an earlier event.
+     */
+    public static final String TABLE_DEFINITION        = "table_definition";
 }
\ No newline at end of file
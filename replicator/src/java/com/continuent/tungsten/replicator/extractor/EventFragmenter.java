@@ -0,0 +1,341 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.extractor;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.LoadDataFileFragment;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplOption;
+import com.continuent.tungsten.replicator.event.ReplOptionParams;
+
+/**
+ * Splits extracted events into fragments whose serialized size stays close to
+ * a maximum number of bytes. Sizes are estimated from the values that the THL
+ * serializer writes, i.e., statement text, column values, and load data, so
+ * that each fragment becomes one bounded log record regardless of how the
+ * extractor measured the transaction.
+ * <p/>
+ * Statements and row changes are moved to fragments in order. A row change
+ * that is larger than the remaining room is split between rows; each piece
+ * carries a copy of the column specifications. A single statement or row that
+ * exceeds the maximum on its own is never split and goes into a fragment by
+ * itself. Every fragment has the event ID, timestamp, metadata, and options
+ * of the original event, except that rollback metadata stays on the final
+ * fragment. Only the final fragment of a last fragment is marked as last.
+ * <p/>
+ * This class is not synchronized.
+ */
+public class EventFragmenter
+{
+    // Approximate bytes written for each value, row, and specification in
+    // addition to the data themselves.
+    private static final int VALUE_OVERHEAD = 2;
+    private static final int ROW_OVERHEAD   = 4;
+    private static final int SPEC_OVERHEAD  = 12;
+    private static final int FIXED_SIZE     = 10;
+
+    private final long       maxFragmentSize;
+
+    /**
+     * Creates a new fragmenter.
+     * 
+     * @param maxFragmentSize Approximate maximum number of bytes per fragment
+     */
+    public EventFragmenter(long maxFragmentSize)
+    {
+        this.maxFragmentSize = maxFragmentSize;
+    }
+
+    /** Returns the maximum fragment size. */
+    public long getMaxFragmentSize()
+    {
+        return maxFragmentSize;
+    }
+
+    /**
+     * Splits an event into fragments. Events that fit into a single fragment
+     * are returned unchanged as the only element of the list.
+     */
+    public List<DBMSEvent> fragment(DBMSEvent event)
+    {
+        List<DBMSEvent> fragments = new ArrayList<DBMSEvent>();
+        if (!exceedsMaximum(event))
+        {
+            fragments.add(event);
+            return fragments;
+        }
+
+        ArrayList<DBMSData> current = new ArrayList<DBMSData>();
+        long currentSize = 0;
+        for (DBMSData data : event.getData())
+        {
+            if (data instanceof RowChangeData)
+            {
+                // Row changes are split between rows as required.
+                RowChangeData rowChanges = (RowChangeData) data;
+                RowChangeData piece = newRowChangeData(rowChanges);
+                for (OneRowChange rowChange : rowChanges.getRowChanges())
+                {
+                    long specSize = estimateSpecSize(rowChange);
+                    OneRowChange rowPiece = null;
+                    int rows = rowCount(rowChange);
+                    for (int row = 0; row < rows; row++)
+                    {
+                        long rowSize = estimateRowSize(rowChange, row);
+                        long addedSize = (rowPiece == null)
+                                ? specSize + rowSize
+                                : rowSize;
+                        if (currentSize + addedSize > maxFragmentSize
+                                && (currentSize > 0))
+                        {
+                            // Close the fragment, carrying on with new pieces
+                            // of the row changes.
+                            if (piece.getRowChanges().size() > 0)
+                                current.add(piece);
+                            fragments.add(newFragment(event, current, false));
+                            current = new ArrayList<DBMSData>();
+                            currentSize = 0;
+                            piece = newRowChangeData(rowChanges);
+                            rowPiece = null;
+                            addedSize = specSize + rowSize;
+                        }
+                        if (rowPiece == null)
+                        {
+                            rowPiece = newOneRowChange(rowChange);
+                            piece.appendOneRowChange(rowPiece);
+                        }
+                        copyRow(rowChange, row, rowPiece);
+                        currentSize += addedSize;
+                    }
+                }
+                if (piece.getRowChanges().size() > 0)
+                    current.add(piece);
+            }
+            else
+            {
+                // Other changes move as a whole.
+                long dataSize = estimateSize(data);
+                if (currentSize + dataSize > maxFragmentSize
+                        && current.size() > 0)
+                {
+                    fragments.add(newFragment(event, current, false));
+                    current = new ArrayList<DBMSData>();
+                    currentSize = 0;
+                }
+                current.add(data);
+                currentSize += dataSize;
+            }
+        }
+
+        // The final fragment inherits the fragment status of the event.
+        fragments.add(newFragment(event, current, event.isLastFrag()));
+        return fragments;
+    }
+
+    /**
+     * Returns true if the estimated size of the event exceeds the maximum
+     * fragment size. Estimation stops as soon as the maximum is reached.
+     */
+    public boolean exceedsMaximum(DBMSEvent event)
+    {
+        long size = 0;
+        for (DBMSData data : event.getData())
+        {
+            if (data instanceof RowChangeData)
+            {
+                for (OneRowChange rowChange : ((RowChangeData) data)
+                        .getRowChanges())
+                {
+                    size += estimateSpecSize(rowChange);
+                    int rows = rowCount(rowChange);
+                    for (int row = 0; row < rows && size <= maxFragmentSize; row++)
+                        size += estimateRowSize(rowChange, row);
+                    if (size > maxFragmentSize)
+                        return true;
+                }
+            }
+            else
+                size += estimateSize(data);
+            if (size > maxFragmentSize)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the estimated serialized size of a statement or other change
+     * that is not a row change.
+     */
+    public static long estimateSize(DBMSData data)
+    {
+        if (data instanceof StatementData)
+        {
+            StatementData statement = (StatementData) data;
+            if (statement.getQueryAsBytes() != null)
+                return statement.getQueryAsBytes().length + FIXED_SIZE;
+            else if (statement.getQuery() != null)
+                return statement.getQuery().length() + FIXED_SIZE;
+            else
+                return FIXED_SIZE;
+        }
+        else if (data instanceof LoadDataFileFragment)
+        {
+            byte[] bytes = ((LoadDataFileFragment) data).getData();
+            return (bytes == null ? 0 : bytes.length) + FIXED_SIZE;
+        }
+        else
+            return FIXED_SIZE;
+    }
+
+    /** Returns the estimated serialized size of a single column value. */
+    public static long estimateSize(Object value)
+    {
+        if (value == null)
+            return VALUE_OVERHEAD;
+        else if (value instanceof String)
+            return ((String) value).length() + VALUE_OVERHEAD;
+        else if (value instanceof byte[])
+            return ((byte[]) value).length + VALUE_OVERHEAD;
+        try
+        {
+            if (value instanceof Blob)
+                return ((Blob) value).length() + VALUE_OVERHEAD;
+            else if (value instanceof Clob)
+                return ((Clob) value).length() + VALUE_OVERHEAD;
+        }
+        catch (SQLException e)
+        {
+            // Fall through to the size of a fixed-length value.
+        }
+        return FIXED_SIZE;
+    }
+
+    // Estimates the size of the column specifications of a row change.
+    private static long estimateSpecSize(OneRowChange rowChange)
+    {
+        long size = FIXED_SIZE;
+        for (ColumnSpec spec : rowChange.getColumnSpec())
+            size += SPEC_OVERHEAD + length(spec.getName());
+        for (ColumnSpec spec : rowChange.getKeySpec())
+            size += SPEC_OVERHEAD + length(spec.getName());
+        return size;
+    }
+
+    // Estimates the size of the values and keys of one row.
+    private static long estimateRowSize(OneRowChange rowChange, int row)
+    {
+        long size = ROW_OVERHEAD;
+        if (row < rowChange.getColumnValues().size())
+        {
+            for (ColumnVal value : rowChange.getColumnValues().get(row))
+                size += estimateSize(value.getValue());
+        }
+        if (row < rowChange.getKeyValues().size())
+        {
+            for (ColumnVal value : rowChange.getKeyValues().get(row))
+                size += estimateSize(value.getValue());
+        }
+        return size;
+    }
+
+    private static int length(String s)
+    {
+        return s == null ? 0 : s.length();
+    }
+
+    // Returns the number of rows in a row change. Inserts have only values,
+    // deletes have only keys, and updates have both.
+    private static int rowCount(OneRowChange rowChange)
+    {
+        return Math.max(rowChange.getColumnValues().size(), rowChange
+                .getKeyValues().size());
+    }
+
+    // Copies the values and keys of one row to a piece of a row change.
+    private static void copyRow(OneRowChange source, int row,
+            OneRowChange target)
+    {
+        if (row < source.getColumnValues().size())
+            target.getColumnValues().add(source.getColumnValues().get(row));
+        if (row < source.getKeyValues().size())
+            target.getKeyValues().add(source.getKeyValues().get(row));
+    }
+
+    // Creates an empty piece of a row change with the same table and
+    // specifications.
+    private static OneRowChange newOneRowChange(OneRowChange rowChange)
+    {
+        OneRowChange piece = new OneRowChange(rowChange.getSchemaName(),
+                rowChange.getTableName(), rowChange.getAction());
+        piece.setTableId(rowChange.getTableId());
+        piece.setColumnSpec(rowChange.getColumnSpec());
+        piece.setKeySpec(rowChange.getKeySpec());
+        return piece;
+    }
+
+    // Creates an empty set of row changes with the same options.
+    private static RowChangeData newRowChangeData(RowChangeData rowChanges)
+    {
+        RowChangeData piece = new RowChangeData();
+        if (rowChanges.getOptions() != null)
+        {
+            for (ReplOption option : rowChanges.getOptions())
+                piece.addOption(option.getOptionName(),
+                        option.getOptionValue());
+        }
+        return piece;
+    }
+
+    // Creates a fragment with the identity, metadata, and options of the
+    // original event.
+    private static DBMSEvent newFragment(DBMSEvent event,
+            ArrayList<DBMSData> data, boolean lastFrag)
+    {
+        LinkedList<ReplOption> metadata = new LinkedList<ReplOption>();
+        for (ReplOption option : event.getMetadata())
+        {
+            if (lastFrag
+                    || !ReplOptionParams.ROLLBACK.equals(option
+                            .getOptionName()))
+                metadata.add(new ReplOption(option.getOptionName(), option
+                        .getOptionValue()));
+        }
+        DBMSEvent fragment = new DBMSEvent(event.getEventId(), metadata, data,
+                lastFrag, event.getSourceTstamp());
+        fragment.setOptions(new LinkedList<ReplOption>(event.getOptions()));
+        return fragment;
+    }
+}
@@ -30,6 +30,7 @@ package com.continuent.tungsten.replicator.extractor;
  */
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -57,15 +58,19 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  */
 public class ExtractorWrapper implements Extractor
 {
-    private static Logger logger                  = Logger.getLogger(ExtractorWrapper.class);
-    private PluginContext pluginContext;
-    private RawExtractor  extractor;
-    private String        sourceId;
-    private long          seqno                   = 0;
-    private short         fragno                  = 0;
-    private long          epochNumber             = 0;
-    private List<Filter>  autoFilters             = new ArrayList<Filter>();
-    private boolean       autoMasterRepositioning = true;
+    private static Logger         logger                  = Logger.getLogger(ExtractorWrapper.class);
+    private PluginContext         pluginContext;
+    private RawExtractor          extractor;
+    private String                sourceId;
+    private long                  seqno                   = 0;
+    private short                 fragno                  = 0;
+    private long                  epochNumber             = 0;
+    private List<Filter>          autoFilters             = new ArrayList<Filter>();
+    private boolean               autoMasterRepositioning = true;
+
+    // Splits large events into fragments of bounded size, if enabled.
+    private EventFragmenter       fragmenter;
+    private LinkedList<DBMSEvent> pendingFragments        = new LinkedList<DBMSEvent>();
 
     /**
      * Create a new instance to wrap Creates a new <code>ExtractorWrapper</code>
@@ -89,14 +94,16 @@ public class ExtractorWrapper implements Extractor
 
     /**
      * Extracts a raw event and wraps it in a ReplDBMS complete with sequence
-     * number, which increments each time we process the last fragment.
+     * number, which increments each time we process the last fragment. If a
+     * maximum fragment size is set, events that exceed it are split and
+     * returned one fragment at a time.
      * 
      * @see com.continuent.tungsten.replicator.extractor.Extractor#extract()
      */
     public ReplDBMSEvent extract() throws ReplicatorException,
             InterruptedException
     {
-        DBMSEvent dbmsEvent = extractor.extract();
+        DBMSEvent dbmsEvent = nextDBMSEvent();
 
         if (dbmsEvent == null)
             return null;
@@ -138,6 +145,29 @@ public class ExtractorWrapper implements Extractor
         return replEvent;
     }
 
+    // Returns the next fragment of a split event or else the next event from
+    // the underlying extractor, splitting it first if necessary.
+    private DBMSEvent nextDBMSEvent() throws ReplicatorException,
+            InterruptedException
+    {
+        if (pendingFragments.size() > 0)
+            return pendingFragments.removeFirst();
+
+        DBMSEvent dbmsEvent = extractor.extract();
+        if (dbmsEvent == null || fragmenter == null)
+            return dbmsEvent;
+
+        List<DBMSEvent> fragments = fragmenter.fragment(dbmsEvent);
+        if (fragments.size() > 1 && logger.isDebugEnabled())
+        {
+            logger.debug("Split event into fragments: eventId="
+                    + dbmsEvent.getEventId() + " fragments="
+                    + fragments.size());
+        }
+        pendingFragments.addAll(fragments);
+        return pendingFragments.removeFirst();
+    }
+
     /**
      * Delegates to underlying extractor. {@inheritDoc}
      * 
@@ -240,6 +270,7 @@ public class ExtractorWrapper implements Extractor
      */
     public void setLastEventId(String eventId) throws ReplicatorException
     {
+        pendingFragments.clear();
         extractor.setLastEventId(eventId);
     }
 
@@ -268,6 +299,19 @@ public class ExtractorWrapper implements Extractor
             logger.info("Master auto-repositioning on source_id change is enabled; extractor will reposition current log position if last extracted source_id differs from current source_id");
         else
             logger.info("Master auto-repositioning on source_id change is disabled; extractor will not reposition automatically");
+
+        // Fetch the maximum fragment size, if any.
+        long maxFragmentSize = replicatorProps.getLong(
+                ReplicatorConf.MAX_FRAGMENT_SIZE,
+                ReplicatorConf.MAX_FRAGMENT_SIZE_DEFAULT, false);
+        if (maxFragmentSize > 0)
+        {
+            fragmenter = new EventFragmenter(maxFragmentSize);
+            logger.info("Extracted events will be split into fragments of approximately "
+                    + maxFragmentSize + " bytes");
+        }
+        else
+            fragmenter = null;
     }
 
     /**
@@ -0,0 +1,423 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.extractor;
+
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplOptionParams;
+import com.continuent.tungsten.replicator.extractor.mysql.SerialBlob;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+
+/**
+ * Generates a synthetic transaction load for sizing and throughput testing.
+ * Each transaction inserts a random number of rows into one table of one
+ * schema, either as a row change or as an SQL statement. Rows consist of an
+ * integer key, a configurable number of string columns, and an optional blob.
+ * Transactions are assigned to schemas uniformly except for a configurable
+ * share that goes to a single hot schema; the schema name is used as the
+ * shard ID so that parallel apply sees the same distribution.
+ * <p/>
+ * Event IDs are transaction numbers. The content of each transaction is
+ * derived from the seed and the transaction number, so events extracted again
+ * after a restart are identical to the originals. The source timestamp is the
+ * time of extraction, which allows appliers to measure end-to-end latency.
+ * Once all transactions are generated the extractor blocks.
+ */
+public class LoadGeneratorExtractor implements RawExtractor
+{
+    private static Logger logger           = Logger.getLogger(LoadGeneratorExtractor.class);
+
+    private static char[] CHARS            = "abcdefghijklmnopqrstuvwxyz0123456789"
+                                                   .toCharArray();
+
+    // Load properties.
+    private long          transactions     = 1000;
+    private int           minRows          = 1;
+    private int           maxRows          = 10;
+    private int           columns          = 4;
+    private int           stringSize       = 32;
+    private int           blobSize         = 0;
+    private int           schemas          = 10;
+    private int           tables           = 10;
+    private int           hotShardPercent  = 0;
+    private int           statementPercent = 0;
+    private long          seed             = 1;
+    private int           ratePerSecond    = 0;
+    private String        schemaPrefix     = "load";
+
+    // Number of the next transaction to generate and where we started.
+    private long          trxIndex         = 0;
+    private long          trxBase          = 0;
+    private long          startMillis      = -1;
+
+    /** Sets the number of transactions to generate. */
+    public void setTransactions(long transactions)
+    {
+        this.transactions = transactions;
+    }
+
+    /** Sets the minimum number of rows per transaction. */
+    public void setMinRows(int minRows)
+    {
+        this.minRows = minRows;
+    }
+
+    /** Sets the maximum number of rows per transaction. */
+    public void setMaxRows(int maxRows)
+    {
+        this.maxRows = maxRows;
+    }
+
+    /** Sets the number of string columns in each row. */
+    public void setColumns(int columns)
+    {
+        this.columns = columns;
+    }
+
+    /** Sets the length of string column values. */
+    public void setStringSize(int stringSize)
+    {
+        this.stringSize = stringSize;
+    }
+
+    /** Sets the size of the blob column in bytes; 0 omits the column. */
+    public void setBlobSize(int blobSize)
+    {
+        this.blobSize = blobSize;
+    }
+
+    /** Sets the number of schemas, which is also the number of shards. */
+    public void setSchemas(int schemas)
+    {
+        this.schemas = schemas;
+    }
+
+    /** Sets the number of tables per schema. */
+    public void setTables(int tables)
+    {
+        this.tables = tables;
+    }
+
+    /**
+     * Sets the percentage of transactions that go to the first schema, which
+     * allows tests to skew load toward a single shard.
+     */
+    public void setHotShardPercent(int hotShardPercent)
+    {
+        this.hotShardPercent = hotShardPercent;
+    }
+
+    /** Sets the percentage of transactions generated as SQL statements. */
+    public void setStatementPercent(int statementPercent)
+    {
+        this.statementPercent = statementPercent;
+    }
+
+    /** Sets the seed for generating transaction content. */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /** Sets the maximum transactions per second; 0 means unlimited. */
+    public void setRatePerSecond(int ratePerSecond)
+    {
+        this.ratePerSecond = ratePerSecond;
+    }
+
+    /** Sets the prefix of generated schema names. */
+    public void setSchemaPrefix(String schemaPrefix)
+    {
+        this.schemaPrefix = schemaPrefix;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.extractor.RawExtractor#extract()
+     */
+    public synchronized DBMSEvent extract() throws ReplicatorException,
+            InterruptedException
+    {
+        if ((trxIndex - trxBase) >= transactions)
+        {
+            Thread.sleep(Long.MAX_VALUE);
+            return null;
+        }
+
+        // Hold back if we are ahead of the requested rate.
+        if (ratePerSecond > 0)
+        {
+            if (startMillis < 0)
+                startMillis = System.currentTimeMillis();
+            long due = startMillis + ((trxIndex - trxBase) * 1000)
+                    / ratePerSecond;
+            long wait = due - System.currentTimeMillis();
+            if (wait > 0)
+                Thread.sleep(wait);
+        }
+
+        return generateEvent(trxIndex++);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.extractor.RawExtractor#extract(java.lang.String)
+     */
+    public DBMSEvent extract(String eventId) throws ReplicatorException
+    {
+        long idx = Long.parseLong(eventId);
+        if (idx < 0 || idx >= trxIndex)
+            return null;
+        return generateEvent(idx);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.extractor.RawExtractor#setLastEventId(java.lang.String)
+     */
+    public synchronized void setLastEventId(String eventId)
+            throws ReplicatorException
+    {
+        if (eventId == null)
+            trxIndex = 0;
+        else
+        {
+            long id;
+            try
+            {
+                id = Long.parseLong(eventId);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new ExtractorException("Invalid event id: " + eventId);
+            }
+            if (id < 0)
+                throw new ExtractorException("Event id '" + eventId
+                        + "' out of range");
+            trxIndex = id + 1;
+        }
+        trxBase = trxIndex;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.extractor.RawExtractor#getCurrentResourceEventId()
+     */
+    public synchronized String getCurrentResourceEventId()
+    {
+        return Long.toString(trxIndex - 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#configure(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void configure(PluginContext context) throws ReplicatorException
+    {
+        if (minRows < 1 || maxRows < minRows)
+            throw new ReplicatorException(
+                    "Rows per transaction must satisfy 1 <= minRows <= maxRows: minRows="
+                            + minRows + " maxRows=" + maxRows);
+        if (schemas < 1 || tables < 1)
+            throw new ReplicatorException(
+                    "Schema and table counts must be at least 1: schemas="
+                            + schemas + " tables=" + tables);
+        if (hotShardPercent < 0 || hotShardPercent > 100
+                || statementPercent < 0 || statementPercent > 100)
+            throw new ReplicatorException(
+                    "Percentages must be between 0 and 100: hotShardPercent="
+                            + hotShardPercent + " statementPercent="
+                            + statementPercent);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#prepare(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void prepare(PluginContext context)
+    {
+        logger.info("Generating load: transactions=" + transactions
+                + " rows=" + minRows + "-" + maxRows + " columns=" + columns
+                + " stringSize=" + stringSize + " blobSize=" + blobSize
+                + " schemas=" + schemas + " tables=" + tables
+                + " hotShardPercent=" + hotShardPercent
+                + " statementPercent=" + statementPercent
+                + " ratePerSecond=" + ratePerSecond);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#release(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void release(PluginContext context)
+    {
+    }
+
+    // Generates the transaction with the given number.
+    private DBMSEvent generateEvent(long index) throws ReplicatorException
+    {
+        Random random = new Random(seed * 1000003 + index);
+
+        // Pick the schema, table, and size of the transaction.
+        int schemaIndex;
+        if (random.nextInt(100) < hotShardPercent)
+            schemaIndex = 0;
+        else
+            schemaIndex = random.nextInt(schemas);
+        String schema = schemaPrefix + "_" + schemaIndex;
+        String table = "t" + random.nextInt(tables);
+        int rows = minRows + random.nextInt(maxRows - minRows + 1);
+        long firstKey = index * maxRows;
+
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        if (random.nextInt(100) < statementPercent)
+            data.add(generateStatement(random, schema, table, firstKey, rows));
+        else
+            data.add(generateRowChange(random, schema, table, firstKey, rows));
+
+        DBMSEvent event = new DBMSEvent(Long.toString(index), null, data,
+                true, new Timestamp(System.currentTimeMillis()));
+        event.addMetadataOption(ReplOptionParams.SHARD_ID, schema);
+        return event;
+    }
+
+    // Generates a row change inserting rows.
+    private RowChangeData generateRowChange(Random random, String schema,
+            String table, long firstKey, int rows) throws ReplicatorException
+    {
+        OneRowChange orc = new OneRowChange(schema, table,
+                RowChangeData.ActionType.INSERT);
+        ArrayList<ColumnSpec> specs = orc.getColumnSpec();
+        specs.add(createSpec(orc, 1, "id", Types.INTEGER, 8));
+        for (int c = 0; c < columns; c++)
+            specs.add(createSpec(orc, c + 2, "c" + c, Types.VARCHAR,
+                    stringSize));
+        if (blobSize > 0)
+            specs.add(createSpec(orc, columns + 2, "data", Types.BLOB,
+                    blobSize));
+
+        for (int r = 0; r < rows; r++)
+        {
+            ArrayList<ColumnVal> row = new ArrayList<ColumnVal>(specs.size());
+            row.add(createValue(orc, new Long(firstKey + r)));
+            for (int c = 0; c < columns; c++)
+                row.add(createValue(orc, randomString(random)));
+            if (blobSize > 0)
+            {
+                byte[] blob = new byte[blobSize];
+                random.nextBytes(blob);
+                try
+                {
+                    row.add(createValue(orc, new SerialBlob(blob)));
+                }
+                catch (SQLException e)
+                {
+                    throw new ExtractorException("Unable to generate blob",
+                            e);
+                }
+            }
+            orc.getColumnValues().add(row);
+        }
+
+        RowChangeData rowChanges = new RowChangeData();
+        rowChanges.appendOneRowChange(orc);
+        return rowChanges;
+    }
+
+    // Generates a multi-row insert statement.
+    private StatementData generateStatement(Random random, String schema,
+            String table, long firstKey, int rows)
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append("INSERT INTO ").append(table).append(" VALUES ");
+        for (int r = 0; r < rows; r++)
+        {
+            if (r > 0)
+                sb.append(", ");
+            sb.append("(").append(firstKey + r);
+            for (int c = 0; c < columns; c++)
+                sb.append(", '").append(randomString(random)).append("'");
+            if (blobSize > 0)
+            {
+                sb.append(", x'");
+                for (int b = 0; b < blobSize; b++)
+                    sb.append(Integer.toHexString(16 + random.nextInt(240)));
+                sb.append("'");
+            }
+            sb.append(")");
+        }
+        return new StatementData(sb.toString(), null, schema);
+    }
+
+    // Returns a random alphanumeric string of the configured length.
+    private String randomString(Random random)
+    {
+        char[] value = new char[stringSize];
+        for (int i = 0; i < stringSize; i++)
+            value[i] = CHARS[random.nextInt(CHARS.length)];
+        return new String(value);
+    }
+
+    // Creates a column specification.
+    private ColumnSpec createSpec(OneRowChange orc, int index, String name,
+            int type, int length)
+    {
+        ColumnSpec spec = orc.new ColumnSpec();
+        spec.setIndex(index);
+        spec.setName(name);
+        spec.setType(type);
+        spec.setLength(length);
+        return spec;
+    }
+
+    // Creates a column value.
+    private ColumnVal createValue(OneRowChange orc, Serializable value)
+    {
+        ColumnVal val = orc.new ColumnVal();
+        val.setValue(value);
+        return val;
+    }
+}
@@ -31,6 +31,8 @@ import java.util.Arrays;
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.common.io.BufferedFileDataInput;
+import com.continuent.tungsten.common.io.FileDataInput;
+import com.continuent.tungsten.common.io.MappedFileDataInput;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.extractor.mysql.conversion.LittleEndianConversion;
 
@@ -50,33 +52,41 @@ import com.continuent.tungsten.replicator.extractor.mysql.conversion.LittleEndia
  */
 public class BinlogReader implements FilenameFilter, Cloneable
 {
-    static Logger                 logger                 = Logger.getLogger(MySQLExtractor.class);
+    static Logger         logger                 = Logger.getLogger(MySQLExtractor.class);
 
     // Stream from which we are reading.
-    private BufferedFileDataInput bfdi;
+    private FileDataInput bfdi;
 
     // Binlog file name and directory.
-    private String                fileName;
-    private String                directory;
+    private String        fileName;
+    private String        directory;
 
     // Binlog file base name.
-    private String                baseName;
+    private String        baseName;
 
     // Start position. We seek to this after open if greater than 0.
-    private long                  startPosition;
+    private long          startPosition;
 
     // Binlog version. This must be set externally by clients after reading
     // the header.
-    private int                   version                = MysqlBinlog.VERSION_NONE;
+    private int           version                = MysqlBinlog.VERSION_NONE;
 
     // Id of last event read.
-    private int                   eventID;
+    private int           eventID;
 
     // Buffer size for reads.
-    private int                   bufferSize             = 64000;
+    private int           bufferSize             = 64000;
+
+    // Bytes to read ahead on complete binlogs, which are memory-mapped. 0
+    // disables mapping.
+    private int           readAheadBytes         = 0;
 
     // Delay in milliseconds to wait for binlog writes to flush fully.
-    private int                   binlogFlushDelayMillis = 5000;
+    private int           binlogFlushDelayMillis = 5000;
+
+    // Wakes waits for more data when the binlog directory changes. Null
+    // means waits poll.
+    private BinlogTailWatcher tailWatcher;
 
     /**
      * Defines only binlog directory and binlog file base name.
@@ -118,12 +128,13 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public BinlogReader clone()
     {
-        long offset = bfdi == null ? 0 : bfdi.getOffset();
+        long offset = getPosition();
         BinlogReader cloned = new BinlogReader(offset, fileName, directory,
                 baseName, bufferSize);
 
         // Set last ID read.
         cloned.setEventID(eventID);
+        cloned.setTailWatcher(tailWatcher);
 
         return cloned;
     }
@@ -163,7 +174,7 @@ public class BinlogReader implements FilenameFilter, Cloneable
                 logger.debug("Opening file " + file.getName()
                         + " with buffer = " + bufferSize);
 
-            bfdi = new BufferedFileDataInput(file, bufferSize);
+            bfdi = openInput(file);
 
             // Validate the file magic number.
             byte magic[] = new byte[MysqlBinlog.BIN_LOG_HEADER_SIZE];
@@ -289,6 +300,47 @@ public class BinlogReader implements FilenameFilter, Cloneable
         }
     }
 
+    // Opens a memory-mapped reader with read-ahead if the binlog is complete,
+    // which is generally the case when catching up. The active binlog uses
+    // a buffered reader.
+    private FileDataInput openInput(File file) throws IOException,
+            InterruptedException
+    {
+        if (readAheadBytes > 0 && isComplete())
+        {
+            try
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Mapping complete binlog file " + file.getName()
+                            + " with read-ahead = " + readAheadBytes);
+                return new MappedFileDataInput(file, readAheadBytes);
+            }
+            catch (IOException e)
+            {
+                logger.warn("Unable to map binlog file, using buffered reads: file="
+                        + file.getName() + " exception=" + e.getMessage());
+            }
+        }
+        return new BufferedFileDataInput(file, bufferSize);
+    }
+
+    // Returns true if the binlog index shows a later binlog, which means the
+    // current binlog will not be written further.
+    private boolean isComplete()
+    {
+        try
+        {
+            BinlogIndex bi = new BinlogIndex(directory, baseName, true);
+            return bi.nextBinlog(fileName) != null;
+        }
+        catch (ReplicatorException e)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Unable to read binlog index: " + e.getMessage());
+            return false;
+        }
+    }
+
     /**
      * Returns true if a binlog log file is currently open.
      */
@@ -312,6 +364,22 @@ public class BinlogReader implements FilenameFilter, Cloneable
         setFileName(null);
     }
 
+    /**
+     * Closes the stream but leaves the file name, position, and event ID
+     * intact. The next call to open() resumes reading at the same position.
+     * This allows clients to track the position while events are delivered
+     * from another source.
+     */
+    public void detach()
+    {
+        if (bfdi != null)
+        {
+            startPosition = bfdi.getOffset();
+            bfdi.close();
+            bfdi = null;
+        }
+    }
+
     /**
      * Returns the number of bytes available in the current log file. WARNING:
      * this is a potentially expensive call as it will fetch disk metadata over
@@ -339,6 +407,21 @@ public class BinlogReader implements FilenameFilter, Cloneable
         return bfdi.waitAvailable(requested, waitMillis);
     }
 
+    /**
+     * Waits briefly for more data to be written to the binlog. With a tail
+     * watcher the wait ends as soon as the binlog directory changes; otherwise
+     * it sleeps for a millisecond. Callers must recheck available bytes.
+     * 
+     * @throws InterruptedException Thrown if interrupted during wait
+     */
+    public void waitForData() throws InterruptedException
+    {
+        if (tailWatcher == null)
+            Thread.sleep(1);
+        else
+            tailWatcher.await(10);
+    }
+
     /**
      * Skips a given number of bytes.
      * 
@@ -428,6 +511,35 @@ public class BinlogReader implements FilenameFilter, Cloneable
     }
 
     /* member getters and setters */
+    public int getReadAheadBytes()
+    {
+        return readAheadBytes;
+    }
+
+    /**
+     * Sets the number of bytes to read ahead on binlogs that are complete.
+     * Complete binlogs are memory-mapped and paged in by a background thread
+     * ahead of the reader. 0 reads all binlogs with buffered I/O.
+     */
+    public void setReadAheadBytes(int readAheadBytes)
+    {
+        this.readAheadBytes = readAheadBytes;
+    }
+
+    public BinlogTailWatcher getTailWatcher()
+    {
+        return tailWatcher;
+    }
+
+    /**
+     * Sets a watcher used to wake waits for data at the end of the active
+     * binlog.
+     */
+    public void setTailWatcher(BinlogTailWatcher tailWatcher)
+    {
+        this.tailWatcher = tailWatcher;
+    }
+
     public void setStartPosition(long newPosition)
     {
         startPosition = newPosition;
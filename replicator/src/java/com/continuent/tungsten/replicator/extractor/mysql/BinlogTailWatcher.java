@@ -0,0 +1,151 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Wakes a reader waiting at the end of the active binlog as soon as the binlog
+ * directory reports a change instead of after a fixed sleep. Changes come from
+ * a {@link WatchService}, which uses inotify on Linux. If the service cannot be
+ * started, waits fall back to plain sleeps.
+ * <p>
+ * Wake-ups are hints only. Callers must check for data after each wait, since
+ * a change to another file in the directory also ends the wait.
+ */
+public class BinlogTailWatcher
+{
+    private static Logger logger = Logger.getLogger(BinlogTailWatcher.class);
+
+    private final File    directory;
+    private WatchService  watchService;
+
+    /**
+     * Creates a new watcher.
+     * 
+     * @param directory Binlog directory to watch
+     */
+    public BinlogTailWatcher(File directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Starts watching the directory for new and modified files.
+     */
+    public synchronized void start()
+    {
+        try
+        {
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.toPath().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            if (logger.isDebugEnabled())
+                logger.debug("Watching binlog directory for changes: "
+                        + directory.getAbsolutePath());
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to watch binlog directory, falling back to polling: "
+                    + directory.getAbsolutePath() + " (" + e.getMessage() + ")");
+            release();
+        }
+    }
+
+    /**
+     * Returns true if waits wake on changes rather than just sleeping.
+     */
+    public synchronized boolean isWatching()
+    {
+        return watchService != null;
+    }
+
+    /**
+     * Waits until the directory changes or the wait times out. Changes that
+     * occurred since the previous wait end the wait at once, so there is no
+     * window in which a write can be missed.
+     * 
+     * @param waitMillis Maximum time to wait in milliseconds
+     * @return True if the wait ended because of a change
+     */
+    public boolean await(long waitMillis) throws InterruptedException
+    {
+        WatchService service;
+        synchronized (this)
+        {
+            service = watchService;
+        }
+        if (service == null)
+        {
+            Thread.sleep(waitMillis);
+            return false;
+        }
+
+        WatchKey key;
+        try
+        {
+            key = service.poll(waitMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (ClosedWatchServiceException e)
+        {
+            // Released while we were waiting.
+            return false;
+        }
+        if (key == null)
+            return false;
+        key.pollEvents();
+        key.reset();
+        return true;
+    }
+
+    /**
+     * Stops watching. Later waits just sleep.
+     */
+    public synchronized void release()
+    {
+        if (watchService != null)
+        {
+            try
+            {
+                watchService.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Unable to close binlog directory watch: "
+                        + directory.getAbsolutePath(), e);
+            }
+            watchService = null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+/**
+ * Describes how a single column is stored in the rows events that follow a
+ * table map. The real type and length of CHAR, ENUM and SET columns are packed
+ * into the metadata of MYSQL_TYPE_STRING columns and the size of DECIMAL
+ * values depends on precision and scale, so these are resolved once per
+ * {@link TableMapLogEvent} rather than for every value extracted.
+ * <p/>
+ * Instances are immutable and may be shared between threads decoding rows
+ * events for the same table.
+ */
+public class ColumnFormat
+{
+    private final int     type;
+    private final int     meta;
+    private final int     length;
+    private final int     precision;
+    private final int     scale;
+    private final int     decimalSize;
+    private final boolean known;
+
+    /**
+     * Resolves the format of a column.
+     * 
+     * @param type Column type from the table map
+     * @param meta Column metadata from the table map
+     */
+    public ColumnFormat(int type, int meta)
+    {
+        int length = 0;
+        boolean known = true;
+
+        // Calculate length for MYSQL_TYPE_STRING
+        if (type == MysqlBinlog.MYSQL_TYPE_STRING)
+        {
+            if (meta >= 256)
+            {
+                int byte0 = meta >> 8;
+                int byte1 = meta & 0xFF;
+
+                if ((byte0 & 0x30) != 0x30)
+                {
+                    /* a long CHAR() field: see #37426 */
+                    length = byte1 | (((byte0 & 0x30) ^ 0x30) << 4);
+                    type = byte0 | 0x30;
+                }
+                else
+                {
+                    switch (byte0)
+                    {
+                        case MysqlBinlog.MYSQL_TYPE_SET :
+                        case MysqlBinlog.MYSQL_TYPE_ENUM :
+                        case MysqlBinlog.MYSQL_TYPE_STRING :
+                            type = byte0;
+                            length = byte1;
+                            break;
+
+                        default :
+                            known = false;
+                            break;
+                    }
+                }
+            }
+            else
+            {
+                length = meta;
+            }
+        }
+
+        this.type = type;
+        this.meta = meta;
+        this.length = length;
+        this.known = known;
+
+        if (type == MysqlBinlog.MYSQL_TYPE_NEWDECIMAL)
+        {
+            precision = meta >> 8;
+            scale = meta & 0xFF;
+            decimalSize = MysqlBinlog.getDecimalBinarySize(precision, scale);
+        }
+        else
+        {
+            precision = 0;
+            scale = 0;
+            decimalSize = 0;
+        }
+    }
+
+    /**
+     * Returns the type used to decode values, which for CHAR, ENUM and SET
+     * columns differs from the type in the table map.
+     */
+    public int getType()
+    {
+        return type;
+    }
+
+    /** Returns the column metadata from the table map. */
+    public int getMeta()
+    {
+        return meta;
+    }
+
+    /** Returns the length of CHAR, ENUM and SET columns. */
+    public int getLength()
+    {
+        return length;
+    }
+
+    /** Returns the precision of DECIMAL columns. */
+    public int getPrecision()
+    {
+        return precision;
+    }
+
+    /** Returns the scale of DECIMAL columns. */
+    public int getScale()
+    {
+        return scale;
+    }
+
+    /** Returns the number of bytes used to store DECIMAL values. */
+    public int getDecimalSize()
+    {
+        return decimalSize;
+    }
+
+    /** Returns false if values of this column cannot be decoded. */
+    public boolean isKnown()
+    {
+        return known;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(this.getClass().getSimpleName());
+        sb.append(" type=").append(type);
+        sb.append(" meta=").append(meta);
+        sb.append(" length=").append(length);
+        if (!known)
+            sb.append(" (unknown)");
+        return sb.toString();
+    }
+}
@@ -292,6 +292,22 @@ public abstract class LogEvent
         return event;
     }
 
+    /**
+     * Constructs an event from a complete event, including the header, that
+     * has been read by other means than the binlog reader.
+     *
+     * @param position Binlog position of the event, used for naming
+     * @param fullEvent Event header and data
+     */
+    static LogEvent readLogEvent(BinlogReader position, byte[] fullEvent,
+            FormatDescriptionLogEvent descriptionEvent,
+            boolean parseStatements, boolean useBytesForString)
+            throws ReplicatorException
+    {
+        return readLogEvent(parseStatements, position.toString(), fullEvent,
+                fullEvent.length, descriptionEvent, useBytesForString);
+    }
+
     public static LogEvent readLogEvent(ReplicatorRuntime runtime,
             BinlogReader position, FormatDescriptionLogEvent descriptionEvent,
             boolean parseStatements, boolean useBytesForString,
@@ -621,8 +637,7 @@ public abstract class LogEvent
             InterruptedException
     {
         boolean alreadyLogged = false;
-        int spentTime = 0;
-        int timeoutInMs = timeout * 1000;
+        long timeoutMillis = System.currentTimeMillis() + timeout * 1000L;
 
         long available;
         while ((available = binlog.available()) < (long) length)
@@ -643,11 +658,8 @@ public abstract class LogEvent
 
             try
             {
-                if (spentTime < timeoutInMs)
-                {
-                    Thread.sleep(1);
-                    spentTime++;
-                }
+                if (System.currentTimeMillis() < timeoutMillis)
+                    binlog.waitForData();
                 else
                     throw new MySQLExtractException(
                             "Timeout while waiting for data : spent more than "
@@ -730,6 +742,26 @@ public abstract class LogEvent
         }
     }
 
+    /**
+     * Extracts a decimal stored at the given position of a buffer. Decimals
+     * that fit in a long are decoded in place; wider ones are copied and
+     * extracted with {@link #extractDecimal(byte[], int, int)}.
+     */
+    protected BigDecimal extractDecimal(byte[] buffer, int pos, int precision,
+            int scale)
+    {
+        BigDecimal value = MysqlBinlog.decimalToBigDecimal(buffer, pos,
+                precision, scale);
+        if (value == null)
+        {
+            int binSize = getDecimalBinarySize(precision, scale);
+            byte[] dec = new byte[binSize];
+            System.arraycopy(buffer, pos, dec, 0, binSize);
+            value = extractDecimal(dec, precision, scale);
+        }
+        return value;
+    }
+
     protected BigDecimal extractDecimal(byte[] buffer, int precision, int scale)
     {
         //
@@ -853,16 +885,7 @@ public abstract class LogEvent
      */
     protected int getDecimalBinarySize(int precision, int scale)
     {
-        int intg = precision - scale;
-        int intg0 = intg / MysqlBinlog.DIG_PER_DEC1;
-        int frac0 = scale / MysqlBinlog.DIG_PER_DEC1;
-        int intg0x = intg - intg0 * MysqlBinlog.DIG_PER_DEC1;
-        int frac0x = scale - frac0 * MysqlBinlog.DIG_PER_DEC1;
-
-        assert (scale >= 0 && precision > 0 && scale <= precision);
-
-        return intg0 * (4) + MysqlBinlog.dig2bytes[intg0x] + frac0 * (4)
-                + MysqlBinlog.dig2bytes[frac0x];
+        return MysqlBinlog.getDecimalBinarySize(precision, scale);
     }
 
     public static String hexdump(byte[] buffer)
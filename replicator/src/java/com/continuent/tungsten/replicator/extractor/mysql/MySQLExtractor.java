@@ -24,7 +24,6 @@ package com.continuent.tungsten.replicator.extractor.mysql;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -45,7 +44,6 @@ import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
 import com.continuent.tungsten.replicator.database.SqlOperation;
 import com.continuent.tungsten.replicator.database.SqlOperationMatcher;
 import com.continuent.tungsten.replicator.database.Table;
-import com.continuent.tungsten.replicator.database.TableMetadataCache;
 import com.continuent.tungsten.replicator.datasource.SqlConnectionSpec;
 import com.continuent.tungsten.replicator.datasource.SqlDataSource;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
@@ -98,6 +96,8 @@ public class MySQLExtractor implements RawExtractor
     private boolean                         useRelayLogs              = false;
     private long                            relayLogWaitTimeout       = 0;
     private long                            relayLogReadTimeout       = 0;
+    private int                             relayLogBufferSize        = 65536;
+    private int                             relayLogEventQueueSize    = 0;
     private boolean                         deterministicIo           = true;
     private int                             relayLogRetention         = 3;
     private String                          relayLogDir               = null;
@@ -116,12 +116,19 @@ public class MySQLExtractor implements RawExtractor
     private HashMap<Long, TableMapLogEvent> tableEvents               = new HashMap<Long, TableMapLogEvent>();
 
     private int                             transactionFragSize       = 0;
+    private int                             rowsEventDecodeThreads    = 0;
+    private int                             rowsEventDecodeMinSize    = 16384;
+    private RowsEventDecoder                rowsEventDecoder          = null;
     private boolean                         fragmentedTransaction     = false;
 
     // Built-in task to manage relay logs.
     private RelayLogTask                    relayLogTask              = null;
     private Thread                          relayLogThread            = null;
     private LinkedBlockingQueue<File>       relayLogQueue             = null;
+    private RelayEventQueue                 relayEventQueue           = null;
+
+    // Wakes the extractor when the binlog it is tailing grows.
+    private BinlogTailWatcher               tailWatcher               = null;
 
     // Varchar type fields can be retrieved and stored in THL either using
     // String datatype or bytes arrays. By default, using string datatype.
@@ -144,6 +151,7 @@ public class MySQLExtractor implements RawExtractor
     private String                          urlOptions;
 
     private int                             bufferSize                = 32768;
+    private int                             binlogReadAheadBytes      = 0;
 
     // This has to be a set to a valid checksum value when the binlog is
     // first opened.
@@ -153,12 +161,6 @@ public class MySQLExtractor implements RawExtractor
     // time datatypes are logged in the binlog in Maria10)
     private boolean                         isMaria10                 = false;
 
-    // Metadata cache variables
-    private TableMetadataCache              metadataCache;
-    private Database                        metadataConnection        = null;
-    private int                             reconnectTimeoutInSeconds = 180;
-    private long                            lastConnectionTime        = 0;
-
     public String getDatabaseSource()
     {
         return dataSource;
@@ -219,6 +221,35 @@ public class MySQLExtractor implements RawExtractor
         this.useBytesForStrings = useBytes;
     }
 
+    public int getRowsEventDecodeThreads()
+    {
+        return rowsEventDecodeThreads;
+    }
+
+    /**
+     * Sets the number of threads used to decode row images of large rows log
+     * events in parallel with reading the binlog. 0 decodes all events on the
+     * extractor thread.
+     */
+    public void setRowsEventDecodeThreads(int rowsEventDecodeThreads)
+    {
+        this.rowsEventDecodeThreads = rowsEventDecodeThreads;
+    }
+
+    public int getRowsEventDecodeMinSize()
+    {
+        return rowsEventDecodeMinSize;
+    }
+
+    /**
+     * Sets the minimum size in bytes of rows log events that are decoded by
+     * worker threads. Smaller events are decoded on the extractor thread.
+     */
+    public void setRowsEventDecodeMinSize(int rowsEventDecodeMinSize)
+    {
+        this.rowsEventDecodeMinSize = rowsEventDecodeMinSize;
+    }
+
     public boolean isUseRelayLogs()
     {
         return useRelayLogs;
@@ -249,6 +280,31 @@ public class MySQLExtractor implements RawExtractor
         this.relayLogReadTimeout = relayLogReadTimeout;
     }
 
+    public int getRelayLogBufferSize()
+    {
+        return relayLogBufferSize;
+    }
+
+    public void setRelayLogBufferSize(int relayLogBufferSize)
+    {
+        this.relayLogBufferSize = relayLogBufferSize;
+    }
+
+    public int getRelayLogEventQueueSize()
+    {
+        return relayLogEventQueueSize;
+    }
+
+    /**
+     * Sets the number of binlog events the relay log client may hand directly
+     * to the extractor in memory. Values of 0 or less disable the in-memory
+     * handoff, in which case all events are read back from relay log files.
+     */
+    public void setRelayLogEventQueueSize(int relayLogEventQueueSize)
+    {
+        this.relayLogEventQueueSize = relayLogEventQueueSize;
+    }
+
     public int getRelayLogRetention()
     {
         return relayLogRetention;
@@ -324,14 +380,44 @@ public class MySQLExtractor implements RawExtractor
         bufferSize = size;
     }
 
-    // Reads the next log from the file.
+    public int getBinlogReadAheadBytes()
+    {
+        return binlogReadAheadBytes;
+    }
+
+    /**
+     * Sets the number of bytes to read ahead on binlogs that are no longer
+     * being written, for example when catching up after a failover. Such
+     * binlogs are memory-mapped. 0 uses buffered reads for all binlogs.
+     */
+    public void setBinlogReadAheadBytes(int binlogReadAheadBytes)
+    {
+        this.binlogReadAheadBytes = binlogReadAheadBytes;
+    }
+
+    // Reads the next log from the file or from the relay event queue.
     private LogEvent processFile(BinlogReader position)
             throws ReplicatorException, InterruptedException
     {
         try
         {
+            // Events handed over in memory by the relay log client are only
+            // used to advance the main extraction position.
+            boolean useEventQueue = (position == binlogPosition);
+
+            // Watch the binlog directory so that waits at the end of the
+            // active binlog end as soon as more data is written. Relay log
+            // directories may not exist until the relay client starts.
+            if (tailWatcher == null && new File(binlogDir).isDirectory())
+            {
+                tailWatcher = new BinlogTailWatcher(new File(binlogDir));
+                tailWatcher.start();
+            }
+            position.setTailWatcher(tailWatcher);
+
             // Open up the binlog if we have not done so already.
-            if (!position.isOpen())
+            if ((!useEventQueue || relayEventQueue == null)
+                    && !position.isOpen())
             {
                 position.open();
             }
@@ -341,9 +427,49 @@ public class MySQLExtractor implements RawExtractor
                         + position.getPosition());
             long indexCheckStart = System.currentTimeMillis();
 
-            // Read from the binlog.
-            while (position.available() == 0)
+            // We can assume a V4 format description as we don't support MySQL
+            // versions prior to 5.0.
+            FormatDescriptionLogEvent descriptionEvent = new FormatDescriptionLogEvent(
+                    4, checksumAlgo, isMaria10);
+
+            // Read from the relay event queue or the binlog.
+            while (true)
             {
+                // Fetch the queue each time as relay logs may restart.
+                RelayEventQueue eventQueue = useEventQueue
+                        ? relayEventQueue
+                        : null;
+                RelayEventQueue.Entry queued = null;
+                if (eventQueue != null)
+                {
+                    queued = nextQueuedEvent(eventQueue, position);
+                    if (queued != null && isUsableQueuedEvent(queued, position))
+                    {
+                        // Take the event from memory. The binlog is closed so
+                        // that we reopen at the right position if we later
+                        // need to read from it.
+                        eventQueue.poll();
+                        position.detach();
+                        byte[] data = queued.getData();
+                        LogEvent event = LogEvent.readLogEvent(position, data,
+                                descriptionEvent, parseStatements,
+                                useBytesForStrings);
+                        position.setStartPosition(queued.getOffset()
+                                + data.length);
+                        return completeEvent(position, event);
+                    }
+                }
+
+                // Check the binlog unless the queue shows that we have read
+                // everything the relay log client has received.
+                if (eventQueue == null || queued != null)
+                {
+                    if (!position.isOpen())
+                        position.open();
+                    if (position.available() > 0)
+                        break;
+                }
+
                 // TREP-301 - If we are waiting at the end of the file we
                 // must check that we are not reading a log file that is
                 // missing a log-rotate record.
@@ -371,28 +497,22 @@ public class MySQLExtractor implements RawExtractor
                     indexCheckStart = System.currentTimeMillis();
                 }
 
-                // Sleep for a while.
-                Thread.sleep(10);
+                // Wait for a while. If the queue is empty we wake up as soon
+                // as the relay log client adds an event, otherwise as soon as
+                // the binlog directory changes.
+                if (eventQueue != null && queued == null)
+                    eventQueue.peek(10);
+                else if (tailWatcher != null)
+                    tailWatcher.await(10);
+                else
+                    Thread.sleep(10);
             }
 
-            // We can assume a V4 format description as we don't support MySQL
-            // versions prior to 5.0.
-            FormatDescriptionLogEvent descriptionEvent = new FormatDescriptionLogEvent(
-                    4, checksumAlgo, isMaria10);
-
             // Read from the log.
             LogEvent event = LogEvent.readLogEvent(runtime, position,
                     descriptionEvent, parseStatements, useBytesForStrings,
                     prefetchSchemaNameLDI);
-
-            if (event instanceof FormatDescriptionLogEvent)
-            {
-                this.checksumAlgo = ((FormatDescriptionLogEvent) event)
-                        .getChecksumAlgo();
-            }
-            position.setEventID(position.getEventID() + 1);
-
-            return event;
+            return completeEvent(position, event);
         }
         catch (IOException e)
         {
@@ -402,6 +522,54 @@ public class MySQLExtractor implements RawExtractor
         }
     }
 
+    // Updates checksum and event ID after reading an event.
+    private LogEvent completeEvent(BinlogReader position, LogEvent event)
+    {
+        if (event instanceof FormatDescriptionLogEvent)
+        {
+            this.checksumAlgo = ((FormatDescriptionLogEvent) event)
+                    .getChecksumAlgo();
+        }
+        position.setEventID(position.getEventID() + 1);
+
+        return event;
+    }
+
+    // Returns the first queued event at or after the binlog position,
+    // discarding events that have already been read from the binlog.
+    private RelayEventQueue.Entry nextQueuedEvent(RelayEventQueue eventQueue,
+            BinlogReader position) throws InterruptedException
+    {
+        // After a rotation the position is 0 until the file is opened.
+        long offset = Math.max(position.getPosition(),
+                MysqlBinlog.BIN_LOG_HEADER_SIZE);
+        RelayEventQueue.Entry queued;
+        while ((queued = eventQueue.peek(0)) != null
+                && queued.compareTo(position.getFileName(), offset) < 0)
+        {
+            eventQueue.poll();
+        }
+        return queued;
+    }
+
+    // Returns true if a queued event is at the binlog position and can be
+    // processed from memory. Events that are too large to queue and load
+    // data events, which look ahead in the binlog, are read from the file.
+    private boolean isUsableQueuedEvent(RelayEventQueue.Entry queued,
+            BinlogReader position)
+    {
+        long offset = Math.max(position.getPosition(),
+                MysqlBinlog.BIN_LOG_HEADER_SIZE);
+        if (queued.compareTo(position.getFileName(), offset) != 0)
+            return false;
+        byte[] data = queued.getData();
+        if (data == null)
+            return false;
+        int eventType = data[MysqlBinlog.EVENT_TYPE_OFFSET];
+        return eventType != MysqlBinlog.BEGIN_LOAD_QUERY_EVENT
+                && eventType != MysqlBinlog.APPEND_BLOCK_EVENT;
+    }
+
     /*
      * Return BinlogPosition in String representation. This serves as EventId
      * for DBMSEvent.
@@ -905,7 +1073,10 @@ public class MySQLExtractor implements RawExtractor
                         position.close();
                         position.setFileName(((RotateLogEvent) logEvent)
                                 .getNewBinlogFilename());
-                        position.open();
+                        // With an in-memory relay event queue we open the
+                        // file only if we need to read from it.
+                        if (relayEventQueue == null)
+                            position.open();
                         // Kick off an asynchronous scan for old relay logs.
                         if (useRelayLogs)
                             purgeRelayLogs(false);
@@ -936,13 +1107,10 @@ public class MySQLExtractor implements RawExtractor
                     RowsLogEvent rowsEvent = (RowsLogEvent) logEvent;
                     TableMapLogEvent tableEvent = tableEvents.get(rowsEvent
                             .getTableId());
-                    rowsEvent.processExtractedEvent(rowChangeData, tableEvent);
-                    rowChangeData.addOption("time_zone", "'+00:00'");
-                    if (useBytesForStrings)
-                    {
-                        rowChangeData.addOption("##charset", Charset
-                                .defaultCharset().displayName());
-                    }
+                    // Row images may be decoded in the background; the
+                    // row change keeps its place in the transaction.
+                    rowsEventDecoder.decode(rowsEvent, tableEvent,
+                            rowChangeData);
                     dataArray.add(rowChangeData);
                     foundRowsLogEvent = true;
                 }
@@ -1145,6 +1313,9 @@ public class MySQLExtractor implements RawExtractor
 
                 if (dbmsEvent != null)
                 {
+                    // Ensure all row changes are decoded before we hand off.
+                    rowsEventDecoder.waitForCompletion();
+
                     dbmsEvent.addMetadataOption(ReplOptionParams.SERVER_ID,
                             String.valueOf(serverId));
 
@@ -1197,6 +1368,11 @@ public class MySQLExtractor implements RawExtractor
                         + position, e);
 
         }
+        finally
+        {
+            // Forget decodes for any transaction we did not return.
+            rowsEventDecoder.discard();
+        }
         return null;
     }
 
@@ -1209,30 +1385,11 @@ public class MySQLExtractor implements RawExtractor
     private void fetchMetadata(TableMapLogEvent tableEvent)
             throws SQLException, ReplicatorException
     {
-        if (metadataCache == null)
-            metadataCache = new TableMetadataCache(5000);
-
-        Table table = metadataCache.retrieve(tableEvent.getDatabaseName(),
-                tableEvent.getTableName());
-
-        if (table == null || table.getTableId() != tableEvent.getTableId())
-        {
-            // If table is not in the cache or the table identifier changed, we
-            // need to fetch it from database
-            prepareMetadataConnection();
-
-            table = metadataConnection.findTable(tableEvent.getDatabaseName(),
-                    tableEvent.getTableName(), false);
-
-            if (table != null)
-            {
-                table.setTableId(tableEvent.getTableId());
-                metadataCache.store(table);
-            }
-        }
-        else if (logger.isDebugEnabled())
-            logger.debug("Table " + tableEvent.getDatabaseName() + "."
-                    + tableEvent.getTableName() + " found in cache.");
+        // Metadata is shared with other plugins using the same data source.
+        // A change in table ID forces a reload.
+        Table table = dataSourceImpl.getTableMetadataRegistry().findTable(
+                tableEvent.getDatabaseName(), tableEvent.getTableName(),
+                tableEvent.getTableId());
 
         if (table == null)
         {
@@ -1246,29 +1403,6 @@ public class MySQLExtractor implements RawExtractor
         }
     }
 
-    /**
-     * Prepare the metadata connection for use : connect or reconnect if needed.
-     */
-    private void prepareMetadataConnection() throws SQLException,
-            ReplicatorException
-    {
-        if (metadataConnection == null)
-            metadataConnection = dataSourceImpl.getConnection();
-
-        long currentTime = System.currentTimeMillis();
-        if (lastConnectionTime == 0)
-        {
-            lastConnectionTime = currentTime;
-        }
-        else if (reconnectTimeoutInSeconds > 0
-                && currentTime - lastConnectionTime > reconnectTimeoutInSeconds * 1000)
-        {
-            // Time to reconnect
-            dataSourceImpl.releaseConnection(metadataConnection);
-            metadataConnection = dataSourceImpl.getConnection();
-        }
-    }
-
     /**
      * {@inheritDoc}
      * 
@@ -1377,6 +1511,8 @@ public class MySQLExtractor implements RawExtractor
                 binlogPosition = positionBinlogMaster(true);
             }
         }
+        if (binlogPosition != null)
+            binlogPosition.setReadAheadBytes(binlogReadAheadBytes);
     }
 
     /**
@@ -1496,6 +1632,12 @@ public class MySQLExtractor implements RawExtractor
             this.deterministicIo = false;
         }
 
+        // Start rows event decoding.
+        rowsEventDecoder = new RowsEventDecoder(rowsEventDecodeThreads,
+                rowsEventDecodeMinSize, useBytesForStrings);
+        rowsEventDecoder.start("Rows Event Decoder - "
+                + runtime.getServiceName());
+
         // Correctly show the pipeline source based on whether we are reading
         // from binlog files or downloading.
         if (this.useRelayLogs)
@@ -1683,6 +1825,14 @@ public class MySQLExtractor implements RawExtractor
         relayClient.setLogQueue(relayLogQueue);
         relayClient.setReadTimeout(relayLogReadTimeout);
         relayClient.setDeterministicIo(deterministicIo);
+        relayClient.setRelayBufferSize(relayLogBufferSize);
+        if (relayLogEventQueueSize > 0)
+        {
+            relayEventQueue = new RelayEventQueue(relayLogEventQueueSize);
+            relayClient.setEventQueue(relayEventQueue, fileName, offset);
+            logger.info("Constructing relay event queue: size="
+                    + relayLogEventQueueSize);
+        }
         relayClient.connect();
 
         // Start the relay log task.
@@ -1808,6 +1958,9 @@ public class MySQLExtractor implements RawExtractor
     /** Stops relay log operation. */
     private synchronized void stopRelayLogs()
     {
+        // Stop taking events from memory; the relay logs have them all.
+        relayEventQueue = null;
+
         if (relayLogTask == null || relayLogTask.isFinished())
             return;
 
@@ -1842,12 +1995,18 @@ public class MySQLExtractor implements RawExtractor
      */
     public void release(PluginContext context) throws ReplicatorException
     {
-        if (metadataConnection != null)
+        stopRelayLogs();
+        if (tailWatcher != null)
         {
-            metadataConnection.close();
-            metadataConnection = null;
+            tailWatcher.release();
+            tailWatcher = null;
+        }
+        if (rowsEventDecoder != null)
+        {
+            logger.info(rowsEventDecoder.toString());
+            rowsEventDecoder.shutdown();
+            rowsEventDecoder = null;
         }
-        stopRelayLogs();
     }
 
     /**
@@ -25,7 +25,9 @@ package com.continuent.tungsten.replicator.extractor.mysql;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.BitSet;
+import java.util.Calendar;
 import java.util.Hashtable;
 import java.util.zip.CRC32;
 
@@ -352,6 +354,13 @@ public class MysqlBinlog
             0, 1, 1, 2, 2, 3, 3, 4, 4, 4                                            };
     public final static int                     DIG_PER_INT32                       = 9;
     public final static int                     SIZE_OF_INT32                       = 4;
+    public final static int                     MAX_LONG_DECIMAL_DIGITS             = 18;
+    private final static long[]                 POWERS_OF_TEN                       = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+            100000000L                                                         };
+
+    // Last year handled by the Julian calendar in java.util.GregorianCalendar.
+    private final static int                    GREGORIAN_CUTOVER_YEAR              = 1582;
 
     // Class to define character set information.
     static class CharsetInfo
@@ -773,6 +782,138 @@ public class MysqlBinlog
         return value;
     }
 
+    /**
+     * Returns the number of bytes that is used to store a decimal whose
+     * precision and scale are given
+     * 
+     * @param precision of the decimal
+     * @param scale of the decimal
+     * @return number of bytes used to store the decimal(precision, scale)
+     */
+    public static int getDecimalBinarySize(int precision, int scale)
+    {
+        int intg = precision - scale;
+        int intg0 = intg / DIG_PER_DEC1;
+        int frac0 = scale / DIG_PER_DEC1;
+        int intg0x = intg - intg0 * DIG_PER_DEC1;
+        int frac0x = scale - frac0 * DIG_PER_DEC1;
+
+        assert (scale >= 0 && precision > 0 && scale <= precision);
+
+        return intg0 * (4) + dig2bytes[intg0x] + frac0 * (4)
+                + dig2bytes[frac0x];
+    }
+
+    /**
+     * Decodes a binary DECIMAL value in place. Values of up to
+     * MAX_LONG_DECIMAL_DIGITS digits are accumulated as a long, which avoids
+     * copying the value and the BigDecimal arithmetic needed for wider
+     * decimals. Returns null if the decimal is too wide, in which case callers
+     * must use {@link LogEvent#extractDecimal(byte[], int, int)}.
+     * 
+     * @param buf Buffer containing the value
+     * @param off Offset of the value in the buffer
+     * @param precision Precision of the decimal
+     * @param scale Scale of the decimal
+     * @return Decoded value with the given scale or null
+     */
+    public static BigDecimal decimalToBigDecimal(byte[] buf, int off,
+            int precision, int scale)
+    {
+        if (precision > MAX_LONG_DECIMAL_DIGITS)
+            return null;
+
+        int intg = precision - scale;
+        int intg0 = intg / DIG_PER_INT32;
+        int frac0 = scale / DIG_PER_INT32;
+        int intg0x = intg - intg0 * DIG_PER_INT32;
+        int frac0x = scale - frac0 * DIG_PER_INT32;
+
+        // Negative values have every byte inverted. The high bit of the first
+        // byte is the sign and is inverted in all cases.
+        int mask = (buf[off] & 0x80) == 0x80 ? 0 : 0xFF;
+        int size = getDecimalBinarySize(precision, scale);
+        if (off + size > buf.length)
+        {
+            throw new ArrayIndexOutOfBoundsException("Calculated bin_size: "
+                    + size + ", available bytes: " + (buf.length - off));
+        }
+
+        // Digits are stored in groups of up to 9, so the unscaled value is
+        // built by appending each group in turn.
+        long unscaled = 0;
+        int pos = off;
+        int bytes = dig2bytes[intg0x];
+        if (bytes > 0)
+        {
+            unscaled = decimalGroup(buf, pos, bytes, mask, off);
+            pos += bytes;
+        }
+        for (int i = 0; i < intg0 + frac0; i++)
+        {
+            unscaled = unscaled * DIG_BASE
+                    + decimalGroup(buf, pos, SIZE_OF_INT32, mask, off);
+            pos += SIZE_OF_INT32;
+        }
+        bytes = dig2bytes[frac0x];
+        if (bytes > 0)
+        {
+            unscaled = unscaled * POWERS_OF_TEN[frac0x]
+                    + decimalGroup(buf, pos, bytes, mask, off);
+        }
+
+        return BigDecimal.valueOf(mask == 0 ? unscaled : -unscaled, scale);
+    }
+
+    // Reads a big-endian group of decimal digits, undoing the sign encoding.
+    private static long decimalGroup(byte[] buf, int pos, int len, int mask,
+            int signPos)
+    {
+        long value = 0;
+        for (int i = pos; i < pos + len; i++)
+        {
+            int b = (buf[i] ^ mask) & 0xFF;
+            if (i == signPos)
+                b ^= 0x80;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    /**
+     * Converts a DATETIME value to milliseconds since the epoch in GMT. Dates
+     * in the Gregorian calendar with a valid month are computed directly;
+     * others, including those before the Gregorian cutover and zero months,
+     * are resolved with the supplied lenient GMT calendar so that results are
+     * unchanged for these values.
+     * 
+     * @param calendar GMT calendar used for dates outside the direct range
+     */
+    public static long datetimeToGmtMillis(int year, int month, int day,
+            int hour, int minute, int second, Calendar calendar)
+    {
+        if (year <= GREGORIAN_CUTOVER_YEAR || month < 1 || month > 12)
+        {
+            calendar.clear();
+            // Month value is 0-based. e.g., 0 for January.
+            calendar.set(year, month - 1, day, hour, minute, second);
+            return calendar.getTimeInMillis();
+        }
+
+        // Days since 1970-01-01 in the proleptic Gregorian calendar, counting
+        // years from March so that leap days fall at the end of the year.
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int monthFromMarch = month > 2 ? month - 3 : month + 9;
+        int dayOfYear = (153 * monthFromMarch + 2) / 5;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+                + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468L + (day - 1);
+
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L;
+    }
+
     private static int unsignedByteToInt(byte b)
     {
         return 0xFF & b;
@@ -0,0 +1,218 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+/**
+ * Bounded ring of binlog events handed directly from the relay log client to
+ * the extractor so that the extractor does not have to wait for events to be
+ * written to and read back from relay log files. Relay log files are still
+ * written and remain the source of truth; the ring is only an accelerator.
+ * <p/>
+ * The relay log client adds every event that it writes to the relay log in
+ * file order, blocking when the ring is full. Events that are too large to
+ * hold in memory are added without data, which tells the extractor to read
+ * them from the relay log file instead. The extractor looks at the head of the
+ * ring, discards events it has already read from the file, and consumes the
+ * head if it is at the extractor's current binlog position.
+ */
+public class RelayEventQueue
+{
+    /**
+     * A single binlog event including its position in the relay log.
+     */
+    public static class Entry
+    {
+        private final String fileName;
+        private final long   offset;
+        private final byte[] data;
+
+        Entry(String fileName, long offset, byte[] data)
+        {
+            this.fileName = fileName;
+            this.offset = offset;
+            this.data = data;
+        }
+
+        /** Returns the name of the relay log file that contains the event. */
+        public String getFileName()
+        {
+            return fileName;
+        }
+
+        /** Returns the starting offset of the event in the file. */
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        /**
+         * Returns the full event including header or null if the event must
+         * be read from the relay log file.
+         */
+        public byte[] getData()
+        {
+            return data;
+        }
+
+        /**
+         * Compares the event position to a binlog position.
+         *
+         * @return A negative number, zero, or a positive number if the event
+         *         is before, at, or after the position
+         */
+        public int compareTo(String otherFileName, long otherOffset)
+        {
+            int cmp = fileName.compareTo(otherFileName);
+            if (cmp != 0)
+                return cmp;
+            else if (offset < otherOffset)
+                return -1;
+            else if (offset > otherOffset)
+                return 1;
+            else
+                return 0;
+        }
+
+        public String toString()
+        {
+            return fileName + ":" + offset;
+        }
+    }
+
+    private final Entry[] ring;
+    private int           head      = 0;
+    private int           count     = 0;
+
+    // Statistics.
+    private long          added     = 0;
+    private long          fullWaits = 0;
+
+    /**
+     * Creates a new ring.
+     *
+     * @param capacity Maximum number of events held in memory
+     */
+    public RelayEventQueue(int capacity)
+    {
+        this.ring = new Entry[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Adds an event to the tail of the ring if there is room.
+     *
+     * @param fileName Relay log file name
+     * @param offset Offset of the event in the file
+     * @param data Full event or null if the event is only in the file
+     * @return True if the event was added, false if the ring is full
+     */
+    public synchronized boolean offer(String fileName, long offset, byte[] data)
+    {
+        if (count == ring.length)
+            return false;
+        ring[(head + count) % ring.length] = new Entry(fileName, offset, data);
+        count++;
+        added++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Adds an event to the tail of the ring, waiting for room if necessary.
+     */
+    public synchronized void put(String fileName, long offset, byte[] data)
+            throws InterruptedException
+    {
+        if (count == ring.length)
+        {
+            fullWaits++;
+            while (count == ring.length)
+                wait();
+        }
+        offer(fileName, offset, data);
+    }
+
+    /**
+     * Returns the event at the head of the ring without removing it, waiting
+     * up to the given time for an event to arrive if the ring is empty.
+     *
+     * @param waitMillis Maximum time to wait; 0 returns immediately
+     * @return Head event or null if the ring is still empty
+     */
+    public synchronized Entry peek(long waitMillis)
+            throws InterruptedException
+    {
+        if (count == 0 && waitMillis > 0)
+            wait(waitMillis);
+        return (count == 0) ? null : ring[head];
+    }
+
+    /**
+     * Removes and returns the event at the head of the ring or returns null
+     * if the ring is empty.
+     */
+    public synchronized Entry poll()
+    {
+        if (count == 0)
+            return null;
+        Entry entry = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        count--;
+        notifyAll();
+        return entry;
+    }
+
+    /** Discards all events. */
+    public synchronized void clear()
+    {
+        while (count > 0)
+            poll();
+    }
+
+    /** Returns the number of events in the ring. */
+    public synchronized int size()
+    {
+        return count;
+    }
+
+    /** Returns the maximum number of events in the ring. */
+    public int capacity()
+    {
+        return ring.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public synchronized String toString()
+    {
+        StringBuffer sb = new StringBuffer(this.getClass().getSimpleName());
+        sb.append(" capacity=").append(ring.length);
+        sb.append(" size=").append(count);
+        sb.append(" added=").append(added);
+        sb.append(" fullWaits=").append(fullWaits);
+        return sb.toString();
+    }
+}
@@ -22,6 +22,7 @@
 
 package com.continuent.tungsten.replicator.extractor.mysql;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -78,7 +79,11 @@ public class RelayLogClient
     private int                       serverId                    = 1;
     private long                      readTimeout                 = 60;
     private boolean                   deterministicIo             = false;
+    private int                       relayBufferSize             = 65536;
     private LinkedBlockingQueue<File> logQueue                    = null;
+    private RelayEventQueue           eventQueue                  = null;
+    private String                    eventQueueStartFile         = null;
+    private long                      eventQueueStartOffset       = 0;
 
     // Relay storage and positioning information.
     private File                      relayLog;
@@ -86,8 +91,13 @@ public class RelayLogClient
     private File                      binlogIndex;
     private OutputStream              relayOutput;
     private long                      relayBytes;
+    private long                      flushedRelayBytes;
     private RelayLogPosition          logPosition                 = new RelayLogPosition();
 
+    // Packet reused for all reads from the network so that we do not allocate
+    // a buffer per binlog event.
+    private MySQLPacket               packetBuffer;
+
     // Database connection information.
     private Connection                conn;
     private InputStream               input                       = null;
@@ -189,6 +199,35 @@ public class RelayLogClient
         this.deterministicIo = deterministicIo;
     }
 
+    /**
+     * Sets the size of the relay log write buffer. Writes are flushed to the
+     * relay log whenever the network has no more data to read, so a larger
+     * buffer only holds data while we are catching up. Values of 0 or less
+     * write each event directly. Buffering is only used with deterministic
+     * IO, because we must be able to tell when the network is drained.
+     */
+    public void setRelayBufferSize(int relayBufferSize)
+    {
+        this.relayBufferSize = relayBufferSize;
+    }
+
+    /**
+     * Sets a ring to which events are handed directly as they are written to
+     * the relay log. Events before the given start position are written to
+     * the relay log only, as the extractor does not need them.
+     *
+     * @param eventQueue Ring to fill with events
+     * @param startFile Binlog file name at which the extractor starts
+     * @param startOffset Offset at which the extractor starts
+     */
+    public void setEventQueue(RelayEventQueue eventQueue, String startFile,
+            long startOffset)
+    {
+        this.eventQueue = eventQueue;
+        this.eventQueueStartFile = startFile;
+        this.eventQueueStartOffset = startOffset;
+    }
+
     public synchronized LinkedBlockingQueue<File> getLogQueue()
     {
         return logQueue;
@@ -327,6 +366,9 @@ public class RelayLogClient
             MySQLIOs io = MySQLIOs.getMySQLIOs(conn);
             input = new WrappedInputStream(io.getInput(), deterministicIo);
             output = io.getOutput();
+            packetBuffer = new MySQLPacket(relayBufferSize > 0
+                    ? relayBufferSize
+                    : 65536, (byte) 0);
         }
         catch (Exception e)
         {
@@ -465,7 +507,8 @@ public class RelayLogClient
     public boolean processEvent() throws ReplicatorException,
             InterruptedException
     {
-        MySQLPacket packet = MySQLPacket.readPacket(input, readTimeout * 1000);
+        MySQLPacket packet = MySQLPacket.readPacket(input, readTimeout * 1000,
+                packetBuffer);
         if (packet == null)
         {
             if (logger.isDebugEnabled())
@@ -653,13 +696,30 @@ public class RelayLogClient
     {
         if (relayOutput == null)
             openBinlog();
+
+        // Copy the event for the extractor unless it spans several packets,
+        // in which case the extractor reads it from the relay log.
+        long eventOffset = relayBytes;
+        byte[] eventData = null;
+        if (eventQueue != null
+                && packet.getDataLength() < MySQLPacket.MAX_LENGTH)
+        {
+            eventData = new byte[packet.getDataLength() - 1];
+            System.arraycopy(packet.getByteBuffer(), 5, eventData, 0,
+                    eventData.length);
+        }
+
         blindlyWriteToRelayLog(packet, false);
         while (packet.getDataLength() >= MySQLPacket.MAX_LENGTH)
         {
             // this is a packet longer than 16m. Data will be send over several
             // packets so we need to read/write the next packets blindly until a
             // packet smaller than 16m is found
-            packet = MySQLPacket.readPacket(input, readTimeout * 1000);
+            packet = MySQLPacket.readPacket(input, readTimeout * 1000,
+                    packetBuffer);
+            if (packet == null)
+                throw new IOException(
+                        "Unable to read extended packet from network");
             if (logger.isDebugEnabled())
             {
                 logger.debug("Read extended packet: number="
@@ -668,6 +728,34 @@ public class RelayLogClient
             }
             blindlyWriteToRelayLog(packet, true);
         }
+
+        // Hand the event to the extractor. If the ring is full, flush first
+        // so that the extractor can make progress from the relay log while we
+        // wait.
+        if (eventQueue != null && isAtOrAfterEventQueueStart(eventOffset))
+        {
+            String fileName = relayLog.getName();
+            if (!eventQueue.offer(fileName, eventOffset, eventData))
+            {
+                flushRelayLog();
+                eventQueue.put(fileName, eventOffset, eventData);
+            }
+        }
+
+        // Make data visible to the extractor unless more is already waiting
+        // on the network.
+        if (!deterministicIo || relayBufferSize <= 0 || input.available() == 0)
+            flushRelayLog();
+    }
+
+    // Returns true if an event in the current relay log is at or after the
+    // position from which the extractor consumes events.
+    private boolean isAtOrAfterEventQueueStart(long eventOffset)
+    {
+        if (eventQueueStartFile == null)
+            return true;
+        int cmp = relayLog.getName().compareTo(eventQueueStartFile);
+        return cmp > 0 || (cmp == 0 && eventOffset >= eventQueueStartOffset);
     }
 
     /**
@@ -682,6 +770,8 @@ public class RelayLogClient
     private void blindlyWriteToRelayLog(MySQLPacket packet, boolean extended)
             throws IOException
     {
+        // The packet buffer may be larger than the packet, so compute the
+        // length from the packet data length.
         byte[] bytes = packet.getByteBuffer();
         int header;
         // Header size affects math for start and length of written data.
@@ -689,16 +779,30 @@ public class RelayLogClient
             header = 4;
         else
             header = 5;
-        int writeLength = bytes.length - header;
+        int writeLength = packet.getDataLength() + MySQLPacket.HEADER_LENGTH
+                - header;
         if (logger.isDebugEnabled())
         {
             logger.debug("Writing packet to binlog: bytesLength="
                     + bytes.length + " writeLength=" + writeLength);
         }
         relayOutput.write(bytes, header, writeLength);
-        relayOutput.flush();
         relayBytes += writeLength;
-        logPosition.setPosition(relayLog, relayBytes);
+    }
+
+    /**
+     * Flushes buffered relay log data and publishes the new position. The
+     * position is only advanced after a flush so that readers never see a
+     * position beyond data in the file.
+     */
+    private void flushRelayLog() throws IOException
+    {
+        if (relayOutput != null && relayBytes > flushedRelayBytes)
+        {
+            relayOutput.flush();
+            flushedRelayBytes = relayBytes;
+            logPosition.setPosition(relayLog, relayBytes);
+        }
     }
 
     // Open a new binlog file.
@@ -726,7 +830,11 @@ public class RelayLogClient
         logger.info("Opening relay log: name=" + relayLog.getAbsolutePath());
         try
         {
-            this.relayOutput = new FileOutputStream(relayLog);
+            if (relayBufferSize > 0)
+                this.relayOutput = new BufferedOutputStream(
+                        new FileOutputStream(relayLog), relayBufferSize);
+            else
+                this.relayOutput = new FileOutputStream(relayLog);
         }
         catch (FileNotFoundException e)
         {
@@ -740,6 +848,7 @@ public class RelayLogClient
         relayOutput.write(magic);
         relayOutput.flush();
         relayBytes = 4;
+        flushedRelayBytes = relayBytes;
 
         // Add the file name to the binlog index.
         logger.info("Adding relay log to binlog index: "
@@ -782,7 +891,7 @@ public class RelayLogClient
         {
             logger.info("Closing relay log: name=" + relayLog.getAbsolutePath()
                     + " bytes=" + relayBytes);
-            relayOutput.flush();
+            flushRelayLog();
             relayOutput.close();
             relayOutput = null;
             relayLog = null;
@@ -0,0 +1,275 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.extractor.ExtractorException;
+
+/**
+ * Decodes row images from rows log events into {@link RowChangeData}
+ * instances. Binlog events are still read and framed sequentially by the
+ * extractor, which adds an empty RowChangeData to the transaction for each
+ * rows event. Large events are then decoded on a pool of worker threads while
+ * the extractor reads ahead; smaller events are decoded inline, which is
+ * cheaper than a thread handoff. Because each event fills its own
+ * RowChangeData, the transaction keeps binlog order regardless of which
+ * decode finishes first. The extractor must call
+ * {@link #waitForCompletion()} before it hands a transaction on.
+ * <p/>
+ * This class is used only by the extractor thread apart from the workers it
+ * owns.
+ */
+public class RowsEventDecoder
+{
+    private static Logger                   logger       = Logger.getLogger(RowsEventDecoder.class);
+
+    private final int                       threads;
+    private final int                       minEventSize;
+    private final boolean                   useBytesForStrings;
+    private LinkedBlockingQueue<DecodeTask> queue        = new LinkedBlockingQueue<DecodeTask>();
+    private List<Thread>                    workers      = new ArrayList<Thread>();
+
+    // Decodes submitted to workers since the last wait.
+    private List<DecodeTask>                pending      = new ArrayList<DecodeTask>();
+
+    // Statistics.
+    private long                            inlineEvents = 0;
+    private long                            workerEvents = 0;
+
+    /**
+     * Decodes a single event and records the outcome.
+     */
+    private class DecodeTask implements Runnable
+    {
+        private final RowsLogEvent     rowsEvent;
+        private final TableMapLogEvent tableEvent;
+        private final RowChangeData    rowChangeData;
+        private final CountDownLatch   done = new CountDownLatch(1);
+        private volatile Throwable     failure;
+
+        DecodeTask(RowsLogEvent rowsEvent, TableMapLogEvent tableEvent,
+                RowChangeData rowChangeData)
+        {
+            this.rowsEvent = rowsEvent;
+            this.tableEvent = tableEvent;
+            this.rowChangeData = rowChangeData;
+        }
+
+        public void run()
+        {
+            try
+            {
+                decodeInline(rowsEvent, tableEvent, rowChangeData);
+            }
+            catch (Throwable t)
+            {
+                failure = t;
+            }
+            finally
+            {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Executes decode tasks until interrupted.
+     */
+    private class DecodeWorker implements Runnable
+    {
+        public void run()
+        {
+            try
+            {
+                while (!Thread.currentThread().isInterrupted())
+                {
+                    queue.take().run();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Normal shutdown.
+            }
+        }
+    }
+
+    /**
+     * Creates a new decoder.
+     *
+     * @param threads Number of worker threads; 0 decodes all events inline
+     * @param minEventSize Minimum size in bytes of events sent to workers
+     * @param useBytesForStrings If true, string values are stored as bytes
+     */
+    public RowsEventDecoder(int threads, int minEventSize,
+            boolean useBytesForStrings)
+    {
+        this.threads = Math.max(threads, 0);
+        this.minEventSize = minEventSize;
+        this.useBytesForStrings = useBytesForStrings;
+    }
+
+    /** Starts worker threads. */
+    public synchronized void start(String name)
+    {
+        for (int i = 0; i < threads; i++)
+        {
+            Thread t = new Thread(new DecodeWorker(), name + "-" + i);
+            t.setDaemon(true);
+            workers.add(t);
+            t.start();
+        }
+        if (threads > 0)
+            logger.info("Started rows event decoders: threads=" + threads
+                    + " minEventSize=" + minEventSize);
+    }
+
+    /**
+     * Decodes a rows event into the given RowChangeData, either immediately or
+     * on a worker thread.
+     *
+     * @param rowsEvent Rows event to decode
+     * @param tableEvent Table map for the rows event, which may be null
+     * @param rowChangeData Empty row change data already added to the
+     *            transaction
+     */
+    public void decode(RowsLogEvent rowsEvent, TableMapLogEvent tableEvent,
+            RowChangeData rowChangeData) throws ReplicatorException
+    {
+        if (workers.isEmpty() || rowsEvent.getEventSize() < minEventSize)
+        {
+            inlineEvents++;
+            decodeInline(rowsEvent, tableEvent, rowChangeData);
+        }
+        else
+        {
+            DecodeTask task = new DecodeTask(rowsEvent, tableEvent,
+                    rowChangeData);
+            pending.add(task);
+            queue.add(task);
+            workerEvents++;
+        }
+    }
+
+    /**
+     * Waits for all events submitted since the last call to be decoded.
+     *
+     * @throws ReplicatorException Thrown if any event failed to decode, in
+     *             which case the first failure in binlog order is returned
+     */
+    public void waitForCompletion() throws ReplicatorException,
+            InterruptedException
+    {
+        try
+        {
+            for (DecodeTask task : pending)
+            {
+                task.done.await();
+                Throwable t = task.failure;
+                if (t instanceof ReplicatorException)
+                    throw (ReplicatorException) t;
+                else if (t != null)
+                    throw new ExtractorException(
+                            "Unexpected failure while decoding rows event: "
+                                    + task.rowsEvent.startPosition, t);
+            }
+        }
+        finally
+        {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Forgets about outstanding decodes, for example because extraction
+     * failed. Workers finish any tasks already started.
+     */
+    public void discard()
+    {
+        if (pending.size() > 0)
+        {
+            queue.removeAll(pending);
+            pending.clear();
+        }
+    }
+
+    /** Stops worker threads. */
+    public synchronized void shutdown()
+    {
+        discard();
+        for (Thread t : workers)
+            t.interrupt();
+        for (Thread t : workers)
+        {
+            try
+            {
+                t.join(5000);
+            }
+            catch (InterruptedException e)
+            {
+                logger.warn("Interrupted while waiting for rows event decoders to exit");
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.clear();
+    }
+
+    // Decodes an event and adds the options the extractor stores with each
+    // row change.
+    private void decodeInline(RowsLogEvent rowsEvent,
+            TableMapLogEvent tableEvent, RowChangeData rowChangeData)
+            throws ReplicatorException
+    {
+        rowsEvent.processExtractedEvent(rowChangeData, tableEvent);
+        rowChangeData.addOption("time_zone", "'+00:00'");
+        if (useBytesForStrings)
+        {
+            rowChangeData.addOption("##charset", Charset.defaultCharset()
+                    .displayName());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer(this.getClass().getSimpleName());
+        sb.append(" threads=").append(threads);
+        sb.append(" minEventSize=").append(minEventSize);
+        sb.append(" inlineEvents=").append(inlineEvents);
+        sb.append(" workerEvents=").append(workerEvents);
+        return sb.toString();
+    }
+}
@@ -116,6 +116,10 @@ public abstract class RowsLogEvent extends LogEvent
     private boolean                     flagForeignKeyChecks                   = true;
     private boolean                     flagUniqueChecks                       = true;
 
+    private static final TimeZone       GMT                                    = TimeZone.getTimeZone("GMT");
+    private Calendar                    gmtCalendar                            = null;
+    private Calendar                    localCalendar                          = null;
+
     /**
      * MariaDB 10 TIME, TIMESTAMP and DATETIME support
      */
@@ -303,45 +307,32 @@ public abstract class RowsLogEvent extends LogEvent
             int rowPos, int type, int meta, TableMapLogEvent map)
             throws IOException, ReplicatorException
     {
-        int length = 0;
-        // Calculate length for MYSQL_TYPE_STRING
-        if (type == MysqlBinlog.MYSQL_TYPE_STRING)
-        {
-            if (meta >= 256)
-            {
-                int byte0 = meta >> 8;
-                int byte1 = meta & 0xFF;
+        return extractValue(spec, value, row, rowPos, new ColumnFormat(type,
+                meta));
+    }
 
-                if ((byte0 & 0x30) != 0x30)
-                {
-                    /* a long CHAR() field: see #37426 */
-                    length = byte1 | (((byte0 & 0x30) ^ 0x30) << 4);
-                    type = byte0 | 0x30;
-                }
-                else
-                {
-                    switch (byte0)
-                    {
-                        case MysqlBinlog.MYSQL_TYPE_SET :
-                        case MysqlBinlog.MYSQL_TYPE_ENUM :
-                        case MysqlBinlog.MYSQL_TYPE_STRING :
-                            type = byte0;
-                            length = byte1;
-                            break;
-
-                        default :
-                        {
-                            logger.error("Don't know how to handle column type");
-                            return 0;
-                        }
-                    }
-                }
-            }
-            else
-            {
-                length = meta;
-            }
+    /**
+     * Extracts a single column value from a row image.
+     * 
+     * @param spec Column spec to update with the value type or null
+     * @param value Column value to set
+     * @param row Buffer containing the row image
+     * @param rowPos Position of the value in the buffer
+     * @param column Format of the column, resolved from the table map
+     * @return Number of bytes used by the value or 0 if it cannot be decoded
+     */
+    protected int extractValue(ColumnSpec spec, ColumnVal value, byte[] row,
+            int rowPos, ColumnFormat column) throws IOException,
+            ReplicatorException
+    {
+        if (!column.isKnown())
+        {
+            logger.error("Don't know how to handle column type");
+            return 0;
         }
+        int type = column.getType();
+        int meta = column.getMeta();
+        int length = column.getLength();
 
         if (logger.isDebugEnabled())
             logger.debug("Handling type " + type + " - meta = " + meta);
@@ -456,17 +447,12 @@ public abstract class RowsLogEvent extends LogEvent
 
             case MysqlBinlog.MYSQL_TYPE_NEWDECIMAL :
             {
-                int precision = meta >> 8;
-                int decimals = meta & 0xFF;
-                int bin_size = getDecimalBinarySize(precision, decimals);
-                byte[] dec = new byte[bin_size];
-                for (int i = 0; i < bin_size; i++)
-                    dec[i] = row[rowPos + i];
-                BigDecimal myDouble = extractDecimal(dec, precision, decimals);
+                BigDecimal myDouble = extractDecimal(row, rowPos,
+                        column.getPrecision(), column.getScale());
                 value.setValue(myDouble);
                 if (spec != null)
                     spec.setType(java.sql.Types.DECIMAL);
-                return bin_size;
+                return column.getDecimalSize();
             }
 
             case MysqlBinlog.MYSQL_TYPE_FLOAT :
@@ -678,13 +664,8 @@ public abstract class RowsLogEvent extends LogEvent
                 }
 
                 // Force the use of GMT as calendar for DATETIME datatype
-                Calendar cal = Calendar
-                        .getInstance(TimeZone.getTimeZone("GMT"));
-
-                // Month value is 0-based. e.g., 0 for January.
-                cal.set(year, month - 1, day, hour, min, sec);
-
-                ts = new Timestamp(cal.getTimeInMillis());
+                ts = new Timestamp(MysqlBinlog.datetimeToGmtMillis(year,
+                        month, day, hour, min, sec, getGmtCalendar()));
 
                 ts.setNanos(nanos);
 
@@ -755,15 +736,9 @@ public abstract class RowsLogEvent extends LogEvent
                 // construct timestamp from time components
                 java.sql.Timestamp ts = null;
 
-                // Calendar cal = Calendar.getInstance();
                 // Force the use of GMT as calendar
-                Calendar cal = Calendar
-                        .getInstance(TimeZone.getTimeZone("GMT"));
-
-                // Month value is 0-based. e.g., 0 for January.
-                cal.set(year, month - 1, day, hour, minute, seconds);
-
-                ts = new Timestamp(cal.getTimeInMillis());
+                ts = new Timestamp(MysqlBinlog.datetimeToGmtMillis(year,
+                        month, day, hour, minute, seconds, getGmtCalendar()));
 
                 value.setValue(ts);
                 if (spec != null)
@@ -894,7 +869,7 @@ public abstract class RowsLogEvent extends LogEvent
                     return 3;
                 }
 
-                Calendar cal = Calendar.getInstance();
+                Calendar cal = getLocalCalendar();
                 cal.clear();
                 // Month value is 0-based. e.g., 0 for January.
                 cal.set(i32 / (16 * 32), (i32 / 32 % 16) - 1, i32 % 32);
@@ -1112,6 +1087,22 @@ public abstract class RowsLogEvent extends LogEvent
         return (meta + 1) / 2;
     }
 
+    // Calendars are reused for all values in this event, which is decoded by
+    // a single thread.
+    private Calendar getGmtCalendar()
+    {
+        if (gmtCalendar == null)
+            gmtCalendar = Calendar.getInstance(GMT);
+        return gmtCalendar;
+    }
+
+    private Calendar getLocalCalendar()
+    {
+        if (localCalendar == null)
+            localCalendar = Calendar.getInstance();
+        return localCalendar;
+    }
+
     // JIRA TREP-237. Need to expose the table ID.
     protected long getTableId()
     {
@@ -1145,12 +1136,7 @@ public abstract class RowsLogEvent extends LogEvent
                     + oneRowChange.getSchemaName() + "."
                     + oneRowChange.getTableName());
         }
-        int usedColumnsCount = 0;
-        for (int i = 0; i < columnsNumber; i++)
-        {
-            if (cols.get(i))
-                usedColumnsCount++;
-        }
+        int usedColumnsCount = cols.cardinality();
         BitSet nulls = new BitSet(usedColumnsCount);
         MysqlBinlog.setBitField(nulls, row, startIndex, usedColumnsCount);
 
@@ -1179,7 +1165,8 @@ public abstract class RowsLogEvent extends LogEvent
         int nullIndex = 0;
 
         int colCount = 0;
-        for (int i = 0; i < map.getColumnsCount(); i++)
+        ColumnFormat[] formats = map.getColumnFormats();
+        for (int i = 0; i < formats.length; i++)
         {
 
             if (logger.isDebugEnabled())
@@ -1251,14 +1238,7 @@ public abstract class RowsLogEvent extends LogEvent
                 int size = 0;
                 try
                 {
-                    size = extractValue(
-                            spec,
-                            value,
-                            row,
-                            rowPos,
-                            LittleEndianConversion.convert1ByteToInt(
-                                    map.getColumnsTypes(), i),
-                            map.getMetadata()[i], map);
+                    size = extractValue(spec, value, row, rowPos, formats[i]);
                 }
                 catch (IOException e)
                 {
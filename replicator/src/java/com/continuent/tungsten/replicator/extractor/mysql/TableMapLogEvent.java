@@ -86,6 +86,9 @@ public class TableMapLogEvent extends LogEvent
     // MariaDB 10 support
     private Table                table;
 
+    // Column formats, built on first use by rows events.
+    private volatile ColumnFormat[] columnFormats;
+
     private static final Pattern TIMESTAMP_PATTERN = Pattern
                                                            .compile(
                                                                    "timestamp(\\(([0-6])\\))?",
@@ -131,6 +134,28 @@ public class TableMapLogEvent extends LogEvent
         return metadata;
     }
 
+    /**
+     * Returns the format of each column, which is resolved once and then
+     * shared by all rows events for this table map. Events may be decoded
+     * concurrently, in which case formats may be resolved more than once but
+     * always to the same values.
+     */
+    public ColumnFormat[] getColumnFormats()
+    {
+        ColumnFormat[] formats = columnFormats;
+        if (formats == null)
+        {
+            formats = new ColumnFormat[columnsTypes.length];
+            for (int i = 0; i < formats.length; i++)
+            {
+                formats[i] = new ColumnFormat(columnsTypes[i] & 0xFF,
+                        metadata[i]);
+            }
+            columnFormats = formats;
+        }
+        return formats;
+    }
+
     private void buildMetadata(byte[] fieldMetadata, int pos, int length)
             throws IOException
     {
@@ -346,6 +371,7 @@ public class TableMapLogEvent extends LogEvent
     {
         // Table metadata
         this.table = table;
+        columnFormats = null;
 
         int columnType;
         for (Column column : table.getAllColumns())
@@ -28,9 +28,7 @@ import java.io.*;
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
-import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
-import com.continuent.tungsten.replicator.dbms.RowChangeData;
 import com.continuent.tungsten.replicator.dbms.StatementData;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
@@ -43,7 +41,7 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  * @author <a href="mailto:linas.virbalas@continuent.com">Linas Virbalas</a>
  * @version 1.0
  */
-public class CaseMappingFilter implements Filter
+public class CaseMappingFilter implements StatelessFilter, RowChangeFilter
 {
     private static Logger       logger      = Logger
                                                     .getLogger(CaseMappingFilter.class);
@@ -73,37 +71,56 @@ public class CaseMappingFilter implements Filter
      * 
      * @see com.continuent.tungsten.replicator.filter.Filter#filter(com.continuent.tungsten.replicator.event.ReplDBMSEvent)
      */
-    public ReplDBMSEvent filter(ReplDBMSEvent event) throws ReplicatorException
+    public ReplDBMSEvent filter(ReplDBMSEvent event)
+            throws ReplicatorException, InterruptedException
     {
-        ArrayList<DBMSData> data = event.getData();
-        for (DBMSData dataElem : data)
-        {
-            if (dataElem instanceof RowChangeData)
-            {
-                RowChangeData rdata = (RowChangeData) dataElem;
-                for (OneRowChange orc : rdata.getRowChanges())
-                    transformOneRowChangeCase(orc);
-            }
-            else if (dataElem instanceof StatementData)
-            {
-                StatementData sdata = (StatementData) dataElem;
+        return RowChangeFilterChain.filter(event, this);
+    }
 
-                // Transform schema name.
-                String oldSchema = sdata.getDefaultSchema();
-                sdata.setDefaultSchema(transformCase(oldSchema));
-                if (logger.isDebugEnabled())
-                    logger.debug("Schema case transformed from " + oldSchema
-                            + " to " + sdata.getDefaultSchema());
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#acceptEvent(com.continuent.tungsten.replicator.event.ReplDBMSEvent)
+     */
+    public boolean acceptEvent(ReplDBMSEvent event)
+    {
+        return true;
+    }
 
-                // Transform SQL statement.
-                String origSQL = sdata.getQuery();
-                sdata.setQuery(transformSQLCase(origSQL));
-                if (logger.isDebugEnabled())
-                    logger.debug("SQL case transformed from: " + origSQL
-                            + "\nto: " + sdata.getQuery());
-            }
-        }
-        return event;
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#filterRowChange(com.continuent.tungsten.replicator.event.ReplDBMSEvent,
+     *      com.continuent.tungsten.replicator.dbms.OneRowChange)
+     */
+    public boolean filterRowChange(ReplDBMSEvent event, OneRowChange orc)
+    {
+        transformOneRowChangeCase(orc);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#filterStatement(com.continuent.tungsten.replicator.event.ReplDBMSEvent,
+     *      com.continuent.tungsten.replicator.dbms.StatementData)
+     */
+    public boolean filterStatement(ReplDBMSEvent event, StatementData sdata)
+    {
+        // Transform schema name.
+        String oldSchema = sdata.getDefaultSchema();
+        sdata.setDefaultSchema(transformCase(oldSchema));
+        if (logger.isDebugEnabled())
+            logger.debug("Schema case transformed from " + oldSchema + " to "
+                    + sdata.getDefaultSchema());
+
+        // Transform SQL statement.
+        String origSQL = sdata.getQuery();
+        sdata.setQuery(transformSQLCase(origSQL));
+        if (logger.isDebugEnabled())
+            logger.debug("SQL case transformed from: " + origSQL + "\nto: "
+                    + sdata.getQuery());
+        return true;
     }
 
     /**
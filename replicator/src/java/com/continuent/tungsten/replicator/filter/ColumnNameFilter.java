@@ -22,22 +22,22 @@
 
 package com.continuent.tungsten.replicator.filter;
 
-import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.database.Column;
-import com.continuent.tungsten.replicator.database.Database;
 import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
 import com.continuent.tungsten.replicator.database.SqlOperation;
 import com.continuent.tungsten.replicator.database.SqlOperationMatcher;
 import com.continuent.tungsten.replicator.database.Table;
 import com.continuent.tungsten.replicator.datasource.SqlDataSource;
+import com.continuent.tungsten.replicator.datasource.TableMetadataRegistry;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
@@ -56,27 +56,26 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  */
 public class ColumnNameFilter implements Filter
 {
-    private static Logger                               logger              = Logger.getLogger(ColumnNameFilter.class);
+    private static Logger         logger              = Logger.getLogger(ColumnNameFilter.class);
 
-    // Metadata cache is a hashtable indexed by the database name and each
-    // database uses a hashtable indexed by the table name (This is done in
-    // order to be able to drop all table definitions at once if a DROP DATABASE
-    // is trapped). Filling metadata cache is done in a lazy way. It will be
-    // updated only when a table is used for the first time by a row event.
-    private Hashtable<String, Hashtable<String, Table>> metadataCache;
+    // Table metadata is shared with other plugins through the data source
+    // registry. Definitions manufactured for missing tables are kept locally
+    // and discarded whenever the registry schema version changes.
+    private TableMetadataRegistry registry;
+    private Map<String, Table>    missingTables;
+    private long                  missingTablesVersion;
 
     // Connection information.
-    private SqlDataSource                               dataSourceImpl;
-    Database                                            conn                = null;
+    private SqlDataSource         dataSourceImpl;
 
     // Properties.
-    private String                                      dataSource;
-    private boolean                                     addSignedFlag       = true;
-    private boolean                                     addTypeDescriptor   = true;
-    private boolean                                     ignoreMissingTables = true;
+    private String                dataSource;
+    private boolean               addSignedFlag       = true;
+    private boolean               addTypeDescriptor   = true;
+    private boolean               ignoreMissingTables = true;
 
     // SQL parser.
-    SqlOperationMatcher                                 sqlMatcher          = new MySQLOperationMatcher();
+    SqlOperationMatcher           sqlMatcher          = new MySQLOperationMatcher();
 
     /**
      * {@inheritDoc}
@@ -100,19 +99,17 @@ public class ColumnNameFilter implements Filter
             msg += "and signed flag ";
         logger.info(msg += "will be queried from the DBMS");
 
-        // Initialize cache for tables.
-        metadataCache = new Hashtable<String, Hashtable<String, Table>>();
+        // Initialize cache for missing tables.
+        missingTables = new HashMap<String, Table>();
 
-        // Locate our data source that we use to pick up metadata and create
-        // connection.
-        logger.info("Connecting to data source");
+        // Locate our data source, whose registry supplies table metadata.
         dataSourceImpl = (SqlDataSource) context.getDataSource(dataSource);
         if (dataSourceImpl == null)
         {
             throw new ReplicatorException("Unable to locate data source: name="
                     + dataSource);
         }
-        conn = dataSourceImpl.getConnection();
+        registry = dataSourceImpl.getTableMetadataRegistry();
     }
 
     /**
@@ -122,16 +119,12 @@ public class ColumnNameFilter implements Filter
      */
     public void release(PluginContext context) throws ReplicatorException
     {
-        if (metadataCache != null)
+        if (missingTables != null)
         {
-            metadataCache.clear();
-            metadataCache = null;
-        }
-        if (conn != null)
-        {
-            dataSourceImpl.releaseConnection(conn);
-            conn = null;
+            missingTables.clear();
+            missingTables = null;
         }
+        registry = null;
     }
 
     /**
@@ -152,7 +145,7 @@ public class ColumnNameFilter implements Filter
                 RowChangeData rdata = (RowChangeData) dataElem;
                 for (OneRowChange orc : rdata.getRowChanges())
                 {
-                    getColumnInformation(orc);
+                    getColumnInformation(orc, event.getSeqno());
                 }
             }
             else if (dataElem instanceof StatementData)
@@ -165,143 +158,58 @@ public class ColumnNameFilter implements Filter
                 if (query == null)
                     query = new String(sdata.getQueryAsBytes());
 
+                // Report schema changes to the registry. Other plugins may
+                // report the same statement, which is invalidated only once.
                 SqlOperation sqlOperation = sqlMatcher.match(query);
+                registry.invalidate(event.getEventId(), sqlOperation,
+                        sdata.getDefaultSchema());
 
-                if (sqlOperation.getOperation() == SqlOperation.DROP
-                        && sqlOperation.getObjectType() == SqlOperation.SCHEMA)
-                {
-                    // "drop database" statement detected : remove database
-                    // metadata
-                    String dbName = sqlOperation.getSchema();
-                    if (metadataCache.remove(dbName) != null)
-                    {
-                        if (logger.isDebugEnabled())
-                            logger.debug("DROP DATABASE detected - Removing database metadata for '"
-                                    + dbName + "'");
-                    }
-                    else if (logger.isDebugEnabled())
-                        logger.debug("DROP DATABASE detected - no cached database metadata to delete for '"
-                                + dbName + "'");
-                    continue;
-                }
-                else if (sqlOperation.getOperation() == SqlOperation.ALTER)
+                // A created table is no longer missing. This does not change
+                // the schema version, so drop our definition explicitly.
+                if (sqlOperation.getOperation() == SqlOperation.CREATE
+                        && sqlOperation.getObjectType() == SqlOperation.TABLE)
                 {
-                    // Detected an alter table statement / Dropping table
-                    // metadata for the concerned table
-                    String name = sqlOperation.getName();
-                    String defaultDB = sdata.getDefaultSchema();
-                    removeTableMetadata(name, sqlOperation.getSchema(),
-                            defaultDB);
-                    continue;
+                    String schema = sqlOperation.getSchema();
+                    if (schema == null)
+                        schema = sdata.getDefaultSchema();
+                    missingTables.remove(schema + "." + sqlOperation.getName());
                 }
-
             }
         }
         return event;
     }
 
-    private void removeTableMetadata(String tableName, String schemaName,
-            String defaultDB)
-    {
-        if (schemaName != null)
-        {
-            Hashtable<String, Table> tableCache = metadataCache.get(schemaName);
-            if (tableCache != null && tableCache.remove(tableName) != null)
-            {
-                if (logger.isDebugEnabled())
-                    logger.debug("ALTER TABLE detected - Removing table metadata for '"
-                            + schemaName + "." + tableName + "'");
-            }
-            else if (logger.isDebugEnabled())
-                logger.debug("ALTER TABLE detected - no cached table metadata to remove for '"
-                        + schemaName + "." + tableName + "'");
-        }
-        else
-        {
-            Hashtable<String, Table> tableCache = metadataCache.get(defaultDB);
-            if (tableCache != null && tableCache.remove(tableName) != null)
-                logger.info("ALTER TABLE detected - Removing table metadata for '"
-                        + defaultDB + "." + tableName + "'");
-            else
-                logger.info("ALTER TABLE detected - no cached table metadata to remove for '"
-                        + defaultDB + "." + tableName + "'");
-        }
-    }
-
     // Fetch information about schema.
-    private void getColumnInformation(OneRowChange orc)
+    private void getColumnInformation(OneRowChange orc, long seqno)
             throws ReplicatorException
     {
+        // Tables we already know to be missing are not queried again, since
+        // the registry does not cache negative lookups.
         String tableName = orc.getTableName();
-
-        if (!metadataCache.containsKey(orc.getSchemaName()))
+        Table table = null;
+        if (ignoreMissingTables)
+            table = findMissingTable(orc);
+        if (table == null)
+            table = registry.findTable(orc.getSchemaName(), tableName,
+                    orc.getTableId(), seqno);
+        if (table == null)
         {
-            // Nothing defined yet in this database
-            metadataCache.put(orc.getSchemaName(),
-                    new Hashtable<String, Table>());
-        }
-
-        Hashtable<String, Table> dbCache = metadataCache.get(orc
-                .getSchemaName());
-
-        if (!dbCache.containsKey(tableName) || orc.getTableId() == -1
-                || dbCache.get(tableName).getTableId() != orc.getTableId())
-        {
-            // This table was not processed yet or schema changed since it was
-            // cached : fetch information about its primary key
-            if (dbCache.remove(tableName) != null && logger.isDebugEnabled())
-                logger.debug("Detected a schema change for table "
-                        + orc.getSchemaName() + "." + tableName
-                        + " - Removing table metadata from cache");
-            Table newTable = null;
-            try
+            if (ignoreMissingTables)
             {
-                newTable = conn.findTable(orc.getSchemaName(),
-                        orc.getTableName(), false);
+                // If we are ignoring missing tables, manufacture a table
+                // definition with generated column names.
+                table = getMissingTable(orc);
             }
-            catch (SQLException e)
+            else
             {
+                // Otherwise generate an error.
                 throw new ReplicatorException(
-                        "Unable to retrieve column metadata: schema="
+                        "Unable to find column metadata; table may be missing: schema="
                                 + orc.getSchemaName() + " table="
                                 + orc.getTableName());
             }
-            if (newTable == null)
-            {
-                if (ignoreMissingTables)
-                {
-                    // If we are ignoring missing tables, manufacture a
-                    // table definition with generated column names.
-                    if (logger.isDebugEnabled())
-                    {
-                        logger.debug("Ignored a missing table: name="
-                                + orc.getSchemaName() + "." + tableName);
-                    }
-                    newTable = new Table(orc.getSchemaName(),
-                            orc.getTableName());
-                    int maxCols = Math.max(orc.getColumnSpec().size(), orc
-                            .getKeySpec().size());
-                    for (int i = 0; i < maxCols; i++)
-                    {
-                        Column column = new Column("col_" + i, Types.OTHER);
-                        newTable.AddColumn(column);
-                    }
-                }
-                else
-                {
-                    // Otherwise generate an error.
-                    throw new ReplicatorException(
-                            "Unable to find column metadata; table may be missing: schema="
-                                    + orc.getSchemaName() + " table="
-                                    + orc.getTableName());
-                }
-            }
-            newTable.setTableId(orc.getTableId());
-            dbCache.put(tableName, newTable);
         }
 
-        Table table = dbCache.get(tableName);
-
         ArrayList<Column> columns = table.getAllColumns();
         int index = 0;
         for (Iterator<ColumnSpec> iterator = orc.getColumnSpec().iterator(); iterator
@@ -337,6 +245,64 @@ public class ColumnNameFilter implements Filter
         // We could retrieve primary keys at this point.
     }
 
+    // Returns a definition previously manufactured for a missing table if it
+    // is still valid and covers all columns of the row change, otherwise null.
+    private Table findMissingTable(OneRowChange orc)
+    {
+        // Discard definitions if the schema may have changed.
+        long version = registry.getSchemaVersion();
+        if (version != missingTablesVersion)
+        {
+            missingTables.clear();
+            missingTablesVersion = version;
+            return null;
+        }
+
+        Table table = missingTables.get(orc.getSchemaName() + "."
+                + orc.getTableName());
+        if (table == null || table.getColumnCount() < maxColumns(orc))
+            return null;
+        else
+            return table;
+    }
+
+    // Returns the number of columns a definition needs for a row change.
+    private int maxColumns(OneRowChange orc)
+    {
+        return Math.max(orc.getColumnSpec().size(), orc.getKeySpec().size());
+    }
+
+    // Returns a manufactured definition for a table that does not exist.
+    private Table getMissingTable(OneRowChange orc)
+    {
+        // Discard definitions if the schema may have changed.
+        long version = registry.getSchemaVersion();
+        if (version != missingTablesVersion)
+        {
+            missingTables.clear();
+            missingTablesVersion = version;
+        }
+
+        String key = orc.getSchemaName() + "." + orc.getTableName();
+        int maxCols = maxColumns(orc);
+        Table table = missingTables.get(key);
+        if (table == null || table.getColumnCount() < maxCols)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Ignored a missing table: name=" + key);
+            }
+            table = new Table(orc.getSchemaName(), orc.getTableName());
+            for (int i = 0; i < maxCols; i++)
+            {
+                Column column = new Column("col_" + i, Types.OTHER);
+                table.AddColumn(column);
+            }
+            missingTables.put(key, table);
+        }
+        return table;
+    }
+
     /** Declares the data source name for this filter. */
     public void setDataSource(String dataSource)
     {
@@ -40,11 +40,10 @@ import com.continuent.tungsten.replicator.database.SqlOperation;
 import com.continuent.tungsten.replicator.database.SqlOperationMatcher;
 import com.continuent.tungsten.replicator.database.Table;
 import com.continuent.tungsten.replicator.datasource.SqlDataSource;
-import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.datasource.TableMetadataRegistry;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
-import com.continuent.tungsten.replicator.dbms.RowChangeData;
 import com.continuent.tungsten.replicator.dbms.StatementData;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplOptionParams;
@@ -68,7 +67,7 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  * @author <a href="mailto:linas.virbalas@continuent.com">Linas Virbalas</a>
  * @version 1.0
  */
-public class EnumToStringFilter implements Filter
+public class EnumToStringFilter implements RowChangeFilter
 {
     static class TableWithEnums
     {
@@ -104,7 +103,10 @@ public class EnumToStringFilter implements Filter
     // order to be able to drop all table definitions at once if a DROP DATABASE
     // is trapped). Filling metadata cache is done in a lazy way. It will be
     // updated only when a table is used for the first time by a row event.
+    // Table definitions come from the shared data source registry; an entry
+    // is rebuilt whenever the registry returns a different definition.
     private Hashtable<String, Hashtable<String, TableWithEnums>> metadataCache;
+    private TableMetadataRegistry                                registry;
 
     // Connection information.
     private SqlDataSource                                        dataSourceImpl;
@@ -163,6 +165,7 @@ public class EnumToStringFilter implements Filter
             throw new ReplicatorException("Unable to locate data source: name="
                     + dataSource);
         }
+        registry = dataSourceImpl.getTableMetadataRegistry();
         conn = dataSourceImpl.getConnection();
     }
 
@@ -183,6 +186,7 @@ public class EnumToStringFilter implements Filter
             dataSourceImpl.releaseConnection(conn);
             conn = null;
         }
+        registry = null;
     }
 
     /**
@@ -193,106 +197,77 @@ public class EnumToStringFilter implements Filter
     public ReplDBMSEvent filter(ReplDBMSEvent event)
             throws ReplicatorException, InterruptedException
     {
-        // This filter only works on MySQL data. Exit if we have an event from
-        // another DBMS type.
+        return RowChangeFilterChain.filter(event, this);
+    }
+
+    /**
+     * This filter only works on MySQL data, so it skips events from other DBMS
+     * types. {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#acceptEvent(com.continuent.tungsten.replicator.event.ReplDBMSEvent)
+     */
+    public boolean acceptEvent(ReplDBMSEvent event)
+    {
         String dbms = event.getMetadataOption(ReplOptionParams.DBMS_TYPE);
-        if (!Database.MYSQL.equals(dbms))
-            return event;
-
-        // Now process the data.
-        ArrayList<DBMSData> data = event.getData();
-        if (data == null)
-            return event;
-        for (DBMSData dataElem : data)
-        {
-            if (dataElem instanceof RowChangeData)
-            {
-                RowChangeData rdata = (RowChangeData) dataElem;
-                for (OneRowChange orc : rdata.getRowChanges())
-                    try
-                    {
-                        checkForListType(orc);
-                    }
-                    catch (SQLException e)
-                    {
-                        throw new ReplicatorException(
-                                "Filter failed processing primary key information",
-                                e);
-                    }
-            }
-            else if (dataElem instanceof StatementData)
-            {
-                StatementData sdata = (StatementData) dataElem;
-                // Parse statements in order to update table definitions if
-                // needed. e.g. DROP DATABASE should drop information about keys
-                // which are defined for this database tables, ...
-                String query = sdata.getQuery();
-                if (query == null)
-                    query = new String(sdata.getQueryAsBytes());
-
-                SqlOperation sqlOperation = sqlMatcher.match(query);
-
-                if (sqlOperation.getOperation() == SqlOperation.DROP
-                        && sqlOperation.getObjectType() == SqlOperation.SCHEMA)
-                {
-                    // "drop database" statement detected : remove database
-                    // metadata
-                    String dbName = sqlOperation.getSchema();
-                    if (metadataCache.remove(dbName) != null)
-                    {
-                        if (logger.isDebugEnabled())
-                            logger.debug("DROP DATABASE detected - Removing database metadata for '"
-                                    + dbName + "'");
-                    }
-                    else if (logger.isDebugEnabled())
-                        logger.debug("DROP DATABASE detected - no cached database metadata to delete for '"
-                                + dbName + "'");
-                    continue;
-                }
-                else if (sqlOperation.getOperation() == SqlOperation.ALTER)
-                {
-                    // Detected an alter table statement / Dropping table
-                    // metadata for the concerned table
-                    String name = sqlOperation.getName();
-                    String defaultDB = sdata.getDefaultSchema();
-                    removeTableMetadata(name, sqlOperation.getSchema(),
-                            defaultDB);
-                    continue;
-                }
+        return Database.MYSQL.equals(dbms);
+    }
 
-            }
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#filterRowChange(com.continuent.tungsten.replicator.event.ReplDBMSEvent,
+     *      com.continuent.tungsten.replicator.dbms.OneRowChange)
+     */
+    public boolean filterRowChange(ReplDBMSEvent event, OneRowChange orc)
+            throws ReplicatorException
+    {
+        try
+        {
+            checkForListType(orc, event.getSeqno());
         }
-        return event;
+        catch (SQLException e)
+        {
+            throw new ReplicatorException(
+                    "Filter failed processing primary key information", e);
+        }
+        return true;
     }
 
-    private void removeTableMetadata(String tableName, String schemaName,
-            String defaultDB)
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#filterStatement(com.continuent.tungsten.replicator.event.ReplDBMSEvent,
+     *      com.continuent.tungsten.replicator.dbms.StatementData)
+     */
+    public boolean filterStatement(ReplDBMSEvent event, StatementData sdata)
     {
-        if (schemaName != null)
+        // Parse statements in order to update table definitions if
+        // needed. e.g. DROP DATABASE should drop information about keys
+        // which are defined for this database tables, ...
+        String query = sdata.getQuery();
+        if (query == null)
+            query = new String(sdata.getQueryAsBytes());
+
+        // Report schema changes to the registry. Other plugins may
+        // report the same statement, which is invalidated only once.
+        SqlOperation sqlOperation = sqlMatcher.match(query);
+        registry.invalidate(event.getEventId(), sqlOperation,
+                sdata.getDefaultSchema());
+
+        if (sqlOperation.getOperation() == SqlOperation.DROP
+                && sqlOperation.getObjectType() == SqlOperation.SCHEMA)
         {
-            Hashtable<String, TableWithEnums> tableCache = metadataCache
-                    .get(schemaName);
-            if (tableCache != null && tableCache.remove(tableName) != null)
+            // "drop database" statement detected : remove database
+            // metadata
+            String dbName = sqlOperation.getSchema();
+            if (metadataCache.remove(dbName) != null)
             {
                 if (logger.isDebugEnabled())
-                    logger.debug("ALTER TABLE detected - Removing table metadata for '"
-                            + schemaName + "." + tableName + "'");
+                    logger.debug("DROP DATABASE detected - Removing database metadata for '"
+                            + dbName + "'");
             }
-            else if (logger.isDebugEnabled())
-                logger.debug("ALTER TABLE detected - no cached table metadata to remove for '"
-                        + schemaName + "." + tableName + "'");
-        }
-        else
-        {
-            Hashtable<String, TableWithEnums> tableCache = metadataCache
-                    .get(defaultDB);
-            if (tableCache != null && tableCache.remove(tableName) != null)
-                logger.info("ALTER TABLE detected - Removing table metadata for '"
-                        + defaultDB + "." + tableName + "'");
-            else
-                logger.info("ALTER TABLE detected - no cached table metadata to remove for '"
-                        + defaultDB + "." + tableName + "'");
         }
+        return true;
     }
 
     protected String[] parseListType(String listTypeDefinition)
@@ -458,13 +433,14 @@ public class EnumToStringFilter implements Filter
      * integers to corresponding strings.
      * 
      * @param orc
+     * @param seqno Seqno of the event, used to look up the table definition
      * @throws SQLException
      * @throws ReplicatorException
      */
-    protected void checkForListType(OneRowChange orc) throws SQLException,
-            ReplicatorException
+    protected void checkForListType(OneRowChange orc, long seqno)
+            throws SQLException, ReplicatorException
     {
-        checkForListType(orc, "ENUM");
+        checkForListType(orc, seqno, "ENUM");
     }
 
     /**
@@ -473,7 +449,7 @@ public class EnumToStringFilter implements Filter
      * 
      * @param type "ENUM" or "SET".
      */
-    protected void checkForListType(OneRowChange orc, String type)
+    protected void checkForListType(OneRowChange orc, long seqno, String type)
             throws SQLException, ReplicatorException
     {
         String tableName = orc.getTableName();
@@ -500,38 +476,35 @@ public class EnumToStringFilter implements Filter
         Hashtable<String, TableWithEnums> dbCache = metadataCache.get(orc
                 .getSchemaName());
 
-        if (!dbCache.containsKey(tableName)
-                || orc.getTableId() == -1
-                || dbCache.get(tableName).getTable() == null
-                || dbCache.get(tableName).getTable().getTableId() != orc
-                        .getTableId())
+        // If we cannot find the table, it is possible it has been deleted,
+        // in which case there is nothing to be done.
+        Table current = registry.findTable(orc.getSchemaName(), tableName,
+                orc.getTableId(), seqno);
+        if (current == null)
         {
-            // This table was not processed yet or schema changed since it was
-            // cached : fetch information about its primary key
-            if (dbCache.remove(tableName) != null && logger.isDebugEnabled())
-                logger.debug("Detected a schema change for table "
-                        + orc.getSchemaName() + "." + tableName
-                        + " - Removing table metadata from cache");
-            Table newTable = conn.findTable(orc.getSchemaName(),
-                    orc.getTableName(), false);
-            // If we cannot find the table, it is possible it has been deleted,
-            // in which case there is nothing to be done.
-            if (newTable == null)
+            dbCache.remove(tableName);
+            if (logger.isDebugEnabled())
             {
-                if (logger.isDebugEnabled())
-                {
-                    logger.debug("Ignored a missing table: name="
-                            + orc.getSchemaName() + "." + tableName);
-                }
-                return;
+                logger.debug("Ignored a missing table: name="
+                        + orc.getSchemaName() + "." + tableName);
             }
-            newTable.setTableId(orc.getTableId());
-            dbCache.put(tableName, new TableWithEnums(newTable));
+            return;
         }
 
         // Is there any enum columns in this table? If so, retrieve enum
-        // definitions of each enum column.
+        // definitions of each enum column. A new table definition means the
+        // schema changed since enums were cached.
         TableWithEnums table = dbCache.get(tableName);
+        if (table == null || table.getTable() != current)
+        {
+            if (table != null && logger.isDebugEnabled())
+                logger.debug("Detected a schema change for table "
+                        + orc.getSchemaName() + "." + tableName
+                        + " - Removing table metadata from cache");
+            table = new TableWithEnums(current);
+            dbCache.put(tableName, table);
+        }
+
         // Have we already cached enum definitions?
         HashMap<Integer, String[]> enumDefinitions = table.getEnumDefinitions();
         if (enumDefinitions != null)
@@ -0,0 +1,144 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.filter;
+
+import java.util.HashMap;
+
+/**
+ * Caches filtering decisions for schemas, tables, and optionally columns.
+ * Decisions are stored in nested hash maps so that look-ups do not build key
+ * strings for every row change. Once the cache reaches its maximum size it is
+ * cleared and refilled, which is far cheaper than evicting single entries
+ * when services have many thousands of schemas. Filters must call
+ * {@link #invalidate()} whenever their rules change.
+ * <p/>
+ * This class is not synchronized; each filter instance owns its cache.
+ */
+public class FilterDecisionCache
+{
+    private final int                               maxEntries;
+    private int                                     entries = 0;
+    private HashMap<String, HashMap<String, Entry>> schemas = new HashMap<String, HashMap<String, Entry>>();
+
+    // Decision for a table along with decisions for its columns.
+    private static class Entry
+    {
+        Boolean                  decision;
+        HashMap<String, Boolean> columns;
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries Number of decisions to hold before clearing the cache
+     */
+    public FilterDecisionCache(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the decision for a schema and table or null if none is cached.
+     *
+     * @param table Table name or null for a schema-level decision
+     */
+    public Boolean get(String schema, String table)
+    {
+        Entry entry = find(schema, table, false);
+        return entry == null ? null : entry.decision;
+    }
+
+    /** Stores the decision for a schema and table. */
+    public void put(String schema, String table, boolean decision)
+    {
+        if (entries >= maxEntries)
+            invalidate();
+        Entry entry = find(schema, table, true);
+        if (entry.decision == null)
+            entries++;
+        entry.decision = decision;
+    }
+
+    /**
+     * Returns the decision for a column or null if none is cached.
+     */
+    public Boolean get(String schema, String table, String column)
+    {
+        Entry entry = find(schema, table, false);
+        if (entry == null || entry.columns == null)
+            return null;
+        return entry.columns.get(key(column));
+    }
+
+    /** Stores the decision for a column. */
+    public void put(String schema, String table, String column,
+            boolean decision)
+    {
+        if (entries >= maxEntries)
+            invalidate();
+        Entry entry = find(schema, table, true);
+        if (entry.columns == null)
+            entry.columns = new HashMap<String, Boolean>();
+        if (entry.columns.put(key(column), decision) == null)
+            entries++;
+    }
+
+    /** Drops all cached decisions. */
+    public void invalidate()
+    {
+        schemas.clear();
+        entries = 0;
+    }
+
+    /** Returns the number of cached decisions. */
+    public int size()
+    {
+        return entries;
+    }
+
+    // Finds the entry for a table, optionally creating it.
+    private Entry find(String schema, String table, boolean create)
+    {
+        HashMap<String, Entry> tables = schemas.get(key(schema));
+        if (tables == null)
+        {
+            if (!create)
+                return null;
+            tables = new HashMap<String, Entry>();
+            schemas.put(key(schema), tables);
+        }
+        Entry entry = tables.get(key(table));
+        if (entry == null && create)
+        {
+            entry = new Entry();
+            tables.put(key(table), entry);
+        }
+        return entry;
+    }
+
+    // Null and empty names are equivalent for filtering purposes.
+    private String key(String name)
+    {
+        return name == null ? "" : name;
+    }
+}
@@ -67,6 +67,11 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  * <code>logger.info("I'm a script!");</code><br/>
  * thread - current {@link java.lang.Thread}. Eg. of usage: thread.sleep(1000);<br/>
  * <br/>
+ * The script is compiled to Java byte code at the Rhino optimization level
+ * given by the optional "optimizationLevel" filter property (default 9; -1
+ * selects the interpreter). Each thread that calls filter(event) enters a
+ * JavaScript context once and keeps it for subsequent events.<br/>
+ * <br/>
  * Note: if you wish to call more than one JS file, use multiple instances of
  * this filter with different names defined in replicator.properties
  * 
@@ -98,6 +103,16 @@ public class JavaScriptFilter implements FilterManualProperties
      */
     private String             scriptFile       = null;
 
+    /**
+     * Rhino optimization level used to compile the script.
+     */
+    private int                optimizationLevel = 9;
+
+    /**
+     * Thread currently bound to the "thread" variable of the scope.
+     */
+    private Thread             boundThread      = null;
+
     private String             configPrefix     = null;
     private TungstenProperties properties       = null;
     private TungstenProperties filterProperties = null;
@@ -126,12 +141,23 @@ public class JavaScriptFilter implements FilterManualProperties
         {
             // We are in a method which might be called from a different thread
             // than the one that called the prepare() method. Thus we need to
-            // enter JavaScript context.
-            Context jsContext = ContextFactory.getGlobal().enterContext();
+            // enter JavaScript context. The context stays entered so that
+            // later events on the same thread skip this step; it is discarded
+            // with the thread.
+            Context jsContext = Context.getCurrentContext();
+            if (jsContext == null)
+            {
+                jsContext = ContextFactory.getGlobal().enterContext();
+                jsContext.setOptimizationLevel(optimizationLevel);
+            }
 
             // Provide access to current thread object.
-            ScriptableObject.putProperty(scope, "thread", Thread
-                    .currentThread());
+            Thread currentThread = Thread.currentThread();
+            if (currentThread != boundThread)
+            {
+                ScriptableObject.putProperty(scope, "thread", currentThread);
+                boundThread = currentThread;
+            }
 
             // Call function "filter(event)" and log its result if one was
             // returned.
@@ -139,9 +165,6 @@ public class JavaScriptFilter implements FilterManualProperties
             Object result = filterFunction.call(jsContext, scope, scope,
                     functionArgs);
 
-            // Exit JavaScript context.
-            Context.exit();
-            
             // Handle the return value.
             if (result == null)
                 return null;
@@ -171,6 +194,14 @@ public class JavaScriptFilter implements FilterManualProperties
         if (scriptFile == null)
             throw new ReplicatorException(
                     "scriptFile property must be set for JavaScript filter to work");
+
+        // Determine how to compile the script.
+        optimizationLevel = filterProperties.getInt("optimizationLevel", "9",
+                false);
+        if (!Context.isValidOptimizationLevel(optimizationLevel))
+            throw new ReplicatorException(
+                    "optimizationLevel must be between -1 and 9: "
+                            + optimizationLevel);
     }
 
     /**
@@ -182,7 +213,11 @@ public class JavaScriptFilter implements FilterManualProperties
     public void prepare(PluginContext context) throws ReplicatorException
     {
         // Create JavaScript context which will be used for preparing script.
+        // The optimization level in effect at compile time applies to all
+        // functions in the script.
         Context jsContext = ContextFactory.getGlobal().enterContext();
+        int previousLevel = jsContext.getOptimizationLevel();
+        jsContext.setOptimizationLevel(optimizationLevel);
 
         // Create script's scope.
         scope = jsContext.initStandardObjects();
@@ -228,9 +263,13 @@ public class JavaScriptFilter implements FilterManualProperties
         }
         finally
         {
-            // Exit JavaScript context.
+            // Exit JavaScript context, which may be shared with other scripts
+            // on this thread.
+            jsContext.setOptimizationLevel(previousLevel);
             Context.exit();
         }
+        logger.info("Prepared JavaScript filter: script=" + scriptFile
+                + " optimizationLevel=" + optimizationLevel);
     }
 
     /**
@@ -22,9 +22,7 @@
 
 package com.continuent.tungsten.replicator.filter;
 
-import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 
@@ -32,13 +30,13 @@ import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.database.Column;
-import com.continuent.tungsten.replicator.database.Database;
 import com.continuent.tungsten.replicator.database.Key;
 import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
 import com.continuent.tungsten.replicator.database.SqlOperation;
 import com.continuent.tungsten.replicator.database.SqlOperationMatcher;
 import com.continuent.tungsten.replicator.database.Table;
 import com.continuent.tungsten.replicator.datasource.SqlDataSource;
+import com.continuent.tungsten.replicator.datasource.TableMetadataRegistry;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
@@ -57,32 +55,24 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  */
 public class PrimaryKeyFilter implements Filter
 {
-    private static Logger                               logger                    = Logger.getLogger(PrimaryKeyFilter.class);
+    private static Logger         logger               = Logger.getLogger(PrimaryKeyFilter.class);
 
-    // Metadata cache is a hashtable indexed by the database name and each
-    // database uses a hashtable indexed by the table name (This is done in
-    // order to be able to drop all table definitions at once if a DROP DATABASE
-    // is trapped). Filling metadata cache is done in a lazy way. It will be
-    // updated only when a table is used for the first time by a row event.
-    private Hashtable<String, Hashtable<String, Table>> metadataCache;
+    // Table metadata is shared with other plugins through the data source
+    // registry, which is filled lazily as row events arrive.
+    private TableMetadataRegistry registry;
 
     // Connection information.
-    private SqlDataSource                               dataSourceImpl;
-    private String                                      dataSource;
-    Database                                            conn                      = null;
+    private SqlDataSource         dataSourceImpl;
+    private String                dataSource;
 
-    private List<String>                                tables                    = null;
-    private List<String>                                schemas                   = null;
-    private String                                      processTablesSchemas      = null;
-    private boolean                                     addPkeyToInserts          = false;
-    private boolean                                     addColumnsToDeletes       = false;
-
-    private long                                        reconnectTimeoutInSeconds = 60;
+    private List<String>          tables               = null;
+    private List<String>          schemas              = null;
+    private String                processTablesSchemas = null;
+    private boolean               addPkeyToInserts     = false;
+    private boolean               addColumnsToDeletes  = false;
 
     // SQL parser.
-    SqlOperationMatcher                                 sqlMatcher                = new MySQLOperationMatcher();
-
-    private long                                        lastConnectionTime;
+    SqlOperationMatcher           sqlMatcher           = new MySQLOperationMatcher();
 
     /**
      * {@inheritDoc}
@@ -118,18 +108,14 @@ public class PrimaryKeyFilter implements Filter
      */
     public void prepare(PluginContext context) throws ReplicatorException
     {
-        metadataCache = new Hashtable<String, Hashtable<String, Table>>();
-
-        // Locate our data source that we use to pick up metadata and create
-        // connection.
-        logger.info("Connecting to data source");
+        // Locate our data source, whose registry supplies table metadata.
         dataSourceImpl = (SqlDataSource) context.getDataSource(dataSource);
         if (dataSourceImpl == null)
         {
             throw new ReplicatorException("Unable to locate data source: name="
                     + dataSource);
         }
-        conn = dataSourceImpl.getConnection();
+        registry = dataSourceImpl.getTableMetadataRegistry();
     }
 
     /**
@@ -139,16 +125,7 @@ public class PrimaryKeyFilter implements Filter
      */
     public void release(PluginContext context) throws ReplicatorException
     {
-        if (metadataCache != null)
-        {
-            metadataCache.clear();
-            metadataCache = null;
-        }
-        if (conn != null)
-        {
-            dataSourceImpl.releaseConnection(conn);
-            conn = null;
-        }
+        registry = null;
     }
 
     /**
@@ -168,18 +145,11 @@ public class PrimaryKeyFilter implements Filter
             {
                 RowChangeData rdata = (RowChangeData) dataElem;
                 for (OneRowChange orc : rdata.getRowChanges())
-                    try
-                    {
-                        // Check for and add primary key information. This
-                        // also adds delete column information if desired.
-                        checkForPK(orc);
-                    }
-                    catch (SQLException e)
-                    {
-                        throw new ReplicatorException(
-                                "Filter failed processing primary key information",
-                                e);
-                    }
+                {
+                    // Check for and add primary key information. This
+                    // also adds delete column information if desired.
+                    checkForPK(orc, event.getSeqno());
+                }
             }
             else if (dataElem instanceof StatementData)
             {
@@ -191,71 +161,19 @@ public class PrimaryKeyFilter implements Filter
                 if (query == null)
                     query = new String(sdata.getQueryAsBytes());
 
+                // Report schema changes to the registry. Other plugins may
+                // report the same statement, which is invalidated only once.
                 SqlOperation sqlOperation = sqlMatcher.match(query);
-
-                if (sqlOperation.getOperation() == SqlOperation.DROP
-                        && sqlOperation.getObjectType() == SqlOperation.SCHEMA)
-                {
-                    // "drop database" statement detected : remove database
-                    // metadata
-                    String dbName = sqlOperation.getSchema();
-                    if (metadataCache.remove(dbName) != null)
-                    {
-                        if (logger.isDebugEnabled())
-                            logger.debug("DROP DATABASE detected - Removing database metadata for '"
-                                    + dbName + "'");
-                    }
-                    else if (logger.isDebugEnabled())
-                        logger.debug("DROP DATABASE detected - no cached database metadata to delete for '"
-                                + dbName + "'");
-                    continue;
-                }
-                else if (sqlOperation.getOperation() == SqlOperation.ALTER)
-                {
-                    // Detected an alter table statement / Dropping table
-                    // metadata for the concerned table
-                    String name = sqlOperation.getName();
-                    String defaultDB = sdata.getDefaultSchema();
-                    removeTableMetadata(name, sqlOperation.getSchema(),
-                            defaultDB);
-                    continue;
-                }
-
+                registry.invalidate(event.getEventId(), sqlOperation,
+                        sdata.getDefaultSchema());
             }
         }
         return event;
     }
 
-    private void removeTableMetadata(String tableName, String schemaName,
-            String defaultDB)
-    {
-        if (schemaName != null)
-        {
-            Hashtable<String, Table> tableCache = metadataCache.get(schemaName);
-            if (tableCache != null && tableCache.remove(tableName) != null)
-            {
-                if (logger.isDebugEnabled())
-                    logger.debug("ALTER TABLE detected - Removing table metadata for '"
-                            + schemaName + "." + tableName + "'");
-            }
-            else if (logger.isDebugEnabled())
-                logger.debug("ALTER TABLE detected - no cached table metadata to remove for '"
-                        + schemaName + "." + tableName + "'");
-        }
-        else if (defaultDB != null)
-        {
-            Hashtable<String, Table> tableCache = metadataCache.get(defaultDB);
-            if (tableCache != null && tableCache.remove(tableName) != null)
-                logger.info("ALTER TABLE detected - Removing table metadata for '"
-                        + defaultDB + "." + tableName + "'");
-            else
-                logger.info("ALTER TABLE detected - no cached table metadata to remove for '"
-                        + defaultDB + "." + tableName + "'");
-        }
-    }
-
     // Add primary keys to row change data.
-    private void checkForPK(OneRowChange orc) throws SQLException
+    private void checkForPK(OneRowChange orc, long seqno)
+            throws ReplicatorException
     {
         if (orc.getAction() == ActionType.INSERT && !addPkeyToInserts)
             return;
@@ -273,44 +191,13 @@ public class PrimaryKeyFilter implements Filter
             return;
         }
 
-        if (!metadataCache.containsKey(orc.getSchemaName()))
-        {
-            // Nothing defined yet in this database
-            metadataCache.put(orc.getSchemaName(),
-                    new Hashtable<String, Table>());
-        }
-
-        Hashtable<String, Table> dbCache = metadataCache.get(orc
-                .getSchemaName());
-
-        if (!dbCache.containsKey(tableName) || orc.getTableId() == -1
-                || dbCache.get(tableName).getTableId() != orc.getTableId())
-        {
-            // This table was not processed yet or schema changed since it was
-            // cached : fetch information about its primary key
-            if (dbCache.remove(tableName) != null && logger.isDebugEnabled())
-                logger.debug("Detected a schema change for table "
-                        + orc.getSchemaName() + "." + tableName
-                        + " - Removing table metadata from cache");
-            reconnectIfNeeded();
-            Table newTable = conn.findTable(orc.getSchemaName(),
-                    orc.getTableName(), false);
-            if (newTable != null)
-            {
-                newTable.setTableId(orc.getTableId());
-                dbCache.put(tableName, newTable);
-            }
-            else if (logger.isDebugEnabled())
-                logger.debug("Table " + tableName + " not found in "
-                        + orc.getSchemaName());
-        }
-
-        Table table = dbCache.get(tableName);
+        Table table = registry.findTable(orc.getSchemaName(), tableName,
+                orc.getTableId(), seqno);
         if (table == null)
         {
             if (logger.isDebugEnabled())
-                logger.debug("Table " + orc.getSchemaName() + "." + tableName
-                        + " not found in cache");
+                logger.debug("Table " + tableName + " not found in "
+                        + orc.getSchemaName());
             return;
         }
 
@@ -433,19 +320,6 @@ public class PrimaryKeyFilter implements Filter
         }
     }
 
-    private void reconnectIfNeeded() throws SQLException
-    {
-        long currentTime = System.currentTimeMillis();
-        if (reconnectTimeoutInSeconds > 0
-                && currentTime - lastConnectionTime > reconnectTimeoutInSeconds * 1000)
-        {
-            // Time to reconnect now
-            lastConnectionTime = currentTime;
-            conn.close();
-            conn.connect();
-        }
-    }
-
     /** Declares the data source name for this filter. */
     public void setDataSource(String dataSource)
     {
@@ -475,8 +349,13 @@ public class PrimaryKeyFilter implements Filter
         this.addColumnsToDeletes = addColumnsToDeletes;
     }
 
+    /**
+     * Formerly set how often the filter reconnected to the DBMS. Metadata now
+     * comes from the data source registry, which reconnects on failure, so the
+     * value is ignored. Retained for compatibility with existing
+     * configurations.
+     */
     public void setReconnectTimeout(long seconds)
     {
-        reconnectTimeoutInSeconds = seconds;
     }
 }
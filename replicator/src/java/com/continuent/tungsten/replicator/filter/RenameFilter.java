@@ -24,17 +24,14 @@ package com.continuent.tungsten.replicator.filter;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.conf.ReplicatorConf;
-import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
 import com.continuent.tungsten.replicator.dbms.StatementData;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
-import com.continuent.tungsten.replicator.dbms.RowChangeData;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 
@@ -46,7 +43,7 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  * @author <a href="mailto:linas.virbalas@continuent.com">Linas Virbalas</a>
  * @version 1.0
  */
-public class RenameFilter implements Filter
+public class RenameFilter implements StatelessFilter, RowChangeFilter
 {
     private static Logger     logger = Logger.getLogger(RenameFilter.class);
 
@@ -80,130 +77,143 @@ public class RenameFilter implements Filter
      * 
      * @see com.continuent.tungsten.replicator.filter.Filter#filter(com.continuent.tungsten.replicator.event.ReplDBMSEvent)
      */
-    public ReplDBMSEvent filter(ReplDBMSEvent event) throws ReplicatorException
+    public ReplDBMSEvent filter(ReplDBMSEvent event)
+            throws ReplicatorException, InterruptedException
     {
-        ArrayList<DBMSData> data = event.getData();
-        for (Iterator<DBMSData> iterator = data.iterator(); iterator.hasNext();)
+        return RowChangeFilterChain.filter(event, this);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#acceptEvent(com.continuent.tungsten.replicator.event.ReplDBMSEvent)
+     */
+    public boolean acceptEvent(ReplDBMSEvent event)
+    {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#filterRowChange(com.continuent.tungsten.replicator.event.ReplDBMSEvent,
+     *      com.continuent.tungsten.replicator.dbms.OneRowChange)
+     */
+    public boolean filterRowChange(ReplDBMSEvent event, OneRowChange orc)
+    {
+        // Don't analyze tables from Tungsten schema.
+        if (orc.getSchemaName().compareToIgnoreCase(tungstenSchema) == 0)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Ignoring " + tungstenSchema
+                        + " schema");
+            return true;
+        }
+
+        // Optimization: loop through column and key specifications
+        // only if there's a request to rename column for this
+        // schema and table.
+        if (renameDefinitions.shouldRenameColumn(
+                orc.getSchemaName(), orc.getTableName()))
         {
-            DBMSData dataElem = iterator.next();
-            if (dataElem instanceof RowChangeData)
+            // Rename column specs.
+            ArrayList<ColumnSpec> colSpecs = orc.getColumnSpec();
+            for (ColumnSpec colSpec : colSpecs)
             {
-                RowChangeData rdata = (RowChangeData) dataElem;
-                for (Iterator<OneRowChange> iterator2 = rdata.getRowChanges()
-                        .iterator(); iterator2.hasNext();)
+                if (colSpec.getName() != null)
                 {
-                    OneRowChange orc = iterator2.next();
-
-                    // Don't analyze tables from Tungsten schema.
-                    if (orc.getSchemaName().compareToIgnoreCase(tungstenSchema) == 0)
+                    String newColName = renameDefinitions
+                            .getNewColumnName(orc.getSchemaName(),
+                                    orc.getTableName(),
+                                    colSpec.getName());
+                    if (newColName != null)
+                        colSpec.setName(newColName);
+                }
+                else
+                {
+                    if (logger.isDebugEnabled())
                     {
-                        if (logger.isDebugEnabled())
-                            logger.debug("Ignoring " + tungstenSchema
-                                    + " schema");
-                        continue;
+                        logger.debug("Expected to rename column, but original column name is undefined: "
+                                + orc.getSchemaName()
+                                + "."
+                                + orc.getTableName()
+                                + "["
+                                + colSpec.getIndex() + "]");
                     }
+                }
+            }
 
-                    // Optimization: loop through column and key specifications
-                    // only if there's a request to rename column for this
-                    // schema and table.
-                    if (renameDefinitions.shouldRenameColumn(
-                            orc.getSchemaName(), orc.getTableName()))
+            // Rename key specs.
+            ArrayList<ColumnSpec> keySpecs = orc.getKeySpec();
+            for (ColumnSpec keySpec : keySpecs)
+            {
+                if (keySpec.getName() != null)
+                {
+                    String newColName = renameDefinitions
+                            .getNewColumnName(orc.getSchemaName(),
+                                    orc.getTableName(),
+                                    keySpec.getName());
+                    if (newColName != null)
+                        keySpec.setName(newColName);
+                }
+                else
+                {
+                    if (logger.isDebugEnabled())
                     {
-                        // Rename column specs.
-                        ArrayList<ColumnSpec> colSpecs = orc.getColumnSpec();
-                        for (ColumnSpec colSpec : colSpecs)
-                        {
-                            if (colSpec.getName() != null)
-                            {
-                                String newColName = renameDefinitions
-                                        .getNewColumnName(orc.getSchemaName(),
-                                                orc.getTableName(),
-                                                colSpec.getName());
-                                if (newColName != null)
-                                    colSpec.setName(newColName);
-                            }
-                            else
-                            {
-                                if (logger.isDebugEnabled())
-                                {
-                                    logger.debug("Expected to rename column, but original column name is undefined: "
-                                            + orc.getSchemaName()
-                                            + "."
-                                            + orc.getTableName()
-                                            + "["
-                                            + colSpec.getIndex() + "]");
-                                }
-                            }
-                        }
-
-                        // Rename key specs.
-                        ArrayList<ColumnSpec> keySpecs = orc.getKeySpec();
-                        for (ColumnSpec keySpec : keySpecs)
-                        {
-                            if (keySpec.getName() != null)
-                            {
-                                String newColName = renameDefinitions
-                                        .getNewColumnName(orc.getSchemaName(),
-                                                orc.getTableName(),
-                                                keySpec.getName());
-                                if (newColName != null)
-                                    keySpec.setName(newColName);
-                            }
-                            else
-                            {
-                                if (logger.isDebugEnabled())
-                                {
-                                    logger.debug("Expected to rename key, but original column name is undefined: "
-                                            + orc.getSchemaName()
-                                            + "."
-                                            + orc.getTableName()
-                                            + "["
-                                            + keySpec.getIndex() + "]");
-                                }
-                            }
-                        }
+                        logger.debug("Expected to rename key, but original column name is undefined: "
+                                + orc.getSchemaName()
+                                + "."
+                                + orc.getTableName()
+                                + "["
+                                + keySpec.getIndex() + "]");
                     }
-
-                    // Get new table name if there's a request.
-                    String newTableName = renameDefinitions.getNewTableName(
-                            orc.getSchemaName(), orc.getTableName());
-
-                    // Get new schema name if there's a request.
-                    String newSchemaName = renameDefinitions.getNewSchemaName(
-                            orc.getSchemaName(), orc.getTableName());
-
-                    // Finally, do the actual renaming.
-                    if (newTableName != null)
-                        orc.setTableName(newTableName);
-                    if (newSchemaName != null)
-                        orc.setSchemaName(newSchemaName);
                 }
             }
-            else if (dataElem instanceof StatementData)
-            {
-                StatementData sdata = (StatementData) dataElem;
+        }
 
-                // Search for "*,*,*" rule, if default schema is not defined.
-                String defaultSchema = "*";
-                if (sdata.getDefaultSchema() != null)
-                    defaultSchema = sdata.getDefaultSchema();
+        // Get new table name if there's a request.
+        String newTableName = renameDefinitions.getNewTableName(
+                orc.getSchemaName(), orc.getTableName());
 
-                // Don't analyze Tungsten schema.
-                if (defaultSchema.compareToIgnoreCase(tungstenSchema) == 0)
-                {
-                    if (logger.isDebugEnabled())
-                        logger.debug("Ignoring " + tungstenSchema + " schema");
-                    continue;
-                }
+        // Get new schema name if there's a request.
+        String newSchemaName = renameDefinitions.getNewSchemaName(
+                orc.getSchemaName(), orc.getTableName());
 
-                // Get new schema name if there's a request.
-                String newSchemaName = renameDefinitions.getNewSchemaName(
-                        defaultSchema, "*");
-                if (newSchemaName != null)
-                    sdata.setDefaultSchema(newSchemaName);
-            }
+        // Finally, do the actual renaming.
+        if (newTableName != null)
+            orc.setTableName(newTableName);
+        if (newSchemaName != null)
+            orc.setSchemaName(newSchemaName);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#filterStatement(com.continuent.tungsten.replicator.event.ReplDBMSEvent,
+     *      com.continuent.tungsten.replicator.dbms.StatementData)
+     */
+    public boolean filterStatement(ReplDBMSEvent event, StatementData sdata)
+    {
+        // Search for "*,*,*" rule, if default schema is not defined.
+        String defaultSchema = "*";
+        if (sdata.getDefaultSchema() != null)
+            defaultSchema = sdata.getDefaultSchema();
+
+        // Don't analyze Tungsten schema.
+        if (defaultSchema.compareToIgnoreCase(tungstenSchema) == 0)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Ignoring " + tungstenSchema + " schema");
+            return true;
         }
-        return event;
+
+        // Get new schema name if there's a request.
+        String newSchemaName = renameDefinitions.getNewSchemaName(
+                defaultSchema, "*");
+        if (newSchemaName != null)
+            sdata.setDefaultSchema(newSchemaName);
+        return true;
     }
 
     /**
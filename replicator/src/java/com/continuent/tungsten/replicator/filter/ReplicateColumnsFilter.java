@@ -26,14 +26,11 @@ import java.util.Iterator;
 
 import org.apache.log4j.Logger;
 
-import com.continuent.tungsten.common.cache.IndexedLRUCache;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.conf.ReplicatorConf;
-import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
 import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
-import com.continuent.tungsten.replicator.dbms.RowChangeData;
 import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
 import com.continuent.tungsten.replicator.dbms.StatementData;
 import com.continuent.tungsten.replicator.database.TableMatcher;
@@ -48,7 +45,7 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  * @see java.util.regex.Pattern
  * @see java.util.regex.Matcher
  */
-public class ReplicateColumnsFilter implements Filter
+public class ReplicateColumnsFilter implements RowChangeFilter
 {    
     private static Logger            logger = Logger.getLogger(ReplicateColumnsFilter.class);
     
@@ -61,7 +58,7 @@ public class ReplicateColumnsFilter implements Filter
     private String                   tungstenSchema;
     
     // Cache to look up filtered tables.
-    private IndexedLRUCache<Boolean> filterCache;
+    private FilterDecisionCache      filterCache;
     
     /**
      * Define a comma-separated list of tables with optional column names (e.g.,
@@ -100,110 +97,129 @@ public class ReplicateColumnsFilter implements Filter
      * 
      * @see com.continuent.tungsten.replicator.filter.Filter#filter(com.continuent.tungsten.replicator.event.ReplDBMSEvent)
      */
-    public ReplDBMSEvent filter(ReplDBMSEvent event) throws ReplicatorException
+    public ReplDBMSEvent filter(ReplDBMSEvent event)
+            throws ReplicatorException, InterruptedException
     {
-        ArrayList<DBMSData> data = event.getData();
-        for (DBMSData dataElem : data)
+        return RowChangeFilterChain.filter(event, this);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#acceptEvent(com.continuent.tungsten.replicator.event.ReplDBMSEvent)
+     */
+    public boolean acceptEvent(ReplDBMSEvent event)
+    {
+        return true;
+    }
+
+    /**
+     * Removes filtered columns from a row change.
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#filterRowChange(com.continuent.tungsten.replicator.event.ReplDBMSEvent,
+     *      com.continuent.tungsten.replicator.dbms.OneRowChange)
+     */
+    public boolean filterRowChange(ReplDBMSEvent event, OneRowChange orc)
+            throws ReplicatorException
+    {
+        ArrayList<ColumnSpec> keys = orc.getKeySpec();
+        ArrayList<ColumnSpec> columns = orc.getColumnSpec();
+        ArrayList<ArrayList<ColumnVal>> keyValues = orc.getKeyValues();
+        ArrayList<ArrayList<ColumnVal>> columnValues = orc.getColumnValues();
+
+        // Holds the list of columns that should not be in the index table
+        ArrayList<ColumnSpec> keysToRemove = new ArrayList<ColumnSpec>();
+        ArrayList<ColumnSpec> columnsToRemove = new ArrayList<ColumnSpec>();
+
+        if (orc.getAction() == ActionType.UPDATE) {
+            if (columns.size() != keys.size() && keys.size() != 1) {
+                throw new ReplicatorException(
+                    "Column and key count is different in this event! Cannot filter");
+            }
+        }
+
+        // Iterate key values (column value count is the same or more).
+        for (int k = 0; k < keys.size(); k++)
+        {
+            ColumnSpec keySpec = keys.get(k);
+
+            if (filterColumn(orc.getSchemaName(), orc.getTableName(), keySpec.getName())) {
+                logger.debug("Drop data for " + orc.getTableName() + "." + keySpec.getName());
+
+                keysToRemove.add(keySpec);
+            } else {
+                logger.debug("Replicate data for " + orc.getTableName() + "." + keySpec.getName());
+            }
+        }
+
+        // Remove unwanted columns now that we know which those are.
+        for (Iterator<ColumnSpec> iteratorRemoveKey = keysToRemove.iterator(); iteratorRemoveKey
+                .hasNext();)
         {
-            if (dataElem instanceof RowChangeData)
+            ColumnSpec keyToRemoveSpec = iteratorRemoveKey.next();
+            int idx = keys.indexOf(keyToRemoveSpec);
+
+            for (Iterator<ArrayList<ColumnVal>> iteratorKeyValue = keyValues
+                    .iterator(); iteratorKeyValue.hasNext();)
             {
-                RowChangeData rdata = (RowChangeData) dataElem;
-                for (OneRowChange orc : rdata.getRowChanges())
-                {
-                    ArrayList<ColumnSpec> keys = orc.getKeySpec();
-                    ArrayList<ColumnSpec> columns = orc.getColumnSpec();
-                    ArrayList<ArrayList<ColumnVal>> keyValues = orc.getKeyValues();
-                    ArrayList<ArrayList<ColumnVal>> columnValues = orc.getColumnValues();
-                    
-                    // Holds the list of columns that should not be in the index table
-                    ArrayList<ColumnSpec> keysToRemove = new ArrayList<ColumnSpec>();
-                    ArrayList<ColumnSpec> columnsToRemove = new ArrayList<ColumnSpec>();
-                    
-                    if (orc.getAction() == ActionType.UPDATE) {
-                        if (columns.size() != keys.size() && keys.size() != 1) {
-                            throw new ReplicatorException(
-                                "Column and key count is different in this event! Cannot filter");
-                        }
-                    }
-
-                    // Iterate key values (column value count is the same or more).
-                    for (int k = 0; k < keys.size(); k++)
-                    {
-                        ColumnSpec keySpec = keys.get(k);
-                        
-                        if (filterColumn(orc.getSchemaName(), orc.getTableName(), keySpec.getName())) {
-                            logger.debug("Drop data for " + orc.getTableName() + "." + keySpec.getName());
-                            
-                            keysToRemove.add(keySpec);
-                        } else {
-                            logger.debug("Replicate data for " + orc.getTableName() + "." + keySpec.getName());
-                        }
-                    }
-                    
-                    // Remove unwanted columns now that we know which those are.
-                    for (Iterator<ColumnSpec> iteratorRemoveKey = keysToRemove.iterator(); iteratorRemoveKey
-                            .hasNext();)
-                    {
-                        ColumnSpec keyToRemoveSpec = iteratorRemoveKey.next();
-                        int idx = keys.indexOf(keyToRemoveSpec);
-                        
-                        for (Iterator<ArrayList<ColumnVal>> iteratorKeyValue = keyValues
-                                .iterator(); iteratorKeyValue.hasNext();)
-                        {
-                            ArrayList<ColumnVal> kValues = iteratorKeyValue.next();
-                            kValues.remove(idx);
-                        }
-                        
-                        // Then remove the column specs.
-                        keys.remove(idx);
-
-                        // Now we actually changed the event.
-                        logger.info("Key " + keyToRemoveSpec.getIndex() + " removed at " + idx);
-                    }
-                    
-                    // Iterate key values (column value count is the same or more).
-                    for (int c = 0; c < columns.size(); c++)
-                    {
-                        ColumnSpec colSpec = columns.get(c);
-                        
-                        if (filterColumn(orc.getSchemaName(), orc.getTableName(), colSpec.getName())) {
-                            logger.debug("Drop data for " + orc.getTableName() + "." + colSpec.getName());
-                            
-                            columnsToRemove.add(colSpec);
-                        } else {
-                            logger.debug("Replicate data for " + orc.getTableName() + "." + colSpec.getName());
-                        }
-                    }
-                    
-                    // Remove unwanted columns now that we know which those are.
-                    for (Iterator<ColumnSpec> iteratorRemoveColumn = columnsToRemove.iterator(); iteratorRemoveColumn
-                            .hasNext();)
-                    {
-                        ColumnSpec columnToRemoveSpec = iteratorRemoveColumn.next();
-                        int idx = columns.indexOf(columnToRemoveSpec);
-
-                        // Iterate through each row.
-                        for (Iterator<ArrayList<ColumnVal>> iteratorValue = columnValues
-                                .iterator(); iteratorValue.hasNext();)
-                        {
-                            ArrayList<ColumnVal> cValues = iteratorValue.next();
-                            cValues.remove(idx);
-                        }
-                        
-                        // Then remove the column specs.
-                        columns.remove(idx);
-
-                        // Now we actually changed the event.
-                        logger.debug("Col " + columnToRemoveSpec.getIndex() + " removed at " + idx);
-                    }
-                }
+                ArrayList<ColumnVal> kValues = iteratorKeyValue.next();
+                kValues.remove(idx);
+            }
+
+            // Then remove the column specs.
+            keys.remove(idx);
+
+            // Now we actually changed the event.
+            logger.info("Key " + keyToRemoveSpec.getIndex() + " removed at " + idx);
+        }
+
+        // Iterate key values (column value count is the same or more).
+        for (int c = 0; c < columns.size(); c++)
+        {
+            ColumnSpec colSpec = columns.get(c);
+
+            if (filterColumn(orc.getSchemaName(), orc.getTableName(), colSpec.getName())) {
+                logger.debug("Drop data for " + orc.getTableName() + "." + colSpec.getName());
+
+                columnsToRemove.add(colSpec);
+            } else {
+                logger.debug("Replicate data for " + orc.getTableName() + "." + colSpec.getName());
             }
-            else if (dataElem instanceof StatementData)
+        }
+
+        // Remove unwanted columns now that we know which those are.
+        for (Iterator<ColumnSpec> iteratorRemoveColumn = columnsToRemove.iterator(); iteratorRemoveColumn
+                .hasNext();)
+        {
+            ColumnSpec columnToRemoveSpec = iteratorRemoveColumn.next();
+            int idx = columns.indexOf(columnToRemoveSpec);
+
+            // Iterate through each row.
+            for (Iterator<ArrayList<ColumnVal>> iteratorValue = columnValues
+                    .iterator(); iteratorValue.hasNext();)
             {
-                // Nothing
+                ArrayList<ColumnVal> cValues = iteratorValue.next();
+                cValues.remove(idx);
             }
+
+            // Then remove the column specs.
+            columns.remove(idx);
+
+            // Now we actually changed the event.
+            logger.debug("Col " + columnToRemoveSpec.getIndex() + " removed at " + idx);
         }
-        return event;
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#filterStatement(com.continuent.tungsten.replicator.event.ReplDBMSEvent,
+     *      com.continuent.tungsten.replicator.dbms.StatementData)
+     */
+    public boolean filterStatement(ReplDBMSEvent event, StatementData sdata)
+    {
+        return true;
     }
     
     // Returns true if the table and column should be filtered using either a
@@ -215,12 +231,11 @@ public class ReplicateColumnsFilter implements Filter
             return false;
 
         // Find out if we need to filter.
-        String key = fullyQualifiedName(schema, table, column);
-        Boolean filter = filterCache.get(key);
+        Boolean filter = filterCache.get(schema, table, column);
         if (filter == null)
         {
             filter = filterColumnRaw(schema, table, column);
-            filterCache.put(key, filter);
+            filterCache.put(schema, table, column, filter);
         }
 
         // Return a value.
@@ -299,8 +314,8 @@ public class ReplicateColumnsFilter implements Filter
         this.doMatcher = extractFilter(doFilter);
         this.ignoreMatcher = extractFilter(ignoreFilter);
 
-        // Initialize LRU cache.
-        this.filterCache = new IndexedLRUCache<Boolean>(1000, null);
+        // Initialize decision cache.
+        this.filterCache = new FilterDecisionCache(100000);
     }
     
     // Prepares table matcher.
@@ -323,6 +338,6 @@ public class ReplicateColumnsFilter implements Filter
     public void release(PluginContext context) throws ReplicatorException
     {
         if (filterCache != null)
-            this.filterCache.invalidateAll();
+            this.filterCache.invalidate();
     }
 }
\ No newline at end of file
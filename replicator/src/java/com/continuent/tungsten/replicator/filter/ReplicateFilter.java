@@ -23,7 +23,6 @@
 package com.continuent.tungsten.replicator.filter;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 
 import org.apache.log4j.Logger;
 
@@ -33,7 +32,6 @@ import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
 import com.continuent.tungsten.replicator.database.SqlOperation;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
-import com.continuent.tungsten.replicator.dbms.RowChangeData;
 import com.continuent.tungsten.replicator.dbms.StatementData;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
@@ -54,7 +52,7 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
  * @author <a href="mailto:stephane.giron@continuent.com">Stephane Giron</a>
  * @version 1.0
  */
-public class ReplicateFilter implements Filter
+public class ReplicateFilter implements RowChangeFilter
 {
     private static Logger               logger = Logger.getLogger(ReplicateFilter.class);
 
@@ -134,81 +132,8 @@ public class ReplicateFilter implements Filter
         if (data == null)
             return event;
 
-        for (Iterator<DBMSData> iterator = data.iterator(); iterator.hasNext();)
-        {
-            DBMSData dataElem = iterator.next();
-            if (dataElem instanceof RowChangeData)
-            {
-                RowChangeData rdata = (RowChangeData) dataElem;
-                for (Iterator<OneRowChange> iterator2 = rdata.getRowChanges()
-                        .iterator(); iterator2.hasNext();)
-                {
-                    OneRowChange orc = iterator2.next();
-
-                    if (filterEvent(orc.getSchemaName(), orc.getTableName()))
-                    {
-                        if (logger.isDebugEnabled())
-                            logger.debug("Filtering event");
-
-                        iterator2.remove();
-                    }
-                }
-                if (rdata.getRowChanges().isEmpty())
-                {
-                    iterator.remove();
-                }
-            }
-            else if (dataElem instanceof StatementData)
-            {
-                StatementData sdata = (StatementData) dataElem;
-                String schema = null;
-                String table = null;
-
-                // Make a best effort to get parsing metadata on the statement.
-                // Invoke parsing again if necessary.
-                Object parsingMetadata = sdata.getParsingMetadata();
-                if (parsingMetadata == null)
-                {
-                    String query = sdata.getQuery();
-                    parsingMetadata = parser.match(query);
-                    sdata.setParsingMetadata(parsingMetadata);
-                }
-
-                // Usually we have parsing metadata at this point.
-                if (parsingMetadata != null
-                        && parsingMetadata instanceof SqlOperation)
-                {
-                    SqlOperation parsed = (SqlOperation) parsingMetadata;
-                    schema = parsed.getSchema();
-                    table = parsed.getName();
-                    if (logger.isDebugEnabled())
-                        logger.debug("Parsing found schema = " + schema
-                                + " / table = " + table);
-                }
-
-                if (schema == null)
-                    schema = sdata.getDefaultSchema();
-
-                if (schema == null)
-                {
-                    final String query = sdata.getQuery();
-                    logger.warn("Ignoring query : No schema found for this query from event "
-                            + event.getSeqno()
-                            + (query != null ? " ("
-                                    + query.substring(0,
-                                            Math.min(query.length(), 200))
-                                    + "...)" : ""));
-                    continue;
-                }
-
-                if (filterEvent(schema, table))
-                {
-                    if (logger.isDebugEnabled())
-                        logger.debug("Filtering event");
-                    iterator.remove();
-                }
-            }
-        }
+        if (RowChangeFilterChain.filter(event, this) == null)
+            return null;
 
         // Don't drop events when dealing with fragmented events (This could
         // drop the commit part)
@@ -219,6 +144,88 @@ public class ReplicateFilter implements Filter
         return event;
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#acceptEvent(com.continuent.tungsten.replicator.event.ReplDBMSEvent)
+     */
+    public boolean acceptEvent(ReplDBMSEvent event)
+    {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#filterRowChange(com.continuent.tungsten.replicator.event.ReplDBMSEvent,
+     *      com.continuent.tungsten.replicator.dbms.OneRowChange)
+     */
+    public boolean filterRowChange(ReplDBMSEvent event, OneRowChange orc)
+    {
+        if (filterEvent(orc.getSchemaName(), orc.getTableName()))
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Filtering event");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.RowChangeFilter#filterStatement(com.continuent.tungsten.replicator.event.ReplDBMSEvent,
+     *      com.continuent.tungsten.replicator.dbms.StatementData)
+     */
+    public boolean filterStatement(ReplDBMSEvent event, StatementData sdata)
+    {
+        String schema = null;
+        String table = null;
+
+        // Make a best effort to get parsing metadata on the statement.
+        // Invoke parsing again if necessary.
+        Object parsingMetadata = sdata.getParsingMetadata();
+        if (parsingMetadata == null)
+        {
+            String query = sdata.getQuery();
+            parsingMetadata = parser.match(query);
+            sdata.setParsingMetadata(parsingMetadata);
+        }
+
+        // Usually we have parsing metadata at this point.
+        if (parsingMetadata != null && parsingMetadata instanceof SqlOperation)
+        {
+            SqlOperation parsed = (SqlOperation) parsingMetadata;
+            schema = parsed.getSchema();
+            table = parsed.getName();
+            if (logger.isDebugEnabled())
+                logger.debug("Parsing found schema = " + schema
+                        + " / table = " + table);
+        }
+
+        if (schema == null)
+            schema = sdata.getDefaultSchema();
+
+        if (schema == null)
+        {
+            final String query = sdata.getQuery();
+            logger.warn("Ignoring query : No schema found for this query from event "
+                    + event.getSeqno()
+                    + (query != null ? " ("
+                            + query.substring(0, Math.min(query.length(), 200))
+                            + "...)" : ""));
+            return true;
+        }
+
+        if (filterEvent(schema, table))
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Filtering event");
+            return false;
+        }
+        return true;
+    }
+
     // Returns true if the schema and table should be filtered using either a
     // cache look-up or a full scan based on filtering rules.
     private boolean filterEvent(String schema, String table)
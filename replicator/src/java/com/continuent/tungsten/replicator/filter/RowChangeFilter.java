@@ -0,0 +1,68 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.filter;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+
+/**
+ * This interface denotes a filter that works on the row changes and statements
+ * of an event one at a time. Stages may fuse consecutive row change filters
+ * into a {@link RowChangeFilterChain}, which walks the data of each event once
+ * and hands every row change and statement to all filters in turn instead of
+ * having each filter traverse the event. Such filters usually implement
+ * {@link #filter(ReplDBMSEvent)} by calling
+ * {@link RowChangeFilterChain#filter(ReplDBMSEvent, RowChangeFilter...)}.
+ * <p/>
+ * Filters must not depend on seeing the whole event before or after their
+ * callbacks, as other filters in a chain may process later items of the event
+ * first.
+ */
+public interface RowChangeFilter extends Filter
+{
+    /**
+     * Called once for each event before its data is traversed.
+     * 
+     * @return False if the filter has nothing to do for this event, in which
+     *         case it receives no further calls for the event
+     */
+    public boolean acceptEvent(ReplDBMSEvent event) throws ReplicatorException;
+
+    /**
+     * Filters a single row change, which may be modified in place.
+     * 
+     * @return False if the row change should be removed from the event
+     */
+    public boolean filterRowChange(ReplDBMSEvent event, OneRowChange orc)
+            throws ReplicatorException, InterruptedException;
+
+    /**
+     * Filters a single statement, which may be modified in place.
+     * 
+     * @return False if the statement should be removed from the event
+     */
+    public boolean filterStatement(ReplDBMSEvent event, StatementData sdata)
+            throws ReplicatorException, InterruptedException;
+}
@@ -0,0 +1,285 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+
+/**
+ * Runs a sequence of {@link RowChangeFilter} instances in a single pass over
+ * the data of each event. Every row change and statement goes through all
+ * filters in order until one of them removes it. Removals are applied once at
+ * the end of each list rather than shifting the list on every removal.
+ * <p/>
+ * If the filters remove all data from an unfragmented event, the event is
+ * discarded, as the replicate filter does. Events that arrive without data
+ * pass through.
+ * <p/>
+ * A chain does not own its filters. They are configured, prepared, and
+ * released by the stage like any other filter, so the plugin lifecycle
+ * methods of the chain do nothing.
+ */
+public class RowChangeFilterChain implements Filter
+{
+    private final RowChangeFilter[] filters;
+
+    /**
+     * Chain whose filters are all stateless and which may therefore run on
+     * several events at once.
+     */
+    static class Stateless extends RowChangeFilterChain
+            implements
+                StatelessFilter
+    {
+        Stateless(List<RowChangeFilter> filters)
+        {
+            super(filters);
+        }
+    }
+
+    /**
+     * Creates a chain of filters, which run in list order.
+     */
+    public RowChangeFilterChain(List<RowChangeFilter> filters)
+    {
+        this.filters = filters.toArray(new RowChangeFilter[filters.size()]);
+    }
+
+    /**
+     * Returns a copy of a filter list in which each run of consecutive row
+     * change filters is replaced by a chain. Stateless and stateful filters
+     * are not mixed in a chain so that stages can still run stateless chains
+     * in parallel. Runs of a single filter are left alone.
+     */
+    public static List<Filter> fuse(List<Filter> filters)
+    {
+        List<Filter> fused = new ArrayList<Filter>(filters.size());
+        List<RowChangeFilter> run = new ArrayList<RowChangeFilter>();
+        for (Filter f : filters)
+        {
+            if (!run.isEmpty()
+                    && (!(f instanceof RowChangeFilter) || isStateless(f) != isStateless(run
+                            .get(0))))
+            {
+                addRun(fused, run);
+            }
+            if (f instanceof RowChangeFilter)
+                run.add((RowChangeFilter) f);
+            else
+                fused.add(f);
+        }
+        addRun(fused, run);
+        return fused;
+    }
+
+    // Adds a run of row change filters to a list and clears the run.
+    private static void addRun(List<Filter> fused, List<RowChangeFilter> run)
+    {
+        if (run.size() == 1)
+            fused.add(run.get(0));
+        else if (run.size() > 1)
+        {
+            if (isStateless(run.get(0)))
+                fused.add(new Stateless(run));
+            else
+                fused.add(new RowChangeFilterChain(run));
+        }
+        run.clear();
+    }
+
+    private static boolean isStateless(Filter f)
+    {
+        return f instanceof StatelessFilter;
+    }
+
+    /** Returns the number of filters in the chain. */
+    public int size()
+    {
+        return filters.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.filter.Filter#filter(com.continuent.tungsten.replicator.event.ReplDBMSEvent)
+     */
+    public ReplDBMSEvent filter(ReplDBMSEvent event)
+            throws ReplicatorException, InterruptedException
+    {
+        return filter(event, filters);
+    }
+
+    /**
+     * Runs filters on an event in a single pass over its data.
+     * 
+     * @param event Event to filter
+     * @param filters Filters to run in order
+     * @return The event or null if all of its data were removed
+     */
+    public static ReplDBMSEvent filter(ReplDBMSEvent event,
+            RowChangeFilter... filters) throws ReplicatorException,
+            InterruptedException
+    {
+        ArrayList<DBMSData> data = event.getData();
+        if (data == null || data.isEmpty())
+            return event;
+
+        // Find filters that want to see this event.
+        RowChangeFilter[] active = filters;
+        int activeCount = 0;
+        for (int i = 0; i < filters.length; i++)
+        {
+            if (filters[i].acceptEvent(event))
+            {
+                if (active != filters)
+                    active[activeCount] = filters[i];
+                activeCount++;
+            }
+            else if (active == filters)
+            {
+                active = new RowChangeFilter[filters.length];
+                System.arraycopy(filters, 0, active, 0, activeCount);
+            }
+        }
+        if (activeCount == 0)
+            return event;
+
+        // Filter data, moving kept items down over removed ones.
+        int kept = 0;
+        for (int i = 0; i < data.size(); i++)
+        {
+            DBMSData dataElem = data.get(i);
+            boolean keep = true;
+            if (dataElem instanceof RowChangeData)
+            {
+                ArrayList<OneRowChange> changes = ((RowChangeData) dataElem)
+                        .getRowChanges();
+                int keptChanges = 0;
+                for (int j = 0; j < changes.size(); j++)
+                {
+                    OneRowChange orc = changes.get(j);
+                    if (filterRowChange(event, orc, active, activeCount))
+                    {
+                        if (keptChanges != j)
+                            changes.set(keptChanges, orc);
+                        keptChanges++;
+                    }
+                }
+                if (keptChanges < changes.size())
+                {
+                    changes.subList(keptChanges, changes.size()).clear();
+                    keep = (keptChanges > 0);
+                }
+            }
+            else if (dataElem instanceof StatementData)
+            {
+                StatementData sdata = (StatementData) dataElem;
+                for (int f = 0; f < activeCount && keep; f++)
+                    keep = active[f].filterStatement(event, sdata);
+            }
+
+            if (keep)
+            {
+                if (kept != i)
+                    data.set(kept, dataElem);
+                kept++;
+            }
+        }
+        if (kept < data.size())
+        {
+            data.subList(kept, data.size()).clear();
+
+            // Don't drop fragmented events, which could drop the commit.
+            if (kept == 0 && event.getFragno() == 0 && event.getLastFrag())
+                return null;
+        }
+        return event;
+    }
+
+    // Runs a row change through filters until one removes it.
+    private static boolean filterRowChange(ReplDBMSEvent event,
+            OneRowChange orc, RowChangeFilter[] active, int activeCount)
+            throws ReplicatorException, InterruptedException
+    {
+        for (int f = 0; f < activeCount; f++)
+        {
+            if (!active[f].filterRowChange(event, orc))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#configure(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void configure(PluginContext context) throws ReplicatorException
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#prepare(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void prepare(PluginContext context) throws ReplicatorException
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#release(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void release(PluginContext context) throws ReplicatorException
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer(this.getClass().getSimpleName());
+        sb.append(" filters=[");
+        for (int i = 0; i < filters.length; i++)
+        {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(filters[i].getClass().getSimpleName());
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
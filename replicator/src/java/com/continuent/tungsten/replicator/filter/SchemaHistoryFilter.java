@@ -0,0 +1,253 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.filter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
+import com.continuent.tungsten.replicator.database.SchemaHistory;
+import com.continuent.tungsten.replicator.database.SqlOperation;
+import com.continuent.tungsten.replicator.database.SqlOperationMatcher;
+import com.continuent.tungsten.replicator.database.Table;
+import com.continuent.tungsten.replicator.datasource.SqlDataSource;
+import com.continuent.tungsten.replicator.datasource.TableMetadataRegistry;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplOption;
+import com.continuent.tungsten.replicator.event.ReplOptionParams;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+
+/**
+ * Maintains a versioned history of table definitions that travels with
+ * replicated events. On a master the filter runs directly after extraction
+ * with captureDefinitions enabled: it looks up the definition of each table in
+ * a row change and, whenever the definition differs from the one previously
+ * recorded, attaches it to the event as a table_definition metadata option.
+ * Downstream, the filter loads definitions from events into the schema
+ * history of its data source, which ColumnNameFilter, PrimaryKeyFilter, and
+ * EnumToStringFilter consult before querying the DBMS. Replicas can therefore
+ * resolve metadata as of the event without catalog queries.
+ * <p/>
+ * If historyFile is set, the history is persisted so that it survives
+ * restarts. This filter must precede other filters that use table metadata.
+ */
+public class SchemaHistoryFilter implements Filter
+{
+    private static Logger         logger             = Logger.getLogger(SchemaHistoryFilter.class);
+
+    // Metadata sources.
+    private SqlDataSource         dataSourceImpl;
+    private TableMetadataRegistry registry;
+    private SchemaHistory         history;
+
+    // Last table definition captured for each table, used to avoid encoding
+    // definitions that have not changed.
+    private Map<String, Table>    captured;
+
+    // Properties.
+    private String                dataSource;
+    private boolean               captureDefinitions = false;
+    private String                historyFile;
+
+    // SQL parser.
+    SqlOperationMatcher           sqlMatcher         = new MySQLOperationMatcher();
+
+    /** Declares the data source name for this filter. */
+    public void setDataSource(String dataSource)
+    {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * If true, look up definitions of tables in row changes and add them to
+     * events when they change. Set this on the master only.
+     */
+    public void setCaptureDefinitions(boolean captureDefinitions)
+    {
+        this.captureDefinitions = captureDefinitions;
+    }
+
+    /**
+     * Sets the file in which to persist the schema history. If unset the
+     * history is kept only in memory.
+     */
+    public void setHistoryFile(String historyFile)
+    {
+        this.historyFile = historyFile;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#configure(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void configure(PluginContext context) throws ReplicatorException
+    {
+        if (dataSource == null)
+            throw new ReplicatorException(
+                    "Schema history filter requires a data source");
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#prepare(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void prepare(PluginContext context) throws ReplicatorException
+    {
+        dataSourceImpl = (SqlDataSource) context.getDataSource(dataSource);
+        if (dataSourceImpl == null)
+        {
+            throw new ReplicatorException("Unable to locate data source: name="
+                    + dataSource);
+        }
+        registry = dataSourceImpl.getTableMetadataRegistry();
+        history = registry.getSchemaHistory();
+        captured = new HashMap<String, Table>();
+
+        if (historyFile != null)
+        {
+            File file = new File(historyFile);
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (!dir.exists() && !dir.mkdirs())
+            {
+                throw new ReplicatorException(
+                        "Unable to create schema history directory: "
+                                + dir.getAbsolutePath());
+            }
+            history.open(file);
+        }
+        logger.info("Schema history prepared: captureDefinitions="
+                + captureDefinitions + " " + history);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.continuent.tungsten.replicator.plugin.ReplicatorPlugin#release(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void release(PluginContext context) throws ReplicatorException
+    {
+        if (history != null)
+        {
+            history.close();
+            history = null;
+        }
+        if (captured != null)
+        {
+            captured.clear();
+            captured = null;
+        }
+        registry = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.continuent.tungsten.replicator.filter.Filter#filter(com.continuent.tungsten.replicator.event.ReplDBMSEvent)
+     */
+    public ReplDBMSEvent filter(ReplDBMSEvent event)
+            throws ReplicatorException, InterruptedException
+    {
+        // Load definitions that arrived with the event.
+        long seqno = event.getSeqno();
+        for (ReplOption option : event.getDBMSEvent().getMetadata())
+        {
+            if (ReplOptionParams.TABLE_DEFINITION.equals(option
+                    .getOptionName()))
+            {
+                if (history.record(seqno, option.getOptionValue())
+                        && logger.isDebugEnabled())
+                {
+                    logger.debug("Loaded table definition: seqno=" + seqno
+                            + " definition=" + option.getOptionValue());
+                }
+            }
+        }
+
+        if (!captureDefinitions)
+            return event;
+
+        // Capture definitions of tables in row changes.
+        ArrayList<DBMSData> data = event.getData();
+        if (data == null)
+            return event;
+        for (DBMSData dataElem : data)
+        {
+            if (dataElem instanceof RowChangeData)
+            {
+                RowChangeData rdata = (RowChangeData) dataElem;
+                for (OneRowChange orc : rdata.getRowChanges())
+                {
+                    captureDefinition(event, orc);
+                }
+            }
+            else if (dataElem instanceof StatementData)
+            {
+                // Report schema changes so that the next row change reloads
+                // the definition.
+                StatementData sdata = (StatementData) dataElem;
+                String query = sdata.getQuery();
+                if (query == null)
+                    query = new String(sdata.getQueryAsBytes());
+                SqlOperation sqlOperation = sqlMatcher.match(query);
+                registry.invalidate(event.getEventId(), sqlOperation,
+                        sdata.getDefaultSchema());
+            }
+        }
+        return event;
+    }
+
+    // Adds the definition of a table to the event if it has changed.
+    private void captureDefinition(ReplDBMSEvent event, OneRowChange orc)
+            throws ReplicatorException
+    {
+        String key = orc.getSchemaName() + "." + orc.getTableName();
+        Table table = registry.findTable(orc.getSchemaName(),
+                orc.getTableName(), orc.getTableId());
+        if (table == null || table == captured.get(key))
+            return;
+
+        captured.put(key, table);
+        String definition = history.record(event.getSeqno(), table);
+        if (definition != null)
+        {
+            event.getDBMSEvent().addMetadataOption(
+                    ReplOptionParams.TABLE_DEFINITION, definition);
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Captured table definition: seqno="
+                        + event.getSeqno() + " definition=" + definition);
+            }
+        }
+    }
+}
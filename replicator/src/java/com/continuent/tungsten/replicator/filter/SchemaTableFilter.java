@@ -29,7 +29,6 @@ import java.io.IOException;
 
 import org.apache.log4j.Logger;
 
-import com.continuent.tungsten.common.cache.IndexedLRUCache;
 import com.continuent.tungsten.replicator.database.TableMatcher;
 
 /**
@@ -41,18 +40,20 @@ import com.continuent.tungsten.replicator.database.TableMatcher;
  */
 public class SchemaTableFilter
 {
-    private static Logger            logger = Logger.getLogger(SchemaTableFilter.class);
+    private static Logger       logger              = Logger.getLogger(SchemaTableFilter.class);
 
-    private TableMatcher             doMatcher;
-    private TableMatcher             ignoreMatcher;
+    // Number of schema/table decisions to cache.
+    private static final int    DECISION_CACHE_SIZE = 100000;
+
+    private TableMatcher        doMatcher;
+    private TableMatcher        ignoreMatcher;
 
     // Cache to look up filtered tables.
-    private IndexedLRUCache<Boolean> filterCache;
+    private FilterDecisionCache filterCache;
 
     public SchemaTableFilter()
     {
-        // Initialize LRU cache.
-        this.filterCache = new IndexedLRUCache<Boolean>(1000, null);
+        this.filterCache = new FilterDecisionCache(DECISION_CACHE_SIZE);
     }
 
     public SchemaTableFilter(String schemaTableFilterFilePrefix)
@@ -68,6 +69,9 @@ public class SchemaTableFilter
 
     private void prepare(String schemaTableFilterFilePrefix)
     {
+        // Decisions made under previous rules no longer apply.
+        filterCache.invalidate();
+
         // Load and parse whitelist file (schema or table that can be
         // replicated)
         File file = new File(schemaTableFilterFilePrefix + ".do");
@@ -167,12 +171,11 @@ public class SchemaTableFilter
             return false;
 
         // Find out if we need to filter.
-        String key = fullyQualifiedName(schema, table);
-        Boolean filter = filterCache.get(key);
+        Boolean filter = filterCache.get(schema, table);
         if (filter == null)
         {
             filter = filterEventRaw(schema, table);
-            filterCache.put(key, filter);
+            filterCache.put(schema, table, filter);
         }
 
         // Return a value.
@@ -217,7 +220,7 @@ public class SchemaTableFilter
     public void release()
     {
         if (filterCache != null)
-            this.filterCache.invalidateAll();
+            this.filterCache.invalidate();
     }
 
 }
@@ -84,10 +84,10 @@ public class SetToStringFilter extends EnumToStringFilter
      * If found, transforms values from integers to corresponding strings.
      */
     @Override
-    protected void checkForListType(OneRowChange orc) throws SQLException,
-            ReplicatorException
+    protected void checkForListType(OneRowChange orc, long seqno)
+            throws SQLException, ReplicatorException
     {
-        checkForListType(orc, "SET");
+        checkForListType(orc, seqno, "SET");
     }
 
     /**
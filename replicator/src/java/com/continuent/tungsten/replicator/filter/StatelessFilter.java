@@ -0,0 +1,35 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.filter;
+
+/**
+ * This interface denotes a filter that keeps no state between events once it
+ * is prepared and whose filter() method may be called by several threads at
+ * once. Stages may run such filters on different events concurrently. Results
+ * are always delivered in the original event order, but a stateless filter
+ * must not depend on seeing events in that order, for instance to invalidate
+ * cached metadata after DDL.
+ */
+public interface StatelessFilter extends Filter
+{
+}
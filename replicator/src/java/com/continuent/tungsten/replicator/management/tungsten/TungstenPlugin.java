@@ -1082,6 +1082,8 @@ public class TungstenPlugin extends NotificationBroadcasterSupport
                             Long.toString(progress.getLastCommittedBlockSize()));
                     props.put("currentBlockSize",
                             Long.toString(progress.getCurrentBlockSize()));
+                    props.put("effectiveBlockSize",
+                            Integer.toString(progress.getEffectiveBlockSize()));
                     props.put("commits", Long.toString(blockCount));
                     props.put("lastCommittedBlockTime", Double
                             .toString(progress.getLastCommittedBlockTime()));
@@ -1213,6 +1215,14 @@ public class TungstenPlugin extends NotificationBroadcasterSupport
                     props.put("blockCommitInterval",
                             new Double(intervalSecs).toString() + "s");
                     props.put("blockCommitPolicy", stage.getBlockCommitPolicy());
+                    props.put("taskPipelineQueueSize",
+                            new Integer(stage.getTaskPipelineQueueSize())
+                                    .toString());
+                    props.put("taskFilterThreads",
+                            new Integer(stage.getTaskFilterThreads())
+                                    .toString());
+                    props.put("taskFuseRowFilters",
+                            Boolean.toString(stage.isTaskFuseRowFilters()));
 
                     // Add stage components.
                     props.put("applier.name", stage.getApplierSpec().getName());
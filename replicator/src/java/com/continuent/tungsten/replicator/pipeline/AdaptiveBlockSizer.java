@@ -0,0 +1,151 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.pipeline;
+
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+
+/**
+ * Sizes blocks for the adaptive block commit policy. A task reports each
+ * committed block; the block size then changes as follows:
+ * <ul>
+ * <li>After a lock wait timeout or deadlock the size is halved at once, so
+ * that the task can retry the failed block in smaller pieces.</li>
+ * <li>If the block stayed open longer than the target latency the size is
+ * halved, as the block itself delays transactions by more than the target.</li>
+ * <li>If the block was full and either the commit took a significant share of
+ * the block time or apply latency exceeds the target, the size grows by a
+ * quarter, which spreads commit cost over more transactions.</li>
+ * </ul>
+ * Blocks that end early because there is no more work leave the size
+ * unchanged. The size always stays between the minimum and maximum sizes.
+ * <p/>
+ * Each task owns an instance; this class is not synchronized.
+ */
+public class AdaptiveBlockSizer
+{
+    /** Commit share of block time in percent above which blocks grow. */
+    public static final int COMMIT_SHARE_PERCENT = 10;
+
+    private final int       minBlockSize;
+    private final int       maxBlockSize;
+    private final long      targetLatencyMillis;
+    private int             blockSize;
+
+    /**
+     * Creates a new instance starting at the minimum block size.
+     * 
+     * @param minBlockSize Smallest block size
+     * @param maxBlockSize Largest block size
+     * @param targetLatencyMillis Target replication latency
+     */
+    public AdaptiveBlockSizer(int minBlockSize, int maxBlockSize,
+            long targetLatencyMillis)
+    {
+        this.minBlockSize = Math.max(1, minBlockSize);
+        this.maxBlockSize = Math.max(this.minBlockSize, maxBlockSize);
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.blockSize = this.minBlockSize;
+    }
+
+    /** Returns the current block size. */
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     * Records a lock wait timeout or deadlock, which halves the block size.
+     * 
+     * @return The new block size
+     */
+    public int lockWait()
+    {
+        blockSize = Math.max(minBlockSize, blockSize / 2);
+        return blockSize;
+    }
+
+    /**
+     * Adjusts the block size after a block commits.
+     * 
+     * @param events Number of events in the block
+     * @param blockMillis Time from the first apply in the block to the end of
+     *            the commit
+     * @param commitMillis Time taken by the commit
+     * @param applyLatencyMillis Apply latency of the last event in the block
+     * @return The new block size
+     */
+    public int blockCommitted(long events, long blockMillis,
+            long commitMillis, long applyLatencyMillis)
+    {
+        if (blockMillis > targetLatencyMillis)
+            blockSize = Math.max(minBlockSize, blockSize / 2);
+        else if (events >= blockSize
+                && (commitMillis * 100 >= blockMillis * COMMIT_SHARE_PERCENT
+                        || applyLatencyMillis > targetLatencyMillis))
+            blockSize = Math.min(maxBlockSize,
+                    blockSize + Math.max(1, blockSize / 4));
+        return blockSize;
+    }
+
+    /**
+     * Returns true if the exception or one of its causes reports a lock wait
+     * timeout or deadlock.
+     */
+    public static boolean isLockWait(Throwable t)
+    {
+        for (; t != null; t = t.getCause())
+        {
+            if (t instanceof SQLTransactionRollbackException)
+                return true;
+            else if (t instanceof SQLException)
+            {
+                SQLException e = (SQLException) t;
+                String state = e.getSQLState();
+                if (state != null && state.startsWith("40"))
+                    return true;
+                // MySQL lock wait timeout and deadlock.
+                if (e.getErrorCode() == 1205 || e.getErrorCode() == 1213)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(this.getClass().getSimpleName());
+        sb.append(" blockSize=").append(blockSize);
+        sb.append(" minBlockSize=").append(minBlockSize);
+        sb.append(" maxBlockSize=").append(maxBlockSize);
+        sb.append(" targetLatencyMillis=").append(targetLatencyMillis);
+        return sb.toString();
+    }
+}
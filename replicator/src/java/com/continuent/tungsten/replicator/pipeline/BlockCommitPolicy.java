@@ -37,5 +37,11 @@ public enum BlockCommitPolicy
      * Commit block immediately on fragmented transactions, service changes and
      * transactions tagged with unsafe_for_block_commit.
      */
-    strict
+    strict,
+    /**
+     * Apply strict rules but vary the block size of each task between
+     * blockCommitMinRowCount and blockCommitRowCount based on commit cost,
+     * apply latency, and lock waits.
+     */
+    adaptive
 }
\ No newline at end of file
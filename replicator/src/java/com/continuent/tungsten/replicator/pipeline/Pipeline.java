@@ -49,6 +49,7 @@ import com.continuent.tungsten.replicator.plugin.ReplicatorPlugin;
 import com.continuent.tungsten.replicator.service.PipelineService;
 import com.continuent.tungsten.replicator.storage.ParallelStore;
 import com.continuent.tungsten.replicator.storage.Store;
+import com.continuent.tungsten.replicator.thl.THL;
 import com.continuent.tungsten.replicator.util.Watch;
 
 /**
@@ -355,7 +356,8 @@ public class Pipeline implements ReplicatorPlugin
     }
 
     /**
-     * Shuts down after a particular event ID is applied.
+     * Shuts down after a particular event ID is applied. If the event is
+     * already in a THL store we watch for its seqno instead.
      * 
      * @param eventId Event ID to watch for
      * @return Returns future to wait for pipeline shutdown
@@ -364,11 +366,16 @@ public class Pipeline implements ReplicatorPlugin
             throws InterruptedException, ReplicatorException
     {
         // Queue watches on all stages.
+        long seqno = findLoggedSeqno(null, eventId);
         ArrayList<Future<ReplDBMSHeader>> taskShutdownFutures = new ArrayList<Future<ReplDBMSHeader>>();
         for (int i = 0; i < stages.size(); i++)
         {
-            taskShutdownFutures.add(stages.get(i).watchForProcessedEventId(
-                    eventId, true));
+            if (seqno >= 0)
+                taskShutdownFutures.add(stages.get(i)
+                        .watchForProcessedSequenceNumber(seqno, true));
+            else
+                taskShutdownFutures.add(stages.get(i)
+                        .watchForProcessedEventId(eventId, true));
         }
 
         return scheduleWait("Offline at native event ID: " + eventId,
@@ -397,7 +404,8 @@ public class Pipeline implements ReplicatorPlugin
 
     /**
      * Shuts down after the replication event timestamp meets or exceeds the
-     * argument.
+     * argument. If such an event is already in a THL store we watch for its
+     * seqno instead.
      * 
      * @param timestamp Timestamp value to wait for
      * @return Returns future to wait for pipeline shutdown
@@ -406,17 +414,49 @@ public class Pipeline implements ReplicatorPlugin
             throws InterruptedException, ReplicatorException
     {
         // Queue watches on all stages.
+        long seqno = findLoggedSeqno(timestamp, null);
         ArrayList<Future<ReplDBMSHeader>> taskShutdownFutures = new ArrayList<Future<ReplDBMSHeader>>();
         for (int i = 0; i < stages.size(); i++)
         {
-            taskShutdownFutures.add(stages.get(i).watchForProcessedTimestamp(
-                    timestamp, true));
+            if (seqno >= 0)
+                taskShutdownFutures.add(stages.get(i)
+                        .watchForProcessedSequenceNumber(seqno, true));
+            else
+                taskShutdownFutures.add(stages.get(i)
+                        .watchForProcessedTimestamp(timestamp, true));
         }
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
         return scheduleWait("Offline at time: " + sdf.format(timestamp),
                 taskShutdownFutures);
     }
 
+    // Returns the seqno of the first event in a THL store that reaches the
+    // time or event ID, or -1 if no store has logged such an event yet. Stores
+    // use their event indexes to find it, falling back to a scan of the log.
+    private long findLoggedSeqno(Timestamp timestamp, String eventId)
+            throws InterruptedException, ReplicatorException
+    {
+        for (String name : getStoreNames())
+        {
+            Store store = stores.get(name);
+            if (!(store instanceof THL))
+                continue;
+            THL thl = (THL) store;
+            long seqno;
+            if (timestamp != null)
+                seqno = thl.findSeqnoByTime(timestamp);
+            else
+                seqno = thl.findSeqnoByEventId(eventId);
+            if (seqno >= 0)
+            {
+                logger.info("Found logged event for shutdown watch: store="
+                        + name + " seqno=" + seqno);
+                return seqno;
+            }
+        }
+        return -1;
+    }
+
     // Enqueue a future to wait for task completion.
     private Future<Pipeline> scheduleWait(String name,
             List<Future<ReplDBMSHeader>> taskFutures)
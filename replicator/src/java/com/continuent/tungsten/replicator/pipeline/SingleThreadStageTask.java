@@ -22,6 +22,7 @@
 
 package com.continuent.tungsten.replicator.pipeline;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -44,6 +45,7 @@ import com.continuent.tungsten.replicator.event.ReplOptionParams;
 import com.continuent.tungsten.replicator.extractor.Extractor;
 import com.continuent.tungsten.replicator.extractor.ExtractorException;
 import com.continuent.tungsten.replicator.filter.Filter;
+import com.continuent.tungsten.replicator.filter.RowChangeFilterChain;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 import com.continuent.tungsten.replicator.plugin.ReplicatorPlugin;
 import com.continuent.tungsten.replicator.plugin.ShutdownHook;
@@ -76,11 +78,40 @@ public class SingleThreadStageTask implements Runnable
     private TaskProgress       taskProgress;
     private PluginContext      context;
     private long               lastCommitMillis;
+    private long               blockStartMillis  = -1;
     private long               blockCommitIntervalMillis;
     private boolean            strictBlockCommit = true;
+    private int                pipelineQueueSize;
+    private int                filterThreads;
+    private boolean            fuseRowFilters;
+    private StageTaskFeeder    feeder;
+    private AdaptiveBlockSizer blockSizer;
+
+    // Events applied in the current adaptive block, kept so that the block
+    // can be retried in smaller pieces after a lock wait. Null when the block
+    // cannot be retried.
+    private List<BlockEvent>   blockEvents;
 
     private volatile boolean   cancelled         = false;
 
+    // An event applied as part of the current block.
+    private static class BlockEvent
+    {
+        final ReplDBMSEvent event;
+        final boolean       doCommit;
+        final boolean       doRollback;
+        final boolean       syncTHL;
+
+        BlockEvent(ReplDBMSEvent event, boolean doCommit, boolean doRollback,
+                boolean syncTHL)
+        {
+            this.event = event;
+            this.doCommit = doCommit;
+            this.doRollback = doRollback;
+            this.syncTHL = syncTHL;
+        }
+    }
+
     public SingleThreadStageTask(Stage stage, int taskId)
     {
         this.taskId = taskId;
@@ -95,7 +126,23 @@ public class SingleThreadStageTask implements Runnable
         if (stage.getCommitPolicy() == BlockCommitPolicy.lax)
             this.strictBlockCommit = false;
         this.usingBlockCommit = (blockCommitRowsCount > 1);
+        if (usingBlockCommit
+                && stage.getCommitPolicy() == BlockCommitPolicy.adaptive)
+        {
+            this.blockSizer = new AdaptiveBlockSizer(
+                    stage.getBlockCommitMinRowCount(), blockCommitRowsCount,
+                    stage.getBlockCommitTargetLatency().longValue());
+            this.blockCommitRowsCount = blockSizer.getBlockSize();
+            this.blockEvents = new ArrayList<BlockEvent>();
+        }
+        this.pipelineQueueSize = stage.getTaskPipelineQueueSize();
+        this.filterThreads = stage.getTaskFilterThreads();
+        this.fuseRowFilters = stage.isTaskFuseRowFilters();
+        if (filterThreads > 1 && pipelineQueueSize <= 0)
+            this.pipelineQueueSize = filterThreads * 2;
         this.taskProgress = stage.getProgressTracker().getTaskProgress(taskId);
+        if (usingBlockCommit)
+            taskProgress.setEffectiveBlockSize(blockCommitRowsCount);
     }
 
     /** Returns the id of this task. */
@@ -218,6 +265,7 @@ public class SingleThreadStageTask implements Runnable
 
         ReplEvent genericEvent = null;
         ReplDBMSEvent event = null;
+        StageTaskFeeder.Item item = null;
 
         String currentService = null;
 
@@ -235,6 +283,27 @@ public class SingleThreadStageTask implements Runnable
             // Initialize the clock for checking block commit interval.
             lastCommitMillis = System.currentTimeMillis();
 
+            // If requested, run consecutive row change filters in one pass
+            // over each event. The stage still manages the filters
+            // themselves.
+            List<Filter> taskFilters = filters;
+            if (fuseRowFilters)
+            {
+                taskFilters = RowChangeFilterChain.fuse(filters);
+                logInfo("Fused row change filters: filters=" + taskFilters,
+                        null);
+            }
+
+            // If pipelining is enabled, extract and filter on separate
+            // threads. Events still arrive in order and all decisions below
+            // are made on this thread.
+            if (pipelineQueueSize > 0)
+            {
+                feeder = new StageTaskFeeder(name, extractor, taskFilters,
+                        pipelineQueueSize, filterThreads);
+                feeder.start();
+            }
+
             while (!cancelled)
             {
                 // Check for cancellation and exit loop if it has occurred.
@@ -245,11 +314,22 @@ public class SingleThreadStageTask implements Runnable
                 }
 
                 // Fetch the next event.
+                // Pipelined tasks only wait here, so they record the time
+                // the extract thread spent on the event instead.
                 event = null;
                 try
                 {
-                    taskProgress.beginExtractInterval();
-                    genericEvent = extractor.extract();
+                    if (feeder == null)
+                    {
+                        taskProgress.beginExtractInterval();
+                        genericEvent = extractor.extract();
+                    }
+                    else
+                    {
+                        item = feeder.take();
+                        taskProgress.addExtractMillis(item.getExtractMillis());
+                        genericEvent = item.getEvent();
+                    }
                 }
                 catch (ExtractorException e)
                 {
@@ -269,7 +349,8 @@ public class SingleThreadStageTask implements Runnable
                 }
                 finally
                 {
-                    taskProgress.endExtractInterval();
+                    if (feeder == null)
+                        taskProgress.endExtractInterval();
                 }
 
                 // Retry if no event returned; debug logging goes here.
@@ -290,8 +371,12 @@ public class SingleThreadStageTask implements Runnable
                         && !(genericEvent instanceof ReplDBMSFilteredEvent))
                 {
                     ReplDBMSEvent re = (ReplDBMSEvent) genericEvent;
-                    String newService = re.getDBMSEvent()
-                            .getMetadataOptionValue(ReplOptionParams.SERVICE);
+                    String newService;
+                    if (feeder == null)
+                        newService = re.getDBMSEvent().getMetadataOptionValue(
+                                ReplOptionParams.SERVICE);
+                    else
+                        newService = item.getService();
                     if (currentService == null)
                         currentService = newService;
                     else if (!currentService.equals(newService))
@@ -369,14 +454,26 @@ public class SingleThreadStageTask implements Runnable
 
                 // Run filters, unless the event we are looking at is already
                 // filtered. Filtering twice does not really makes sense and
-                // makes filters themselves harder to write.
-                if (!(event instanceof ReplDBMSFilteredEvent))
+                // makes filters themselves harder to write. Pipelined tasks
+                // pick up the result of the filter thread instead.
+                if (feeder != null)
+                {
+                    try
+                    {
+                        event = item.getFilteredEvent();
+                    }
+                    finally
+                    {
+                        taskProgress.addFilterMillis(item.getFilterMillis());
+                    }
+                }
+                else if (!(event instanceof ReplDBMSFilteredEvent))
                 {
                     taskProgress.beginFilterInterval();
 
                     try
                     {
-                        for (Filter f : filters)
+                        for (Filter f : taskFilters)
                         {
                             if ((event = f.filter(event)) == null)
                             {
@@ -615,6 +712,15 @@ public class SingleThreadStageTask implements Runnable
             // Now shut down cleanly.
             emergencyRollback(message, event, e);
         }
+        finally
+        {
+            if (feeder != null)
+            {
+                feeder.stop();
+                logInfo("Pipelined task statistics: " + feeder, null);
+                feeder = null;
+            }
+        }
     }
 
     /**
@@ -626,7 +732,7 @@ public class SingleThreadStageTask implements Runnable
      */
     private boolean extractorQueueEmpty() throws InterruptedException
     {
-        if (extractor.hasMoreEvents())
+        if (hasMoreEvents())
             return false;
         else if (blockCommitIntervalMillis <= 0)
             return true;
@@ -644,7 +750,7 @@ public class SingleThreadStageTask implements Runnable
             while (sleepMillis > 0)
             {
                 Thread.sleep(1);
-                if (extractor.hasMoreEvents())
+                if (hasMoreEvents())
                     return false;
                 sleepMillis = nextCommitMillis - System.currentTimeMillis();
             }
@@ -655,6 +761,16 @@ public class SingleThreadStageTask implements Runnable
         }
     }
 
+    // Returns true if more events are ready for processing, including those
+    // already extracted by a pipelined task.
+    private boolean hasMoreEvents()
+    {
+        if (feeder == null)
+            return extractor.hasMoreEvents();
+        else
+            return feeder.hasMoreEvents();
+    }
+
     /**
      * Roll back following an unexpected failure. This takes care of error
      * logging, rollback, and dispatching error notification to shut down the
@@ -760,14 +876,18 @@ public class SingleThreadStageTask implements Runnable
             logger.debug("Updating position: seqno=" + header.getSeqno()
                     + " doCommit=" + doCommit);
         }
+        long applyStartMillis = System.currentTimeMillis();
+        if (blockStartMillis < 0)
+            blockStartMillis = applyStartMillis;
         taskProgress.beginApplyInterval();
         applier.updatePosition(header, doCommit, false);
         taskProgress.endApplyInterval();
+        if (!doCommit)
+            stopBlockRetry();
         if (doCommit)
         {
             schedule.commit();
-            blockEventCount = 0;
-            lastCommitMillis = System.currentTimeMillis();
+            endBlock(applyStartMillis);
         }
     }
 
@@ -793,17 +913,40 @@ public class SingleThreadStageTask implements Runnable
     {
         try
         {
+            long applyStartMillis = System.currentTimeMillis();
+            if (blockStartMillis < 0)
+                blockStartMillis = applyStartMillis;
             taskProgress.beginApplyInterval();
+            if (blockEvents != null)
+            {
+                blockEvents.add(new BlockEvent(event, doCommit, doRollback,
+                        syncTHL));
+            }
             applier.apply(event, doCommit, doRollback, syncTHL);
             if (doCommit)
             {
                 schedule.commit();
-                blockEventCount = 0;
-                lastCommitMillis = System.currentTimeMillis();
+                endBlock(applyStartMillis);
+            }
+            else if (blockEvents != null
+                    && blockEvents.size() > stage.getBlockCommitRowCount())
+            {
+                // Fragmented transactions can make blocks arbitrarily
+                // long; don't hold on to them.
+                stopBlockRetry();
             }
         }
         catch (ApplierException e)
         {
+            // Lock waits shrink adaptive blocks. Retry the failed block at
+            // the smaller size, which commits more often and holds fewer
+            // locks, before applying the failure policy.
+            if (blockSizer != null && AdaptiveBlockSizer.isLockWait(e)
+                    && retryBlock())
+            {
+                return;
+            }
+            stopBlockRetry();
             if (context.getApplierFailurePolicy() == FailurePolicy.STOP)
             {
                 throw e;
@@ -823,6 +966,77 @@ public class SingleThreadStageTask implements Runnable
 
     }
 
+    /**
+     * Rolls back the current block after a lock wait and applies its events
+     * again, committing in blocks of the reduced size.
+     * 
+     * @return True if the retry succeeded, false if the block could not be
+     *         retried or failed again
+     */
+    private boolean retryBlock() throws InterruptedException
+    {
+        int newSize = blockSizer.lockWait();
+        blockCommitRowsCount = newSize;
+        taskProgress.setEffectiveBlockSize(newSize);
+        if (blockEvents == null || blockEvents.isEmpty())
+        {
+            logInfo("Lock wait during apply; reducing block size: blockSize="
+                    + newSize, null);
+            return false;
+        }
+
+        List<BlockEvent> retryEvents = blockEvents;
+        blockEvents = new ArrayList<BlockEvent>();
+        logInfo("Lock wait during apply; retrying block with smaller size: events="
+                + retryEvents.size() + " blockSize=" + newSize, null);
+        applier.rollback();
+        try
+        {
+            int count = 0;
+            for (int i = 0; i < retryEvents.size(); i++)
+            {
+                BlockEvent blockEvent = retryEvents.get(i);
+                boolean last = (i == retryEvents.size() - 1);
+                count++;
+
+                // Commit at transaction boundaries once the smaller block is
+                // full, and where the original block was going to commit.
+                boolean doCommit = !blockEvent.doRollback
+                        && blockEvent.event.getLastFrag()
+                        && (count >= newSize || (last && blockEvent.doCommit));
+                blockEvents.add(blockEvent);
+                applier.apply(blockEvent.event, doCommit,
+                        blockEvent.doRollback, blockEvent.syncTHL);
+                if (doCommit)
+                {
+                    // The tracker reports the last processed event as
+                    // committed, so only report once the whole block is in.
+                    if (last)
+                        schedule.commit();
+                    blockEvents.clear();
+                    lastCommitMillis = System.currentTimeMillis();
+                    count = 0;
+                }
+            }
+
+            // Events after the last commit stay in the open block.
+            blockEventCount = count;
+            blockStartMillis = (count > 0) ? System.currentTimeMillis() : -1;
+            return true;
+        }
+        catch (ReplicatorException e1)
+        {
+            logWarn("Retry of block after lock wait failed", e1);
+            return false;
+        }
+    }
+
+    // Stops keeping events for a retry of the current block.
+    private void stopBlockRetry()
+    {
+        blockEvents = null;
+    }
+
     /**
      * Utility routine to issue commit with appropriate transaction accounting.
      * 
@@ -831,10 +1045,47 @@ public class SingleThreadStageTask implements Runnable
      */
     private void commit() throws InterruptedException, ReplicatorException
     {
+        long commitStartMillis = System.currentTimeMillis();
         applier.commit();
         schedule.commit();
+        endBlock(commitStartMillis);
+    }
+
+    /**
+     * Resets block accounting after a commit. If the stage uses adaptive block
+     * commit, this also sizes the next block from the cost of this one.
+     * 
+     * @param commitStartMillis Time when the committing call started
+     */
+    private void endBlock(long commitStartMillis)
+    {
+        long now = System.currentTimeMillis();
+        if (blockSizer != null && blockEventCount > 0)
+        {
+            // Time the block from its first apply so that idle time between
+            // blocks does not count.
+            int newSize = blockSizer.blockCommitted(blockEventCount, now
+                    - blockStartMillis, now - commitStartMillis,
+                    taskProgress.getApplyLatencyMillis());
+            if (newSize != blockCommitRowsCount)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Adjusted block size: task=" + name
+                            + " blockSize=" + newSize);
+                blockCommitRowsCount = newSize;
+                taskProgress.setEffectiveBlockSize(newSize);
+            }
+        }
         blockEventCount = 0;
-        lastCommitMillis = System.currentTimeMillis();
+        blockStartMillis = -1;
+        lastCommitMillis = now;
+        if (blockSizer != null)
+        {
+            if (blockEvents == null)
+                blockEvents = new ArrayList<BlockEvent>();
+            else
+                blockEvents.clear();
+        }
     }
 
     /**
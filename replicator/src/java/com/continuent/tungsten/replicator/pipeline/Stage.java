@@ -50,7 +50,7 @@ import com.continuent.tungsten.replicator.plugin.ReplicatorPlugin;
  */
 public class Stage implements ReplicatorPlugin
 {
-    private static Logger             logger              = Logger.getLogger(Stage.class);
+    private static Logger             logger                   = Logger.getLogger(Stage.class);
 
     // Stage elements.
     private String                    name;
@@ -58,11 +58,16 @@ public class Stage implements ReplicatorPlugin
     private List<PluginSpecification> filterSpecs;
     private PluginSpecification       applierSpec;
     private PluginContext             pluginContext;
-    private int                       blockCommitRowCount = 1;
-    private Interval                  blockCommitInterval = new Interval(0);
-    private String                    blockCommitPolicy   = "strict";
+    private int                       blockCommitRowCount      = 1;
+    private Interval                  blockCommitInterval      = new Interval(0);
+    private String                    blockCommitPolicy        = "strict";
     private BlockCommitPolicy         commitPolicy;
-    private boolean                   autoSync            = false;
+    private int                       blockCommitMinRowCount   = 1;
+    private Interval                  blockCommitTargetLatency = new Interval(5000);
+    private boolean                   autoSync                 = false;
+    private int                       taskPipelineQueueSize    = 0;
+    private int                       taskFilterThreads        = 1;
+    private boolean                   taskFuseRowFilters       = false;
 
     // Read-only parameters.
     private StageProgressTracker      progressTracker;
@@ -189,6 +194,77 @@ public class Stage implements ReplicatorPlugin
         this.blockCommitPolicy = blockCommitPolicy;
     }
 
+    /**
+     * Returns the smallest block size used by the adaptive block commit
+     * policy.
+     */
+    public int getBlockCommitMinRowCount()
+    {
+        return blockCommitMinRowCount;
+    }
+
+    public void setBlockCommitMinRowCount(int blockCommitMinRowCount)
+    {
+        this.blockCommitMinRowCount = blockCommitMinRowCount;
+    }
+
+    /**
+     * Returns the replication latency the adaptive block commit policy tries
+     * to stay within.
+     */
+    public Interval getBlockCommitTargetLatency()
+    {
+        return blockCommitTargetLatency;
+    }
+
+    public void setBlockCommitTargetLatency(Interval blockCommitTargetLatency)
+    {
+        this.blockCommitTargetLatency = blockCommitTargetLatency;
+    }
+
+    /**
+     * Returns the number of events that may wait between the extract, filter,
+     * and apply threads of a pipelined task. If set to zero, tasks extract,
+     * filter, and apply on a single thread.
+     */
+    public int getTaskPipelineQueueSize()
+    {
+        return taskPipelineQueueSize;
+    }
+
+    public void setTaskPipelineQueueSize(int taskPipelineQueueSize)
+    {
+        this.taskPipelineQueueSize = taskPipelineQueueSize;
+    }
+
+    /**
+     * Returns the number of threads that run stateless filters of a task in
+     * parallel. Values above 1 imply a pipelined task.
+     */
+    public int getTaskFilterThreads()
+    {
+        return taskFilterThreads;
+    }
+
+    public void setTaskFilterThreads(int taskFilterThreads)
+    {
+        this.taskFilterThreads = taskFilterThreads;
+    }
+
+    /**
+     * Returns true if consecutive row change filters of a task run as a
+     * single pass over each event.
+     */
+    public boolean isTaskFuseRowFilters()
+    {
+        return taskFuseRowFilters;
+    }
+
+    public void setTaskFuseRowFilters(boolean taskFuseRowFilters)
+    {
+        this.taskFuseRowFilters = taskFuseRowFilters;
+    }
+
     /** Returns the block commit policy as an enum for typed operation. */
     public BlockCommitPolicy getCommitPolicy()
     {
@@ -282,11 +358,13 @@ public class Stage implements ReplicatorPlugin
             commitPolicy = BlockCommitPolicy.lax;
         else if ("strict".equals(blockCommitPolicy))
             commitPolicy = BlockCommitPolicy.strict;
+        else if ("adaptive".equals(blockCommitPolicy))
+            commitPolicy = BlockCommitPolicy.adaptive;
         else
         {
             throw new ReplicatorException("Unrecognized block commit policy;"
-                    + " allowed values are lax or strict: stage=" + name
-                    + " policy=" + blockCommitPolicy);
+                    + " allowed values are lax, strict, or adaptive: stage="
+                    + name + " policy=" + blockCommitPolicy);
         }
 
         // Set up control structures for managing stage tasks.
@@ -0,0 +1,560 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
+import com.continuent.tungsten.replicator.event.ReplEvent;
+import com.continuent.tungsten.replicator.event.ReplOptionParams;
+import com.continuent.tungsten.replicator.extractor.Extractor;
+import com.continuent.tungsten.replicator.filter.Filter;
+import com.continuent.tungsten.replicator.filter.StatelessFilter;
+
+/**
+ * Runs extraction and filtering for a single stage task on their own threads
+ * so that they overlap with apply. Events flow from an extract thread to a
+ * filter thread to the task thread through bounded queues, so ordering is
+ * preserved and neither thread can run more than a queue length ahead. The
+ * task thread still makes all scheduling, block commit, and apply decisions
+ * exactly as it does when it extracts and filters events itself.
+ * <p/>
+ * Filters run before the task thread sees an event, which means they also see
+ * events that the schedule later skips or that arrive after the task stops.
+ * This is harmless for filters that only transform events. Filters are not
+ * invoked on events that are already filtered, as in serial operation.
+ * <p/>
+ * If more than one filter thread is requested, leading filters in the chain
+ * that implement {@link StatelessFilter} run on a pool of worker threads, each
+ * taking the next event as soon as it is free. The filter thread waits for
+ * each event in extraction order to complete before running the remaining
+ * filters, so later filters and the task see events in the original order.
+ */
+public class StageTaskFeeder
+{
+    private static Logger             logger         = Logger.getLogger(StageTaskFeeder.class);
+
+    private final String              name;
+    private final Extractor           extractor;
+    private final List<Filter>        filters;
+    private final BlockingQueue<Item> extracted;
+    private final BlockingQueue<Item> filtered;
+    private Thread                    extractThread;
+    private Thread                    filterThread;
+
+    // Worker threads and queue for stateless filters at the head of the chain.
+    private final int                 filterThreads;
+    private final int                 parallelFilters;
+    private final BlockingQueue<Item> parallelWork;
+    private List<Thread>              workerThreads  = new ArrayList<Thread>();
+
+    // Events handed off by the extract thread and not yet taken by the task.
+    private final AtomicInteger       inFlight       = new AtomicInteger();
+
+    // Result of the last hasMoreEvents() call on the extractor.
+    private volatile boolean          extractorHasMore;
+
+    // Statistics.
+    private volatile long             extractMillis  = 0;
+    private volatile long             filterMillis   = 0;
+    private final AtomicLong          parallelMillis = new AtomicLong();
+    private volatile long             events         = 0;
+
+    /**
+     * Holds an extracted event along with the outcome of filtering.
+     */
+    public static class Item
+    {
+        private final ReplEvent event;
+        private final String    service;
+        private ReplDBMSEvent   filteredEvent;
+        private Throwable       extractFailure;
+        private Throwable       filterFailure;
+        private CountDownLatch  parallelDone;
+        private long            extractMillis;
+        private long            filterMillis;
+
+        Item(ReplEvent event)
+        {
+            this.event = event;
+            if (event instanceof ReplDBMSEvent)
+            {
+                service = ((ReplDBMSEvent) event).getDBMSEvent()
+                        .getMetadataOptionValue(ReplOptionParams.SERVICE);
+            }
+            else
+                service = null;
+        }
+
+        Item(Throwable extractFailure)
+        {
+            this.event = null;
+            this.service = null;
+            this.extractFailure = extractFailure;
+        }
+
+        /**
+         * Returns the event as extracted, or throws the exception returned by
+         * the extractor.
+         */
+        public ReplEvent getEvent() throws ReplicatorException,
+                InterruptedException
+        {
+            if (extractFailure != null)
+                rethrow(extractFailure);
+            return event;
+        }
+
+        /**
+         * Returns the service name of the event at the time it was extracted,
+         * before any filters ran.
+         */
+        public String getService()
+        {
+            return service;
+        }
+
+        /** Returns the time spent extracting the event. */
+        public long getExtractMillis()
+        {
+            return extractMillis;
+        }
+
+        /**
+         * Returns the time spent filtering the event, summed across filter
+         * threads.
+         */
+        public long getFilterMillis()
+        {
+            return filterMillis;
+        }
+
+        /**
+         * Returns the event after filtering, which is null if a filter
+         * discarded it, or throws the exception returned by a filter.
+         */
+        public ReplDBMSEvent getFilteredEvent() throws ReplicatorException,
+                InterruptedException
+        {
+            if (filterFailure != null)
+                rethrow(filterFailure);
+            return filteredEvent;
+        }
+
+        // Throws a failure from another thread on the task thread.
+        private static void rethrow(Throwable t) throws ReplicatorException,
+                InterruptedException
+        {
+            if (t instanceof ReplicatorException)
+                throw (ReplicatorException) t;
+            else if (t instanceof InterruptedException)
+                throw (InterruptedException) t;
+            else if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            else if (t instanceof Error)
+                throw (Error) t;
+            else
+                throw new ReplicatorException(t);
+        }
+    }
+
+    /**
+     * Creates a new feeder.
+     *
+     * @param name Name of the task, used for thread names
+     * @param extractor Extractor of the task
+     * @param filters Filters of the task
+     * @param queueSize Maximum number of events waiting between threads
+     * @param filterThreads Number of threads that run stateless filters; 1
+     *            runs all filters on a single thread
+     */
+    public StageTaskFeeder(String name, Extractor extractor,
+            List<Filter> filters, int queueSize, int filterThreads)
+    {
+        this.name = name;
+        this.extractor = extractor;
+        this.filters = filters;
+        this.extracted = new ArrayBlockingQueue<Item>(queueSize);
+        this.filtered = new ArrayBlockingQueue<Item>(queueSize);
+        this.parallelWork = new LinkedBlockingQueue<Item>();
+
+        // Only filters ahead of the first stateful filter may run in parallel.
+        int stateless = 0;
+        if (filterThreads > 1)
+        {
+            for (Filter f : filters)
+            {
+                if (f instanceof StatelessFilter)
+                    stateless++;
+                else
+                    break;
+            }
+        }
+        this.parallelFilters = stateless;
+        this.filterThreads = (stateless > 0) ? filterThreads : 1;
+    }
+
+    /** Returns the number of filters that run on worker threads. */
+    public int getParallelFilters()
+    {
+        return parallelFilters;
+    }
+
+    /** Starts extract and filter threads. */
+    public synchronized void start()
+    {
+        extractThread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                runExtract();
+            }
+        }, name + "-extract");
+        filterThread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                runFilters();
+            }
+        }, name + "-filter");
+        extractThread.setDaemon(true);
+        filterThread.setDaemon(true);
+        extractThread.start();
+        filterThread.start();
+
+        if (parallelFilters > 0)
+        {
+            for (int i = 0; i < filterThreads; i++)
+            {
+                Thread worker = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        runParallelFilters();
+                    }
+                }, name + "-filter-" + i);
+                worker.setDaemon(true);
+                worker.start();
+                workerThreads.add(worker);
+            }
+        }
+        logger.info("Started pipelined task threads: task=" + name
+                + " queueSize=" + extracted.remainingCapacity()
+                + " filterThreads=" + filterThreads + " parallelFilters="
+                + parallelFilters);
+    }
+
+    /**
+     * Returns the next event in extraction order, waiting if necessary.
+     */
+    public Item take() throws InterruptedException
+    {
+        Item item = filtered.take();
+        inFlight.decrementAndGet();
+        return item;
+    }
+
+    /**
+     * Returns true if events are waiting to be taken or the extractor
+     * reported more events on its last extraction.
+     */
+    public boolean hasMoreEvents()
+    {
+        return inFlight.get() > 0 || extractorHasMore;
+    }
+
+    /**
+     * Stops threads. Events that have not been taken are discarded, which is
+     * safe because the task has not applied them. This does not return until
+     * every thread has exited, since the extractor and filters are released
+     * once the task ends and must not be in use at that point. Threads that
+     * are slow to exit are interrupted again and reported with their stack.
+     */
+    public synchronized void stop()
+    {
+        List<Thread> threads = new ArrayList<Thread>(workerThreads);
+        threads.add(extractThread);
+        threads.add(filterThread);
+        for (Thread t : threads)
+        {
+            if (t != null)
+                t.interrupt();
+        }
+        boolean interrupted = false;
+        for (Thread t : threads)
+        {
+            if (t == null)
+                continue;
+            while (t.isAlive())
+            {
+                try
+                {
+                    t.join(5000);
+                }
+                catch (InterruptedException e)
+                {
+                    // Keep waiting; we restore the interrupt at the end.
+                    interrupted = true;
+                }
+                if (t.isAlive())
+                {
+                    logger.warn("Pipelined task thread has not exited; interrupting again: "
+                            + t + "\n" + formatStack(t));
+                    t.interrupt();
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        extractThread = null;
+        filterThread = null;
+        workerThreads.clear();
+        extracted.clear();
+        filtered.clear();
+        parallelWork.clear();
+        if (logger.isDebugEnabled())
+            logger.debug("Stopped pipelined task threads: " + this);
+    }
+
+    // Returns the current stack of a thread for diagnostics.
+    private static String formatStack(Thread t)
+    {
+        StringBuffer sb = new StringBuffer();
+        for (StackTraceElement e : t.getStackTrace())
+            sb.append("\tat ").append(e).append("\n");
+        return sb.toString();
+    }
+
+    // Extracts events until interrupted. Extraction failures are passed on to
+    // the task, which applies the extractor failure policy.
+    private void runExtract()
+    {
+        try
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                Item item;
+                long start = System.currentTimeMillis();
+                try
+                {
+                    ReplEvent event = extractor.extract();
+                    if (event == null)
+                        continue;
+                    item = new Item(event);
+                }
+                catch (InterruptedException e)
+                {
+                    break;
+                }
+                catch (Throwable t)
+                {
+                    item = new Item(t);
+                }
+                finally
+                {
+                    extractMillis += System.currentTimeMillis() - start;
+                }
+                item.extractMillis = System.currentTimeMillis() - start;
+                extractorHasMore = extractor.hasMoreEvents();
+                inFlight.incrementAndGet();
+
+                // Hand off to workers after queueing in extraction order so
+                // that the filter thread cannot miss any event.
+                if (parallelFilters > 0
+                        && item.event instanceof ReplDBMSEvent
+                        && !(item.event instanceof ReplDBMSFilteredEvent))
+                {
+                    item.parallelDone = new CountDownLatch(1);
+                    extracted.put(item);
+                    parallelWork.put(item);
+                }
+                else
+                    extracted.put(item);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Normal shutdown.
+        }
+    }
+
+    // Runs filters on events in extraction order until interrupted.
+    private void runFilters()
+    {
+        try
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                Item item = extracted.take();
+                if (item.parallelDone != null)
+                {
+                    // Wait for workers to finish the stateless filters, then
+                    // run the rest of the chain unless the event is gone.
+                    item.parallelDone.await();
+                    if (item.filterFailure == null
+                            && item.filteredEvent != null)
+                    {
+                        long start = System.currentTimeMillis();
+                        try
+                        {
+                            item.filteredEvent = filter(item.filteredEvent,
+                                    parallelFilters);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            break;
+                        }
+                        catch (Throwable t)
+                        {
+                            item.filterFailure = t;
+                        }
+                        long elapsed = System.currentTimeMillis() - start;
+                        filterMillis += elapsed;
+                        item.filterMillis += elapsed;
+                    }
+                    events++;
+                }
+                else if (item.event instanceof ReplDBMSEvent)
+                {
+                    long start = System.currentTimeMillis();
+                    try
+                    {
+                        item.filteredEvent = filter((ReplDBMSEvent) item.event,
+                                0);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        break;
+                    }
+                    catch (Throwable t)
+                    {
+                        item.filterFailure = t;
+                    }
+                    long elapsed = System.currentTimeMillis() - start;
+                    filterMillis += elapsed;
+                    item.filterMillis = elapsed;
+                    events++;
+                }
+                filtered.put(item);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Normal shutdown.
+        }
+    }
+
+    // Runs stateless filters on events in whatever order workers take them.
+    private void runParallelFilters()
+    {
+        try
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                Item item = parallelWork.take();
+                long start = System.currentTimeMillis();
+                try
+                {
+                    ReplDBMSEvent event = (ReplDBMSEvent) item.event;
+                    for (int i = 0; i < parallelFilters && event != null; i++)
+                        event = filters.get(i).filter(event);
+                    item.filteredEvent = event;
+                }
+                catch (InterruptedException e)
+                {
+                    break;
+                }
+                catch (Throwable t)
+                {
+                    item.filterFailure = t;
+                }
+                finally
+                {
+                    long elapsed = System.currentTimeMillis() - start;
+                    parallelMillis.addAndGet(elapsed);
+                    item.filterMillis = elapsed;
+                }
+                item.parallelDone.countDown();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Normal shutdown.
+        }
+    }
+
+    // Runs the filter chain starting at the given filter on an event,
+    // returning null if a filter discards it.
+    private ReplDBMSEvent filter(ReplDBMSEvent event, int first)
+            throws ReplicatorException, InterruptedException
+    {
+        if (event instanceof ReplDBMSFilteredEvent)
+            return event;
+        for (int i = first; i < filters.size(); i++)
+        {
+            Filter f = filters.get(i);
+            if ((event = f.filter(event)) == null)
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Event discarded by filter: name="
+                            + f.getClass().toString());
+                }
+                break;
+            }
+        }
+        return event;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer(this.getClass().getSimpleName());
+        sb.append(" name=").append(name);
+        sb.append(" events=").append(events);
+        sb.append(" extractMillis=").append(extractMillis);
+        sb.append(" filterMillis=").append(filterMillis);
+        if (parallelFilters > 0)
+        {
+            sb.append(" filterThreads=").append(filterThreads);
+            sb.append(" parallelFilterMillis=").append(parallelMillis.get());
+        }
+        sb.append(" inFlight=").append(inFlight.get());
+        return sb.toString();
+    }
+}
@@ -32,6 +32,7 @@ import com.continuent.tungsten.fsm.event.EventDispatcher;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.applier.Applier;
 import com.continuent.tungsten.replicator.applier.ApplierWrapper;
+import com.continuent.tungsten.replicator.applier.MultiSessionApplier;
 import com.continuent.tungsten.replicator.applier.ParallelApplier;
 import com.continuent.tungsten.replicator.applier.RawApplier;
 import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
@@ -140,6 +141,9 @@ public class StageTaskGroup implements ReplicatorPlugin
             // Instantiate and configure the applier.
             ReplicatorPlugin applier = this.stage.getApplierSpec().instantiate(
                     i);
+            if (applier instanceof MultiSessionApplier)
+                ((MultiSessionApplier) applier)
+                        .setApplierSpecification(this.stage.getApplierSpec());
             if (applier instanceof RawApplier)
                 applier = new ApplierWrapper((RawApplier) applier);
 
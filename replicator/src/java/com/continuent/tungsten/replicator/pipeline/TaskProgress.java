@@ -41,6 +41,7 @@ public class TaskProgress
     private long           blockCount               = 0;
     private long           lastCommittedBlockSize   = -1;
     private long           lastCommittedBlockMillis = -1;
+    private int            effectiveBlockSize       = 1;
     private long           applyLatencyMillis       = 0;
     private long           startMillis;
     private long           totalExtractMillis       = 0;
@@ -89,6 +90,7 @@ public class TaskProgress
         this.lastCommittedEvent = other.getLastCommittedEvent();
         this.lastCommittedBlockSize = other.getLastCommittedBlockSize();
         this.lastCommittedBlockMillis = other.getLastCommittedBlockMillis();
+        this.effectiveBlockSize = other.getEffectiveBlockSize();
         this.lastCommitMillis = other.getLastCommitMillis();
         this.startMillis = other.getStartMillis();
         this.state = other.getState();
@@ -230,6 +232,20 @@ public class TaskProgress
         this.lastCommittedBlockSize = lastCommittedBlockSize;
     }
 
+    /**
+     * Returns the number of events after which the task commits a block. This
+     * changes over time if the stage uses adaptive block commit.
+     */
+    public int getEffectiveBlockSize()
+    {
+        return effectiveBlockSize;
+    }
+
+    public void setEffectiveBlockSize(int effectiveBlockSize)
+    {
+        this.effectiveBlockSize = effectiveBlockSize;
+    }
+
     /** Return time in seconds of last committed block. */
     public double getLastCommittedBlockTime()
     {
@@ -301,6 +317,15 @@ public class TaskProgress
         state = TaskState.other;
     }
 
+    /**
+     * Add extract time measured on another thread. Pipelined tasks extract
+     * while they apply, so this time overlaps other intervals.
+     */
+    public void addExtractMillis(long millis)
+    {
+        totalExtractMillis += millis;
+    }
+
     /** Returns cumulative filter time in milliseconds */
     public long getTotalFilterMillis()
     {
@@ -329,6 +354,15 @@ public class TaskProgress
         state = TaskState.other;
     }
 
+    /**
+     * Add filter time measured on another thread. Pipelined tasks filter
+     * while they apply, so this time overlaps other intervals.
+     */
+    public void addFilterMillis(long millis)
+    {
+        totalFilterMillis += millis;
+    }
+
     /** Returns cumulative extract time in milliseconds. */
     public long getTotalApplyMillis()
     {
@@ -357,12 +391,16 @@ public class TaskProgress
         state = TaskState.other;
     }
 
-    /** Returns remaining wall-clock time outside of extract/filter/apply. */
+    /**
+     * Returns remaining wall-clock time outside of extract/filter/apply. This
+     * is never negative, even when pipelined extract and filter time overlaps
+     * apply time.
+     */
     public long getTotalOtherMillis()
     {
         long remaining = endMillis - startMillis - totalExtractMillis
                 - totalFilterMillis - totalApplyMillis;
-        return remaining;
+        return Math.max(0, remaining);
     }
 
     /** Return other time in seconds. */
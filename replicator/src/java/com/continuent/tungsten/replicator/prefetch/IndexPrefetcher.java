@@ -0,0 +1,194 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.prefetch;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.applier.ApplierException;
+import com.continuent.tungsten.replicator.database.Column;
+import com.continuent.tungsten.replicator.database.Database;
+import com.continuent.tungsten.replicator.database.Key;
+import com.continuent.tungsten.replicator.database.PreparedStatementCache;
+import com.continuent.tungsten.replicator.database.Table;
+
+/**
+ * Executes index prefetch queries described by {@link KeySelect} instances on
+ * a single database connection. Prepared statements are cached per index.
+ * Instances are not thread-safe; each thread that issues prefetch queries
+ * must have its own index prefetcher and connection.
+ */
+public class IndexPrefetcher
+{
+    private static Logger          logger = Logger.getLogger(IndexPrefetcher.class);
+
+    private Database               conn;
+    private PreparedStatementCache preparedStatementCache;
+
+    /**
+     * Creates a new prefetcher.
+     *
+     * @param conn Connected database on which to run queries
+     */
+    public IndexPrefetcher(Database conn)
+    {
+        this.conn = conn;
+        this.preparedStatementCache = new PreparedStatementCache(500);
+    }
+
+    /**
+     * Generate and execute a query designed to load pages from an index.
+     *
+     * @param keySelect Index and key values to load
+     * @param slowQueryCache Shared cache used to suppress slow queries or
+     *            null if slow queries are not tracked
+     * @return True if the query was executed, false if it was skipped because
+     *         it is in the slow query cache
+     */
+    public boolean prefetch(KeySelect keySelect,
+            SlowQueryCache slowQueryCache) throws ReplicatorException
+    {
+        // Extract table and key definitions.
+        Table table = keySelect.getTable();
+        Key key = keySelect.getKey();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Executing prefetch query for key: " + key);
+        }
+
+        // See if we have a slow query that does not need to be repeated.
+        if (slowQueryCache != null && !slowQueryCache.shouldExecute(keySelect))
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Skipping slow query: keySelect=" + keySelect);
+            }
+            return false;
+        }
+
+        // Fetch prepared statement from cache.
+        String pstmtName = String.format("%s.%s.%s-statement",
+                table.getSchema(), table.getName(), key.getName());
+        PreparedStatement pstmt = this.preparedStatementCache
+                .retrieve(pstmtName);
+        if (pstmt == null)
+        {
+            String query = keySelect.createPrefetchSelect();
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Generating prepared statement for index load: key="
+                        + pstmtName + " query=" + query);
+            }
+            try
+            {
+                pstmt = conn.getConnection().prepareStatement(query);
+            }
+            catch (SQLException e)
+            {
+                throw new ApplierException(
+                        "Unable to prepare statement: query=" + query, e);
+            }
+            preparedStatementCache.store(pstmtName, pstmt, query);
+        }
+
+        // Load query.
+        ResultSet rs = null;
+        try
+        {
+            // Populate values in prepared statement and execute.
+            for (int i = 1; i <= keySelect.size(); i++)
+            {
+                pstmt.setObject(i, keySelect.getValue(i));
+            }
+            if (logger.isDebugEnabled())
+            {
+                // Show values we are about to use.
+                StringBuffer sb = new StringBuffer();
+                sb.append("Executing index prefetch: key=").append(key);
+                sb.append(" values=[");
+                List<Column> columns = keySelect.getKey().getColumns();
+                for (int i = 0; i < columns.size(); i++)
+                {
+                    if (i > 0)
+                        sb.append(",");
+                    sb.append(columns.get(i).getName());
+                    sb.append("=");
+                    sb.append(keySelect.getValue(i + 1));
+                }
+                sb.append("]");
+                logger.debug(sb.toString());
+            }
+
+            // Execute the query and compute the number of rows that were
+            // touched.
+            rs = pstmt.executeQuery();
+            long rowCount = -1;
+            if (rs.next())
+            {
+                if (key.isPrimaryKey())
+                    rowCount = 1;
+                else
+                    rowCount = rs.getLong(1);
+            }
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Executed index prefetch: key=" + key
+                        + " rowCount=" + rowCount);
+            }
+
+            // Offer result to slow query cache.
+            if (slowQueryCache != null)
+                slowQueryCache.updateCache(keySelect, rowCount);
+            return true;
+        }
+        catch (SQLException e)
+        {
+            throw new ApplierException("Unable to prefetch secondary index: "
+                    + key.toString(), e);
+        }
+        finally
+        {
+            if (rs != null)
+            {
+                try
+                {
+                    rs.close();
+                }
+                catch (SQLException e)
+                {
+                }
+            }
+        }
+    }
+
+    /** Releases cached prepared statements. */
+    public void release()
+    {
+        preparedStatementCache.invalidateAll();
+    }
+}
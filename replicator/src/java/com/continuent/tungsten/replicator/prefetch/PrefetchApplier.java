@@ -24,7 +24,6 @@ package com.continuent.tungsten.replicator.prefetch;
 
 import java.io.UnsupportedEncodingException;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -49,7 +48,6 @@ import com.continuent.tungsten.replicator.database.Database;
 import com.continuent.tungsten.replicator.database.DatabaseFactory;
 import com.continuent.tungsten.replicator.database.Key;
 import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
-import com.continuent.tungsten.replicator.database.PreparedStatementCache;
 import com.continuent.tungsten.replicator.database.SqlOperation;
 import com.continuent.tungsten.replicator.database.SqlOperationMatcher;
 import com.continuent.tungsten.replicator.database.Table;
@@ -70,6 +68,7 @@ import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
 import com.continuent.tungsten.replicator.event.ReplOption;
 import com.continuent.tungsten.replicator.event.ReplOptionParams;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
+import com.continuent.tungsten.replicator.storage.Store;
 
 /**
  * Implements a JDBC prefetcher. This class is currently for MySQL only as it
@@ -121,6 +120,16 @@ public class PrefetchApplier implements RawApplier
     // Fail the applier after this number of errors.
     protected int                     maxErrors              = 1000;
 
+    // Number of worker threads and connections for index prefetch queries.
+    // If 0, queries run on the applier task thread.
+    protected int                     prefetchWorkers        = 0;
+    protected int                     prefetchQueueSize      = 1000;
+
+    // Seconds during which a prefetched key is considered warm and is not
+    // prefetched again. If 0, keys are always prefetched.
+    protected int                     warmKeyWindow          = 0;
+    protected int                     warmKeyCacheSize       = 10000;
+
     protected PluginContext           runtime                = null;
     protected String                  metadataSchema         = null;
     protected Database                conn                   = null;
@@ -148,9 +157,12 @@ public class PrefetchApplier implements RawApplier
      */
     protected int                     maxSQLLogLength        = 1000;
 
-    // Table and prepared statement caches.
+    // Table metadata cache and index query execution.
     private TableMetadataCache        tableMetadataCache;
-    private PreparedStatementCache    preparedStatementCache;
+    private IndexPrefetcher           indexPrefetcher;
+    private PrefetchWorkerPool        workerPool;
+    private WarmKeyCache              warmKeyCache;
+    private long                      currentExtractedMillis;
 
     // Slow query cache. This is managed by task 0 but is shared across
     // threads.
@@ -245,6 +257,46 @@ public class PrefetchApplier implements RawApplier
         this.maxErrors = maxErrors;
     }
 
+    public int getPrefetchWorkers()
+    {
+        return prefetchWorkers;
+    }
+
+    public void setPrefetchWorkers(int prefetchWorkers)
+    {
+        this.prefetchWorkers = prefetchWorkers;
+    }
+
+    public int getPrefetchQueueSize()
+    {
+        return prefetchQueueSize;
+    }
+
+    public void setPrefetchQueueSize(int prefetchQueueSize)
+    {
+        this.prefetchQueueSize = prefetchQueueSize;
+    }
+
+    public int getWarmKeyWindow()
+    {
+        return warmKeyWindow;
+    }
+
+    public void setWarmKeyWindow(int warmKeyWindow)
+    {
+        this.warmKeyWindow = warmKeyWindow;
+    }
+
+    public int getWarmKeyCacheSize()
+    {
+        return warmKeyCacheSize;
+    }
+
+    public void setWarmKeyCacheSize(int warmKeyCacheSize)
+    {
+        this.warmKeyCacheSize = warmKeyCacheSize;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -253,7 +305,8 @@ public class PrefetchApplier implements RawApplier
      *      boolean)
      */
     public void apply(DBMSEvent event, ReplDBMSHeader header, boolean doCommit,
-            boolean doRollback) throws ReplicatorException
+            boolean doRollback) throws ReplicatorException,
+            InterruptedException
     {
         // Ensure we are not trying to apply a previously applied event.
         // This case can arise during restart.
@@ -270,6 +323,23 @@ public class PrefetchApplier implements RawApplier
             logger.debug("Prefetch for event: seqno=" + header.getSeqno()
                     + " fragno=" + header.getFragno());
 
+        // Remember when the event was extracted so that prefetch workers can
+        // compute their lead time.
+        if (header.getExtractedTstamp() != null)
+            currentExtractedMillis = header.getExtractedTstamp().getTime();
+        else
+            currentExtractedMillis = System.currentTimeMillis();
+
+        // Errors on prefetch workers count toward the maximum as well.
+        if (workerPool != null && maxErrors >= 0
+                && errors + workerPool.getErrors() >= maxErrors)
+        {
+            logger.info("Maximum number of prefetch errors exceeded: errors="
+                    + errors + " workerErrors=" + workerPool.getErrors());
+            throw new ApplierException(
+                    "Maximum number of prefetch errors exceeded");
+        }
+
         // Determine prefetch action according to replicated data type.
         try
         {
@@ -437,7 +507,31 @@ public class PrefetchApplier implements RawApplier
 
             // Instantiate local caches.
             tableMetadataCache = new TableMetadataCache(5000);
-            preparedStatementCache = new PreparedStatementCache(500);
+            indexPrefetcher = new IndexPrefetcher(conn);
+            if (warmKeyWindow > 0)
+            {
+                warmKeyCache = new WarmKeyCache(warmKeyCacheSize,
+                        warmKeyWindow * 1000L);
+            }
+
+            // Start prefetch workers if we are running queries concurrently.
+            if (prefetchWorkers > 0)
+            {
+                workerPool = new PrefetchWorkerPool("prefetch-worker-"
+                        + taskId, url, user, password,
+                        context.isPrivilegedSlave(), prefetchWorkers,
+                        prefetchQueueSize);
+                workerPool.setWarmKeyCache(warmKeyCache);
+                for (Store store : context.getStores())
+                {
+                    if (store instanceof PrefetchStore)
+                    {
+                        workerPool.setPrefetchStore((PrefetchStore) store);
+                        break;
+                    }
+                }
+                workerPool.start();
+            }
 
             // If we are task 0, we need to initialized the shared slow query
             // cache.
@@ -485,6 +579,25 @@ public class PrefetchApplier implements RawApplier
         // Release local resources.
         currentOptions = null;
 
+        if (workerPool != null)
+        {
+            workerPool.shutdown();
+            logger.info("Prefetch worker statistics: task=" + taskId + " "
+                    + workerPool.toString());
+            workerPool = null;
+        }
+        if (warmKeyCache != null)
+        {
+            logger.info("Prefetch warm key statistics: task=" + taskId + " "
+                    + warmKeyCache.toString());
+            warmKeyCache = null;
+        }
+        if (indexPrefetcher != null)
+        {
+            indexPrefetcher.release();
+            indexPrefetcher = null;
+        }
+
         statement = null;
         if (conn != null)
         {
@@ -525,7 +638,7 @@ public class PrefetchApplier implements RawApplier
      * Prefetch data for statements.
      */
     private void prefetchStatementData(StatementData data)
-            throws ReplicatorException
+            throws ReplicatorException, InterruptedException
     {
         statements++;
         String sqlQuery = null;
@@ -711,7 +824,8 @@ public class PrefetchApplier implements RawApplier
 
     // Fetch secondary index pages for a statement.
     private void prefetchIndexesForStatement(StatementData data,
-            SqlOperation parsing, ResultSet rs) throws ReplicatorException
+            SqlOperation parsing, ResultSet rs) throws ReplicatorException,
+            InterruptedException
     {
         // Establish identity of table. Only the first statement in a
         // transaction has the current schema, so we fall back on our own
@@ -805,121 +919,45 @@ public class PrefetchApplier implements RawApplier
 
     /**
      * Generate and execute a query designed to load pages from a secondary
-     * index.
-     * 
-     * @throws SQLException
+     * index. Keys that are still warm from a recent prefetch are skipped. If
+     * there are prefetch workers the query is handed off to them, otherwise
+     * it runs on this thread.
      */
     private void executeIndexQuery(KeySelect keySelect)
-            throws ReplicatorException
+            throws ReplicatorException, InterruptedException
     {
-        // Extract table and key definitions.
-        Table table = keySelect.getTable();
-        Key key = keySelect.getKey();
-        if (logger.isDebugEnabled())
-        {
-            logger.debug("Executing prefetch query for key: " + key);
-        }
-
-        // See if we have a slow query that does not need to be repeated.
-        if (!slowQueryCache.shouldExecute(keySelect))
+        // Skip the query if we have recently loaded the same key.
+        if (warmKeyCache != null
+                && warmKeyCache.isWarm(keySelect.generateKey(),
+                        System.currentTimeMillis()))
         {
             if (logger.isDebugEnabled())
             {
-                logger.debug("Skipping slow query: keySelect=" + keySelect);
+                logger.debug("Skipping warm key: keySelect=" + keySelect);
             }
-            skippedSlowQueries++;
             return;
         }
 
-        // Fetch prepared statement from cache.
-        String pstmtName = String.format("%s.%s.%s-statement",
-                table.getSchema(), table.getName(), key.getName());
-        PreparedStatement pstmt = this.preparedStatementCache
-                .retrieve(pstmtName);
-        if (pstmt == null)
+        if (workerPool != null)
         {
-            String query = keySelect.createPrefetchSelect();
-            if (logger.isDebugEnabled())
-            {
-                logger.debug("Generating prepared statement for index load: key="
-                        + pstmtName + " query=" + query);
-            }
-            try
-            {
-                pstmt = conn.getConnection().prepareStatement(query);
-            }
-            catch (SQLException e)
-            {
-                throw new ApplierException(
-                        "Unable to prepare statement: query=" + query, e);
-            }
-            preparedStatementCache.store(pstmtName, pstmt, query);
+            workerPool.submit(keySelect, currentExtractedMillis,
+                    slowQueryCache);
         }
-
-        // Load query.
-        ResultSet rs = null;
-        try
+        else if (indexPrefetcher.prefetch(keySelect, slowQueryCache))
         {
-            // Populate values in prepared statement and execute.
-            for (int i = 1; i <= keySelect.size(); i++)
-            {
-                pstmt.setObject(i, keySelect.getValue(i));
-            }
-            if (logger.isDebugEnabled())
-            {
-                // Show values we are about to use.
-                StringBuffer sb = new StringBuffer();
-                sb.append("Executing index prefetch: key=").append(key);
-                sb.append(" values=[");
-                List<Column> columns = keySelect.getKey().getColumns();
-                for (int i = 0; i < columns.size(); i++)
-                {
-                    if (i > 0)
-                        sb.append(",");
-                    sb.append(columns.get(i).getName());
-                    sb.append("=");
-                    sb.append(keySelect.getValue(i + 1));
-                }
-                sb.append("]");
-                logger.debug(sb.toString());
-            }
-
-            // Execute the query and compute the number of rows that were
-            // touched.
-            rs = pstmt.executeQuery();
             prefetchedQueries++;
-            long rowCount = -1;
-            if (rs.next())
-            {
-                if (key.isPrimaryKey())
-                    rowCount = 1;
-                else
-                    rowCount = rs.getLong(1);
-            }
-            if (logger.isDebugEnabled())
-            {
-                logger.debug("Executed index prefetch: key=" + key
-                        + " rowCount=" + rowCount);
-            }
-
-            // Offer result to slow query cache.
-            slowQueryCache.updateCache(keySelect, rowCount);
-        }
-        catch (SQLException e)
-        {
-            throw new ApplierException("Unable to prefetch secondary index: "
-                    + key.toString(), e);
-        }
-        finally
-        {
-            if (rs != null)
-                closeResultSet(rs);
+            if (warmKeyCache != null)
+                warmKeyCache.mark(keySelect.generateKey(),
+                        System.currentTimeMillis());
         }
+        else
+            skippedSlowQueries++;
     }
 
     // Prefetch data for one or one or more rows.
     private void prefetchRowChangeData(RowChangeData data,
-            List<ReplOption> options) throws ReplicatorException
+            List<ReplOption> options) throws ReplicatorException,
+            InterruptedException
     {
         if (options != null)
         {
@@ -948,7 +986,7 @@ public class PrefetchApplier implements RawApplier
 
     // Prefetches data for a set of changes on a single table.
     private void prefetchOneRowChangePrepared(OneRowChange oneRowChange)
-            throws ReplicatorException
+            throws ReplicatorException, InterruptedException
     {
         // Fill in column names in column specifications.
         int colCount = fillColumnNames(oneRowChange);
@@ -1069,7 +1107,7 @@ public class PrefetchApplier implements RawApplier
      * Identify and prefetch indexes for a single row image.
      */
     private void prefetchSimpleRowIndexes(RbrRowImage image)
-            throws ReplicatorException
+            throws ReplicatorException, InterruptedException
     {
         rowUpdates++;
         if (logger.isDebugEnabled())
@@ -79,7 +79,7 @@ public class PrefetchStore extends InMemoryQueueStore
     private long          aheadMaxMillis;
     private long          aheadMinMillis;
 
-    private long          slaveLatency;
+    private volatile long slaveLatency;
     private long          prefetchLatency;
 
     /**
@@ -150,6 +150,16 @@ public class PrefetchStore extends InMemoryQueueStore
         return this.getCurrentSlaveHeader();
     }
 
+    /**
+     * Returns the applied latency of the slave in milliseconds as of the last
+     * position check. Prefetch workers use this to compute how far ahead of
+     * the slave they complete.
+     */
+    public long getSlaveLatencyMillis()
+    {
+        return slaveLatency;
+    }
+
     /**
      * Puts an event in the queue, blocking if it is full.
      */
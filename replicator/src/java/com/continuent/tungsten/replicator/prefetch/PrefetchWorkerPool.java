@@ -0,0 +1,402 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.prefetch;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.database.Database;
+import com.continuent.tungsten.replicator.database.DatabaseFactory;
+
+/**
+ * Runs index prefetch queries concurrently on a pool of worker threads, each
+ * of which has its own database connection. Callers submit {@link KeySelect}
+ * requests to a bounded queue and block when the queue is full, which limits
+ * how far the prefetch applier may run ahead of the workers. Prefetch is best
+ * effort, so workers log and count failed queries and go on to the next
+ * request. A worker that dies unexpectedly fails the next submit rather than
+ * letting the queue fill up behind it.
+ * <p/>
+ * The pool tracks the lead time of each completed query, which is the number
+ * of milliseconds by which the prefetch finished ahead of the slave applying
+ * the same event. Lead time is only computed if the pool has a
+ * {@link PrefetchStore} that reports the slave latency.
+ */
+public class PrefetchWorkerPool
+{
+    private static Logger                              logger             = Logger.getLogger(PrefetchWorkerPool.class);
+
+    // Parameters.
+    private final String                               name;
+    private final String                               url;
+    private final String                               user;
+    private final String                               password;
+    private final boolean                              privileged;
+    private final int                                  workers;
+    private final LinkedBlockingQueue<PrefetchRequest> queue;
+    private WarmKeyCache                               warmKeyCache;
+    private PrefetchStore                              prefetchStore;
+
+    // Worker threads and the error that killed a worker, if any.
+    private List<Thread>                               workerThreads      = new ArrayList<Thread>();
+    private volatile Throwable                         workerFailure;
+
+    // Statistics.
+    private long                                       submitted          = 0;
+    private long                                       executed           = 0;
+    private long                                       skippedSlowQueries = 0;
+    private long                                       errors             = 0;
+    private long                                       completionLatency  = 0;
+    private long                                       leadTimeSamples    = 0;
+    private long                                       totalLeadTime      = 0;
+    private long                                       minLeadTime        = Long.MAX_VALUE;
+    private long                                       lateQueries        = 0;
+    private long                                       lastErrorLogMillis = 0;
+    private long                                       unloggedErrors     = 0;
+
+    /**
+     * Holds a single prefetch request including the time the event that
+     * generated it was extracted.
+     */
+    private static class PrefetchRequest
+    {
+        final KeySelect      keySelect;
+        final long           extractedMillis;
+        final SlowQueryCache slowQueryCache;
+
+        PrefetchRequest(KeySelect keySelect, long extractedMillis,
+                SlowQueryCache slowQueryCache)
+        {
+            this.keySelect = keySelect;
+            this.extractedMillis = extractedMillis;
+            this.slowQueryCache = slowQueryCache;
+        }
+    }
+
+    /**
+     * Executes prefetch requests from the queue until interrupted.
+     */
+    private class PrefetchWorker implements Runnable
+    {
+        private final Database        conn;
+        private final IndexPrefetcher prefetcher;
+
+        PrefetchWorker(Database conn, IndexPrefetcher prefetcher)
+        {
+            this.conn = conn;
+            this.prefetcher = prefetcher;
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (!Thread.currentThread().isInterrupted())
+                {
+                    PrefetchRequest request = queue.take();
+                    try
+                    {
+                        boolean ran = prefetcher.prefetch(request.keySelect,
+                                request.slowQueryCache);
+                        recordCompletion(request, ran);
+                    }
+                    catch (ReplicatorException e)
+                    {
+                        recordError(request, e);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        recordError(request, e);
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Normal shutdown.
+            }
+            catch (Throwable t)
+            {
+                logger.error("Prefetch worker failed unexpectedly: thread="
+                        + Thread.currentThread().getName(), t);
+                workerFailure = t;
+            }
+            finally
+            {
+                prefetcher.release();
+                if (conn != null)
+                    conn.close();
+            }
+        }
+    }
+
+    /**
+     * Creates a new worker pool.
+     *
+     * @param name Prefix for worker thread names
+     * @param url JDBC URL of the slave DBMS
+     * @param user DBMS login
+     * @param password DBMS password
+     * @param privileged True if the slave connection is privileged
+     * @param workers Number of worker threads and connections
+     * @param queueSize Maximum number of pending prefetch requests
+     */
+    public PrefetchWorkerPool(String name, String url, String user,
+            String password, boolean privileged, int workers, int queueSize)
+    {
+        this.name = name;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.privileged = privileged;
+        this.workers = workers;
+        this.queue = new LinkedBlockingQueue<PrefetchRequest>(queueSize);
+    }
+
+    /** Sets a cache in which to mark keys whose prefetch query succeeds. */
+    public void setWarmKeyCache(WarmKeyCache warmKeyCache)
+    {
+        this.warmKeyCache = warmKeyCache;
+    }
+
+    /** Sets the prefetch store used to compute lead time. */
+    public void setPrefetchStore(PrefetchStore prefetchStore)
+    {
+        this.prefetchStore = prefetchStore;
+    }
+
+    /**
+     * Connects workers to the DBMS and starts them.
+     *
+     * @throws ReplicatorException Thrown if a worker cannot connect
+     */
+    public synchronized void start() throws ReplicatorException
+    {
+        List<Database> connections = new ArrayList<Database>(workers);
+        try
+        {
+            for (int i = 0; i < workers; i++)
+            {
+                Database conn = DatabaseFactory.createDatabase(url, user,
+                        password, privileged);
+                conn.connect();
+                connections.add(conn);
+            }
+        }
+        catch (SQLException e)
+        {
+            for (Database conn : connections)
+                conn.close();
+            throw new ReplicatorException(String.format(
+                    "Unable to connect prefetch worker: url=%s, user=%s", url,
+                    user), e);
+        }
+
+        List<IndexPrefetcher> prefetchers = new ArrayList<IndexPrefetcher>(
+                workers);
+        for (Database conn : connections)
+            prefetchers.add(new IndexPrefetcher(conn));
+        startWorkers(connections, prefetchers);
+    }
+
+    // Starts one worker per prefetcher. Connections are closed when workers
+    // exit and may be null.
+    synchronized void startWorkers(List<Database> connections,
+            List<IndexPrefetcher> prefetchers)
+    {
+        for (int i = 0; i < prefetchers.size(); i++)
+        {
+            Database conn = (connections == null) ? null : connections.get(i);
+            Thread t = new Thread(new PrefetchWorker(conn, prefetchers.get(i)),
+                    name + "-" + i);
+            t.setDaemon(true);
+            workerThreads.add(t);
+            t.start();
+        }
+        logger.info("Started prefetch workers: name=" + name + " workers="
+                + workers + " queueSize=" + queue.remainingCapacity());
+    }
+
+    /**
+     * Queues a prefetch request, blocking if the queue is full.
+     *
+     * @param keySelect Index and key values to prefetch
+     * @param extractedMillis Extraction time of the event being prefetched
+     * @param slowQueryCache Shared slow query cache or null
+     * @throws ReplicatorException Thrown if a worker has died, since the
+     *             queue would otherwise fill and block forever
+     */
+    public void submit(KeySelect keySelect, long extractedMillis,
+            SlowQueryCache slowQueryCache) throws ReplicatorException,
+            InterruptedException
+    {
+        PrefetchRequest request = new PrefetchRequest(keySelect,
+                extractedMillis, slowQueryCache);
+        do
+        {
+            checkWorkers();
+        }
+        while (!queue.offer(request, 1000, TimeUnit.MILLISECONDS));
+        synchronized (this)
+        {
+            submitted++;
+        }
+    }
+
+    /**
+     * Stops workers, discarding any requests that have not been executed.
+     */
+    public synchronized void shutdown()
+    {
+        queue.clear();
+        for (Thread t : workerThreads)
+            t.interrupt();
+        for (Thread t : workerThreads)
+        {
+            try
+            {
+                t.join(5000);
+            }
+            catch (InterruptedException e)
+            {
+                logger.warn("Interrupted while waiting for prefetch workers to exit");
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workerThreads.clear();
+    }
+
+    // Fails if a worker has died.
+    private void checkWorkers() throws ReplicatorException
+    {
+        Throwable failure = workerFailure;
+        if (failure != null)
+        {
+            throw new ReplicatorException("Prefetch worker failed: "
+                    + failure.getMessage(), failure);
+        }
+    }
+
+    /** Returns the number of requests waiting for a worker. */
+    public int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+    /** Returns the number of failed prefetch queries. */
+    public synchronized long getErrors()
+    {
+        return errors;
+    }
+
+    /** Returns the average lead time in milliseconds. */
+    public synchronized double getAverageLeadTime()
+    {
+        if (leadTimeSamples == 0)
+            return 0.0;
+        else
+            return ((double) totalLeadTime) / leadTimeSamples;
+    }
+
+    // Update statistics on completion of a request.
+    private synchronized void recordCompletion(PrefetchRequest request,
+            boolean ran)
+    {
+        if (!ran)
+        {
+            skippedSlowQueries++;
+            return;
+        }
+        executed++;
+        if (warmKeyCache != null)
+            warmKeyCache.mark(request.keySelect.generateKey(),
+                    System.currentTimeMillis());
+
+        long latency = System.currentTimeMillis() - request.extractedMillis;
+        completionLatency = latency;
+        if (prefetchStore != null)
+        {
+            long leadTime = prefetchStore.getSlaveLatencyMillis() - latency;
+            leadTimeSamples++;
+            totalLeadTime += leadTime;
+            if (leadTime < minLeadTime)
+                minLeadTime = leadTime;
+            if (leadTime <= 0)
+                lateQueries++;
+        }
+    }
+
+    // Update error count. Failures are logged at most once a minute so that
+    // a broken slave connection does not flood the log.
+    private synchronized void recordError(PrefetchRequest request, Exception e)
+    {
+        errors++;
+        long now = System.currentTimeMillis();
+        if (now - lastErrorLogMillis >= 60000)
+        {
+            logger.warn("Prefetch query failed: keySelect="
+                    + request.keySelect + " errors=" + errors
+                    + " unloggedErrors=" + unloggedErrors, e);
+            lastErrorLogMillis = now;
+            unloggedErrors = 0;
+        }
+        else
+        {
+            unloggedErrors++;
+            if (logger.isDebugEnabled())
+                logger.debug("Prefetch query failed: keySelect="
+                        + request.keySelect, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public synchronized String toString()
+    {
+        StringBuffer sb = new StringBuffer(this.getClass().getSimpleName());
+        sb.append(" workers=").append(workers);
+        sb.append(" queueDepth=").append(queue.size());
+        sb.append(" submitted=").append(submitted);
+        sb.append(" executed=").append(executed);
+        sb.append(" skippedSlowQueries=").append(skippedSlowQueries);
+        sb.append(" errors=").append(errors);
+        sb.append(" completionLatency=").append(completionLatency);
+        if (leadTimeSamples > 0)
+        {
+            sb.append(" avgLeadTime=").append(
+                    String.format("%.1f", getAverageLeadTime()));
+            sb.append(" minLeadTime=").append(minLeadTime);
+            sb.append(" lateQueries=").append(lateQueries);
+        }
+        return sb.toString();
+    }
+}
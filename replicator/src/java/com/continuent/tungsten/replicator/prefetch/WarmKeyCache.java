@@ -0,0 +1,149 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.prefetch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recently prefetched index keys so that prefetch queries for the
+ * same key values are not repeated while the pages they load are still likely
+ * to be in the buffer pool. Entries expire after a configurable window and
+ * the oldest entries are evicted once the cache reaches its capacity. All
+ * methods are synchronized so that the cache may be shared across threads.
+ */
+public class WarmKeyCache
+{
+    private final int                         capacity;
+    private final long                        windowMillis;
+    private final LinkedHashMap<String, Long> warmKeys;
+
+    // Counters.
+    private long                              checks = 0;
+    private long                              hits   = 0;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity Maximum number of keys to remember
+     * @param windowMillis Number of milliseconds a key stays warm
+     */
+    public WarmKeyCache(final int capacity, long windowMillis)
+    {
+        this.capacity = capacity;
+        this.windowMillis = windowMillis;
+        this.warmKeys = new LinkedHashMap<String, Long>(capacity, 0.75f, false)
+        {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+            {
+                return size() > WarmKeyCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns true if the key was warmed within the window, in which case the
+     * caller may skip prefetching it.
+     *
+     * @param key Key generated by {@link KeySelect#generateKey()}
+     * @param currentMillis Current time in milliseconds
+     */
+    public synchronized boolean isWarm(String key, long currentMillis)
+    {
+        checks++;
+        Long warmedMillis = warmKeys.get(key);
+        if (warmedMillis != null && currentMillis - warmedMillis < windowMillis)
+        {
+            hits++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks a key as warm. Callers do this once the prefetch query for the
+     * key has succeeded, so that failed queries are retried by later events.
+     *
+     * @param key Key generated by {@link KeySelect#generateKey()}
+     * @param warmedMillis Time in milliseconds the query finished
+     */
+    public synchronized void mark(String key, long warmedMillis)
+    {
+        // Remove before storing so the key moves to the end of the eviction
+        // order.
+        warmKeys.remove(key);
+        warmKeys.put(key, warmedMillis);
+    }
+
+    /** Forgets a key, for example because its table has changed. */
+    public synchronized void invalidate(String key)
+    {
+        warmKeys.remove(key);
+    }
+
+    /** Returns the number of keys currently remembered. */
+    public synchronized int size()
+    {
+        return warmKeys.size();
+    }
+
+    /** Returns the number of keys checked. */
+    public synchronized long getChecks()
+    {
+        return checks;
+    }
+
+    /** Returns the number of checks that found a warm key. */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /** Returns the fraction of checks that found a warm key. */
+    public synchronized double getHitRatio()
+    {
+        if (checks == 0)
+            return 0.0;
+        else
+            return ((double) hits) / checks;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public synchronized String toString()
+    {
+        StringBuffer sb = new StringBuffer(this.getClass().getSimpleName());
+        sb.append(" capacity=").append(capacity);
+        sb.append(" windowMillis=").append(windowMillis);
+        sb.append(" currentSize=").append(warmKeys.size());
+        sb.append(" checks=").append(checks);
+        sb.append(" hits=").append(hits);
+        sb.append(" hitRatio=").append(String.format("%.3f", getHitRatio()));
+        return sb.toString();
+    }
+}
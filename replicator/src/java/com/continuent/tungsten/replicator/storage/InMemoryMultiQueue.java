@@ -50,6 +50,8 @@ public class InMemoryMultiQueue implements Store
     private String                             name;
     private int                                partitions       = 1;
     private int                                maxSize          = 1;
+    private boolean                            ringBuffer       = false;
+    private String                             waitStrategy     = "block";
 
     private long                               minStored        = Long.MAX_VALUE;
     private long                               maxStored        = Long.MIN_VALUE;
@@ -92,6 +94,24 @@ public class InMemoryMultiQueue implements Store
         this.maxSize = size;
     }
 
+    /**
+     * If true, use preallocated ring buffers instead of linked queues. Each
+     * partition must then have a single producer and a single consumer.
+     */
+    public void setRingBuffer(boolean ringBuffer)
+    {
+        this.ringBuffer = ringBuffer;
+    }
+
+    /**
+     * Sets how ring buffer threads wait for events or space: spin, yield, or
+     * block.
+     */
+    public void setWaitStrategy(String waitStrategy)
+    {
+        this.waitStrategy = waitStrategy;
+    }
+
     public int getPartitions()
     {
         return partitions;
@@ -210,7 +230,8 @@ public class InMemoryMultiQueue implements Store
      */
     public void configure(PluginContext context) throws ReplicatorException
     {
-        // Nothing to do.
+        if (ringBuffer)
+            RingBufferQueue.parseWaitStrategy(waitStrategy);
     }
 
     /**
@@ -223,7 +244,13 @@ public class InMemoryMultiQueue implements Store
         queues = new ArrayList<BlockingQueue<ReplDBMSEvent>>(partitions);
         for (int i = 0; i < partitions; i++)
         {
-            queues.add(new LinkedBlockingQueue<ReplDBMSEvent>(maxSize));
+            if (ringBuffer)
+            {
+                queues.add(new RingBufferQueue<ReplDBMSEvent>(maxSize,
+                        RingBufferQueue.parseWaitStrategy(waitStrategy)));
+            }
+            else
+                queues.add(new LinkedBlockingQueue<ReplDBMSEvent>(maxSize));
         }
         lastHeader = new ReplDBMSHeader[partitions];
     }
@@ -22,6 +22,7 @@
 
 package com.continuent.tungsten.replicator.storage;
 
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.log4j.Logger;
@@ -34,7 +35,9 @@ import com.continuent.tungsten.replicator.plugin.PluginContext;
 
 /**
  * Implements an in-memory event store. This queue has no memory beyond its
- * current contents.
+ * current contents. If ringBuffer is set, events pass through a preallocated
+ * {@link RingBufferQueue}, which requires a single task to put events and a
+ * single task to get them.
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  * @version 1.0
@@ -43,8 +46,10 @@ public class InMemoryQueueStore implements Store
 {
     private static Logger                        logger           = Logger.getLogger(InMemoryQueueStore.class);
     protected String                             name;
-    protected LinkedBlockingQueue<ReplDBMSEvent> queue;
+    protected BlockingQueue<ReplDBMSEvent>       queue;
     protected int                                maxSize          = 1;
+    protected boolean                            ringBuffer       = false;
+    protected String                             waitStrategy     = "block";
     protected ReplDBMSHeader                     lastHeader;
     protected long                               transactionCount = 0;
     protected int                                partitions       = 1;
@@ -69,6 +74,21 @@ public class InMemoryQueueStore implements Store
         this.maxSize = size;
     }
 
+    /** If true, use a preallocated ring buffer instead of a linked queue. */
+    public void setRingBuffer(boolean ringBuffer)
+    {
+        this.ringBuffer = ringBuffer;
+    }
+
+    /**
+     * Sets how ring buffer threads wait for events or space: spin, yield, or
+     * block.
+     */
+    public void setWaitStrategy(String waitStrategy)
+    {
+        this.waitStrategy = waitStrategy;
+    }
+
     /** Sets the last header processed. This is required for restart. */
     public void setLastHeader(ReplDBMSHeader header)
     {
@@ -204,6 +224,8 @@ public class InMemoryQueueStore implements Store
                     "Attempt to configure non-parallel queue with more than a single channel: channels="
                             + partitions);
         }
+        if (ringBuffer)
+            RingBufferQueue.parseWaitStrategy(waitStrategy);
     }
 
     /**
@@ -213,7 +235,13 @@ public class InMemoryQueueStore implements Store
      */
     public void prepare(PluginContext context) throws ReplicatorException
     {
-        queue = new LinkedBlockingQueue<ReplDBMSEvent>(maxSize);
+        if (ringBuffer)
+        {
+            queue = new RingBufferQueue<ReplDBMSEvent>(maxSize,
+                    RingBufferQueue.parseWaitStrategy(waitStrategy));
+        }
+        else
+            queue = new LinkedBlockingQueue<ReplDBMSEvent>(maxSize);
     }
 
     /**
@@ -237,6 +265,7 @@ public class InMemoryQueueStore implements Store
             props.setLong("storeSize", -1);
         props.setLong("maxSize", maxSize);
         props.setLong("eventCount", this.transactionCount);
+        props.setBoolean("ringBuffer", ringBuffer);
         return props;
     }
 }
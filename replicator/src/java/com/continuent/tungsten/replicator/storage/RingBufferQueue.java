@@ -0,0 +1,435 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.storage;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+
+/**
+ * Implements a bounded blocking queue on a preallocated ring buffer for one
+ * producer and one consumer. Unlike LinkedBlockingQueue it allocates nothing
+ * per element and takes no lock to hand over an element; the producer and
+ * consumer each advance their own sequence number and read the other's.
+ * <p/>
+ * Threads that find the queue full or empty wait according to a
+ * {@link WaitStrategy}. Spinning and yielding give the lowest hand-over latency
+ * but keep a CPU busy; blocking parks the thread on a condition, which is
+ * signaled only if the other side is actually waiting.
+ * <p/>
+ * Only one thread at a time may insert and only one thread at a time may
+ * remove elements. Several producers or consumers must serialize access
+ * themselves, e.g., by synchronizing on the store that owns the queue.
+ * Methods that only inspect the queue, such as size(), may be called from any
+ * thread. Iterators return a snapshot and do not support removal.
+ */
+public class RingBufferQueue<E> extends AbstractQueue<E>
+        implements
+            BlockingQueue<E>
+{
+    /** Defines how threads wait for the queue to fill or drain. */
+    public enum WaitStrategy
+    {
+        /** Busy-spin on the sequence numbers. */
+        SPIN,
+        /** Yield the CPU between checks. */
+        YIELD,
+        /** Yield briefly, then park until signaled. */
+        BLOCK
+    }
+
+    // Number of times a blocking wait yields before it parks.
+    private static final int          BLOCK_SPINS     = 64;
+
+    // Upper bound on a single park, which covers the unlikely case of a missed
+    // signal without costing throughput.
+    private static final long         MAX_PARK_NANOS  = 10000000L;
+
+    private final Object[]            buffer;
+    private final int                 mask;
+    private final int                 capacity;
+    private final WaitStrategy        waitStrategy;
+
+    // Sequence of the next element to remove and to insert, respectively.
+    private final AtomicLong          head            = new AtomicLong(0);
+    private final AtomicLong          tail            = new AtomicLong(0);
+
+    // Used only by the BLOCK wait strategy.
+    private final ReentrantLock       lock            = new ReentrantLock();
+    private final Condition           notEmpty        = lock.newCondition();
+    private final Condition           notFull         = lock.newCondition();
+    private volatile boolean          consumerWaiting = false;
+    private volatile boolean          producerWaiting = false;
+
+    /**
+     * Creates a new queue.
+     * 
+     * @param capacity Maximum number of elements in the queue
+     * @param waitStrategy How to wait when the queue is full or empty
+     */
+    public RingBufferQueue(int capacity, WaitStrategy waitStrategy)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException(
+                    "Ring buffer capacity must be at least 1: " + capacity);
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+        this.capacity = capacity;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Translates a wait strategy name from configuration files.
+     * 
+     * @param name Strategy name, i.e., spin, yield, or block
+     * @throws ReplicatorException Thrown if the name is unknown
+     */
+    public static WaitStrategy parseWaitStrategy(String name)
+            throws ReplicatorException
+    {
+        try
+        {
+            return WaitStrategy.valueOf(name.trim().toUpperCase());
+        }
+        catch (RuntimeException e)
+        {
+            throw new ReplicatorException(
+                    "Unknown ring buffer wait strategy; must be spin, yield, or block: "
+                            + name);
+        }
+    }
+
+    /** Returns the wait strategy. */
+    public WaitStrategy getWaitStrategy()
+    {
+        return waitStrategy;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.Queue#offer(java.lang.Object)
+     */
+    public boolean offer(E e)
+    {
+        if (e == null)
+            throw new NullPointerException();
+        long t = tail.get();
+        if (t - head.get() >= capacity)
+            return false;
+        buffer[(int) t & mask] = e;
+        publish(tail, t + 1);
+        if (consumerWaiting)
+            signal(notEmpty);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.Queue#poll()
+     */
+    @SuppressWarnings("unchecked")
+    public E poll()
+    {
+        long h = head.get();
+        if (h >= tail.get())
+            return null;
+        int index = (int) h & mask;
+        E e = (E) buffer[index];
+        buffer[index] = null;
+        publish(head, h + 1);
+        if (producerWaiting)
+            signal(notFull);
+        return e;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.Queue#peek()
+     */
+    @SuppressWarnings("unchecked")
+    public E peek()
+    {
+        long h = head.get();
+        if (h >= tail.get())
+            return null;
+        return (E) buffer[(int) h & mask];
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+     */
+    public void put(E e) throws InterruptedException
+    {
+        for (int tries = 0; !offer(e); tries++)
+            await(false, tries, Long.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long,
+     *      java.util.concurrent.TimeUnit)
+     */
+    public boolean offer(E e, long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int tries = 0; !offer(e); tries++)
+        {
+            if (!await(false, tries, deadline))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.concurrent.BlockingQueue#take()
+     */
+    public E take() throws InterruptedException
+    {
+        E e;
+        for (int tries = 0; (e = poll()) == null; tries++)
+            await(true, tries, Long.MAX_VALUE);
+        return e;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.concurrent.BlockingQueue#poll(long,
+     *      java.util.concurrent.TimeUnit)
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        for (int tries = 0; (e = poll()) == null; tries++)
+        {
+            if (!await(true, tries, deadline))
+                return null;
+        }
+        return e;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.AbstractCollection#size()
+     */
+    public int size()
+    {
+        long h = head.get();
+        long size = tail.get() - h;
+        if (size < 0)
+            return 0;
+        else if (size > capacity)
+            return capacity;
+        else
+            return (int) size;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+     */
+    public int remainingCapacity()
+    {
+        return capacity - size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+     */
+    public int drainTo(Collection<? super E> c)
+    {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection,
+     *      int)
+     */
+    public int drainTo(Collection<? super E> c, int maxElements)
+    {
+        if (c == this)
+            throw new IllegalArgumentException();
+        int count = 0;
+        E e;
+        while (count < maxElements && (e = poll()) != null)
+        {
+            c.add(e);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queue contents. The iterator
+     * does not support removal. {@inheritDoc}
+     * 
+     * @see java.util.AbstractCollection#iterator()
+     */
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator()
+    {
+        List<E> snapshot = new ArrayList<E>();
+        long t = tail.get();
+        for (long s = head.get(); s < t; s++)
+        {
+            Object e = buffer[(int) s & mask];
+            if (e != null)
+                snapshot.add((E) e);
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    // Advances a sequence number. The blocking strategy needs a full volatile
+    // write so that a thread about to park cannot miss the update; the others
+    // only need the element to be visible before the sequence, which an
+    // ordered write guarantees more cheaply.
+    private void publish(AtomicLong sequence, long value)
+    {
+        if (waitStrategy == WaitStrategy.BLOCK)
+            sequence.set(value);
+        else
+            sequence.lazySet(value);
+    }
+
+    // Wakes up a thread parked on a condition.
+    private void signal(Condition condition)
+    {
+        lock.lock();
+        try
+        {
+            condition.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    // Waits once for the queue to become non-empty (consumer) or non-full
+    // (producer). Returns false if the deadline has passed; a deadline of
+    // Long.MAX_VALUE means no deadline.
+    private boolean await(boolean consumer, int tries, long deadline)
+            throws InterruptedException
+    {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        long remaining = MAX_PARK_NANOS;
+        if (deadline != Long.MAX_VALUE)
+        {
+            remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+        }
+
+        switch (waitStrategy)
+        {
+            case SPIN :
+                break;
+            case YIELD :
+                Thread.yield();
+                break;
+            case BLOCK :
+                if (tries < BLOCK_SPINS)
+                    Thread.yield();
+                else
+                    park(consumer, Math.min(remaining, MAX_PARK_NANOS));
+                break;
+        }
+        return true;
+    }
+
+    // Parks until signaled by the other side. The waiting flag is set before
+    // the final check of the queue, so either this thread sees the change or
+    // the other side sees the flag and signals.
+    private void park(boolean consumer, long nanos)
+            throws InterruptedException
+    {
+        lock.lockInterruptibly();
+        try
+        {
+            if (consumer)
+            {
+                consumerWaiting = true;
+                if (head.get() >= tail.get())
+                    notEmpty.awaitNanos(nanos);
+            }
+            else
+            {
+                producerWaiting = true;
+                if (tail.get() - head.get() >= capacity)
+                    notFull.awaitNanos(nanos);
+            }
+        }
+        finally
+        {
+            if (consumer)
+                consumerWaiting = false;
+            else
+                producerWaiting = false;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.util.AbstractCollection#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer(this.getClass().getSimpleName());
+        sb.append(" capacity=").append(capacity);
+        sb.append(" size=").append(size());
+        sb.append(" waitStrategy=").append(waitStrategy);
+        return sb.toString();
+    }
+}
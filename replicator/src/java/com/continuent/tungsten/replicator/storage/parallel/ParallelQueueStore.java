@@ -25,6 +25,7 @@ package com.continuent.tungsten.replicator.storage.parallel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.log4j.Logger;
@@ -40,6 +41,7 @@ import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.event.ReplOptionParams;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 import com.continuent.tungsten.replicator.storage.ParallelStore;
+import com.continuent.tungsten.replicator.storage.RingBufferQueue;
 import com.continuent.tungsten.replicator.util.AtomicCounter;
 import com.continuent.tungsten.replicator.util.WatchPredicate;
 
@@ -54,7 +56,7 @@ public class ParallelQueueStore implements ParallelStore
 {
     private static Logger                                       logger             = Logger.getLogger(ParallelQueueStore.class);
     private String                                              name;
-    private List<LinkedBlockingQueue<ReplEvent>>                queues;
+    private List<BlockingQueue<ReplEvent>>                      queues;
     private List<PartitionMetadata>                             queueMetadata;
     private ReplDBMSHeader[]                                    lastHeaders;
     private ReplDBMSEvent                                       lastInsertedEvent;
@@ -78,6 +80,8 @@ public class ParallelQueueStore implements ParallelStore
     private int                                                 partitions         = 1;
     private boolean                                             syncEnabled        = true;
     private int                                                 syncInterval       = 100;
+    private boolean                                             ringBuffer         = false;
+    private String                                              waitStrategy       = "block";
 
     // Counter to force synchronization events at intervals so all queues remain
     // up-to-date.
@@ -222,6 +226,25 @@ public class ParallelQueueStore implements ParallelStore
         return 0;
     }
 
+    /**
+     * If true, use preallocated ring buffers instead of linked queues. Puts
+     * are synchronized, so each partition still has a single producer at a
+     * time.
+     */
+    public void setRingBuffer(boolean ringBuffer)
+    {
+        this.ringBuffer = ringBuffer;
+    }
+
+    /**
+     * Sets how ring buffer threads wait for events or space: spin, yield, or
+     * block.
+     */
+    public void setWaitStrategy(String waitStrategy)
+    {
+        this.waitStrategy = waitStrategy;
+    }
+
     /**
      * Returns the current number of events across all queues of store.
      */
@@ -409,7 +432,7 @@ public class ParallelQueueStore implements ParallelStore
             ctrlSeqno = event.getSeqno();
         ReplControlEvent ctrl = new ReplControlEvent(type, ctrlSeqno, event);
 
-        for (LinkedBlockingQueue<ReplEvent> queue : queues)
+        for (BlockingQueue<ReplEvent> queue : queues)
         {
             queue.put(ctrl);
             activeSize.incrAndGetSeqno();
@@ -490,11 +513,14 @@ public class ParallelQueueStore implements ParallelStore
 
         // Instantiate queue list, followed by array of last sequence numbers to
         // permit propagation of restart points from each output task.
-        queues = new ArrayList<LinkedBlockingQueue<ReplEvent>>(partitions);
+        queues = new ArrayList<BlockingQueue<ReplEvent>>(partitions);
         queueMetadata = new ArrayList<PartitionMetadata>(partitions);
         lastHeaders = new ReplDBMSHeader[partitions];
         this.watchPredicates = new LinkedBlockingQueue<WatchPredicate<ReplDBMSHeader>>();
 
+        // Check the ring buffer settings, if any.
+        if (ringBuffer)
+            RingBufferQueue.parseWaitStrategy(waitStrategy);
     }
 
     /**
@@ -508,7 +534,13 @@ public class ParallelQueueStore implements ParallelStore
         // Create queues.
         for (int i = 0; i < partitions; i++)
         {
-            queues.add(new LinkedBlockingQueue<ReplEvent>(maxSize));
+            if (ringBuffer)
+            {
+                queues.add(new RingBufferQueue<ReplEvent>(maxSize,
+                        RingBufferQueue.parseWaitStrategy(waitStrategy)));
+            }
+            else
+                queues.add(new LinkedBlockingQueue<ReplEvent>(maxSize));
         }
 
         // Add queue metadata required by stateful partitioners.
@@ -589,6 +621,7 @@ public class ParallelQueueStore implements ParallelStore
         props.setBoolean("stopRequested", stopRequested);
         props.setInt("criticalPartition", criticalPartition);
         props.setString("partitionerClass", partitionerClass);
+        props.setBoolean("ringBuffer", ringBuffer);
         for (int i = 0; i < queues.size(); i++)
         {
             props.setInt("store.queueSize." + i, queues.get(i).size());
@@ -416,15 +416,21 @@ public class Protocol
     }
 
     /**
-     * Send a replication event to the client.
+     * Send a replication event to the client. Fragments of fragmented
+     * transactions are sent at once and the stream is reset afterwards so that
+     * neither side holds more than one fragment of a large transaction in
+     * memory.
      */
     public void sendReplEvent(ReplEvent event, boolean forceSend)
             throws IOException
     {
+        boolean fragment = event instanceof ReplDBMSEvent
+                && (((ReplDBMSEvent) event).getFragno() > 0 || !((ReplDBMSEvent) event)
+                        .getLastFrag());
         if (buffering)
         {
             buffer.add(event);
-            if (forceSend || buffer.size() >= bufferSize)
+            if (forceSend || fragment || buffer.size() >= bufferSize)
             {
                 writeMessage(new ProtocolMessage(buffer));
                 buffer.clear();
@@ -434,6 +440,12 @@ public class Protocol
         {
             writeMessage(new ProtocolReplEvent(event));
         }
+
+        if (fragment && objectsSent > 0)
+        {
+            objectsSent = 0;
+            oos.reset();
+        }
     }
 
     /**
@@ -100,6 +100,9 @@ public class THL implements Store
     /** I/O buffer size in bytes. */
     protected int               bufferSize           = 131072;
 
+    /** Bytes between sparse log file index entries; 0 disables the index. */
+    protected int               logFileIndexInterval = 1048576;
+
     /**
      * Flush data after this many milliseconds. 0 flushes after every write.
      */
@@ -243,6 +246,15 @@ public class THL implements Store
         this.bufferSize = bufferSize;
     }
 
+    /**
+     * Sets the minimum number of bytes between sparse log file index entries.
+     * 0 disables index maintenance.
+     */
+    public void setLogFileIndexInterval(int logFileIndexInterval)
+    {
+        this.logFileIndexInterval = logFileIndexInterval;
+    }
+
     /**
      * Sets the interval between flush calls.
      */
@@ -318,6 +330,36 @@ public class THL implements Store
             return localCopy.getMinSeqno();
     }
 
+    /**
+     * Returns the seqno of the first logged event whose source timestamp is
+     * equal to or later than the given time, or -1 if there is no such event
+     * or the log is not open.
+     */
+    public long findSeqnoByTime(Timestamp sourceTstamp)
+            throws ReplicatorException, InterruptedException
+    {
+        DiskLog localCopy = diskLog;
+        if (localCopy == null)
+            return -1;
+        else
+            return localCopy.findSeqnoByTime(sourceTstamp);
+    }
+
+    /**
+     * Returns the seqno of the first logged event whose native event ID is
+     * equal to or higher than the given event ID, or -1 if there is no such
+     * event or the log is not open.
+     */
+    public long findSeqnoByEventId(String eventId)
+            throws ReplicatorException, InterruptedException
+    {
+        DiskLog localCopy = diskLog;
+        if (localCopy == null)
+            return -1;
+        else
+            return localCopy.findSeqnoByEventId(eventId);
+    }
+
     /**
      * Updates the active sequence number on the log. Log files can only be
      * deleted if their last sequence number is below this value.
@@ -392,6 +434,7 @@ public class THL implements Store
         diskLog.setLogFileRetainMillis(logFileRetainMillis);
         diskLog.setLogConnectionTimeoutMillis(logConnectionTimeout * 1000);
         diskLog.setBufferSize(bufferSize);
+        diskLog.setLogFileIndexInterval(logFileIndexInterval);
         diskLog.setFsyncOnFlush(fsyncOnFlush);
         if (fsyncOnFlush)
         {
@@ -31,6 +31,7 @@ import java.nio.charset.Charset;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
@@ -346,6 +347,35 @@ public class THLManagerCtrl
         return schema;
     }
 
+    /**
+     * Returns the seqno of the first event whose source timestamp is equal to
+     * or later than a time or whose native event ID is equal to or higher than
+     * an event ID. Log event indexes are used where they exist; otherwise the
+     * log is scanned from the beginning.
+     * 
+     * @param fromTime Source time to look for or null
+     * @param fromEventId Native event ID to look for if fromTime is null
+     * @return Seqno or null if no event in the log qualifies
+     */
+    public Long findSeqno(Timestamp fromTime, String fromEventId)
+            throws ReplicatorException, InterruptedException
+    {
+        prepare(true);
+        try
+        {
+            long seqno;
+            if (fromTime != null)
+                seqno = diskLog.findSeqnoByTime(fromTime);
+            else
+                seqno = diskLog.findSeqnoByEventId(fromEventId);
+            return (seqno < 0) ? null : seqno;
+        }
+        finally
+        {
+            release();
+        }
+    }
+
     /**
      * List THL events within the given range.
      * 
@@ -944,6 +974,8 @@ public class THLManagerCtrl
             Boolean json = null;
             Boolean yesToQuestions = null;
             String fileName = null;
+            String fromTime = null;
+            String fromEventId = null;
             String charsetName = null;
             boolean hex = false;
             boolean doChecksum = true;
@@ -965,6 +997,10 @@ public class THLManagerCtrl
                     low = Long.parseLong(argvIterator.next());
                 else if ("-high".equals(curArg))
                     high = Long.parseLong(argvIterator.next());
+                else if ("-from-time".equals(curArg))
+                    fromTime = argvIterator.next();
+                else if ("-from-event".equals(curArg))
+                    fromEventId = argvIterator.next();
                 else if ("-by".equals(curArg))
                     by = Long.parseLong(argvIterator.next());
                 else if ("-sql".equals(curArg))
@@ -1092,6 +1128,32 @@ public class THLManagerCtrl
                 THLManagerCtrl thlManager = new THLManagerCtrl(configFile,
                         doChecksum);
 
+                // Start from a source time or event ID if requested.
+                if (fromTime != null || fromEventId != null)
+                {
+                    Timestamp ts = null;
+                    if (fromTime != null)
+                    {
+                        try
+                        {
+                            SimpleDateFormat sdf = new SimpleDateFormat(
+                                    "yyyy-MM-dd HH:mm:ss");
+                            ts = new Timestamp(sdf.parse(fromTime).getTime());
+                        }
+                        catch (ParseException e)
+                        {
+                            fatal("Invalid -from-time value, expected yyyy-MM-dd HH:mm:ss: "
+                                    + fromTime, null);
+                        }
+                    }
+                    low = thlManager.findSeqno(ts, fromEventId);
+                    if (low == null)
+                    {
+                        println("No events found at or after the requested position");
+                        succeed();
+                    }
+                }
+
                 if (fileName != null)
                 {
                     thlManager.listEvents(fileName, getBoolOrFalse(pureSQL),
@@ -1339,6 +1401,10 @@ public class THLManagerCtrl
         println("Commands and corresponding options:");
         println("  list [-low #] [-high #] [-by #] - Dump THL events from low to high #");
         println("  list [-seqno #]                 - Dump the exact event by a given #");
+        println("  list [-from-time 'yyyy-MM-dd HH:mm:ss'] [-high #]");
+        println("                                  - Dump events from a source time");
+        println("  list [-from-event <event_id>] [-high #]");
+        println("                                  - Dump events from a native event ID");
         println("  list [-file <file_name>]        - Dump the content of the given log file");
         println("       [-charset <charset>] [-hex]  Character set used for decoding row data");
         println("       [-sql]                       Representative (no metadata!) SQL mode");
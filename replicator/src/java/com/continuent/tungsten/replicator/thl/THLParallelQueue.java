@@ -38,7 +38,9 @@ import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
 import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.event.ReplOptionParams;
+import com.continuent.tungsten.replicator.pipeline.Stage;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
+import com.continuent.tungsten.replicator.plugin.PluginSpecification;
 import com.continuent.tungsten.replicator.storage.ParallelStore;
 import com.continuent.tungsten.replicator.storage.parallel.Partitioner;
 import com.continuent.tungsten.replicator.storage.parallel.PartitionerResponse;
@@ -58,6 +60,10 @@ import com.continuent.tungsten.replicator.util.WatchPredicate;
  * restart position both at regular intervals as well as prior to clean
  * shutdown.
  * <p/>
+ * If sharedScan is set, a single THLParallelSharedReader reads the log on
+ * behalf of all tasks instead of one thread per task. A slow task then holds
+ * back the scan for all tasks once its queue is full.
+ * <p/>
  * Applier tasks are known as "channels" in replicator end-user documentation.
  * <p/>
  * This class makes a very strong assumption that shard IDs are correctly
@@ -82,6 +88,7 @@ public class THLParallelQueue implements ParallelStore
     private int                       maxOfflineInterval  = 10;
     private int                       maxDelayInterval    = 60;
     private String                    thlStoreName        = "thl";
+    private boolean                   sharedScan          = false;
 
     // Plugin context in case we need to make inquiries.
     private PluginContext             context;
@@ -91,6 +98,7 @@ public class THLParallelQueue implements ParallelStore
 
     // Read task control information.
     private List<THLParallelReadTask> readTasks;
+    private THLParallelSharedReader   sharedReader;
     private ReplDBMSEvent             lastInsertedEvent;
 
     // Headers used to track the restart position from downstream tasks.
@@ -155,6 +163,21 @@ public class THLParallelQueue implements ParallelStore
         return partitions;
     }
 
+    public boolean isSharedScan()
+    {
+        return sharedScan;
+    }
+
+    /**
+     * If true, read the log once in a single thread that feeds all partitions
+     * instead of once per partition. A full partition queue then blocks all
+     * partitions.
+     */
+    public void setSharedScan(boolean sharedScan)
+    {
+        this.sharedScan = sharedScan;
+    }
+
     public Partitioner getPartitioner()
     {
         return partitioner;
@@ -703,19 +726,52 @@ public class THLParallelQueue implements ParallelStore
 
         // Instantiate reader tasks, followed by array of last sequence numbers
         // to permit propagation of restart points from each output task.
+        // If the log is scanned once for all tasks, the shared reader feeds
+        // the tasks in place of their own threads.
         readTasks = new ArrayList<THLParallelReadTask>(partitions);
+        if (sharedScan)
+        {
+            sharedReader = new THLParallelSharedReader(thl, readTasks,
+                    partitioner, headSeqnoCounter, hasReadFilters(context),
+                    context.getEventDispatcher());
+            sharedReader.prepare();
+        }
         for (int i = 0; i < partitions; i++)
         {
             THLParallelReadTask readTask = new THLParallelReadTask(i, thl,
                     partitioner, headSeqnoCounter, intervalGuard, maxSize,
                     maxControlEvents, syncInterval,
                     context.getEventDispatcher());
+            readTask.setSharedReader(sharedReader);
             readTasks.add(readTask);
             readTask.prepare(context);
         }
         lastHeaders = new ReplDBMSHeader[partitions];
     }
 
+    // Returns true if a stage that reads from this queue has filters, which
+    // may change events in place, or if we cannot tell.
+    private boolean hasReadFilters(PluginContext context)
+    {
+        List<Stage> stages = context.getStages();
+        if (stages == null)
+            return true;
+        for (Stage stage : stages)
+        {
+            PluginSpecification extractor = stage.getExtractorSpec();
+            if (extractor == null
+                    || !THLParallelQueueExtractor.class
+                            .isAssignableFrom(extractor.getPluginClass()))
+                continue;
+            String storeName = extractor.getProperties()
+                    .getString("storeName");
+            if (name.equals(storeName) && stage.getFilterSpecs() != null
+                    && stage.getFilterSpecs().size() > 0)
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Release queue. {@inheritDoc}
      * 
@@ -738,6 +794,12 @@ public class THLParallelQueue implements ParallelStore
                 readTask.stop();
                 readTask.release();
             }
+            if (sharedReader != null)
+            {
+                sharedReader.stop();
+                sharedReader.release();
+                sharedReader = null;
+            }
             readTasks = null;
             lastHeaders = null;
         }
@@ -818,6 +880,9 @@ public class THLParallelQueue implements ParallelStore
         props.setBoolean("stopRequested", stopRequested);
         props.setInt("criticalPartition", criticalPartition);
         props.setString("intervalGuard", intervalGuard.toString());
+        props.setBoolean("sharedScan", sharedScan);
+        if (sharedReader != null)
+            props.setString("sharedReader", sharedReader.toString());
         for (int i = 0; i < readTasks.size(); i++)
         {
             props.setString("store." + i, readTasks.get(i).toString());
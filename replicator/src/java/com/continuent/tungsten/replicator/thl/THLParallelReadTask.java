@@ -87,6 +87,9 @@ public class THLParallelReadTask implements Runnable
     private THL                    thl;
     private LogConnection          connection;
 
+    // Shared reader that scans the log on behalf of all tasks, if any.
+    private THLParallelSharedReader sharedReader;
+
     // Throwable trapped from run loop.
     private volatile Throwable     throwable;
 
@@ -125,6 +128,22 @@ public class THLParallelReadTask implements Runnable
         this.lastHeader = header;
     }
 
+    /** Returns the first seqno this task should read. */
+    public synchronized long getRestartSeqno()
+    {
+        return restartSeqno;
+    }
+
+    /**
+     * Feed this task from a shared reader instead of its own connection and
+     * thread. This must be called before prepare().
+     */
+    public synchronized void setSharedReader(
+            THLParallelSharedReader sharedReader)
+    {
+        this.sharedReader = sharedReader;
+    }
+
     /**
      * Connect to THL and seek start sequence number. Must be called before
      * run().
@@ -137,6 +156,13 @@ public class THLParallelReadTask implements Runnable
                 maxControlEvents, restartSeqno, syncInterval, lastHeader,
                 intervalGuard);
 
+        // Report our starting position to the interval guard.
+        intervalGuard.report(taskId, restartSeqno, restartExtractMillis);
+
+        // A shared reader posts events to us directly.
+        if (sharedReader != null)
+            return;
+
         // Connect to the log.
         connection = thl.connect(true);
 
@@ -171,9 +197,6 @@ public class THLParallelReadTask implements Runnable
             }
         };
         connection.setReadFilter(filter);
-
-        // Report our starting position to the interval guard.
-        intervalGuard.report(taskId, restartSeqno, restartExtractMillis);
     }
 
     /**
@@ -181,7 +204,9 @@ public class THLParallelReadTask implements Runnable
      */
     public synchronized void start()
     {
-        if (this.taskThread == null)
+        if (sharedReader != null)
+            sharedReader.taskStarted();
+        else if (this.taskThread == null)
         {
             taskThread = new Thread(this);
             taskThread.setName("store-" + thl.getName() + "-" + taskId);
@@ -195,7 +220,9 @@ public class THLParallelReadTask implements Runnable
     public synchronized void stop()
     {
         cancelled = true;
-        if (this.taskThread != null)
+        if (sharedReader != null)
+            sharedReader.stop();
+        else if (this.taskThread != null)
         {
             taskThread.interrupt();
             try
@@ -218,6 +245,9 @@ public class THLParallelReadTask implements Runnable
         {
             connection.release();
             connection = null;
+        }
+        if (readQueue != null)
+        {
             readQueue.release();
             readQueue = null;
         }
@@ -249,17 +279,6 @@ public class THLParallelReadTask implements Runnable
                 // Read next event from the log.
                 THLEvent thlEvent = connection.next();
                 readSeqno = thlEvent.getSeqno();
-                if (lowWaterMark.get() == 0)
-                    lowWaterMark.set(readSeqno);
-                readCount.incrementAndGet();
-                if (logger.isDebugEnabled())
-                {
-                    logger.debug("Read event from THL: seqno="
-                            + thlEvent.getSeqno() + " fragno="
-                            + thlEvent.getFragno() + " lastFrag="
-                            + thlEvent.getLastFrag() + " deserialized="
-                            + (thlEvent.getReplEvent() != null));
-                }
 
                 // Ensure it is safe to process this value. This lock prevents
                 // our thread from jumping too far ahead of others and
@@ -267,13 +286,7 @@ public class THLParallelReadTask implements Runnable
                 headSeqnoCounter.waitSeqnoGreaterEqual(thlEvent.getSeqno());
 
                 // Post to the queue.
-                if (logger.isDebugEnabled())
-                {
-                    logger.debug("Adding event to parallel queue:  taskId="
-                            + taskId + " seqno=" + thlEvent.getSeqno()
-                            + " fragno=" + thlEvent.getFragno());
-                }
-                readQueue.post(thlEvent);
+                post(thlEvent);
             }
         }
         catch (InterruptedException e)
@@ -312,6 +325,27 @@ public class THLParallelReadTask implements Runnable
                 + " store=" + thl.getName() + " taskId=" + taskId);
     }
 
+    /**
+     * Posts an event read from the log to the queue. Events outside this
+     * task's partition have no contents. This is called by the task thread or
+     * by the shared reader.
+     */
+    void post(THLEvent thlEvent) throws InterruptedException
+    {
+        if (lowWaterMark.get() == 0)
+            lowWaterMark.set(thlEvent.getSeqno());
+        readCount.incrementAndGet();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Adding event to parallel queue:  taskId=" + taskId
+                    + " seqno=" + thlEvent.getSeqno() + " fragno="
+                    + thlEvent.getFragno() + " lastFrag="
+                    + thlEvent.getLastFrag() + " deserialized="
+                    + (thlEvent.getReplEvent() != null));
+        }
+        readQueue.post(thlEvent);
+    }
+
     // QUEUE INTERFACE STARTS HERE.
 
     /**
@@ -340,6 +374,9 @@ public class THLParallelReadTask implements Runnable
         while (event == null)
         {
             // Check for read thread liveness.
+            Throwable throwable = this.throwable;
+            if (throwable == null && sharedReader != null)
+                throwable = sharedReader.getThrowable();
             if (throwable != null)
             {
                 // If this happens the thread has died.
@@ -405,7 +442,9 @@ public class THLParallelReadTask implements Runnable
         sb.append(this.getClass().getSimpleName());
         sb.append(" task_id=").append(taskId);
         sb.append(" thread_name=");
-        if (taskThread == null)
+        if (sharedReader != null)
+            sb.append(sharedReader.getThreadName());
+        else if (taskThread == null)
             sb.append("null");
         else
             sb.append(taskThread.getName());
@@ -0,0 +1,336 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.fsm.event.EventDispatcher;
+import com.continuent.tungsten.replicator.ErrorNotification;
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeaderData;
+import com.continuent.tungsten.replicator.storage.parallel.Partitioner;
+import com.continuent.tungsten.replicator.storage.parallel.PartitionerResponse;
+import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.util.AtomicCounter;
+
+/**
+ * Scans the THL once on behalf of all read tasks of a THLParallelQueue. Each
+ * record is read and deserialized a single time, partitioned on its header
+ * fields, and posted directly to the queue of the owning task. Other tasks
+ * receive a header-only event so that their queues advance past the seqno and
+ * continue to generate control events on schedule.
+ * <p/>
+ * Every task receives every seqno, so a full queue on any one task blocks the
+ * scan and with it all other tasks. Tasks therefore cannot drift apart by
+ * more than the queue size: a slow task holds back the rest, whereas per-task
+ * readers let fast tasks run ahead until the interval guard stops them.
+ * <p/>
+ * The partitioner is consulted for each task as the per-task readers do.
+ * Partitioners that accept an event on more than one task, such as the
+ * SimplePartitioner, share one event among those tasks unless copying is
+ * enabled. Copying is needed when the reading stage has filters, which may
+ * change events in place; each extra task then gets a separately deserialized
+ * copy. Appliers only fill in column metadata, which every task sets to the
+ * same values.
+ * <p/>
+ * The scan starts once every task has started so that all tasks have reported
+ * their restart points and stops as soon as any task stops.
+ */
+public class THLParallelSharedReader implements Runnable
+{
+    private static Logger                   logger       = Logger.getLogger(THLParallelSharedReader.class);
+
+    // Log and read tasks we feed.
+    private final THL                       thl;
+    private final List<THLParallelReadTask> readTasks;
+    private final Partitioner               partitioner;
+    private final AtomicCounter             headSeqnoCounter;
+    private final boolean                   copyEvents;
+
+    // Dispatcher to report errors.
+    private final EventDispatcher           dispatcher;
+
+    // Connection to the log.
+    private LogConnection                   connection;
+
+    // Counters.
+    private int                             startedTasks = 0;
+    private AtomicLong                      readCount    = new AtomicLong(0);
+
+    // Throwable trapped from run loop.
+    private volatile Throwable              throwable;
+
+    // Thread that scans the log.
+    private volatile Thread                 readerThread;
+
+    // Flag indicating reader is cancelled.
+    private volatile boolean                cancelled    = false;
+
+    /**
+     * Instantiate a shared reader.
+     * 
+     * @param thl Log to scan
+     * @param readTasks Read tasks to feed, indexed by task ID
+     * @param partitioner Partitioner that assigns events to tasks
+     * @param headSeqnoCounter Counter of the highest seqno safe to read
+     * @param copyEvents If true, give each task that owns an event its own
+     *            copy
+     * @param dispatcher Dispatcher to report errors
+     */
+    public THLParallelSharedReader(THL thl,
+            List<THLParallelReadTask> readTasks, Partitioner partitioner,
+            AtomicCounter headSeqnoCounter, boolean copyEvents,
+            EventDispatcher dispatcher)
+    {
+        this.thl = thl;
+        this.readTasks = readTasks;
+        this.partitioner = partitioner;
+        this.headSeqnoCounter = headSeqnoCounter;
+        this.copyEvents = copyEvents;
+        this.dispatcher = dispatcher;
+    }
+
+    /** Connect to the log. Must be called before tasks start. */
+    public synchronized void prepare() throws ReplicatorException,
+            InterruptedException
+    {
+        connection = thl.connect(true);
+    }
+
+    /**
+     * Records that a task has started and starts the scan once all tasks have
+     * done so.
+     */
+    public synchronized void taskStarted()
+    {
+        startedTasks++;
+        if (startedTasks == readTasks.size() && readerThread == null
+                && !cancelled)
+        {
+            readerThread = new Thread(this);
+            readerThread.setName("store-" + thl.getName() + "-shared");
+            readerThread.setDaemon(true);
+            readerThread.start();
+        }
+    }
+
+    /**
+     * Cancel the scan. Stopping any task stops the scan as the remaining
+     * tasks cannot make progress past the stopped one.
+     */
+    public synchronized void stop()
+    {
+        cancelled = true;
+        if (readerThread != null)
+        {
+            readerThread.interrupt();
+            try
+            {
+                readerThread.join(2000);
+            }
+            catch (InterruptedException e)
+            {
+            }
+        }
+    }
+
+    /** Free the log connection. Must be called following stop(). */
+    public synchronized void release()
+    {
+        if (connection != null)
+        {
+            connection.release();
+            connection = null;
+        }
+    }
+
+    /** Returns the error that terminated the scan, if any. */
+    public Throwable getThrowable()
+    {
+        return throwable;
+    }
+
+    /** Returns the name of the scan thread or null if it has not started. */
+    public String getThreadName()
+    {
+        Thread t = readerThread;
+        return (t == null) ? null : t.getName();
+    }
+
+    /**
+     * Implements read loop on the log to feed all task queues.
+     */
+    @Override
+    public void run()
+    {
+        // Start from the lowest restart point. Tasks discard events below
+        // their own restart point.
+        int taskCount = readTasks.size();
+        long[] restartSeqnos = new long[taskCount];
+        long restartSeqno = Long.MAX_VALUE;
+        for (int i = 0; i < taskCount; i++)
+        {
+            restartSeqnos[i] = readTasks.get(i).getRestartSeqno();
+            restartSeqno = Math.min(restartSeqno, restartSeqnos[i]);
+        }
+        long readSeqno = restartSeqno;
+        boolean[] owned = new boolean[taskCount];
+
+        try
+        {
+            // Seek to initial position to start reading.
+            if (!connection.seek(restartSeqno))
+            {
+                throw new THLException(
+                        "Unable to locate starting seqno in log: seqno="
+                                + restartSeqno + " store=" + thl.getName());
+            }
+
+            // Read records until we are cancelled.
+            while (!cancelled)
+            {
+                THLEvent thlEvent = connection.next();
+                readSeqno = thlEvent.getSeqno();
+                readCount.incrementAndGet();
+
+                // Partition on header fields.
+                ReplDBMSHeaderData header = new ReplDBMSHeaderData(
+                        thlEvent.getSeqno(), thlEvent.getFragno(),
+                        thlEvent.getLastFrag(), thlEvent.getSourceId(),
+                        thlEvent.getEpochNumber(), thlEvent.getEventId(),
+                        thlEvent.getShardId(), thlEvent.getSourceTstamp(), 0);
+
+                // Ensure it is safe to process this value. This lock prevents
+                // us from jumping ahead of the stage feeding the log and
+                // coordinates serialization.
+                headSeqnoCounter.waitSeqnoGreaterEqual(readSeqno);
+
+                // Find the tasks that own the event.
+                int owners = 0;
+                for (int i = 0; i < taskCount; i++)
+                {
+                    owned[i] = false;
+                    if (readSeqno < restartSeqnos[i])
+                        continue;
+                    PartitionerResponse response = partitioner.partition(
+                            header, i);
+                    if (response.getPartition() == i)
+                    {
+                        owned[i] = true;
+                        owners++;
+                    }
+                }
+
+                // Post to every task, substituting a header-only event for
+                // tasks that do not own the event. If copying, each owner but
+                // the last gets a copy, which we make before the original is
+                // posted and may change.
+                THLEvent headerEvent = null;
+                for (int i = 0; i < taskCount; i++)
+                {
+                    if (readSeqno < restartSeqnos[i])
+                        continue;
+                    THLParallelReadTask readTask = readTasks.get(i);
+                    if (owned[i])
+                    {
+                        owners--;
+                        if (copyEvents && owners > 0)
+                            readTask.post(connection.copy(thlEvent));
+                        else
+                            readTask.post(thlEvent);
+                    }
+                    else
+                    {
+                        if (headerEvent == null)
+                            headerEvent = headerOnly(thlEvent);
+                        readTask.post(headerEvent);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            if (!cancelled)
+                logger.warn("Unexpected interrupt before shared reader thread was cancelled");
+        }
+        catch (Throwable e)
+        {
+            // Store the error so that tasks signal it to their callers, then
+            // try to log it at the point of failure.
+            throwable = e;
+            try
+            {
+                String msg = "Shared read failed on transaction log: seqno="
+                        + readSeqno;
+                logger.error(msg, e);
+                dispatcher.put(new ErrorNotification(msg, e));
+            }
+            catch (InterruptedException e1)
+            {
+                logger.warn("Task cancelled while posting error notification",
+                        null);
+            }
+            catch (Throwable t1)
+            {
+                logger.warn("Failure while attempting to log an error: " + e,
+                        t1);
+            }
+        }
+
+        logger.info("Terminating shared parallel reader thread: seqno="
+                + readSeqno + " store=" + thl.getName());
+    }
+
+    // Returns a copy of the event without its contents.
+    private THLEvent headerOnly(THLEvent thlEvent)
+    {
+        return new THLEvent(thlEvent.getSeqno(), thlEvent.getFragno(),
+                thlEvent.getLastFrag(), thlEvent.getSourceId(),
+                thlEvent.getType(), thlEvent.getEpochNumber(), new Timestamp(
+                        System.currentTimeMillis()),
+                thlEvent.getSourceTstamp(), thlEvent.getEventId(),
+                thlEvent.getShardId(), null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(this.getClass().getSimpleName());
+        sb.append(" thread_name=").append(getThreadName());
+        sb.append(" tasks=").append(readTasks.size());
+        sb.append(" copyEvents=").append(copyEvents);
+        sb.append(" started=").append(startedTasks);
+        sb.append(" read=").append(readCount);
+        sb.append(" cancelled=").append(cancelled);
+        return sb.toString();
+    }
+}
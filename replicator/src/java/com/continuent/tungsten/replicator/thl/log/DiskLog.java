@@ -24,11 +24,14 @@ package com.continuent.tungsten.replicator.thl.log;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.thl.THLEvent;
 import com.continuent.tungsten.replicator.thl.THLException;
 import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
 import com.continuent.tungsten.replicator.thl.serializer.Serializer;
@@ -99,9 +102,18 @@ public class DiskLog
      */
     protected int                bufferSize                 = 65536;
 
+    /**
+     * Minimum number of bytes between entries in the sparse index kept for
+     * each log file. 0 disables index maintenance.
+     */
+    protected int                logFileIndexInterval       = 1048576;
+
     /** Write lock to prevent log file corruption by concurrent access. */
     protected WriteLock          writeLock;
 
+    /** Background threads rebuilding missing log file indexes, by file. */
+    private final ConcurrentHashMap<String, Thread> indexRebuilds = new ConcurrentHashMap<String, Thread>();
+
     /** Indicates whether access should be read only or not */
     protected boolean            readOnly                   = true;
 
@@ -275,6 +287,24 @@ public class DiskLog
         this.bufferSize = bufferSize;
     }
 
+    /**
+     * Sets the minimum number of bytes between sparse log file index entries.
+     * 0 turns off index maintenance, though existing indexes are still used
+     * for seeks.
+     */
+    public void setLogFileIndexInterval(int logFileIndexInterval)
+    {
+        this.logFileIndexInterval = logFileIndexInterval;
+    }
+
+    /**
+     * Returns the minimum number of bytes between log file index entries.
+     */
+    public int getLogFileIndexInterval()
+    {
+        return logFileIndexInterval;
+    }
+
     /**
      * Set write flush interval in milliseconds. 0 means flush on every write.
      * This lowers latency.
@@ -461,6 +491,11 @@ public class DiskLog
                 long lastCompleteEventOffset = LogFile.HEADER_LENGTH;
                 boolean logFileIsEmpty = true;
                 boolean lastFrag = true;
+                LogFileIndex recoveredIndex = new LogFileIndex(
+                        logFile.getFile());
+                LogEventIndex recoveredEventIndex = new LogEventIndex(
+                        logFile.getFile());
+                long lastIndexedOffset = LogFile.HEADER_LENGTH;
 
                 if (logger.isDebugEnabled())
                     logger.debug("Starting max seqno is " + maxSeqno);
@@ -482,6 +517,21 @@ public class DiskLog
                                 currentRecord, eventSerializer, doChecksum);
                         lastFrag = eventReader.isLastFrag();
 
+                        // Rebuild index entries as we go.
+                        if (eventReader.getFragno() == 0
+                                && logFileIndexInterval > 0
+                                && currentRecord.getOffset()
+                                        - lastIndexedOffset >= logFileIndexInterval)
+                        {
+                            lastIndexedOffset = currentRecord.getOffset();
+                            recoveredIndex.add(eventReader.getSeqno(), (short) 0,
+                                    lastIndexedOffset);
+                            recoveredEventIndex.add(eventReader.getSeqno(),
+                                    lastIndexedOffset,
+                                    eventReader.getSourceTStamp(),
+                                    eventReader.getEventId());
+                        }
+
                         // If we are on a last fragment of an event, update the
                         // last complete transaction offset and store the
                         // sequence number.
@@ -506,6 +556,10 @@ public class DiskLog
                         logFile.close();
                         if (isWritable())
                         {
+                            // The file is complete so store its index.
+                            recoverIndex(logFile, recoveredIndex,
+                                    recoveredEventIndex);
+
                             // Ensure that last log file is not just a header
                             // plus a rotate event. This would indicate some
                             // kind of bug that should be investigated.
@@ -594,6 +648,12 @@ public class DiskLog
                     }
                 }
 
+                // Store the rebuilt index, which matches the file as it now
+                // stands.
+                if (isWritable())
+                    recoverIndex(logFile, recoveredIndex,
+                                    recoveredEventIndex);
+
                 // If following these cleanups we have an empty file at the
                 // end of a multi-file log, we need to remove it and try again,
                 // which we do at most once and only if we are writable.
@@ -611,6 +671,7 @@ public class DiskLog
                                     + emptyFile.getAbsolutePath());
                             logFile.close();
                             logFile = null;
+                            LogFileIndex.deleteIndexFiles(emptyFile);
                             if (!emptyFile.delete())
                             {
                                 throw new LogConsistencyException(
@@ -692,6 +753,9 @@ public class DiskLog
 
         // Terminate the log flush thread.
         stopLogSyncTask();
+
+        // Terminate index rebuilds.
+        stopIndexRebuilds();
     }
 
     // Start log sync task.
@@ -848,6 +912,55 @@ public class DiskLog
         connectionManager.release(connection);
     }
 
+    /**
+     * Returns the seqno of the first logged event whose source timestamp is
+     * equal to or later than the given time. Log event indexes are used where
+     * they exist; otherwise the log is scanned from the beginning.
+     *
+     * @return Seqno or -1 if no logged event is as late as the time
+     */
+    public long findSeqnoByTime(Timestamp sourceTstamp)
+            throws ReplicatorException, InterruptedException
+    {
+        return findSeqno(sourceTstamp, null);
+    }
+
+    /**
+     * Returns the seqno of the first logged event whose native event ID is
+     * equal to or higher than the given event ID. Log event indexes are used
+     * where they exist; otherwise the log is scanned from the beginning.
+     *
+     * @return Seqno or -1 if no logged event has reached the event ID
+     */
+    public long findSeqnoByEventId(String eventId)
+            throws ReplicatorException, InterruptedException
+    {
+        return findSeqno(null, eventId);
+    }
+
+    // Seeks by time or event ID on a temporary read-only connection.
+    private long findSeqno(Timestamp sourceTstamp, String eventId)
+            throws ReplicatorException, InterruptedException
+    {
+        LogConnection conn = connect(true);
+        try
+        {
+            boolean found;
+            if (sourceTstamp != null)
+                found = conn.seekByTime(sourceTstamp);
+            else
+                found = conn.seekByEventId(eventId);
+            if (!found)
+                return -1;
+            THLEvent event = conn.next(false);
+            return (event == null) ? -1 : event.getSeqno();
+        }
+        finally
+        {
+            conn.release();
+        }
+    }
+
     // New log API with methods to support client connections.
 
     /**
@@ -1031,6 +1144,7 @@ public class DiskLog
     {
         index.removeFile(entry.fileName);
         File f = new File(logDir, entry.fileName);
+        LogFileIndex.deleteIndexFiles(f);
         if (!f.delete())
         {
             logger.warn("Unable to delete log file: " + f.getAbsolutePath());
@@ -1071,6 +1185,8 @@ public class DiskLog
                         logger.info("Truncating log file after sequence number: file="
                                 + entry.fileName + " seqno=" + seqno);
                         logFile.setLength(offset);
+                        new LogFileIndex(logFile.getFile()).truncate(offset);
+                        new LogEventIndex(logFile.getFile()).truncate(offset);
                         index.setMaxIndexedSeqno(seqno - 1);
                         break;
                     }
@@ -1105,6 +1221,199 @@ public class DiskLog
         }
     }
 
+    // Stores the indexes rebuilt while scanning the last log file during
+    // recovery. If indexing is disabled we just drop entries that point past
+    // the end of the file.
+    private void recoverIndex(LogFile logFile, LogFileIndex logFileIndex,
+            LogEventIndex logEventIndex) throws IOException
+    {
+        long length = logFile.getFile().length();
+        if (logFileIndexInterval > 0)
+        {
+            logFileIndex.trim(length);
+            logFileIndex.write();
+            logEventIndex.trim(length);
+            logEventIndex.write();
+            if (logger.isDebugEnabled())
+                logger.debug("Rebuilt log file indexes: " + logFileIndex
+                        + " " + logEventIndex);
+        }
+        else
+        {
+            logFileIndex.truncate(length);
+            logEventIndex.truncate(length);
+        }
+    }
+
+    /**
+     * Starts rebuilding the indexes of a closed log file that has none, for
+     * example because it was written while indexing was disabled. Recovery
+     * only rebuilds the indexes of the last file, so connections call this the
+     * first time they have to scan an unindexed file. The rebuild runs in a
+     * background thread with its own file handle; seeks scan the file from the
+     * start until the index is written. Each file has at most one rebuild in
+     * progress.
+     * 
+     * @param fileName Name of the log file to index
+     */
+    void requestIndexRebuild(final String fileName)
+    {
+        // The writer maintains the index of the file it is writing.
+        if (logFileIndexInterval <= 0 || !isWritable()
+                || fileName.equals(getLastFile())
+                || indexRebuilds.containsKey(fileName))
+            return;
+
+        Thread rebuildThread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    rebuildIndexes(fileName);
+                }
+                catch (InterruptedException e)
+                {
+                    logger.info("Log file index rebuild interrupted: "
+                            + fileName);
+                }
+                catch (Exception e)
+                {
+                    logger.warn("Unable to rebuild log file index: "
+                            + fileName, e);
+                }
+                finally
+                {
+                    indexRebuilds.remove(fileName, Thread.currentThread());
+                }
+            }
+        }, "log-index-rebuild-" + fileName);
+        rebuildThread.setDaemon(true);
+        if (indexRebuilds.putIfAbsent(fileName, rebuildThread) == null)
+            rebuildThread.start();
+    }
+
+    /**
+     * Waits for index rebuilds in progress to finish. This is a test hook.
+     */
+    void waitForIndexRebuilds() throws InterruptedException
+    {
+        for (Thread rebuildThread : indexRebuilds.values())
+            rebuildThread.join();
+    }
+
+    // Stops index rebuilds in progress. Partial indexes are not written.
+    private void stopIndexRebuilds() throws InterruptedException
+    {
+        for (Thread rebuildThread : indexRebuilds.values())
+        {
+            rebuildThread.interrupt();
+            rebuildThread.join(5000);
+            if (rebuildThread.isAlive())
+                logger.warn("Unable to terminate log file index rebuild: "
+                        + rebuildThread.getName());
+        }
+    }
+
+    // Scans a closed log file and writes its indexes.
+    private void rebuildIndexes(String fileName) throws IOException,
+            ReplicatorException, InterruptedException
+    {
+        LogFile logFile = openFile(fileName, true);
+        try
+        {
+            // Another connection may have beaten us to it.
+            LogFileIndex logFileIndex = new LogFileIndex(logFile.getFile());
+            if (logFileIndex.load())
+                return;
+
+            LogEventIndex logEventIndex = new LogEventIndex(logFile.getFile());
+            long lastIndexedOffset = LogFile.HEADER_LENGTH;
+            logFile.seekOffset(LogFile.HEADER_LENGTH);
+            LogRecord currentRecord = logFile.readRecord(0);
+            while (!currentRecord.isEmpty() && !currentRecord.isTruncated())
+            {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                if (currentRecord.getData()[0] == LogRecord.EVENT_REPL)
+                {
+                    LogEventReplReader eventReader = new LogEventReplReader(
+                            currentRecord, eventSerializer, doChecksum);
+                    if (eventReader.getFragno() == 0
+                            && currentRecord.getOffset()
+                                    - lastIndexedOffset >= logFileIndexInterval)
+                    {
+                        lastIndexedOffset = currentRecord.getOffset();
+                        logFileIndex.add(eventReader.getSeqno(), (short) 0,
+                                lastIndexedOffset);
+                        logEventIndex.add(eventReader.getSeqno(),
+                                lastIndexedOffset,
+                                eventReader.getSourceTStamp(),
+                                eventReader.getEventId());
+                    }
+                    eventReader.done();
+                }
+                currentRecord = logFile.readRecord(0);
+            }
+
+            logFileIndex.write();
+            logEventIndex.write();
+
+            // Do not leave indexes behind if the file was purged meanwhile.
+            if (!logFile.getFile().exists())
+            {
+                LogFileIndex.deleteIndexFiles(logFile.getFile());
+                return;
+            }
+            logger.info("Rebuilt missing log file indexes: " + logFileIndex
+                    + " " + logEventIndex);
+        }
+        finally
+        {
+            logFile.close();
+        }
+    }
+
+    /**
+     * Returns the sequence number from which to read forward to find the first
+     * event that reaches a time or event ID target. This is the last event
+     * index entry before the first one that reaches the target. Files without
+     * event indexes are simply read through, so the result is at worst the
+     * beginning of the log.
+     *
+     * @param target Position we are looking for
+     * @return Sequence number to seek before reading forward
+     */
+    public long findScanStart(LogEventIndex.Target target)
+            throws ReplicatorException
+    {
+        long startSeqno = index.getMinIndexedSeqno();
+        for (LogIndexEntry lie : index.getIndexCopy())
+        {
+            LogEventIndex eventIndex = new LogEventIndex(new File(logDir,
+                    lie.fileName));
+            try
+            {
+                eventIndex.load();
+            }
+            catch (IOException e)
+            {
+                throw new THLException("Unable to read log event index: "
+                        + eventIndex.getFile().getName(), e);
+            }
+            for (LogEventIndex.Entry entry : eventIndex.getEntries())
+            {
+                if (target.isReached(entry.getSourceTstamp(),
+                        entry.getEventId()))
+                {
+                    return startSeqno;
+                }
+                startSeqno = entry.getSeqno();
+            }
+        }
+        return startSeqno;
+    }
+
     /**
      * Open the last log file for writing. The file is assumed to exist as the
      * log must be initialized at this point.
@@ -1185,6 +1494,7 @@ public class DiskLog
                     + dataFile.getFile().getName());
         }
         dataFile.create(seqno);
+        LogFileIndex.deleteIndexFiles(dataFile.getFile());
 
         // Add the file to the volatile index.
         index.addNewFile(seqno, logFileName);
@@ -77,6 +77,10 @@ public class LogConnection
     private int                logFileSize;
     private int                timeoutMillis;
     private int                logRotateMillis;
+    private int                logFileIndexInterval;
+    private LogFileIndex       writeIndex;
+    private LogEventIndex      writeEventIndex;
+    private LogRecordBuffer    writeBuffer;
 
     // Filter used to decide whether to deserialize events on input.
     private LogEventReadFilter readFilter;
@@ -102,6 +106,7 @@ public class LogConnection
         if (!readonly)
         {
             this.logFileSize = diskLog.getLogFileSize();
+            this.logFileIndexInterval = diskLog.getLogFileIndexInterval();
         }
     }
 
@@ -259,6 +264,9 @@ public class LogConnection
             return true;
         }
 
+        // Skip ahead using the sparse file index if there is one.
+        seekIndexedOffset(logFile, seqno);
+
         // Track the previous event log record. This enables us to return
         // filtered events, which skip sequence numbers.
         LogRecord previousLogRecord = null;
@@ -423,6 +431,57 @@ public class LogConnection
         return (pendingEvent.size() > 0);
     }
 
+    // Positions the log file on the closest indexed record before the seqno.
+    // The record is checked against the index entry so that a missing or
+    // stale index at worst costs a scan from the start of the file.
+    private void seekIndexedOffset(LogFile logFile, long seqno)
+            throws ReplicatorException, InterruptedException
+    {
+        LogFileIndex fileIndex = new LogFileIndex(logFile.getFile());
+        try
+        {
+            if (!fileIndex.load())
+            {
+                diskLog.requestIndexRebuild(logFile.getFile().getName());
+                return;
+            }
+            LogFileIndex.Entry entry = fileIndex.find(seqno);
+            if (entry == null || entry.getOffset() >= logFile.getLength())
+                return;
+
+            logFile.seekOffset(entry.getOffset());
+            LogRecord logRecord = logFile.readRecord(0);
+            if (!logRecord.isEmpty() && !logRecord.isTruncated()
+                    && logRecord.getData()[0] == LogRecord.EVENT_REPL)
+            {
+                LogEventReplReader eventReader = new LogEventReplReader(
+                        logRecord, eventSerializer, doChecksum);
+                boolean match = eventReader.getSeqno() == entry.getSeqno()
+                        && eventReader.getFragno() == entry.getFragno();
+                eventReader.done();
+                if (match)
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Using log file index to seek: seqno="
+                                + seqno + " indexed seqno=" + entry.getSeqno()
+                                + " offset=" + entry.getOffset());
+                    logFile.seekOffset(entry.getOffset());
+                    return;
+                }
+            }
+
+            logger.warn("Log file index does not match log; ignoring index: "
+                    + fileIndex + " seqno=" + entry.getSeqno() + " offset="
+                    + entry.getOffset());
+            logFile.seekOffset(LogFile.HEADER_LENGTH);
+        }
+        catch (IOException e)
+        {
+            throw new THLException("Unable to read log file index: "
+                    + fileIndex.getFile().getName(), e);
+        }
+    }
+
     // Deserialize the event we just found. This takes into consideration
     // the read filter, if present.
     private THLEvent deserialize(LogRecord logRecord)
@@ -505,6 +564,72 @@ public class LogConnection
         }
     }
 
+    /**
+     * Positions the client cursor on the first event whose source timestamp
+     * is equal to or later than the given time. Clients may call next to read
+     * events starting with that event. The log event indexes are used to
+     * avoid reading the log from the beginning, which assumes timestamps
+     * increase along with seqno as they do for a single source.
+     *
+     * @param sourceTstamp Time at which to position the cursor
+     * @return True if seek is successful and next() may be called; false if
+     *         no event in the log is as late as the requested time
+     * @throws ReplicatorException Thrown if the log cannot be read
+     */
+    public synchronized boolean seekByTime(Timestamp sourceTstamp)
+            throws ReplicatorException, InterruptedException
+    {
+        return seek(LogEventIndex.timeTarget(sourceTstamp.getTime()));
+    }
+
+    /**
+     * Positions the client cursor on the first event whose native event ID is
+     * equal to or higher than the given event ID, for example a MySQL binlog
+     * file and offset. Clients may call next to read events starting with that
+     * event.
+     *
+     * @param eventId Native event ID at which to position the cursor
+     * @return True if seek is successful and next() may be called; false if
+     *         no event in the log has reached the event ID
+     * @throws ReplicatorException Thrown if the log cannot be read
+     */
+    public synchronized boolean seekByEventId(String eventId)
+            throws ReplicatorException, InterruptedException
+    {
+        return seek(LogEventIndex.eventIdTarget(eventId));
+    }
+
+    // Seeks the closest indexed seqno before the target and reads forward
+    // until we find the first event that reaches it. That event is left at
+    // the head of the pending events so next() returns it.
+    private boolean seek(LogEventIndex.Target target)
+            throws ReplicatorException, InterruptedException
+    {
+        assertNotDone();
+        long startSeqno = diskLog.findScanStart(target);
+        if (startSeqno < 0 || !seek(startSeqno))
+            return false;
+        if (logger.isDebugEnabled())
+            logger.debug("Scanning log for event: " + target
+                    + " start seqno=" + startSeqno);
+
+        THLEvent event;
+        while ((event = next(false)) != null)
+        {
+            if (target.isReached(event.getSourceTstamp().getTime(),
+                    event.getEventId()))
+            {
+                Queue<THLEvent> remaining = new LinkedList<THLEvent>(
+                        pendingEvent);
+                pendingEvent.clear();
+                pendingEvent.add(event);
+                pendingEvent.addAll(remaining);
+                return true;
+            }
+        }
+        return false;
+    }
+
     // Clear read state prior to seek.
     private void clearReadState()
     {
@@ -697,6 +822,23 @@ public class LogConnection
         return next(true);
     }
 
+    /**
+     * Returns an independent copy of an event by serializing and deserializing
+     * it again. This allows several readers to modify events read once.
+     * 
+     * @param event THLEvent to copy
+     */
+    public THLEvent copy(THLEvent event) throws ReplicatorException
+    {
+        LogEventReplWriter eventWriter = new LogEventReplWriter(event,
+                eventSerializer, false, null);
+        LogEventReplReader eventReader = new LogEventReplReader(
+                eventWriter.write(), eventSerializer, false);
+        THLEvent copy = eventReader.deserializeEvent();
+        eventReader.done();
+        return copy;
+    }
+
     /**
      * Store a THL event at the end of the log.
      * 
@@ -737,6 +879,7 @@ public class LogConnection
             {
                 LogFile lastFile = diskLog.openLastFile(false);
                 cursor = new LogCursor(lastFile, event.getSeqno());
+                writeIndex = null;
                 if (logger.isDebugEnabled())
                 {
                     logger.debug("Creating new log cursor: thread="
@@ -771,11 +914,20 @@ public class LogConnection
                 cursor = new LogCursor(dataFile, event.getSeqno());
             }
 
-            // Write the event to byte stream.
+            // Write the event to byte stream, reusing the same buffer for
+            // every record written on this connection.
+            if (writeBuffer == null)
+                writeBuffer = new LogRecordBuffer(64 * 1024, 4 * 1024 * 1024);
             LogEventReplWriter eventWriter = new LogEventReplWriter(event,
-                    eventSerializer, doChecksum, dataFile.getFile());
+                    eventSerializer, doChecksum, dataFile.getFile(),
+                    writeBuffer);
             LogRecord logRecord = eventWriter.write();
 
+            // Index the start of the transaction if enough bytes have gone
+            // by since the last index entry.
+            if (logFileIndexInterval > 0 && event.getFragno() == 0)
+                updateIndex(dataFile, event);
+
             // Write to the file.
             dataFile.writeRecord(logRecord, logFileSize);
             diskLog.setMaxSeqno(event.getSeqno());
@@ -799,6 +951,30 @@ public class LogConnection
 
     }
 
+    // Appends an entry to the sparse index of the file we are writing if
+    // the record we are about to write is far enough from the previous entry.
+    private void updateIndex(LogFile dataFile, THLEvent event)
+            throws IOException, ReplicatorException
+    {
+        if (writeIndex == null || !writeIndex.isIndexOf(dataFile.getFile()))
+        {
+            writeIndex = new LogFileIndex(dataFile.getFile());
+            writeIndex.load();
+            writeEventIndex = new LogEventIndex(dataFile.getFile());
+        }
+
+        long offset = dataFile.getOffset();
+        LogFileIndex.Entry last = writeIndex.getLast();
+        long lastOffset = (last == null) ? LogFile.HEADER_LENGTH : last
+                .getOffset();
+        if (offset - lastOffset >= logFileIndexInterval)
+        {
+            writeIndex.append(event.getSeqno(), event.getFragno(), offset);
+            writeEventIndex.append(event.getSeqno(), offset, event
+                    .getSourceTstamp().getTime(), event.getEventId());
+        }
+    }
+
     /**
      * Commit transactions stored in the log.
      */
@@ -0,0 +1,374 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.database.EventId;
+import com.continuent.tungsten.replicator.database.EventIdFactory;
+
+/**
+ * Implements a sparse secondary index on a single log file that maps source
+ * timestamps and native event IDs to sequence numbers. Entries are taken at
+ * the same records as the {@link LogFileIndex} of the file and are stored in
+ * a sidecar file, e.g., thl.events.0000000001 for thl.data.0000000001.
+ * <p/>
+ * Entries have variable length because event IDs are strings. Readers ignore
+ * a partially written trailing entry. Like the offset index this index is only
+ * a hint for where to start reading; callers confirm positions by reading
+ * events.
+ */
+public class LogEventIndex
+{
+    private static Logger      logger                = Logger.getLogger(LogEventIndex.class);
+
+    /** Prefix of event index file names. */
+    public static final String INDEX_FILENAME_PREFIX = "thl.events.";
+
+    private final File         indexFile;
+    private List<Entry>        entries               = new ArrayList<Entry>();
+
+    /**
+     * Holds a single index entry.
+     */
+    public static class Entry
+    {
+        private final long   seqno;
+        private final long   offset;
+        private final long   sourceTstamp;
+        private final String eventId;
+
+        Entry(long seqno, long offset, long sourceTstamp, String eventId)
+        {
+            this.seqno = seqno;
+            this.offset = offset;
+            this.sourceTstamp = sourceTstamp;
+            this.eventId = eventId;
+        }
+
+        public long getSeqno()
+        {
+            return seqno;
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public long getSourceTstamp()
+        {
+            return sourceTstamp;
+        }
+
+        public String getEventId()
+        {
+            return eventId;
+        }
+    }
+
+    /**
+     * Denotes a position sought in the log, such as a time or an event ID.
+     */
+    public interface Target
+    {
+        /**
+         * Returns true if an event with these values is at or beyond the
+         * position.
+         */
+        public boolean isReached(long sourceTstamp, String eventId);
+    }
+
+    /**
+     * Creates an empty index for the given log file. Call {@link #load()} to
+     * read existing entries.
+     *
+     * @param dataFile Log file that is indexed
+     */
+    public LogEventIndex(File dataFile)
+    {
+        this.indexFile = getIndexFile(dataFile);
+    }
+
+    /**
+     * Returns the event index file that belongs to a log file.
+     */
+    public static File getIndexFile(File dataFile)
+    {
+        String name = dataFile.getName();
+        String suffix = name.substring(name.lastIndexOf('.') + 1);
+        return new File(dataFile.getParentFile(), INDEX_FILENAME_PREFIX
+                + suffix);
+    }
+
+    /**
+     * Returns a target for the first event whose source timestamp is equal to
+     * or later than the given time.
+     */
+    public static Target timeTarget(final long sourceTstamp)
+    {
+        return new Target()
+        {
+            public boolean isReached(long eventTstamp, String eventId)
+            {
+                return eventTstamp >= sourceTstamp;
+            }
+
+            public String toString()
+            {
+                return "sourceTstamp=" + sourceTstamp;
+            }
+        };
+    }
+
+    /**
+     * Returns a target for the first event whose native event ID is equal to
+     * or higher than the given event ID. Event IDs are compared using the
+     * DBMS-specific collation if the type can be recognized, otherwise as
+     * strings.
+     */
+    public static Target eventIdTarget(final String eventId)
+    {
+        final EventId target = EventIdFactory.getInstance().createEventId(
+                eventId);
+        return new Target()
+        {
+            public boolean isReached(long eventTstamp, String otherEventId)
+            {
+                if (otherEventId == null)
+                    return false;
+                if (target != null && target.isValid())
+                {
+                    EventId other = EventIdFactory.getInstance()
+                            .createEventId(otherEventId);
+                    if (other != null && other.isValid()
+                            && other.getDbmsType().equals(target.getDbmsType()))
+                        return other.compareTo(target) >= 0;
+                }
+                return otherEventId.compareTo(eventId) >= 0;
+            }
+
+            public String toString()
+            {
+                return "eventId=" + eventId;
+            }
+        };
+    }
+
+    /** Returns the file in which the index is stored. */
+    public File getFile()
+    {
+        return indexFile;
+    }
+
+    /**
+     * Returns true if this index belongs to the given log file.
+     */
+    public boolean isIndexOf(File dataFile)
+    {
+        return indexFile.equals(getIndexFile(dataFile));
+    }
+
+    /**
+     * Reads entries from the index file, replacing any in memory.
+     *
+     * @return True if the index file exists, otherwise false
+     */
+    public boolean load() throws IOException
+    {
+        entries.clear();
+        if (!indexFile.exists())
+            return false;
+
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(indexFile)));
+        try
+        {
+            while (true)
+            {
+                long seqno = dis.readLong();
+                long offset = dis.readLong();
+                long sourceTstamp = dis.readLong();
+                String eventId = dis.readUTF();
+                entries.add(new Entry(seqno, offset, sourceTstamp, eventId));
+            }
+        }
+        catch (EOFException e)
+        {
+            // End of file or partially written last entry.
+        }
+        finally
+        {
+            dis.close();
+        }
+        return true;
+    }
+
+    /**
+     * Adds an entry in memory only. Entries must be added in ascending order.
+     */
+    public void add(long seqno, long offset, long sourceTstamp, String eventId)
+    {
+        entries.add(new Entry(seqno, offset, sourceTstamp, eventId));
+    }
+
+    /**
+     * Adds an entry and appends it to the index file.
+     */
+    public void append(long seqno, long offset, long sourceTstamp,
+            String eventId) throws IOException
+    {
+        add(seqno, offset, sourceTstamp, eventId);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFile, true)));
+        try
+        {
+            writeEntry(dos, entries.get(entries.size() - 1));
+        }
+        finally
+        {
+            dos.close();
+        }
+    }
+
+    /**
+     * Replaces the index file with the entries currently in memory, using a
+     * temporary file and rename so that readers never see a partial index.
+     */
+    public void write() throws IOException
+    {
+        File tempFile = new File(indexFile.getParentFile(), "."
+                + indexFile.getName() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)));
+        try
+        {
+            for (Entry entry : entries)
+                writeEntry(dos, entry);
+        }
+        finally
+        {
+            dos.close();
+        }
+        if (indexFile.exists() && !indexFile.delete())
+            throw new IOException("Unable to replace log event index file: "
+                    + indexFile.getAbsolutePath());
+        if (!tempFile.renameTo(indexFile))
+            throw new IOException("Unable to rename log event index file: "
+                    + tempFile.getAbsolutePath());
+    }
+
+    /**
+     * Drops entries in memory at or beyond the given offset.
+     *
+     * @param length Length of the log file
+     * @return True if any entries were dropped
+     */
+    public boolean trim(long length)
+    {
+        int size = entries.size();
+        while (entries.size() > 0
+                && entries.get(entries.size() - 1).offset >= length)
+        {
+            entries.remove(entries.size() - 1);
+        }
+        return entries.size() < size;
+    }
+
+    /**
+     * Drops entries at or beyond the given offset and rewrites the index file
+     * if it changed.
+     *
+     * @param length New length of the log file
+     */
+    public void truncate(long length) throws IOException
+    {
+        if (load() && trim(length))
+            write();
+    }
+
+    /** Deletes the index file and clears entries in memory. */
+    public void delete()
+    {
+        entries.clear();
+        if (indexFile.exists() && !indexFile.delete())
+            logger.warn("Unable to delete log event index file: "
+                    + indexFile.getAbsolutePath());
+    }
+
+    /** Returns the entries in seqno order. */
+    public List<Entry> getEntries()
+    {
+        return entries;
+    }
+
+    /** Returns the last entry or null if the index is empty. */
+    public Entry getLast()
+    {
+        if (entries.size() == 0)
+            return null;
+        else
+            return entries.get(entries.size() - 1);
+    }
+
+    /** Returns the number of entries. */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    // Writes a single entry.
+    private void writeEntry(DataOutputStream dos, Entry entry)
+            throws IOException
+    {
+        dos.writeLong(entry.seqno);
+        dos.writeLong(entry.offset);
+        dos.writeLong(entry.sourceTstamp);
+        dos.writeUTF(entry.eventId);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer(this.getClass().getSimpleName());
+        sb.append(" file=").append(indexFile.getName());
+        sb.append(" entries=").append(entries.size());
+        return sb.toString();
+    }
+}
@@ -40,21 +40,35 @@ import com.continuent.tungsten.replicator.thl.serializer.Serializer;
 public class LogEventReplWriter
 {
     // Inputs
-    private THLEvent   event;
-    private Serializer serializer;
-    private boolean    checkCRC;
-    private File       file;
+    private THLEvent        event;
+    private Serializer      serializer;
+    private boolean         checkCRC;
+    private File            file;
+    private LogRecordBuffer buffer;
 
     /**
      * Instantiate the writer.
      */
     public LogEventReplWriter(THLEvent event, Serializer serializer,
             boolean checkCRC, File file) throws ReplicatorException
+    {
+        this(event, serializer, checkCRC, file, new LogRecordBuffer(1024,
+                1024));
+    }
+
+    /**
+     * Instantiate the writer with a buffer that is reused across records.
+     * Callers must not share the buffer between threads.
+     */
+    public LogEventReplWriter(THLEvent event, Serializer serializer,
+            boolean checkCRC, File file, LogRecordBuffer buffer)
+            throws ReplicatorException
     {
         this.event = event;
         this.serializer = serializer;
         this.checkCRC = checkCRC;
         this.file = file;
+        this.buffer = buffer;
     }
 
     /**
@@ -62,10 +76,11 @@ public class LogEventReplWriter
      */
     public LogRecord write() throws ReplicatorException
     {
-        LogRecord logRecord = new LogRecord(file, -1, checkCRC);
+        // The buffer computes the CRC as the record is written.
+        buffer.reset(checkCRC);
         try
         {
-            DataOutputStream dos = new DataOutputStream(logRecord.write());
+            DataOutputStream dos = new DataOutputStream(buffer);
             dos.writeByte(LogRecord.EVENT_REPL);
             dos.writeLong(event.getSeqno());
             dos.writeShort(event.getFragno());
@@ -78,21 +93,18 @@ public class LogEventReplWriter
 
             serializer.serializeEvent(event, dos);
             dos.flush();
-            logRecord.done();
-
-            if (checkCRC)
-                logRecord.storeCrc(LogRecord.CRC_TYPE_32);
         }
         catch (IOException e)
         {
             throw new THLException("Error writing log record data: "
                     + e.getMessage(), e);
         }
-        finally
-        {
-            logRecord.done();
-        }
 
-        return logRecord;
+        if (checkCRC)
+            return new LogRecord(file, -1, buffer.toByteArray(),
+                    LogRecord.CRC_TYPE_32, buffer.getCrc());
+        else
+            return new LogRecord(file, -1, buffer.toByteArray(),
+                    LogRecord.CRC_TYPE_NONE, 0);
     }
 }
\ No newline at end of file
@@ -0,0 +1,333 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Implements a sparse index on a single log file. Each entry holds the seqno,
+ * fragno, and file offset of a log record that starts a transaction. Entries
+ * are added every so many bytes as the log is written, so that a seek can
+ * binary search the index and scan only the records after the closest entry
+ * instead of the whole file.
+ * <p/>
+ * The index is stored in a sidecar file next to the log file, e.g.,
+ * thl.index.0000000001 for thl.data.0000000001. Entries are fixed length and
+ * appended in seqno order. Readers ignore a partially written trailing entry.
+ * The index is only a hint: callers must confirm that the record at an
+ * indexed offset is the one they expect and fall back to a full scan if not.
+ */
+public class LogFileIndex
+{
+    private static Logger      logger                = Logger.getLogger(LogFileIndex.class);
+
+    /** Prefix of index file names. */
+    public static final String INDEX_FILENAME_PREFIX = "thl.index.";
+
+    // Length of a single entry: seqno, fragno, offset.
+    private static final int   ENTRY_LENGTH          = 8 + 2 + 8;
+
+    private final File         indexFile;
+    private List<Entry>        entries               = new ArrayList<Entry>();
+
+    /**
+     * Holds a single index entry.
+     */
+    public static class Entry
+    {
+        private final long  seqno;
+        private final short fragno;
+        private final long  offset;
+
+        Entry(long seqno, short fragno, long offset)
+        {
+            this.seqno = seqno;
+            this.fragno = fragno;
+            this.offset = offset;
+        }
+
+        public long getSeqno()
+        {
+            return seqno;
+        }
+
+        public short getFragno()
+        {
+            return fragno;
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+    }
+
+    /**
+     * Creates an empty index for the given log file. Call {@link #load()} to
+     * read existing entries.
+     *
+     * @param dataFile Log file that is indexed
+     */
+    public LogFileIndex(File dataFile)
+    {
+        this.indexFile = getIndexFile(dataFile);
+    }
+
+    /**
+     * Returns the index file that belongs to a log file.
+     */
+    public static File getIndexFile(File dataFile)
+    {
+        String name = dataFile.getName();
+        String suffix = name.substring(name.lastIndexOf('.') + 1);
+        return new File(dataFile.getParentFile(), INDEX_FILENAME_PREFIX
+                + suffix);
+    }
+
+    /**
+     * Deletes the offset and event index files that belong to a log file, if
+     * there are any.
+     */
+    public static void deleteIndexFiles(File dataFile)
+    {
+        File[] files = {getIndexFile(dataFile),
+                LogEventIndex.getIndexFile(dataFile)};
+        for (File f : files)
+        {
+            if (f.exists() && !f.delete())
+                logger.warn("Unable to delete log index file: "
+                        + f.getAbsolutePath());
+        }
+    }
+
+    /** Returns the file in which the index is stored. */
+    public File getFile()
+    {
+        return indexFile;
+    }
+
+    /**
+     * Returns true if this index belongs to the given log file.
+     */
+    public boolean isIndexOf(File dataFile)
+    {
+        return indexFile.equals(getIndexFile(dataFile));
+    }
+
+    /**
+     * Reads entries from the index file, replacing any in memory.
+     *
+     * @return True if the index file exists, otherwise false
+     */
+    public boolean load() throws IOException
+    {
+        entries.clear();
+        if (!indexFile.exists())
+            return false;
+
+        long count = indexFile.length() / ENTRY_LENGTH;
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(indexFile)));
+        try
+        {
+            for (long i = 0; i < count; i++)
+            {
+                long seqno = dis.readLong();
+                short fragno = dis.readShort();
+                long offset = dis.readLong();
+                entries.add(new Entry(seqno, fragno, offset));
+            }
+        }
+        finally
+        {
+            dis.close();
+        }
+        return true;
+    }
+
+    /**
+     * Adds an entry in memory only. Entries must be added in ascending order.
+     */
+    public void add(long seqno, short fragno, long offset)
+    {
+        entries.add(new Entry(seqno, fragno, offset));
+    }
+
+    /**
+     * Adds an entry and appends it to the index file.
+     */
+    public void append(long seqno, short fragno, long offset)
+            throws IOException
+    {
+        add(seqno, fragno, offset);
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFile, true), ENTRY_LENGTH));
+        try
+        {
+            writeEntry(dos, entries.get(entries.size() - 1));
+        }
+        finally
+        {
+            dos.close();
+        }
+    }
+
+    /**
+     * Replaces the index file with the entries currently in memory. The file
+     * is written under a temporary name and renamed so that readers never see
+     * a partial index.
+     */
+    public void write() throws IOException
+    {
+        File tempFile = new File(indexFile.getParentFile(), "."
+                + indexFile.getName() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)));
+        try
+        {
+            for (Entry entry : entries)
+                writeEntry(dos, entry);
+        }
+        finally
+        {
+            dos.close();
+        }
+        if (indexFile.exists() && !indexFile.delete())
+            throw new IOException("Unable to replace log index file: "
+                    + indexFile.getAbsolutePath());
+        if (!tempFile.renameTo(indexFile))
+            throw new IOException("Unable to rename log index file: "
+                    + tempFile.getAbsolutePath());
+    }
+
+    /**
+     * Drops entries in memory at or beyond the given offset.
+     *
+     * @param length Length of the log file
+     * @return True if any entries were dropped
+     */
+    public boolean trim(long length)
+    {
+        int size = entries.size();
+        while (entries.size() > 0
+                && entries.get(entries.size() - 1).offset >= length)
+        {
+            entries.remove(entries.size() - 1);
+        }
+        return entries.size() < size;
+    }
+
+    /**
+     * Drops entries at or beyond the given offset, for example because the log
+     * file was truncated, and rewrites the index file if it changed.
+     *
+     * @param length New length of the log file
+     */
+    public void truncate(long length) throws IOException
+    {
+        if (load() && trim(length))
+            write();
+    }
+
+    /** Deletes the index file and clears entries in memory. */
+    public void delete()
+    {
+        entries.clear();
+        if (indexFile.exists() && !indexFile.delete())
+            logger.warn("Unable to delete log index file: "
+                    + indexFile.getAbsolutePath());
+    }
+
+    /**
+     * Returns the last entry whose seqno is strictly less than the given
+     * seqno, or null if there is no such entry. Reading forward from this
+     * entry finds the seqno as well as any filtered event that precedes it.
+     */
+    public Entry find(long seqno)
+    {
+        int low = 0;
+        int high = entries.size() - 1;
+        Entry found = null;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            Entry entry = entries.get(mid);
+            if (entry.seqno < seqno)
+            {
+                found = entry;
+                low = mid + 1;
+            }
+            else
+                high = mid - 1;
+        }
+        return found;
+    }
+
+    /** Returns the last entry or null if the index is empty. */
+    public Entry getLast()
+    {
+        if (entries.size() == 0)
+            return null;
+        else
+            return entries.get(entries.size() - 1);
+    }
+
+    /** Returns the number of entries. */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    // Writes a single entry.
+    private void writeEntry(DataOutputStream dos, Entry entry)
+            throws IOException
+    {
+        dos.writeLong(entry.seqno);
+        dos.writeShort(entry.fragno);
+        dos.writeLong(entry.offset);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer(this.getClass().getSimpleName());
+        sb.append(" file=").append(indexFile.getName());
+        sb.append(" entries=").append(entries.size());
+        return sb.toString();
+    }
+}
@@ -483,7 +483,10 @@ public class LogIndex
             if (filesToPurge.length > 0)
             {
                 for (File file : filesToPurge)
+                {
                     removeFile(file.getName());
+                    LogFileIndex.deleteIndexFiles(file);
+                }
 
                 FileCommands.deleteFiles(filesToPurge, false);
             }
@@ -0,0 +1,108 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Reusable buffer for log record contents that optionally computes a CRC-32
+ * as bytes are written, so that writers do not need a second pass over the
+ * data. The buffer keeps its capacity across records unless a record leaves
+ * it larger than the retained size, in which case it returns to its initial
+ * size.
+ * <p/>
+ * Unlike its parent class, this class is not synchronized.
+ */
+public class LogRecordBuffer extends ByteArrayOutputStream
+{
+    private final int   initialSize;
+    private final int   retainedSize;
+    private final CRC32 crc32    = new CRC32();
+    private boolean     checksum = false;
+
+    /**
+     * Creates a new buffer.
+     * 
+     * @param initialSize Initial capacity in bytes
+     * @param retainedSize Largest capacity kept from one record to the next
+     */
+    public LogRecordBuffer(int initialSize, int retainedSize)
+    {
+        super(initialSize);
+        this.initialSize = initialSize;
+        this.retainedSize = retainedSize;
+    }
+
+    /**
+     * Prepares the buffer for a new record.
+     * 
+     * @param checksum If true compute a CRC-32 on data as it is written
+     */
+    public void reset(boolean checksum)
+    {
+        if (buf.length > retainedSize)
+            buf = new byte[initialSize];
+        count = 0;
+        crc32.reset();
+        this.checksum = checksum;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void reset()
+    {
+        reset(checksum);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(int b)
+    {
+        if (count == buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, 1));
+        buf[count++] = (byte) b;
+        if (checksum)
+            crc32.update(b);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(byte[] b, int off, int len)
+    {
+        if (count + len > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + len));
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+        if (checksum)
+            crc32.update(b, off, len);
+    }
+
+    /** Returns the CRC-32 of data written since the last reset. */
+    public long getCrc()
+    {
+        return crc32.getValue();
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.serializer;
+
+import java.nio.charset.Charset;
+
+import com.continuent.tungsten.replicator.thl.protobuf.TungstenProtos.ProtobufOneRowChange.ProtobufRowValue.ProtobufColumnVal;
+import com.continuent.tungsten.replicator.thl.protobuf.TungstenProtos.ProtobufOneRowChange.ProtobufRowValue.ProtobufColumnVal.Type;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Holds the fields of a single column value and writes them to a
+ * {@link ProtobufBuffer} as a ProtobufColumnVal message. Setters match those
+ * of the ProtobufColumnVal builder, but one instance is cleared and reused for
+ * every value so that serializing rows does not create message objects.
+ */
+public class ColumnValueEncoder
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Field values and flags showing which are set.
+    private Type                 type;
+    private boolean              hasIntValue;
+    private int                  intValue;
+    private boolean              hasLongValue;
+    private long                 longValue;
+    private boolean              hasFloatValue;
+    private float                floatValue;
+    private boolean              hasDoubleValue;
+    private double               doubleValue;
+    private byte[]               stringValue;
+    private byte[]               bytesValue;
+
+    /** Clears all fields. */
+    public ColumnValueEncoder clear()
+    {
+        type = null;
+        hasIntValue = false;
+        hasLongValue = false;
+        hasFloatValue = false;
+        hasDoubleValue = false;
+        stringValue = null;
+        bytesValue = null;
+        return this;
+    }
+
+    public void setType(Type type)
+    {
+        this.type = type;
+    }
+
+    public void setIntValue(int intValue)
+    {
+        this.intValue = intValue;
+        this.hasIntValue = true;
+    }
+
+    public void setLongValue(long longValue)
+    {
+        this.longValue = longValue;
+        this.hasLongValue = true;
+    }
+
+    public void setFloatValue(float floatValue)
+    {
+        this.floatValue = floatValue;
+        this.hasFloatValue = true;
+    }
+
+    public void setDoubleValue(double doubleValue)
+    {
+        this.doubleValue = doubleValue;
+        this.hasDoubleValue = true;
+    }
+
+    public void setStringValue(String stringValue)
+    {
+        this.stringValue = stringValue.getBytes(UTF8);
+    }
+
+    /** Sets the bytes value, which is used without copying. */
+    public void setBytesValue(byte[] bytesValue)
+    {
+        this.bytesValue = bytesValue;
+    }
+
+    /**
+     * Writes the value as a nested message in fields order.
+     * 
+     * @throws IllegalStateException Thrown if the type is not set, which is a
+     *             required field
+     */
+    public void writeTo(ProtobufBuffer out, int field)
+    {
+        if (type == null)
+            throw new IllegalStateException(
+                    "Column value is missing required field: type");
+
+        out.writeTag(field, ProtobufBuffer.WIRETYPE_LENGTH);
+        out.writeVarint32(getSerializedSize());
+        out.writeInt32(ProtobufColumnVal.TYPE_FIELD_NUMBER, type.getNumber());
+        if (hasIntValue)
+            out.writeSInt32(ProtobufColumnVal.INTVALUE_FIELD_NUMBER, intValue);
+        if (hasLongValue)
+            out.writeSInt64(ProtobufColumnVal.LONGVALUE_FIELD_NUMBER,
+                    longValue);
+        if (hasFloatValue)
+            out.writeFloat(ProtobufColumnVal.FLOATVALUE_FIELD_NUMBER,
+                    floatValue);
+        if (hasDoubleValue)
+            out.writeDouble(ProtobufColumnVal.DOUBLEVALUE_FIELD_NUMBER,
+                    doubleValue);
+        if (stringValue != null)
+            out.writeBytes(ProtobufColumnVal.STRINGVALUE_FIELD_NUMBER,
+                    stringValue);
+        if (bytesValue != null)
+            out.writeBytes(ProtobufColumnVal.BYTESVALUE_FIELD_NUMBER,
+                    bytesValue);
+    }
+
+    // Computes the size of the message contents. All tags take one byte.
+    private int getSerializedSize()
+    {
+        int size = 1 + CodedOutputStream.computeEnumSizeNoTag(type.getNumber());
+        if (hasIntValue)
+            size += 1 + CodedOutputStream.computeSInt32SizeNoTag(intValue);
+        if (hasLongValue)
+            size += 1 + CodedOutputStream.computeSInt64SizeNoTag(longValue);
+        if (hasFloatValue)
+            size += 1 + 4;
+        if (hasDoubleValue)
+            size += 1 + 8;
+        if (stringValue != null)
+            size += 1 + ProtobufBuffer.varint32Size(stringValue.length)
+                    + stringValue.length;
+        if (bytesValue != null)
+            size += 1 + ProtobufBuffer.varint32Size(bytesValue.length)
+                    + bytesValue.length;
+        return size;
+    }
+}
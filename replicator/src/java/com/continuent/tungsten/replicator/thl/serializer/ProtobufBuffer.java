@@ -0,0 +1,268 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+
+/**
+ * Growable buffer that encodes protobuf messages in wire format without
+ * building message objects. Nested messages are written in place: begin
+ * reserves room for the length, which end fills in once the contents are
+ * known. The buffer is reused from one event to the next.
+ * <p/>
+ * This class is not synchronized.
+ */
+public class ProtobufBuffer
+{
+    private static final Charset UTF8             = Charset.forName("UTF-8");
+
+    // Wire types.
+    static final int             WIRETYPE_VARINT  = 0;
+    static final int             WIRETYPE_FIXED64 = 1;
+    static final int             WIRETYPE_LENGTH  = 2;
+    static final int             WIRETYPE_FIXED32 = 5;
+
+    // Room reserved for the length of a nested message.
+    private static final int     MAX_LENGTH_BYTES = 5;
+
+    private byte[]               buf;
+    private int                  count            = 0;
+    private byte[]               lengthBuf        = new byte[MAX_LENGTH_BYTES];
+
+    /** Creates a buffer with the given initial capacity. */
+    public ProtobufBuffer(int capacity)
+    {
+        buf = new byte[capacity];
+    }
+
+    /** Discards contents so that the buffer may be reused. */
+    public void reset()
+    {
+        count = 0;
+    }
+
+    /** Returns the number of bytes written. */
+    public int size()
+    {
+        return count;
+    }
+
+    /** Returns the current capacity. */
+    public int capacity()
+    {
+        return buf.length;
+    }
+
+    /** Returns a copy of the bytes written. */
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(buf, count);
+    }
+
+    /**
+     * Writes the contents to a stream preceded by their length, which is the
+     * same format as MessageLite.writeDelimitedTo().
+     */
+    public void writeDelimitedTo(OutputStream out) throws IOException
+    {
+        int lengthBytes = encodeVarint32(lengthBuf, 0, count);
+        out.write(lengthBuf, 0, lengthBytes);
+        out.write(buf, 0, count);
+    }
+
+    /**
+     * Starts a nested message and returns its position, which must be passed
+     * to {@link #endMessage(int)}.
+     */
+    public int beginMessage(int field)
+    {
+        writeTag(field, WIRETYPE_LENGTH);
+        ensureCapacity(MAX_LENGTH_BYTES);
+        int start = count;
+        count += MAX_LENGTH_BYTES;
+        return start;
+    }
+
+    /**
+     * Ends a nested message by writing its length and moving the contents
+     * next to it.
+     */
+    public void endMessage(int start)
+    {
+        int contentStart = start + MAX_LENGTH_BYTES;
+        int length = count - contentStart;
+        int lengthBytes = encodeVarint32(buf, start, length);
+        if (lengthBytes < MAX_LENGTH_BYTES)
+        {
+            System.arraycopy(buf, contentStart, buf, start + lengthBytes,
+                    length);
+            count = start + lengthBytes + length;
+        }
+    }
+
+    /** Writes a message built elsewhere as a nested message. */
+    public void writeMessage(int field, MessageLite message)
+            throws IOException
+    {
+        int size = message.getSerializedSize();
+        writeTag(field, WIRETYPE_LENGTH);
+        writeVarint32(size);
+        ensureCapacity(size);
+        CodedOutputStream cos = CodedOutputStream.newInstance(buf, count, size);
+        message.writeTo(cos);
+        cos.checkNoSpaceLeft();
+        count += size;
+    }
+
+    /** Writes a field tag. */
+    public void writeTag(int field, int wireType)
+    {
+        writeVarint32((field << 3) | wireType);
+    }
+
+    /** Writes an int32 or enum field. */
+    public void writeInt32(int field, int value)
+    {
+        writeTag(field, WIRETYPE_VARINT);
+        if (value >= 0)
+            writeVarint32(value);
+        else
+            writeVarint64(value);
+    }
+
+    /** Writes a sint32 field. */
+    public void writeSInt32(int field, int value)
+    {
+        writeTag(field, WIRETYPE_VARINT);
+        writeVarint32(CodedOutputStream.encodeZigZag32(value));
+    }
+
+    /** Writes a sint64 field. */
+    public void writeSInt64(int field, long value)
+    {
+        writeTag(field, WIRETYPE_VARINT);
+        writeVarint64(CodedOutputStream.encodeZigZag64(value));
+    }
+
+    /** Writes a bool field. */
+    public void writeBool(int field, boolean value)
+    {
+        writeTag(field, WIRETYPE_VARINT);
+        writeByte(value ? 1 : 0);
+    }
+
+    /** Writes a float field. */
+    public void writeFloat(int field, float value)
+    {
+        writeTag(field, WIRETYPE_FIXED32);
+        int bits = Float.floatToRawIntBits(value);
+        ensureCapacity(4);
+        for (int i = 0; i < 4; i++)
+            buf[count++] = (byte) (bits >> (8 * i));
+    }
+
+    /** Writes a double field. */
+    public void writeDouble(int field, double value)
+    {
+        writeTag(field, WIRETYPE_FIXED64);
+        long bits = Double.doubleToRawLongBits(value);
+        ensureCapacity(8);
+        for (int i = 0; i < 8; i++)
+            buf[count++] = (byte) (bits >> (8 * i));
+    }
+
+    /** Writes a string field in UTF-8. */
+    public void writeString(int field, String value)
+    {
+        writeBytes(field, value.getBytes(UTF8));
+    }
+
+    /** Writes a bytes field. */
+    public void writeBytes(int field, byte[] value)
+    {
+        writeTag(field, WIRETYPE_LENGTH);
+        writeVarint32(value.length);
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, buf, count, value.length);
+        count += value.length;
+    }
+
+    /** Writes an unsigned 32-bit varint. */
+    public void writeVarint32(int value)
+    {
+        ensureCapacity(MAX_LENGTH_BYTES);
+        count += encodeVarint32(buf, count, value);
+    }
+
+    /** Writes a 64-bit varint. */
+    public void writeVarint64(long value)
+    {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0)
+        {
+            buf[count++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[count++] = (byte) value;
+    }
+
+    /** Returns the number of bytes needed to encode a 32-bit varint. */
+    public static int varint32Size(int value)
+    {
+        return CodedOutputStream.computeRawVarint32Size(value);
+    }
+
+    // Writes a single byte.
+    private void writeByte(int value)
+    {
+        ensureCapacity(1);
+        buf[count++] = (byte) value;
+    }
+
+    // Encodes a varint at the given offset and returns its length.
+    private static int encodeVarint32(byte[] dest, int offset, int value)
+    {
+        int pos = offset;
+        while ((value & ~0x7F) != 0)
+        {
+            dest[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dest[pos++] = (byte) value;
+        return pos - offset;
+    }
+
+    // Grows the buffer to hold the given number of additional bytes.
+    private void ensureCapacity(int bytes)
+    {
+        int required = count + bytes;
+        if (required > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, required));
+    }
+}
@@ -89,6 +89,13 @@ public class ProtobufSerializer implements Serializer
 
     private StringBuffer trace            = new StringBuffer();
 
+    // Buffers reused to serialize events.
+    private static final int   INITIAL_BUFFER_SIZE      = 64 * 1024;
+    private static final int   MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+    private ProtobufBuffer     writeBuffer              = new ProtobufBuffer(
+                                                                INITIAL_BUFFER_SIZE);
+    private ColumnValueEncoder valueEncoder             = new ColumnValueEncoder();
+
     /**
      * {@inheritDoc}
      * 
@@ -174,55 +181,44 @@ public class ProtobufSerializer implements Serializer
      * @see com.continuent.tungsten.replicator.thl.serializer.Serializer#serializeEvent(com.continuent.tungsten.replicator.thl.THLEvent,
      *      java.io.OutputStream)
      */
-    public void serializeEvent(THLEvent thlEvent, OutputStream outStream)
-            throws IOException
+    public synchronized void serializeEvent(THLEvent thlEvent,
+            OutputStream outStream) throws IOException
     {
-        ProtobufReplDBMSEvent.Builder protoEventBuilder = ProtobufReplDBMSEvent
-                .newBuilder();
-
         serializeHeader(thlEvent, outStream);
+
+        // Encode the event body into the reusable buffer. Fields are written
+        // in field number order, which produces the same bytes as a message
+        // built from protobuf builders.
+        ProtobufBuffer out = writeBuffer;
+        out.reset();
         ReplEvent event = thlEvent.getReplEvent();
         if (!(event instanceof ReplDBMSFilteredEvent))
         {
             // ReplDBMSFilteredEvent are serialized within the header
             ReplDBMSEvent ev = (ReplDBMSEvent) event;
 
-            ProtobufEventOption.Builder metadataBuilder;
-            for (ReplOption replOption : ev.getDBMSEvent().getMetadata())
-            {
-                metadataBuilder = ProtobufEventOption.newBuilder();
-                metadataBuilder.setName(replOption.getOptionName());
-                metadataBuilder.setValue(replOption.getOptionValue());
-                protoEventBuilder.addMetadata(metadataBuilder);
-            }
-            for (ReplOption replOption : ev.getDBMSEvent().getOptions())
-            {
-                metadataBuilder = ProtobufEventOption.newBuilder();
-                metadataBuilder.setName(replOption.getOptionName());
-                metadataBuilder.setValue(replOption.getOptionValue());
-                protoEventBuilder.addOptions(metadataBuilder);
-            }
-
             ArrayList<DBMSData> evData = ev.getData();
-
-            // Initializing protobuf builder
-            ProtobufOneChange.Builder oneChangeBuilder = null;
-            ProtobufRowChangeData.Builder rowDataBuilder = null;
-
             for (DBMSData dbmsData : evData)
             {
-                oneChangeBuilder = ProtobufOneChange.newBuilder();
                 if (dbmsData instanceof RowChangeData)
                 {
-                    oneChangeBuilder.setType(ProtobufOneChange.Type.ROW_DATA);
-
-                    RowChangeData rowEv = (RowChangeData) dbmsData;
-                    rowDataBuilder = ProtobufRowChangeData.newBuilder();
-
-                    serializeRows(rowDataBuilder, rowEv);
-                    oneChangeBuilder.setData(rowDataBuilder);
+                    // Row changes are encoded directly into the buffer.
+                    int change = out
+                            .beginMessage(ProtobufReplDBMSEvent.CHANGE_FIELD_NUMBER);
+                    out.writeInt32(ProtobufOneChange.TYPE_FIELD_NUMBER,
+                            ProtobufOneChange.Type.ROW_DATA_VALUE);
+                    int rows = out
+                            .beginMessage(ProtobufOneChange.DATA_FIELD_NUMBER);
+                    serializeRows(out, (RowChangeData) dbmsData);
+                    out.endMessage(rows);
+                    out.endMessage(change);
+                    continue;
                 }
-                else if (dbmsData instanceof LoadDataFileQuery)
+
+                // Other changes are rare and use builders.
+                ProtobufOneChange.Builder oneChangeBuilder = ProtobufOneChange
+                        .newBuilder();
+                if (dbmsData instanceof LoadDataFileQuery)
                 {
                     oneChangeBuilder
                             .setType(ProtobufOneChange.Type.LOAD_DATA_FILE_QUERY);
@@ -260,11 +256,40 @@ public class ProtobufSerializer implements Serializer
                                 + " is not implemented yet.");
                     continue;
                 }
-                protoEventBuilder.addChange(oneChangeBuilder);
+                out.writeMessage(ProtobufReplDBMSEvent.CHANGE_FIELD_NUMBER,
+                        oneChangeBuilder.build());
+            }
+
+            for (ReplOption replOption : ev.getDBMSEvent().getMetadata())
+            {
+                serializeOption(out,
+                        ProtobufReplDBMSEvent.METADATA_FIELD_NUMBER,
+                        replOption);
+            }
+            for (ReplOption replOption : ev.getDBMSEvent().getOptions())
+            {
+                serializeOption(out,
+                        ProtobufReplDBMSEvent.OPTIONS_FIELD_NUMBER, replOption);
             }
         }
-        protoEventBuilder.build().writeDelimitedTo(outStream);
+        out.writeDelimitedTo(outStream);
         outStream.flush();
+
+        // Do not hold on to the memory of an unusually large event.
+        if (out.capacity() > MAX_RETAINED_BUFFER_SIZE)
+            writeBuffer = new ProtobufBuffer(INITIAL_BUFFER_SIZE);
+    }
+
+    // Writes an option as a nested ProtobufEventOption message.
+    private void serializeOption(ProtobufBuffer out, int field,
+            ReplOption replOption)
+    {
+        int option = out.beginMessage(field);
+        out.writeString(ProtobufEventOption.NAME_FIELD_NUMBER,
+                replOption.getOptionName());
+        out.writeString(ProtobufEventOption.VALUE_FIELD_NUMBER,
+                replOption.getOptionValue());
+        out.endMessage(option);
     }
 
     private DBMSData deserializeOneChange(ProtobufOneChange protobufOneChange)
@@ -381,54 +406,45 @@ public class ProtobufSerializer implements Serializer
         return Header.parseDelimitedFrom(is);
     }
 
-    private void serializeRows(ProtobufRowChangeData.Builder rowDataBuilder,
-            RowChangeData rowEv)
+    private void serializeRows(ProtobufBuffer out, RowChangeData rowEv)
+            throws IOException
     {
-        ProtobufOneRowChange.Builder oneRowBuilder;
-        ProtobufColumnSpec.Builder colSpecBuilder;
-        ProtobufRowValue.Builder rowBuilder;
-        ProtobufColumnVal.Builder valueBuilder;
         ArrayList<OneRowChange> rowChanges = rowEv.getRowChanges();
 
-        List<ReplOption> options = rowEv.getOptions();
-        if (options != null && !options.isEmpty())
-        {
-            ProtobufEventOption.Builder optionsBuilder;
-            for (ReplOption replOption : options)
-            {
-                optionsBuilder = ProtobufEventOption.newBuilder();
-                optionsBuilder.setName(replOption.getOptionName());
-                optionsBuilder.setValue(replOption.getOptionValue());
-                rowDataBuilder.addOptions(optionsBuilder);
-            }
-        }
-
         trace = new StringBuffer();
         try
         {
             for (OneRowChange oneRowChange : rowChanges)
             {
-                oneRowBuilder = ProtobufOneRowChange.newBuilder();
-                oneRowBuilder.setSchemaName(oneRowChange.getSchemaName());
-                oneRowBuilder.setTableName(oneRowChange.getTableName());
-                oneRowBuilder.setTableId(oneRowChange.getTableId());
+                int rowChange = out
+                        .beginMessage(ProtobufRowChangeData.ROWCHANGE_FIELD_NUMBER);
+                out.writeString(ProtobufOneRowChange.SCHEMANAME_FIELD_NUMBER,
+                        oneRowChange.getSchemaName());
+                out.writeString(ProtobufOneRowChange.TABLENAME_FIELD_NUMBER,
+                        oneRowChange.getTableName());
 
                 switch (oneRowChange.getAction())
                 {
                     case INSERT :
                         if (logger.isDebugEnabled())
                             trace.append("INSERT into ");
-                        oneRowBuilder.setAction(ActionType.INSERT);
+                        out.writeInt32(
+                                ProtobufOneRowChange.ACTION_FIELD_NUMBER,
+                                ActionType.INSERT_VALUE);
                         break;
                     case DELETE :
                         if (logger.isDebugEnabled())
                             trace.append("DELETE from ");
-                        oneRowBuilder.setAction(ActionType.DELETE);
+                        out.writeInt32(
+                                ProtobufOneRowChange.ACTION_FIELD_NUMBER,
+                                ActionType.DELETE_VALUE);
                         break;
                     case UPDATE :
                         if (logger.isDebugEnabled())
                             trace.append("UPDATE ");
-                        oneRowBuilder.setAction(ActionType.UPDATE);
+                        out.writeInt32(
+                                ProtobufOneRowChange.ACTION_FIELD_NUMBER,
+                                ActionType.UPDATE_VALUE);
                         break;
                     default :
                         break;
@@ -439,109 +455,52 @@ public class ProtobufSerializer implements Serializer
                     trace.append(oneRowChange.getSchemaName());
                     trace.append(".");
                     trace.append(oneRowChange.getTableName());
-                    trace.append("\n    Columns spec :\n");
+                    trace.append("\n    Keys spec :\n");
                 }
 
-                ArrayList<ColumnSpec> list = oneRowChange.getColumnSpec();
-                for (ColumnSpec columnSpec : list)
+                // Row changes that were never decoded are copied as read.
+                OneRowChange.Decoder pending = oneRowChange.getDecoder();
+                if (pending instanceof RowDecoder)
                 {
-                    traceColumnSpec(columnSpec);
-
-                    colSpecBuilder = ProtobufColumnSpec.newBuilder();
-                    colSpecBuilder.setIndex(columnSpec.getIndex());
-                    colSpecBuilder.setLength(columnSpec.getLength());
-                    if (columnSpec.getName() != null)
-                    {
-                        colSpecBuilder.setName(columnSpec.getName());
-                    }
-                    colSpecBuilder.setNotNull(columnSpec.isNotNull());
-                    colSpecBuilder.setSigned(!columnSpec.isUnsigned());
-                    colSpecBuilder.setType(columnSpec.getType());
-                    if (columnSpec.getTypeDescription() != null)
-                    {
-                        colSpecBuilder.setTypeDescription(columnSpec
-                                .getTypeDescription());
-                    }
-                    oneRowBuilder.addColumnSpec(colSpecBuilder);
+                    ((RowDecoder) pending).copyRows(out);
                 }
-
-                if (logger.isDebugEnabled())
-                    trace.append("\n    Keys spec :\n");
-                list = oneRowChange.getKeySpec();
-                for (ColumnSpec columnSpec : list)
+                else
                 {
-                    traceColumnSpec(columnSpec);
-
-                    colSpecBuilder = ProtobufColumnSpec.newBuilder();
-                    colSpecBuilder.setIndex(columnSpec.getIndex());
-                    colSpecBuilder.setLength(columnSpec.getLength());
-                    if (columnSpec.getName() != null)
+                    ArrayList<ColumnSpec> keySpec = oneRowChange.getKeySpec();
+                    for (ColumnSpec columnSpec : keySpec)
                     {
-                        colSpecBuilder.setName(columnSpec.getName());
+                        serializeColumnSpec(out,
+                                ProtobufOneRowChange.KEYSPEC_FIELD_NUMBER,
+                                columnSpec);
                     }
-                    colSpecBuilder.setNotNull(columnSpec.isNotNull());
-                    colSpecBuilder.setSigned(!columnSpec.isUnsigned());
-                    colSpecBuilder.setType(columnSpec.getType());
-                    if (columnSpec.getTypeDescription() != null)
-                    {
-                        colSpecBuilder.setTypeDescription(columnSpec
-                                .getTypeDescription());
-                    }
-                    oneRowBuilder.addKeySpec(colSpecBuilder);
-                }
-
-                ArrayList<ArrayList<ColumnVal>> rowValues = oneRowChange
-                        .getColumnValues();
-
-                if (logger.isDebugEnabled())
-                    trace.append("\n    Columns values :\n");
-
-                for (ArrayList<ColumnVal> row : rowValues)
-                {
-                    rowBuilder = ProtobufRowValue.newBuilder();
-                    for (int i = 0; i < row.size(); i++)
-                    {
-                        if (logger.isDebugEnabled() && i > 0)
-                            trace.append(", ");
-
-                        valueBuilder = ProtobufColumnVal.newBuilder();
 
-                        ColumnVal colValue = row.get(i);
-                        ColumnSpec colSpec = oneRowChange.getColumnSpec()
-                                .get(i);
-                        serializeRowValue(valueBuilder, colValue, colSpec);
-                        rowBuilder.addColumnValue(valueBuilder);
-                    }
-                    oneRowBuilder.addColumnValues(rowBuilder);
                     if (logger.isDebugEnabled())
-                        trace.append("\n");
-                }
-
-                if (logger.isDebugEnabled())
-                    trace.append("\n    Keys values :\n");
-
-                rowValues = oneRowChange.getKeyValues();
-                for (ArrayList<ColumnVal> row : rowValues)
-                {
-                    rowBuilder = ProtobufRowValue.newBuilder();
-                    for (int i = 0; i < row.size(); i++)
+                        trace.append("\n    Columns spec :\n");
+                    ArrayList<ColumnSpec> columnSpec = oneRowChange
+                            .getColumnSpec();
+                    for (ColumnSpec spec : columnSpec)
                     {
-                        if (logger.isDebugEnabled() && i > 0)
-                            trace.append(", ");
-
-                        valueBuilder = ProtobufColumnVal.newBuilder();
-
-                        ColumnVal colValue = row.get(i);
-                        ColumnSpec colSpec = oneRowChange.getKeySpec().get(i);
-                        serializeRowValue(valueBuilder, colValue, colSpec);
-                        rowBuilder.addColumnValue(valueBuilder);
+                        serializeColumnSpec(out,
+                                ProtobufOneRowChange.COLUMNSPEC_FIELD_NUMBER,
+                                spec);
                     }
+
                     if (logger.isDebugEnabled())
-                        trace.append("\n");
+                        trace.append("\n    Keys values :\n");
+                    serializeRowValues(out,
+                            ProtobufOneRowChange.KEYVALUES_FIELD_NUMBER,
+                            oneRowChange.getKeyValues(), keySpec);
 
-                    oneRowBuilder.addKeyValues(rowBuilder);
+                    if (logger.isDebugEnabled())
+                        trace.append("\n    Columns values :\n");
+                    serializeRowValues(out,
+                            ProtobufOneRowChange.COLUMNVALUES_FIELD_NUMBER,
+                            oneRowChange.getColumnValues(), columnSpec);
                 }
-                rowDataBuilder.addRowChange(oneRowBuilder);
+
+                out.writeSInt64(ProtobufOneRowChange.TABLEID_FIELD_NUMBER,
+                        oneRowChange.getTableId());
+                out.endMessage(rowChange);
             }
         }
         catch (Exception e)
@@ -550,11 +509,72 @@ public class ProtobufSerializer implements Serializer
                 logger.debug("Failure while storing " + trace.toString(), e);
             throw new RuntimeException(e);
         }
+
+        List<ReplOption> options = rowEv.getOptions();
+        if (options != null)
+        {
+            for (ReplOption replOption : options)
+            {
+                serializeOption(out,
+                        ProtobufRowChangeData.OPTIONS_FIELD_NUMBER, replOption);
+            }
+        }
+
         if (logger.isDebugEnabled())
             logger.debug(trace.toString());
     }
 
-    private void serializeRowValue(ProtobufColumnVal.Builder valueBuilder,
+    // Writes a column specification as a nested ProtobufColumnSpec message.
+    private void serializeColumnSpec(ProtobufBuffer out, int field,
+            ColumnSpec columnSpec)
+    {
+        traceColumnSpec(columnSpec);
+
+        int spec = out.beginMessage(field);
+        out.writeInt32(ProtobufColumnSpec.INDEX_FIELD_NUMBER,
+                columnSpec.getIndex());
+        if (columnSpec.getName() != null)
+            out.writeString(ProtobufColumnSpec.NAME_FIELD_NUMBER,
+                    columnSpec.getName());
+        out.writeInt32(ProtobufColumnSpec.TYPE_FIELD_NUMBER,
+                columnSpec.getType());
+        out.writeBool(ProtobufColumnSpec.SIGNED_FIELD_NUMBER,
+                !columnSpec.isUnsigned());
+        out.writeInt32(ProtobufColumnSpec.LENGTH_FIELD_NUMBER,
+                columnSpec.getLength());
+        out.writeBool(ProtobufColumnSpec.NOTNULL_FIELD_NUMBER,
+                columnSpec.isNotNull());
+        if (columnSpec.getTypeDescription() != null)
+            out.writeString(ProtobufColumnSpec.TYPEDESCRIPTION_FIELD_NUMBER,
+                    columnSpec.getTypeDescription());
+        out.endMessage(spec);
+    }
+
+    // Writes rows of values as nested ProtobufRowValue messages.
+    private void serializeRowValues(ProtobufBuffer out, int field,
+            ArrayList<ArrayList<ColumnVal>> rowValues,
+            ArrayList<ColumnSpec> specs)
+    {
+        for (ArrayList<ColumnVal> row : rowValues)
+        {
+            int rowValue = out.beginMessage(field);
+            for (int i = 0; i < row.size(); i++)
+            {
+                if (logger.isDebugEnabled() && i > 0)
+                    trace.append(", ");
+
+                serializeRowValue(valueEncoder.clear(), row.get(i),
+                        specs.get(i));
+                valueEncoder.writeTo(out,
+                        ProtobufRowValue.COLUMNVALUE_FIELD_NUMBER);
+            }
+            out.endMessage(rowValue);
+            if (logger.isDebugEnabled())
+                trace.append("\n");
+        }
+    }
+
+    private void serializeRowValue(ColumnValueEncoder valueBuilder,
             ColumnVal colValue, ColumnSpec colSpec)
     {
         if (logger.isDebugEnabled())
@@ -651,8 +671,7 @@ public class ProtobufSerializer implements Serializer
                 BigInteger unscaledValue = bigDec.unscaledValue();
                 int scale = bigDec.scale();
                 valueBuilder.setType(Type.DECIMAL);
-                valueBuilder.setBytesValue(ByteString.copyFrom(unscaledValue
-                        .toByteArray()));
+                valueBuilder.setBytesValue(unscaledValue.toByteArray());
                 valueBuilder.setIntValue(scale);
                 break;
             case Types.FLOAT :
@@ -799,7 +818,7 @@ public class ProtobufSerializer implements Serializer
                 {
                     byte[] blob = ((SerialBlob) value).getBytes(1,
                             (int) ((SerialBlob) value).length());
-                    valueBuilder.setBytesValue(ByteString.copyFrom(blob));
+                    valueBuilder.setBytesValue(blob);
                 }
                 catch (SerialException e)
                 {
@@ -829,8 +848,7 @@ public class ProtobufSerializer implements Serializer
                         trace.append(" / ");
                         trace.append(value);
                     }
-                    valueBuilder.setBytesValue(ByteString
-                            .copyFrom((byte[]) value));
+                    valueBuilder.setBytesValue((byte[]) value);
                     valueBuilder.setType(Type.BINARYSTRING);
                 }
                 break;
@@ -871,21 +889,77 @@ public class ProtobufSerializer implements Serializer
             if (oneRowChange.hasTableId())
                 rowChange.setTableId(oneRowChange.getTableId());
 
-            for (ProtobufColumnSpec columnSpec : oneRowChange.getKeySpecList())
-            {
-                ColumnSpec c = rowChange.new ColumnSpec();
-                c.setIndex(columnSpec.getIndex());
-                c.setLength(columnSpec.getLength());
-                c.setName(columnSpec.getName());
-                c.setNotNull(columnSpec.getNotNull());
-                c.setSigned(columnSpec.getSigned());
-                c.setType(columnSpec.getType());
-                c.setTypeDescription(columnSpec.getTypeDescription());
-                rowChange.getKeySpec().add(c);
-            }
+            // Defer decoding of specifications and values to first access.
+            rowChange.setDecoder(new RowDecoder(oneRowChange));
+            data.appendOneRowChange(rowChange);
+        }
 
-            for (ProtobufColumnSpec columnSpec : oneRowChange
-                    .getColumnSpecList())
+        for (ProtobufEventOption rowsDataOption : rows.getOptionsList())
+        {
+            data.addOption(rowsDataOption.getName(), rowsDataOption.getValue());
+        }
+
+        return data;
+    }
+
+    /**
+     * Decodes column specifications and values of a row change from the
+     * protobuf message it was read from. Until decoding occurs the message is
+     * also used to serialize the row change again without decoding it.
+     */
+    private class RowDecoder implements OneRowChange.Decoder
+    {
+        private final ProtobufOneRowChange oneRowChange;
+
+        RowDecoder(ProtobufOneRowChange oneRowChange)
+        {
+            this.oneRowChange = oneRowChange;
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see com.continuent.tungsten.replicator.dbms.OneRowChange.Decoder#decode(com.continuent.tungsten.replicator.dbms.OneRowChange,
+         *      java.util.ArrayList, java.util.ArrayList, java.util.ArrayList,
+         *      java.util.ArrayList)
+         */
+        public void decode(OneRowChange rowChange,
+                ArrayList<ColumnSpec> keySpec,
+                ArrayList<ColumnSpec> columnSpec,
+                ArrayList<ArrayList<ColumnVal>> keyValues,
+                ArrayList<ArrayList<ColumnVal>> columnValues)
+        {
+            decodeSpecs(rowChange, oneRowChange.getKeySpecList(), keySpec);
+            decodeSpecs(rowChange, oneRowChange.getColumnSpecList(),
+                    columnSpec);
+            decodeValues(rowChange, oneRowChange.getColumnValuesList(),
+                    columnValues);
+            decodeValues(rowChange, oneRowChange.getKeyValuesList(),
+                    keyValues);
+        }
+
+        /** Copies specifications and values to a buffer as they were read. */
+        void copyRows(ProtobufBuffer out) throws IOException
+        {
+            for (ProtobufColumnSpec spec : oneRowChange.getKeySpecList())
+                out.writeMessage(ProtobufOneRowChange.KEYSPEC_FIELD_NUMBER,
+                        spec);
+            for (ProtobufColumnSpec spec : oneRowChange.getColumnSpecList())
+                out.writeMessage(
+                        ProtobufOneRowChange.COLUMNSPEC_FIELD_NUMBER, spec);
+            for (ProtobufRowValue row : oneRowChange.getKeyValuesList())
+                out.writeMessage(ProtobufOneRowChange.KEYVALUES_FIELD_NUMBER,
+                        row);
+            for (ProtobufRowValue row : oneRowChange.getColumnValuesList())
+                out.writeMessage(
+                        ProtobufOneRowChange.COLUMNVALUES_FIELD_NUMBER, row);
+        }
+
+        private void decodeSpecs(OneRowChange rowChange,
+                List<ProtobufColumnSpec> specs, ArrayList<ColumnSpec> list)
+        {
+            list.ensureCapacity(specs.size());
+            for (ProtobufColumnSpec columnSpec : specs)
             {
                 ColumnSpec c = rowChange.new ColumnSpec();
                 c.setIndex(columnSpec.getIndex());
@@ -895,31 +969,19 @@ public class ProtobufSerializer implements Serializer
                 c.setSigned(columnSpec.getSigned());
                 c.setType(columnSpec.getType());
                 c.setTypeDescription(columnSpec.getTypeDescription());
-                rowChange.getColumnSpec().add(c);
-            }
-
-            ArrayList<ColumnVal> colValues = null;
-
-            for (ProtobufRowValue rowValue : oneRowChange.getColumnValuesList())
-            {
-                colValues = new ArrayList<ColumnVal>();
-                for (ProtobufColumnVal columnVal : rowValue
-                        .getColumnValueList())
-                {
-                    ColumnVal v = rowChange.new ColumnVal();
-                    Serializable value = deserializeColumnValue(columnVal);
-                    if (value == null)
-                        v.setValueNull();
-                    else
-                        v.setValue(value);
-                    colValues.add(v);
-                }
-                rowChange.getColumnValues().add(colValues);
+                list.add(c);
             }
+        }
 
-            for (ProtobufRowValue rowValue : oneRowChange.getKeyValuesList())
+        private void decodeValues(OneRowChange rowChange,
+                List<ProtobufRowValue> rows,
+                ArrayList<ArrayList<ColumnVal>> list)
+        {
+            list.ensureCapacity(rows.size());
+            for (ProtobufRowValue rowValue : rows)
             {
-                colValues = new ArrayList<ColumnVal>();
+                ArrayList<ColumnVal> colValues = new ArrayList<ColumnVal>(
+                        rowValue.getColumnValueCount());
                 for (ProtobufColumnVal columnVal : rowValue
                         .getColumnValueList())
                 {
@@ -931,18 +993,9 @@ public class ProtobufSerializer implements Serializer
                         v.setValue(value);
                     colValues.add(v);
                 }
-                rowChange.getKeyValues().add(colValues);
+                list.add(colValues);
             }
-
-            data.appendOneRowChange(rowChange);
         }
-
-        for (ProtobufEventOption rowsDataOption : rows.getOptionsList())
-        {
-            data.addOption(rowsDataOption.getName(), rowsDataOption.getValue());
-        }
-
-        return data;
     }
 
     private Serializable deserializeColumnValue(ProtobufColumnVal columnVal)
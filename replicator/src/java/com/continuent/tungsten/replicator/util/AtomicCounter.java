@@ -22,12 +22,17 @@
 
 package com.continuent.tungsten.replicator.util;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.log4j.Logger;
 
 /**
  * Defines a simple "atomic counter" that allows clients to increment the
  * encapsulated sequence number and wait synchronously until particular values
- * are reached. This class is thread-safe.
+ * are reached. This class is thread-safe. Updates do not take locks; threads
+ * that wait are parked and only those whose desired value has been reached
+ * are woken up.
  * 
  * @author <a href="mailto:teemu.ollakka@continuent.com">Teemu Ollakka</a>
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
@@ -35,8 +40,9 @@ import org.apache.log4j.Logger;
  */
 public class AtomicCounter
 {
-    private static Logger logger = Logger.getLogger(AtomicCounter.class);
-    private long          seqno;
+    private static Logger          logger  = Logger.getLogger(AtomicCounter.class);
+    private final AtomicLong       seqno;
+    private final ThresholdWaiters waiters = new ThresholdWaiters();
 
     /**
      * Creates a new <code>Sequencer</code> object with a starting value.
@@ -45,47 +51,53 @@ public class AtomicCounter
      */
     public AtomicCounter(long seqno)
     {
-        this.seqno = seqno;
+        this.seqno = new AtomicLong(seqno);
     }
 
     /**
      * Get value of current seqno.
      */
-    public synchronized long getSeqno()
+    public long getSeqno()
     {
-        return seqno;
+        return seqno.get();
     }
 
     /**
      * Sets values of current seqno. Value can only be set upward.
      */
-    public synchronized void setSeqno(long seqno)
+    public void setSeqno(long seqno)
     {
-        if (this.seqno < seqno)
+        for (;;)
         {
-            this.seqno = seqno;
-            notifyAll();
+            long current = this.seqno.get();
+            if (current >= seqno)
+                return;
+            if (this.seqno.compareAndSet(current, seqno))
+            {
+                waiters.release(seqno);
+                return;
+            }
         }
     }
 
     /**
      * Increment seqno and notify waiters, then return value.
      */
-    public synchronized long incrAndGetSeqno()
+    public long incrAndGetSeqno()
     {
-        seqno++;
-        notifyAll();
-        return seqno;
+        long value = seqno.incrementAndGet();
+        waiters.release(value);
+        return value;
     }
 
     /**
      * Decrement seqno and notify waiters, then return value.
      */
-    public synchronized long decrAndGetSeqno()
+    public long decrAndGetSeqno()
     {
-        seqno--;
-        notifyAll();
-        return seqno;
+        long value = seqno.decrementAndGet();
+        waiters.release(value);
+        return value;
     }
 
     /**
@@ -94,13 +106,14 @@ public class AtomicCounter
      * @param waitSeqno Sequence number to wait for
      * @throws InterruptedException if somebody cancels the wait
      */
-    public synchronized void waitSeqnoGreaterEqual(long waitSeqno)
+    public void waitSeqnoGreaterEqual(long waitSeqno)
             throws InterruptedException
     {
+        if (waitSeqno <= seqno.get())
+            return;
         if (logger.isDebugEnabled())
             logger.debug("Waiting for sequence number: " + waitSeqno);
-        while (waitSeqno > seqno)
-            this.wait();
+        await(waitSeqno, true, 0);
     }
 
     /**
@@ -112,28 +125,21 @@ public class AtomicCounter
      * @return True if wait was successful, otherwise false
      * @throws InterruptedException if somebody cancels the wait
      */
-    public synchronized boolean waitSeqnoGreaterEqual(long waitSeqno,
-            long millis) throws InterruptedException
+    public boolean waitSeqnoGreaterEqual(long waitSeqno, long millis)
+            throws InterruptedException
     {
+        if (waitSeqno <= seqno.get())
+            return true;
         if (logger.isDebugEnabled())
             logger.debug("Waiting for sequence number: " + waitSeqno);
 
-        // Compute end time.
-        long startMillis = System.currentTimeMillis();
-        long endMillis = startMillis + millis;
-
-        // Loop until the end time is met or exceeded.
-        while (waitSeqno > seqno)
-        {
-            this.wait(millis);
-            long currentMillis = System.currentTimeMillis();
-            millis = endMillis - currentMillis;
-            if (millis <= 0)
-                break;
-        }
+        // Wait until the end time is met or exceeded. A zero timeout returns
+        // at once rather than waiting forever.
+        if (millis > 0)
+            await(waitSeqno, true, TimeUnit.MILLISECONDS.toNanos(millis));
 
         // Return true if we achieved the desired sequence number.
-        return (waitSeqno <= seqno);
+        return (waitSeqno <= seqno.get());
     }
 
     /**
@@ -142,20 +148,56 @@ public class AtomicCounter
      * @param waitSeqno Sequence number to wait for
      * @throws InterruptedException if somebody cancels the wait
      */
-    public synchronized void waitSeqnoLessEqual(long waitSeqno)
-            throws InterruptedException
+    public void waitSeqnoLessEqual(long waitSeqno) throws InterruptedException
     {
+        if (waitSeqno >= seqno.get())
+            return;
         if (logger.isDebugEnabled())
             logger.debug("Waiting for sequence number: " + waitSeqno);
-        while (waitSeqno < seqno)
-            this.wait();
+        await(waitSeqno, false, 0);
+    }
+
+    // Parks the current thread until the seqno reaches the threshold or the
+    // timeout, if any, expires.
+    private void await(long threshold, boolean atLeast, long nanos)
+            throws InterruptedException
+    {
+        // Yield a few times first, as the value often arrives quickly and
+        // parking costs a context switch on both sides.
+        for (int i = 0; i < ThresholdWaiters.YIELDS_BEFORE_PARK; i++)
+        {
+            if (ThresholdWaiters.isSatisfied(seqno.get(), threshold, atLeast))
+                return;
+            Thread.yield();
+        }
+
+        ThresholdWaiters.Waiter waiter = waiters.add(threshold, atLeast);
+        try
+        {
+            long deadline = System.nanoTime() + nanos;
+            while (!waiter.isSatisfied(seqno.get()))
+            {
+                long remaining = 0;
+                if (nanos > 0)
+                {
+                    remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        break;
+                }
+                ThresholdWaiters.park(this, remaining);
+            }
+        }
+        finally
+        {
+            waiters.remove(waiter);
+        }
     }
 
     /**
      * Print a string representation of the value.
      */
-    public synchronized String toString()
+    public String toString()
     {
-        return this.getClass().toString() + " [" + seqno + "]";
+        return this.getClass().toString() + " [" + seqno.get() + "]";
     }
 }
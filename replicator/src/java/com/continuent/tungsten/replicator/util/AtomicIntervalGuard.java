@@ -23,38 +23,51 @@
 package com.continuent.tungsten.replicator.util;
 
 import java.sql.Timestamp;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
 
 /**
  * Tracks the sequence number and time interval between a group of tasks
  * processing transactions to ensure that the first and last tasks do not get
- * too far apart in the log. Class methods are fully synchronized, which results
- * in a large number of lock requests. Changes to these classes should be
- * carefully checked for performance via unit tests.
+ * too far apart in the log. Every task reports its position frequently, so
+ * reports do not take locks. Each task owns a slot that holds an immutable
+ * snapshot of its position; a report replaces the snapshot with a single
+ * volatile write. Queries scan the slots, which is cheap for the number of
+ * tasks in a stage. Threads waiting in {@link #waitMinTime(long, long)} are
+ * parked and woken only once the trailing time reaches what they wait for.
+ * Changes to these classes should be carefully checked for performance via
+ * unit tests.
  * <p>
  * Since the initial implementation this class has been extended to add a datum
  * that may optionally be stored with each thread. This allows clients to track
  * additional hi/low properties for themselves.
+ * <p>
+ * Each task must report its own position from one thread at a time.
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  */
 public class AtomicIntervalGuard<D>
 {
-    // Simple class to hold task information. The id value is the key.
-    // The before and after fields are used to implement a linked list of
-    // threads to show ordering by sequence number.
+    // Immutable snapshot of task information. The id value is the key.
     private class ThreadPosition
     {
-        int            id;
-        long           seqno;
-        long           time;
-        D              datum;
-        long           reportTime;
-        ThreadPosition before;    // Lower seqno
-        ThreadPosition after;     // Higher seqno
+        final int  id;
+        final long seqno;
+        final long time;
+        final D    datum;
+        final long reportTime;
+
+        ThreadPosition(int id, long seqno, long time, D datum, long reportTime)
+        {
+            this.id = id;
+            this.seqno = seqno;
+            this.time = time;
+            this.datum = datum;
+            this.reportTime = reportTime;
+        }
 
         public String toString()
         {
@@ -63,14 +76,27 @@ public class AtomicIntervalGuard<D>
         }
     }
 
-    // Map to hold information on each thread.
-    private Map<Integer, ThreadPosition> array;
+    // Holds the current position of a task, which is null if the task has
+    // not reported or has been removed.
+    private class Slot
+    {
+        final int               id;
+        volatile ThreadPosition position;
+
+        Slot(int id)
+        {
+            this.id = id;
+        }
+    }
+
+    // Map to find the slot of each thread.
+    private ConcurrentHashMap<Integer, Slot> slotMap;
 
-    // The first thread position in the list. This has the lowest seqno value.
-    private ThreadPosition               head;
+    // List of slots for scanning. Slots are added but never removed.
+    private CopyOnWriteArrayList<Slot>       slots   = new CopyOnWriteArrayList<Slot>();
 
-    // The last thread position in the list. This has the highest seqno value.
-    private ThreadPosition               tail;
+    // Threads waiting for the trailing time to advance.
+    private ThresholdWaiters                 waiters = new ThresholdWaiters();
 
     /**
      * Allocates a thread interval array.
@@ -79,39 +105,34 @@ public class AtomicIntervalGuard<D>
      */
     public AtomicIntervalGuard(int expected)
     {
-        array = new HashMap<Integer, ThreadPosition>(expected);
+        slotMap = new ConcurrentHashMap<Integer, Slot>(expected);
     }
 
     /**
      * Report position for an individual task without added datum.
      */
-    public synchronized void report(int id, long seqno, long time)
+    public void report(int id, long seqno, long time)
     {
         report(id, seqno, time, null);
     }
 
     /**
      * Report position for an individual task. This call makes an important
-     * assumption that sequence numbers never move backward, which simplifies
-     * maintenance of the array.
+     * assumption that sequence numbers never move backward.
      * 
      * @param id Thread ID
      * @param seqno Sequence number reached by thread
      * @param time Original timestamp of transaction
      * @param datum An optional datum associated with the transaction
      */
-    public synchronized void report(int id, long seqno, long time, D datum)
+    public void report(int id, long seqno, long time, D datum)
     {
-        processReport(id, seqno, time, datum);
-
-        // Notify anyone who is waiting.
-        notifyAll();
+        report(id, seqno, time, System.currentTimeMillis(), datum);
     }
 
     /**
      * Report position for an individual task. This call makes an important
-     * assumption that sequence numbers never move backward, which simplifies
-     * maintenance of the array.
+     * assumption that sequence numbers never move backward.
      * 
      * @param id Thread ID
      * @param seqno Sequence number reached by thread
@@ -120,121 +141,42 @@ public class AtomicIntervalGuard<D>
      * @param datum An optional datum associated with the transaction
      * @throws ReplicatorException Thrown if there is an illegal update.
      */
-    public synchronized void report(int id, long seqno, long time,
-            long reportTime, D datum)
+    public void report(int id, long seqno, long time, long reportTime, D datum)
     {
-        processReport(id, seqno, time, datum);
-
-        ThreadPosition tp = array.get(id);
-        tp.reportTime = reportTime;
-
-        // Notify anyone who is waiting.
-        notifyAll();
-
+        Slot slot = slotMap.get(id);
+        if (slot == null)
+            slot = addSlot(id);
+
+        // Ensure thread seqno does not move backwards.
+        ThreadPosition previous = slot.position;
+        if (previous != null && previous.seqno > seqno)
+            bug("Thread reporting position moved backwards: task=" + id
+                    + " previous seqno=" + previous.seqno + " new seqno="
+                    + seqno);
+        slot.position = new ThreadPosition(id, seqno, time, datum, reportTime);
+
+        // Wake up anyone whose wait is over.
+        releaseWaiters();
     }
 
-    /**
-     * Insert the reported position into the array using the seqno for ordering.
-     */
-    private void processReport(int id, long seqno, long time, D datum)
+    // Adds a slot for a thread that has not reported before.
+    private Slot addSlot(int id)
     {
-        ThreadPosition tp = array.get(id);
+        Slot slot = new Slot(id);
+        Slot existing = slotMap.putIfAbsent(id, slot);
+        if (existing != null)
+            return existing;
+        slots.add(slot);
+        return slot;
+    }
 
-        // See if this thread is already known.
-        if (tp == null)
-        {
-            // It is not. Allocate and add to the hash map.
-            tp = new ThreadPosition();
-            tp.id = id;
-            tp.seqno = seqno;
-            tp.time = time;
-            tp.reportTime = System.currentTimeMillis();
-            tp.datum = datum;
-            array.put(id, tp);
-
-            // Order within the linked list.
-            if (head == null)
-            {
-                // We are starting a new list. This instance is now head and
-                // tail.
-                head = tp;
-                tail = tp;
-            }
-            else
-            {
-                // We are inserting in an existing list.
-                ThreadPosition nextTp = head;
-                while (nextTp != null)
-                {
-                    // If the next item in the list has a higher sequence
-                    // number, we insert before it.
-                    if (nextTp.seqno > tp.seqno)
-                    {
-                        if (nextTp.before != null)
-                            nextTp.before.after = tp;
-                        tp.before = nextTp.before;
-                        tp.after = nextTp;
-                        nextTp.before = tp;
-                        break;
-                    }
-                    nextTp = nextTp.after;
-                }
-                // If we did not find anything, we are at the tail.
-                if (nextTp == null)
-                {
-                    tail.after = tp;
-                    tp.before = tail;
-                    tail = tp;
-                }
-
-                // If we do not have anything before update our position to be
-                // head of the list.
-                if (tp.before == null)
-                    head = tp;
-            }
-        }
-        else
+    // Unparks threads waiting for the trailing time to reach their time.
+    private void releaseWaiters()
+    {
+        if (!waiters.isEmpty())
         {
-            // The thread is already in the map. Ensure thread seqno does not
-            // move backwards and update its information.
-            if (tp.seqno > seqno)
-                bug("Thread reporting position moved backwards: task=" + id
-                        + " previous seqno=" + tp.seqno + " new seqno=" + seqno);
-            tp.seqno = seqno;
-            tp.time = time;
-            tp.reportTime = System.currentTimeMillis();
-            tp.datum = datum;
-
-            // Since seqno values only increase, we may need to move back in the
-            // list. See if we need to move back now.
-            ThreadPosition nextTp = tp.after;
-            while (nextTp != null && tp.seqno > tp.after.seqno)
-            {
-                // First fix up nodes before and after this pair so they
-                // point to each other.
-                if (tp.before != null)
-                    tp.before.after = nextTp;
-                if (nextTp.after != null)
-                    nextTp.after.before = tp;
-
-                // Now switch the pointers on the nodes themselves.
-                nextTp.before = tp.before;
-                tp.after = nextTp.after;
-                nextTp.after = tp;
-                tp.before = nextTp;
-
-                // See if we were at the head. If so, move the switched
-                // item to the head.
-                if (head == tp)
-                    head = nextTp;
-
-                // Move to the next item in the linked list.
-                nextTp = tp.after;
-            }
-
-            // See if we are now at the tail. If so, update the tail.
-            if (tp.after == null)
-                tail = tp;
+            ThreadPosition low = low();
+            waiters.release(low == null ? Long.MAX_VALUE : low.time);
         }
     }
 
@@ -243,81 +185,92 @@ public class AtomicIntervalGuard<D>
      * 
      * @param id Thread ID
      */
-    public synchronized void unreport(int id)
+    public void unreport(int id)
     {
-        ThreadPosition tp = array.remove(id);
-        if (tp == null)
+        // Removal is idempotent, so we do nothing if the thread position
+        // does not exist.
+        Slot slot = slotMap.get(id);
+        if (slot != null && slot.position != null)
         {
-            // Removal is idempotent, so we do nothing if the thread position
-            // does not exist.
+            slot.position = null;
+            releaseWaiters();
         }
-        else
+    }
+
+    // Returns the position with the lowest seqno or null if there is none.
+    private ThreadPosition low()
+    {
+        ThreadPosition low = null;
+        for (Slot slot : slots)
         {
-            // Fill in the link from the tail to the head.
-            if (tp.after == null)
-            {
-                // We are at the tail.
-                tail = tp.before;
-            }
-            else
-            {
-                // We are before the tail.
-                tp.after.before = tp.before;
-            }
+            ThreadPosition tp = slot.position;
+            if (tp != null && (low == null || tp.seqno < low.seqno))
+                low = tp;
+        }
+        return low;
+    }
 
-            // Fill in the link from the head to the tail.
-            if (tp.before == null)
-            {
-                // We are at the head.
-                head = tp.after;
-            }
-            else
-            {
-                // We are after the head.
-                tp.before.after = tp.after;
-            }
+    // Returns the position with the highest seqno or null if there is none.
+    private ThreadPosition hi()
+    {
+        ThreadPosition hi = null;
+        for (Slot slot : slots)
+        {
+            ThreadPosition tp = slot.position;
+            if (tp != null && (hi == null || tp.seqno >= hi.seqno))
+                hi = tp;
         }
+        return hi;
     }
 
     /**
      * Return the number of entries currently in the array.
      */
-    public synchronized int size()
+    public int size()
     {
-        return array.size();
+        int size = 0;
+        for (Slot slot : slots)
+        {
+            if (slot.position != null)
+                size++;
+        }
+        return size;
     }
 
     /**
      * Get lowest seqno in the array.
      */
-    public synchronized long getLowSeqno()
+    public long getLowSeqno()
     {
-        if (head == null)
+        ThreadPosition low = low();
+        if (low == null)
             return -1;
         else
-            return head.seqno;
+            return low.seqno;
     }
 
     /** Return the lowest time in the array. */
-    public synchronized long getLowTime()
+    public long getLowTime()
     {
-        if (head == null)
+        ThreadPosition low = low();
+        if (low == null)
             return -1;
         else
-            return head.time;
+            return low.time;
     }
 
     /**
      * Return lowest latency in milliseconds between the commit time and the
      * automatically generated commit time in the array.
      */
-    public synchronized long getLowLatency()
+    public long getLowLatency()
     {
-        if (head == null)
+        ThreadPosition low = low();
+        if (low == null)
             return 0;
         else
         {
-            long latency = head.reportTime - head.time;
+            long latency = low.reportTime - low.time;
             if (latency >= 0)
                 return latency;
             else
@@ -326,63 +279,59 @@ public class AtomicIntervalGuard<D>
     }
 
     /** Return the datum of the lowest entry in the array. */
-    public synchronized D getLowDatum()
+    public D getLowDatum()
     {
-        if (head == null)
+        ThreadPosition low = low();
+        if (low == null)
             return null;
         else
-            return head.datum;
+            return low.datum;
     }
 
     /**
      * Get highest seqno in the array.
      */
-    public synchronized long getHiSeqno()
+    public long getHiSeqno()
     {
-        if (tail == null)
+        ThreadPosition hi = hi();
+        if (hi == null)
             return -1;
         else
-            return tail.seqno;
+            return hi.seqno;
     }
 
     /** Return the highest time in the array. */
-    public synchronized long getHiTime()
+    public long getHiTime()
     {
-        if (tail == null)
+        ThreadPosition hi = hi();
+        if (hi == null)
             return -1;
         else
-            return tail.time;
+            return hi.time;
     }
 
     /**
      * Return the latency in seconds between the commit time and the
-     * automatically generated commit time.
+     * automatically generated commit time. This is measured on the lowest
+     * entry.
      */
-    public synchronized long getHiLatency()
+    public long getHiLatency()
     {
-        if (tail == null)
-            return 0;
-        else
-        {
-            long latency = head.reportTime - head.time;
-            if (latency >= 0)
-                return latency;
-            else
-                return 0;
-        }
+        return getLowLatency();
     }
 
     /** Return the datum of the highest entry in the array. */
-    public synchronized D getHiDatum()
+    public D getHiDatum()
     {
-        if (tail == null)
+        ThreadPosition hi = hi();
+        if (hi == null)
             return null;
         else
-            return tail.datum;
+            return hi.datum;
     }
 
     /** Return the interval between highest and lowest values. */
-    public synchronized long getInterval()
+    public long getInterval()
     {
         return getHiTime() - getLowTime();
     }
@@ -397,18 +346,33 @@ public class AtomicIntervalGuard<D>
      *            seqno
      * @return Returns the head time or 0 if array is empty
      */
-    public synchronized long waitMinTime(long time, long seqno)
-            throws InterruptedException
+    public long waitMinTime(long time, long seqno) throws InterruptedException
     {
-        // while (time > head.time && seqno > head.seqno)
-        while (head != null && time > head.time)
+        ThresholdWaiters.Waiter waiter = null;
+        try
         {
-            wait(1000);
+            for (;;)
+            {
+                ThreadPosition low = low();
+                if (low == null)
+                    return 0;
+                else if (time <= low.time)
+                    return low.time;
+
+                // Register before checking again so that a report between
+                // the check and parking is not missed. Parking times out
+                // after a second as a safeguard.
+                if (waiter == null)
+                    waiter = waiters.add(time, true);
+                else
+                    ThresholdWaiters.park(this, TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+        finally
+        {
+            if (waiter != null)
+                waiters.remove(waiter);
         }
-        if (head == null)
-            return 0;
-        else
-            return head.time;
     }
 
     /**
@@ -416,17 +380,19 @@ public class AtomicIntervalGuard<D>
      * 
      * @see java.lang.Object#toString()
      */
-    public synchronized String toString()
+    public String toString()
     {
         StringBuffer sb = new StringBuffer();
         sb.append(this.getClass().getSimpleName());
-        if (array.size() > 0)
+        ThreadPosition low = low();
+        ThreadPosition hi = hi();
+        if (low != null && hi != null)
         {
-            sb.append(" low_seqno=").append(head.seqno);
-            sb.append(" low_timestamp=").append(new Timestamp(head.time));
-            sb.append(" hi_seqno=").append(tail.seqno);
-            sb.append(" hi_timestamp=").append(new Timestamp(tail.time));
-            sb.append(" time_interval=").append(tail.time - head.time)
+            sb.append(" low_seqno=").append(low.seqno);
+            sb.append(" low_timestamp=").append(new Timestamp(low.time));
+            sb.append(" hi_seqno=").append(hi.seqno);
+            sb.append(" hi_timestamp=").append(new Timestamp(hi.time));
+            sb.append(" time_interval=").append(hi.time - low.time)
                     .append("ms");
         }
         else
@@ -440,44 +406,28 @@ public class AtomicIntervalGuard<D>
      * Ensures that the array is consistent by checking various safety
      * conditions. (Where's Eiffel when you need it?)
      */
-    public synchronized void validate() throws RuntimeException
+    public void validate() throws RuntimeException
     {
-        if (head == null)
-        {
-            if (tail != null)
-                bug("Head is null but tail is set");
-            else if (array.size() != 0)
-                bug("Array is size > 0 when head and tail are empty");
-        }
-        else
+        if (slots.size() != slotMap.size())
+            bug("Slot list size is different from map size: list="
+                    + slots.size() + " map=" + slotMap.size());
+        for (Slot slot : slots)
         {
-            if (tail == null)
-                bug("Head is set but not tail");
-            else if (head.before != null)
-                bug("Head position points to previous position: " + head.after);
-            else if (tail.after != null)
-                bug("Tail position points to following position: " + tail.after);
-            else
-            {
-                ThreadPosition tp = head;
-                int linkedSize;
-                for (linkedSize = 1; linkedSize < array.size(); linkedSize++)
-                {
-                    if (tp.after == null)
-                        break;
-                    else
-                        tp = tp.after;
-                }
-
-                if (linkedSize != array.size())
-                    bug("Linked size is different from array size: linked="
-                            + linkedSize + " array=" + array.size());
-
-                if (tp != tail)
-                    bug("Last item in list is not the tail: last=[" + tp
-                            + "] tail=[" + tail + "]");
-            }
+            if (slotMap.get(slot.id) != slot)
+                bug("Slot is not in map: id=" + slot.id);
+            ThreadPosition tp = slot.position;
+            if (tp != null && tp.id != slot.id)
+                bug("Position is in wrong slot: slot=" + slot.id
+                        + " position=[" + tp + "]");
         }
+
+        ThreadPosition low = low();
+        ThreadPosition hi = hi();
+        if ((low == null) != (hi == null))
+            bug("Only one of low and high positions is set");
+        else if (low != null && low.seqno > hi.seqno)
+            bug("Low position is after high position: low=[" + low
+                    + "] high=[" + hi + "]");
     }
 
     // Throw an exception with a bug message.
@@ -485,4 +435,4 @@ public class AtomicIntervalGuard<D>
     {
         throw new RuntimeException("BUG: " + message);
     }
-}
\ No newline at end of file
+}
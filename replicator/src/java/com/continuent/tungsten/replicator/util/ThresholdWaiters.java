@@ -0,0 +1,127 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Holds threads that are parked until a value crosses a threshold. Waiters
+ * register before checking the value and park only if the check fails;
+ * updaters change the value before calling {@link #release(long)}. Because
+ * both sides use volatile operations, either the waiter sees the new value or
+ * the updater sees the waiter, so no wake-up is lost. Only waiters whose
+ * threshold is crossed are unparked.
+ * <p/>
+ * This class is thread-safe and does not use locks.
+ */
+class ThresholdWaiters
+{
+    /** Number of times a waiter should yield before it parks. */
+    static final int YIELDS_BEFORE_PARK = 16;
+
+    /** A thread waiting for a value at or above (or below) a threshold. */
+    static class Waiter
+    {
+        final Thread  thread;
+        final long    threshold;
+        final boolean atLeast;
+
+        Waiter(long threshold, boolean atLeast)
+        {
+            this.thread = Thread.currentThread();
+            this.threshold = threshold;
+            this.atLeast = atLeast;
+        }
+
+        /** Returns true if the value satisfies this waiter. */
+        boolean isSatisfied(long value)
+        {
+            return ThresholdWaiters.isSatisfied(value, threshold, atLeast);
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+
+    /**
+     * Registers the current thread to wait for a value greater than or equal
+     * to the threshold if atLeast is true, otherwise less than or equal.
+     */
+    Waiter add(long threshold, boolean atLeast)
+    {
+        Waiter waiter = new Waiter(threshold, atLeast);
+        waiters.add(waiter);
+        return waiter;
+    }
+
+    /** Removes a waiter once it is done waiting. */
+    void remove(Waiter waiter)
+    {
+        waiters.remove(waiter);
+    }
+
+    /** Returns true if no threads are waiting. */
+    boolean isEmpty()
+    {
+        return waiters.isEmpty();
+    }
+
+    /** Unparks waiters that the value satisfies. */
+    void release(long value)
+    {
+        if (waiters.isEmpty())
+            return;
+        for (Waiter waiter : waiters)
+        {
+            if (waiter.isSatisfied(value))
+                LockSupport.unpark(waiter.thread);
+        }
+    }
+
+    /**
+     * Returns true if the value is greater than or equal to the threshold if
+     * atLeast is true, otherwise less than or equal.
+     */
+    static boolean isSatisfied(long value, long threshold, boolean atLeast)
+    {
+        return atLeast ? value >= threshold : value <= threshold;
+    }
+
+    /**
+     * Parks the current thread until it is unparked, the timeout expires, or
+     * the thread is interrupted.
+     * 
+     * @param nanos Maximum time to park or 0 to park without a timeout
+     * @throws InterruptedException Thrown if the thread is interrupted
+     */
+    static void park(Object blocker, long nanos) throws InterruptedException
+    {
+        if (nanos > 0)
+            LockSupport.parkNanos(blocker, nanos);
+        else
+            LockSupport.park(blocker);
+        if (Thread.interrupted())
+            throw new InterruptedException();
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.applier;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.database.Database;
+import com.continuent.tungsten.replicator.datasource.CommitSeqnoAccessor;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.event.ReplOption;
+
+/**
+ * Tests commit and rollback ordering when the JDBC applier splits large
+ * transactions across sessions. Sessions use stub connections that record
+ * each operation in a shared log instead of running SQL.
+ */
+public class TestApplySessions extends TestCase
+{
+    private List<String>      log;
+    private RecordingApplier  main;
+    private RecordingApplier  helper;
+
+    /**
+     * Create a main session with one helper. Tables t1 and t2 are assigned to
+     * the main and helper session respectively by their row counts.
+     */
+    public void setUp() throws Exception
+    {
+        log = Collections.synchronizedList(new ArrayList<String>());
+        main = new RecordingApplier("main");
+        helper = new RecordingApplier("s1");
+        main.setApplySessionsMinRows(5);
+        List<JdbcApplier> helpers = new ArrayList<JdbcApplier>();
+        helpers.add(helper);
+        main.startSessions(helpers);
+    }
+
+    public void tearDown() throws Exception
+    {
+        main.release(null);
+    }
+
+    /**
+     * Verify that a split transaction commits when it ends within a block and
+     * that helpers commit before the main session. A later failure in the
+     * block then cannot leave helper rows committed without the position.
+     */
+    public void testBlockCommit() throws Exception
+    {
+        apply(createEvent(1, 0, true, 10, 5), false);
+        assertOrder("s1:apply:t2", "s1:commit");
+        assertOrder("main:apply:t1", "main:commit");
+        assertOrder("s1:commit", "main:commit");
+        assertOrder("main:seqno=1", "main:commit");
+
+        // Small transactions stay on the main session and in the block.
+        int start = log.size();
+        apply(createEvent(2, 0, true, 1, 0), false);
+        assertEquals("Small transaction", "main:apply:t1", log.get(start));
+        assertEquals("Not committed", start + 1, log.size());
+
+        // A failure rolls back only the main session.
+        main.failTable = "t1";
+        try
+        {
+            apply(createEvent(3, 0, true, 1, 0), false);
+            fail("Expected apply failure");
+        }
+        catch (ApplierException e)
+        {
+        }
+        main.rollback();
+        assertEquals("Helper commits", 1, count("s1:commit"));
+        assertEquals("Main commits", 1, count("main:commit"));
+        assertEquals("Main rollbacks", 1, count("main:rollback"));
+    }
+
+    /**
+     * Verify that fragments of a transaction send each table to the same
+     * session and that nothing commits until the last fragment.
+     */
+    public void testFragmentedTransaction() throws Exception
+    {
+        apply(createEvent(1, 0, false, 10, 5), false);
+        assertEquals("Commits after first fragment", 0, count("s1:commit")
+                + count("main:commit"));
+
+        // The second fragment is too small to split on its own.
+        apply(createEvent(1, 1, true, 1, 1), false);
+        assertEquals("Main applies", 2, count("main:apply:t1"));
+        assertEquals("Helper applies", 2, count("s1:apply:t2"));
+        assertEquals("Main applies t2", 0, count("main:apply:t2"));
+        assertOrder("s1:commit", "main:commit");
+        assertEquals("Helper commits", 1, count("s1:commit"));
+        assertEquals("Main commits", 1, count("main:commit"));
+    }
+
+    /**
+     * Verify that a failure on a helper session fails the transaction, that
+     * rollback reaches all sessions, and that later transactions apply
+     * normally.
+     */
+    public void testSessionFailure() throws Exception
+    {
+        helper.failTable = "t2";
+        try
+        {
+            apply(createEvent(1, 0, true, 10, 5), true);
+            fail("Expected apply failure");
+        }
+        catch (ApplierException e)
+        {
+        }
+        main.rollback();
+        assertEquals("Commits", 0, count("s1:commit") + count("main:commit"));
+        assertEquals("Helper rollbacks", 1, count("s1:rollback"));
+        assertEquals("Main rollbacks", 1, count("main:rollback"));
+
+        helper.failTable = null;
+        apply(createEvent(2, 0, true, 1, 0), true);
+        assertEquals("Main commits", 1, count("main:commit"));
+        assertEquals("Helper commits", 0, count("s1:commit"));
+        assertEquals("Helper rollbacks", 1, count("s1:rollback"));
+    }
+
+    /**
+     * Verify that a statement in a later fragment fails the transaction with
+     * a clear error while other sessions hold row changes, instead of running
+     * on the main session where it could wait on their locks.
+     */
+    public void testStatementAfterSplit() throws Exception
+    {
+        apply(createEvent(1, 0, false, 10, 5), false);
+        ReplDBMSEvent event = createEvent(1, 1, true, 1, 0);
+        event.getData().add(new StatementData("delete from db.t2"));
+        try
+        {
+            apply(event, false);
+            fail("Expected failure on statement after split");
+        }
+        catch (ApplierException e)
+        {
+            assertTrue("Message names setting: " + e.getMessage(), e
+                    .getMessage().contains("applySessions=1"));
+        }
+        main.rollback();
+        assertEquals("Commits", 0, count("s1:commit") + count("main:commit"));
+        assertEquals("Helper rollbacks", 1, count("s1:rollback"));
+    }
+
+    // Applies an event without rollback.
+    private void apply(ReplDBMSEvent event, boolean doCommit) throws Exception
+    {
+        main.apply(event.getDBMSEvent(), event, doCommit, false);
+    }
+
+    private int count(String entry)
+    {
+        synchronized (log)
+        {
+            return Collections.frequency(log, entry);
+        }
+    }
+
+    // Asserts that the first occurrence of an entry precedes another.
+    private void assertOrder(String first, String second)
+    {
+        int i = log.indexOf(first);
+        int j = log.indexOf(second);
+        assertTrue("Found " + first + ": " + log, i >= 0);
+        assertTrue("Found " + second + ": " + log, j >= 0);
+        assertTrue(first + " before " + second + ": " + log, i < j);
+    }
+
+    // Creates an event that inserts rows into t1 and t2.
+    private ReplDBMSEvent createEvent(long seqno, int fragno, boolean lastFrag,
+            int t1Rows, int t2Rows)
+    {
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(createRowChanges("t1", t1Rows));
+        if (t2Rows > 0)
+            data.add(createRowChanges("t2", t2Rows));
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        DBMSEvent event = new DBMSEvent(Long.toString(seqno), data, lastFrag,
+                now);
+        return new ReplDBMSEvent(seqno, (short) fragno, lastFrag, "NONE", 0,
+                now, event);
+    }
+
+    private RowChangeData createRowChanges(String table, int rows)
+    {
+        OneRowChange rowChange = new OneRowChange("db", table,
+                ActionType.INSERT);
+        for (int i = 0; i < rows; i++)
+        {
+            ArrayList<ColumnVal> row = new ArrayList<ColumnVal>();
+            ColumnVal value = rowChange.new ColumnVal();
+            value.setValue(i);
+            row.add(value);
+            rowChange.getColumnValues().add(row);
+        }
+        RowChangeData rowChanges = new RowChangeData();
+        rowChanges.appendOneRowChange(rowChange);
+        return rowChanges;
+    }
+
+    // Applier that records row changes instead of applying them and uses a
+    // stub connection and position accessor.
+    class RecordingApplier extends JdbcApplier
+    {
+        private final String name;
+        volatile String      failTable;
+
+        RecordingApplier(String name)
+        {
+            this.name = name;
+            this.conn = createConnection(name);
+            this.commitSeqnoAccessor = createAccessor(name);
+        }
+
+        protected void applyRowChangeData(RowChangeData data,
+                List<ReplOption> options) throws ReplicatorException
+        {
+            for (OneRowChange rowChange : data.getRowChanges())
+            {
+                if (rowChange.getTableName().equals(failTable))
+                    throw new ApplierException("Failed: " + name);
+                log.add(name + ":apply:" + rowChange.getTableName());
+            }
+        }
+    }
+
+    // Returns a connection that records commits and rollbacks.
+    private Database createConnection(final String name)
+    {
+        InvocationHandler handler = new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                String op = method.getName();
+                if ("commit".equals(op) || "rollback".equals(op))
+                    log.add(name + ":" + op);
+                Class<?> type = method.getReturnType();
+                if (type == boolean.class)
+                    return false;
+                else if (type.isPrimitive() && type != void.class)
+                    return 0;
+                return null;
+            }
+        };
+        return (Database) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Database.class}, handler);
+    }
+
+    // Returns an accessor that records position updates.
+    private CommitSeqnoAccessor createAccessor(final String name)
+    {
+        return new CommitSeqnoAccessor()
+        {
+            public void setTaskId(int taskId)
+            {
+            }
+
+            public void prepare()
+            {
+            }
+
+            public void close()
+            {
+            }
+
+            public void updateLastCommitSeqno(ReplDBMSHeader header,
+                    long appliedLatency)
+            {
+                log.add(name + ":seqno=" + header.getSeqno());
+            }
+
+            public ReplDBMSHeader lastCommitSeqno()
+            {
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.applier;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
+
+/**
+ * Tests splitting of row changes across apply sessions.
+ */
+public class TestRowChangePartitioner extends TestCase
+{
+    /**
+     * Verify that tables are spread over the least loaded sessions and keep
+     * their session for the rest of the transaction.
+     */
+    public void testTableAssignment() throws Exception
+    {
+        RowChangePartitioner partitioner = new RowChangePartitioner(2, false);
+        List<RowChangeData> data = new ArrayList<RowChangeData>();
+        data.add(createRowChanges(createInsert("t1", 0, 10)));
+        data.add(createRowChanges(createInsert("t2", 0, 5)));
+        data.add(createRowChanges(createInsert("t3", 0, 1)));
+        List<List<RowChangeData>> shares = partitioner.partition(data);
+
+        assertEquals("Shares", 2, shares.size());
+        assertEquals("t1", tableOf(shares.get(0).get(0)));
+        assertEquals("t2", tableOf(shares.get(1).get(0)));
+        assertEquals("t3", tableOf(shares.get(1).get(1)));
+
+        // A later fragment sends t1 back to the same session even though it
+        // is now the most loaded.
+        data.clear();
+        data.add(createRowChanges(createInsert("t1", 10, 20)));
+        shares = partitioner.partition(data);
+        assertEquals("Session 0", 1, shares.get(0).size());
+        assertEquals("Session 1", 0, shares.get(1).size());
+
+        // After a reset, assignments start over.
+        partitioner.reset();
+        data.clear();
+        data.add(createRowChanges(createInsert("t2", 0, 1)));
+        shares = partitioner.partition(data);
+        assertEquals("t2", tableOf(shares.get(0).get(0)));
+    }
+
+    /**
+     * Verify that splitting by key sends each key to a single session,
+     * preserves all rows in order, and uses the key values of updates.
+     */
+    public void testKeyAssignment() throws Exception
+    {
+        RowChangePartitioner partitioner = new KeyPartitioner(3);
+        List<RowChangeData> data = new ArrayList<RowChangeData>();
+        data.add(createRowChanges(createInsert("t1", 0, 100)));
+        List<List<RowChangeData>> inserts = partitioner.partition(data);
+
+        int total = 0;
+        int[] sessionOfKey = new int[100];
+        for (int session = 0; session < 3; session++)
+        {
+            List<RowChangeData> share = inserts.get(session);
+            assertTrue("Session has rows: " + session, share.size() > 0);
+            OneRowChange part = share.get(0).getRowChanges().get(0);
+            int last = -1;
+            for (ArrayList<ColumnVal> row : part.getColumnValues())
+            {
+                int key = (Integer) row.get(0).getValue();
+                assertTrue("Rows in order", key > last);
+                last = key;
+                sessionOfKey[key] = session;
+                total++;
+            }
+            assertEquals("Column index", 1, part.getColumnSpec().get(0)
+                    .getIndex());
+            assertNotSame("Copied spec", data.get(0).getRowChanges().get(0)
+                    .getColumnSpec().get(0), part.getColumnSpec().get(0));
+        }
+        assertEquals("Rows", 100, total);
+
+        // Updates of the same keys go to the same sessions.
+        data.clear();
+        data.add(createRowChanges(createUpdate("t1", 0, 100, 0)));
+        List<List<RowChangeData>> updates = partitioner.partition(data);
+        for (int session = 0; session < 3; session++)
+        {
+            OneRowChange part = updates.get(session).get(0).getRowChanges()
+                    .get(0);
+            assertEquals("Values match keys", part.getKeyValues().size(),
+                    part.getColumnValues().size());
+            for (ArrayList<ColumnVal> row : part.getKeyValues())
+            {
+                int key = (Integer) row.get(0).getValue();
+                assertEquals("Session of key " + key, sessionOfKey[key],
+                        session);
+            }
+        }
+    }
+
+    /**
+     * Verify that tables without keys are not split when splitting by key and
+     * that options are copied to every piece.
+     */
+    public void testOptions() throws Exception
+    {
+        RowChangePartitioner partitioner = new KeyPartitioner(2);
+        List<RowChangeData> data = new ArrayList<RowChangeData>();
+        RowChangeData rowChanges = createRowChanges(createInsert("t1", 0, 10));
+        rowChanges.appendOneRowChange(createInsert("nokey", 0, 10));
+        rowChanges.addOption("time_zone", "'+00:00'");
+        data.add(rowChanges);
+        List<List<RowChangeData>> shares = partitioner.partition(data);
+
+        int nokeyRows = 0;
+        for (List<RowChangeData> share : shares)
+        {
+            assertEquals("Pieces", 1, share.size());
+            RowChangeData piece = share.get(0);
+            assertEquals("Options", 1, piece.getOptions().size());
+            assertEquals("Option", "time_zone", piece.getOptions().get(0)
+                    .getOptionName());
+            for (OneRowChange part : piece.getRowChanges())
+            {
+                if ("nokey".equals(part.getTableName()))
+                {
+                    assertSame("Unsplit table", rowChanges.getRowChanges()
+                            .get(1), part);
+                    nokeyRows += part.getColumnValues().size();
+                }
+            }
+        }
+        assertEquals("Unsplit rows", 10, nokeyRows);
+    }
+
+    /**
+     * Verify that a table whose primary key is updated before any of its rows
+     * are split by key goes to a single session, and that a later update
+     * moving a row to another session fails unless the new key stays on the
+     * same session.
+     */
+    public void testKeyUpdates() throws Exception
+    {
+        RowChangePartitioner partitioner = new KeyPartitioner(3);
+        List<RowChangeData> data = new ArrayList<RowChangeData>();
+        data.add(createRowChanges(createInsert("t1", 0, 100)));
+        data.add(createRowChanges(createUpdate("t2", 0, 100, 1000)));
+        List<List<RowChangeData>> shares = partitioner.partition(data);
+        int t2Session = -1;
+        for (int session = 0; session < 3; session++)
+        {
+            for (RowChangeData piece : shares.get(session))
+            {
+                if ("t2".equals(tableOf(piece)))
+                {
+                    assertEquals("Single session for t2", -1, t2Session);
+                    t2Session = session;
+                    assertEquals("All t2 rows", 100, piece.getRowChanges()
+                            .get(0).getKeyValues().size());
+                }
+            }
+        }
+
+        // Later inserts into t2 stay on its session.
+        data.clear();
+        data.add(createRowChanges(createInsert("t2", 100, 200)));
+        shares = partitioner.partition(data);
+        assertEquals("Later t2 rows", 1, shares.get(t2Session).size());
+
+        // Keys 0 and 3 hash to the same session, while 1000 does not.
+        data.clear();
+        data.add(createRowChanges(createUpdate("t1", 0, 1, 3)));
+        partitioner.partition(data);
+        data.clear();
+        data.add(createRowChanges(createUpdate("t1", 0, 1, 1000)));
+        try
+        {
+            partitioner.partition(data);
+            fail("Expected failure on key moved to another session");
+        }
+        catch (ApplierException e)
+        {
+        }
+    }
+
+    // Partitioner that treats the first column of tables other than "nokey"
+    // as the primary key.
+    class KeyPartitioner extends RowChangePartitioner
+    {
+        KeyPartitioner(int sessions)
+        {
+            super(sessions, true);
+        }
+
+        protected int[] getKeyPositions(OneRowChange rowChange)
+        {
+            if ("nokey".equals(rowChange.getTableName()))
+                return null;
+            else
+                return new int[]{1};
+        }
+    }
+
+    private RowChangeData createRowChanges(OneRowChange rowChange)
+    {
+        RowChangeData rowChanges = new RowChangeData();
+        rowChanges.appendOneRowChange(rowChange);
+        return rowChanges;
+    }
+
+    private String tableOf(RowChangeData rowChanges)
+    {
+        return rowChanges.getRowChanges().get(0).getTableName();
+    }
+
+    // Creates an insert with keys from first up to but not including last.
+    private OneRowChange createInsert(String table, int first, int last)
+    {
+        OneRowChange rowChange = new OneRowChange("db", table,
+                ActionType.INSERT);
+        rowChange.setColumnSpec(createSpecs(rowChange));
+        for (int key = first; key < last; key++)
+            rowChange.getColumnValues().add(createRow(rowChange, key));
+        return rowChange;
+    }
+
+    // Creates an update of keys from first up to but not including last that
+    // adds delta to each key.
+    private OneRowChange createUpdate(String table, int first, int last,
+            int delta)
+    {
+        OneRowChange rowChange = new OneRowChange("db", table,
+                ActionType.UPDATE);
+        rowChange.setColumnSpec(createSpecs(rowChange));
+        rowChange.setKeySpec(createSpecs(rowChange));
+        for (int key = first; key < last; key++)
+        {
+            rowChange.getColumnValues().add(createRow(rowChange, key + delta));
+            rowChange.getKeyValues().add(createRow(rowChange, key));
+        }
+        return rowChange;
+    }
+
+    private ArrayList<ColumnSpec> createSpecs(OneRowChange rowChange)
+    {
+        ArrayList<ColumnSpec> specs = new ArrayList<ColumnSpec>();
+        ColumnSpec spec = rowChange.new ColumnSpec();
+        spec.setIndex(1);
+        spec.setType(Types.INTEGER);
+        specs.add(spec);
+        return specs;
+    }
+
+    private ArrayList<ColumnVal> createRow(OneRowChange rowChange, int key)
+    {
+        ArrayList<ColumnVal> row = new ArrayList<ColumnVal>();
+        ColumnVal value = rowChange.new ColumnVal();
+        value.setValue(key);
+        row.add(value);
+        return row;
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.database;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.sql.Types;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Tests encoding of table definitions and lookup of definitions by seqno in
+ * the SchemaHistory.
+ */
+public class TestSchemaHistory
+{
+    /**
+     * Ensure a table definition survives encoding including names that need
+     * escaping, unset signed flags, and keys.
+     */
+    @Test
+    public void testEncoding() throws Exception
+    {
+        Table t = createTable("my,db", "t;1", "id");
+        String definition = SchemaHistory.encode(t);
+        Assert.assertEquals("Single line", -1, definition.indexOf('\n'));
+
+        Table t2 = SchemaHistory.decode(definition);
+        Assert.assertEquals("Schema", "my,db", t2.getSchema());
+        Assert.assertEquals("Table", "t;1", t2.getName());
+        Assert.assertEquals("Columns", 2, t2.getColumnCount());
+
+        Column id = t2.getAllColumns().get(0);
+        Assert.assertEquals("Name", "id", id.getName());
+        Assert.assertEquals("Position", 1, id.getPosition());
+        Assert.assertEquals("Type", Types.INTEGER, id.getType());
+        Assert.assertTrue("Not null", id.isNotNull());
+        Assert.assertFalse("Unsigned", id.isSigned());
+        Assert.assertEquals("Description", "INT UNSIGNED",
+                id.getTypeDescription());
+
+        Column val = t2.getAllColumns().get(1);
+        Assert.assertEquals("Name", "va,l;ue", val.getName());
+        Assert.assertFalse("Signed unset", val.isSignedSet());
+        Assert.assertEquals("Length", 100, val.getLength());
+
+        Assert.assertNotNull("Primary key", t2.getPrimaryKey());
+        Assert.assertEquals("Key columns", 1, t2.getPrimaryKey().getColumns()
+                .size());
+        Assert.assertSame("Key column", id, t2.getPrimaryKey().getColumns()
+                .get(0));
+        Assert.assertEquals("Round trip", definition, SchemaHistory.encode(t2));
+    }
+
+    /**
+     * Ensure lookups return the definition in effect at a seqno and that
+     * unchanged definitions are not recorded again.
+     */
+    @Test
+    public void testVersions() throws Exception
+    {
+        SchemaHistory history = new SchemaHistory();
+        Table v1 = createTable("db", "t", "id");
+        Table v2 = createTable("db", "t", "id2");
+
+        Assert.assertNotNull("First version", history.record(10, v1));
+        Assert.assertNull("Unchanged version", history.record(15, v1));
+        Assert.assertNotNull("Second version", history.record(20, v2));
+        Assert.assertEquals("Versions", 2, history.size());
+
+        Assert.assertNull("Before first version", history.find("db", "t", 9));
+        Assert.assertEquals("First version", "id", history.find("db", "t", 19)
+                .getAllColumns().get(0).getName());
+        Assert.assertEquals("Second version", "id2",
+                history.find("db", "t", 1000).getAllColumns().get(0)
+                        .getName());
+        Assert.assertNull("Unknown table", history.find("db", "x", 1000));
+
+        // Lookups return the same instance for the same version.
+        Assert.assertSame("Stable instance", history.find("db", "t", 20),
+                history.find("db", "t", 25));
+    }
+
+    /**
+     * Ensure the history is reloaded from its file and that a partial entry
+     * left by a crash is skipped.
+     */
+    @Test
+    public void testPersistence() throws Exception
+    {
+        File file = new File("testSchemaHistory.dat");
+        file.delete();
+        try
+        {
+            SchemaHistory history = new SchemaHistory();
+            history.open(file);
+            history.record(10, createTable("db", "t1", "id"));
+            history.record(20, createTable("db", "t2", "id"));
+            history.close();
+
+            FileWriter fw = new FileWriter(file, true);
+            fw.write("30\tdb,t3;c,1");
+            fw.close();
+
+            SchemaHistory history2 = new SchemaHistory();
+            history2.open(file);
+            Assert.assertEquals("Reloaded versions", 2, history2.size());
+            Assert.assertNotNull("t1", history2.find("db", "t1", 10));
+            Assert.assertNotNull("t2", history2.find("db", "t2", 20));
+            Assert.assertNull("t3", history2.find("db", "t3", 30));
+            history2.close();
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    // Creates a table with an unsigned key column and a text column.
+    private Table createTable(String schema, String name, String keyName)
+    {
+        Table t = new Table(schema, name);
+        Column id = new Column(keyName, Types.INTEGER, true);
+        id.setPosition(1);
+        id.setSigned(false);
+        id.setTypeDescription("INT UNSIGNED");
+        t.AddColumn(id);
+        Column val = new Column("va,l;ue", Types.VARCHAR, 100);
+        val.setPosition(2);
+        t.AddColumn(val);
+        Key pk = new Key(Key.Primary);
+        pk.setName("PRIMARY");
+        pk.AddColumn(id);
+        t.AddKey(pk);
+        return t;
+    }
+}
@@ -165,4 +165,46 @@ public class TestTableMatcher
         Assert.assertTrue(tm.match("test", "m-t_$1"));
     }
 
+    /**
+     * Verify that long lists of plain names and trailing wildcards, which are
+     * matched without regular expressions, give the same results as patterns.
+     */
+    @Test
+    public void testLargeLists() throws Exception
+    {
+        StringBuffer patterns = new StringBuffer();
+        for (int i = 0; i < 5000; i++)
+        {
+            patterns.append("tenant").append(i).append(",");
+            patterns.append("shared.t").append(i).append(",");
+            patterns.append("archive").append(i).append("_*,");
+        }
+        patterns.append("logs.*,te?mp,*.audit");
+        TableMatcher tm = new TableMatcher();
+        tm.prepare(patterns.toString());
+
+        // Plain schema and table names.
+        Assert.assertTrue(tm.match("tenant0", null));
+        Assert.assertTrue(tm.match("tenant4999", "foo"));
+        Assert.assertFalse(tm.match("tenant5000", "foo"));
+        Assert.assertFalse(tm.match("tenant", "foo"));
+        Assert.assertTrue(tm.match("shared", "t42"));
+        Assert.assertFalse(tm.match("shared", "t42x"));
+        Assert.assertFalse(tm.match("shared", null));
+
+        // Prefixes.
+        Assert.assertTrue(tm.match("archive7_", null));
+        Assert.assertTrue(tm.match("archive7_2014", "foo"));
+        Assert.assertFalse(tm.match("archive7", "foo"));
+        Assert.assertTrue(tm.match("logs", "anything"));
+        Assert.assertFalse(tm.match("logs", null));
+        Assert.assertFalse(tm.match("logsx", "foo"));
+
+        // Remaining wildcards still use regular expressions.
+        Assert.assertFalse(tm.match("temp", null));
+        Assert.assertTrue(tm.match("tenmp", null));
+        Assert.assertTrue(tm.match("tenant9999", "audit"));
+        Assert.assertFalse(tm.match("tenant9999", "audits"));
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,224 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.datasource;
+
+import java.sql.Types;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.database.Column;
+import com.continuent.tungsten.replicator.database.Database;
+import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
+import com.continuent.tungsten.replicator.database.SqlOperation;
+import com.continuent.tungsten.replicator.database.SqlOperationMatcher;
+import com.continuent.tungsten.replicator.database.Table;
+
+/**
+ * Tests the shared table metadata registry using a registry that manufactures
+ * tables instead of querying a DBMS.
+ */
+public class TableMetadataRegistryTest extends TestCase
+{
+    private SqlOperationMatcher matcher = new MySQLOperationMatcher();
+
+    /**
+     * Verify that tables are fetched once and then served from the cache, and
+     * that a missing table is not cached.
+     */
+    public void testCaching() throws Exception
+    {
+        CountingRegistry registry = new CountingRegistry();
+        Table t1 = registry.findTable("db1", "t1");
+        assertNotNull("Found table", t1);
+        assertSame("Cached table", t1, registry.findTable("db1", "t1"));
+        assertEquals("Queries", 1, registry.getQueryCount());
+        assertEquals("Hits", 1, registry.getHitCount());
+
+        assertNull("Missing table", registry.findTable("db1", "missing"));
+        assertNull("Missing table", registry.findTable("db1", "missing"));
+        assertEquals("Missing tables are queried", 3, registry.getQueryCount());
+        assertEquals("Cached tables", 1, registry.size());
+    }
+
+    /**
+     * Verify that a table cached without an ID adopts the first ID it is
+     * requested with and that a later change in ID forces a reload.
+     */
+    public void testTableId() throws Exception
+    {
+        CountingRegistry registry = new CountingRegistry();
+        Table t1 = registry.findTable("db1", "t1");
+        assertSame("Adopted ID", t1, registry.findTable("db1", "t1", 20));
+        assertEquals("Table ID", 20, t1.getTableId());
+        assertSame("Unknown ID", t1, registry.findTable("db1", "t1", -1));
+        assertEquals("Queries", 1, registry.getQueryCount());
+
+        Table t1a = registry.findTable("db1", "t1", 21);
+        assertNotSame("Reloaded table", t1, t1a);
+        assertEquals("Table ID", 21, t1a.getTableId());
+        assertEquals("Queries", 2, registry.getQueryCount());
+    }
+
+    /**
+     * Verify that DDL reported by several plugins changes the schema version
+     * once but still drops tables reloaded between reports.
+     */
+    public void testDdlInvalidation() throws Exception
+    {
+        CountingRegistry registry = new CountingRegistry();
+        registry.findTable("db1", "t1");
+        registry.findTable("db1", "t2");
+        registry.findTable("db2", "t1");
+        assertEquals("Initial version", 0, registry.getSchemaVersion());
+
+        // Statements that do not change tables are ignored.
+        SqlOperation insert = matcher.match("insert into db1.t1 values(1)");
+        assertEquals("Insert", 0, registry.invalidate("1", insert, "db1"));
+        assertEquals("Unchanged version", 0, registry.getSchemaVersion());
+
+        // Alter drops a single table.
+        SqlOperation alter = matcher
+                .match("alter table t1 add column c2 varchar(10)");
+        assertEquals("Alter", 1, registry.invalidate("2", alter, "db1"));
+        assertEquals("Version after alter", 1, registry.getSchemaVersion());
+        assertEquals("Cached tables", 2, registry.size());
+
+        // A second report of the same statement does nothing.
+        assertEquals("Repeated alter", 0, registry.invalidate("2", alter, "db1"));
+        assertEquals("Version after repeat", 1, registry.getSchemaVersion());
+
+        // Unless a lagging plugin reloaded the table in between.
+        registry.findTable("db1", "t1");
+        assertEquals("Lagging alter", 1, registry.invalidate("2", alter, "db1"));
+        assertEquals("Version after reload", 2, registry.getSchemaVersion());
+
+        // Drop database removes all tables in the schema.
+        SqlOperation drop = matcher.match("drop database db1");
+        assertEquals("Drop database", 1, registry.invalidate("3", drop, null));
+        assertEquals("Cached tables", 1, registry.size());
+        assertEquals("Version after drop", 3, registry.getSchemaVersion());
+    }
+
+    /**
+     * Verify that lookups by seqno prefer definitions in the schema history
+     * and otherwise fall back to the DBMS.
+     */
+    public void testSchemaHistory() throws Exception
+    {
+        CountingRegistry registry = new CountingRegistry();
+        Table t1 = new Table("db1", "t1");
+        t1.AddColumn(new Column("c1", Types.INTEGER));
+        registry.getSchemaHistory().record(100, t1);
+
+        Table found = registry.findTable("db1", "t1", -1, 150);
+        assertEquals("From history", 1, found.getColumnCount());
+        assertEquals("No queries", 0, registry.getQueryCount());
+
+        Table early = registry.findTable("db1", "t1", -1, 50);
+        assertEquals("From DBMS", 0, early.getColumnCount());
+        assertEquals("Queries", 1, registry.getQueryCount());
+    }
+
+    /**
+     * Verify that a slow catalog query does not block lookups of cached
+     * tables and that a result fetched across an invalidation is returned but
+     * not cached.
+     */
+    public void testQueryOutsideLock() throws Exception
+    {
+        final BlockingRegistry registry = new BlockingRegistry();
+        Table t1 = registry.findTable("db1", "t1");
+
+        final Table[] slow = new Table[1];
+        Thread query = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    slow[0] = registry.findTable("db1", "slow");
+                }
+                catch (Exception e)
+                {
+                }
+            }
+        };
+        query.start();
+        assertTrue("Query started",
+                registry.entered.await(10, TimeUnit.SECONDS));
+
+        // Cached tables are served and DDL is accepted during the query.
+        assertSame("Cached table", t1, registry.findTable("db1", "t1"));
+        registry.invalidateTable("db1", "t1");
+
+        registry.release.countDown();
+        query.join(10000);
+        assertNotNull("Fetched table", slow[0]);
+        assertEquals("Not cached after invalidation", 0, registry.size());
+    }
+
+    // Registry that manufactures tables other than those named "missing".
+    class CountingRegistry extends TableMetadataRegistry
+    {
+        CountingRegistry()
+        {
+            super("test", null, 100);
+        }
+
+        protected Table fetchTable(Database callerConn, String schema,
+                String tableName)
+        {
+            if ("missing".equals(tableName))
+                return null;
+            else
+                return new Table(schema, tableName);
+        }
+    }
+
+    // Registry whose query for the table "slow" waits for a latch.
+    class BlockingRegistry extends CountingRegistry
+    {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        protected Table fetchTable(Database callerConn, String schema,
+                String tableName)
+        {
+            if ("slow".equals(tableName))
+            {
+                entered.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    return null;
+                }
+            }
+            return super.fetchTable(callerConn, schema, tableName);
+        }
+    }
+}
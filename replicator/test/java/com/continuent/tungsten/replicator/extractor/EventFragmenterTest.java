@@ -0,0 +1,223 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.extractor;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplOptionParams;
+
+/**
+ * Tests splitting of extracted events into fragments of bounded size.
+ */
+public class EventFragmenterTest extends TestCase
+{
+    /**
+     * Verify that events within the maximum size are returned unchanged.
+     */
+    public void testSmallEvent() throws Exception
+    {
+        EventFragmenter fragmenter = new EventFragmenter(10000);
+        DBMSEvent event = createEvent(true, createRowChange(
+                ActionType.INSERT, 10, 100));
+        List<DBMSEvent> fragments = fragmenter.fragment(event);
+        assertEquals("Fragments", 1, fragments.size());
+        assertSame("Unchanged event", event, fragments.get(0));
+    }
+
+    /**
+     * Verify that a large row change is split between rows into fragments
+     * that respect the maximum size and keep rows in order, and that only the
+     * final fragment is last and carries rollback metadata.
+     */
+    public void testSplitRows() throws Exception
+    {
+        EventFragmenter fragmenter = new EventFragmenter(5000);
+        DBMSEvent event = createEvent(true, createRowChange(
+                ActionType.INSERT, 100, 200));
+        event.addMetadataOption(ReplOptionParams.ROLLBACK, "");
+        event.addOption("foreign_key_checks", "0");
+        List<DBMSEvent> fragments = fragmenter.fragment(event);
+        assertTrue("Fragments: " + fragments.size(), fragments.size() >= 4);
+
+        int nextRow = 0;
+        for (int i = 0; i < fragments.size(); i++)
+        {
+            DBMSEvent fragment = fragments.get(i);
+            boolean last = (i == fragments.size() - 1);
+            assertEquals("Event ID", event.getEventId(), fragment.getEventId());
+            assertEquals("Last fragment", last, fragment.isLastFrag());
+            assertEquals("Shard ID", "db1", fragment
+                    .getMetadataOptionValue(ReplOptionParams.SHARD_ID));
+            assertEquals("Rollback", last, fragment
+                    .getMetadataOptionValue(ReplOptionParams.ROLLBACK) != null);
+            assertEquals("Options", 1, fragment.getOptions().size());
+            assertFalse("Fragment within maximum",
+                    fragmenter.exceedsMaximum(fragment));
+
+            OneRowChange orc = ((RowChangeData) fragment.getData().get(0))
+                    .getRowChanges().get(0);
+            assertEquals("Column specs", 2, orc.getColumnSpec().size());
+            for (ArrayList<ColumnVal> row : orc.getColumnValues())
+            {
+                assertEquals("Row order", nextRow, row.get(0).getValue());
+                nextRow++;
+            }
+        }
+        assertEquals("Rows", 100, nextRow);
+    }
+
+    /**
+     * Verify that update keys and values stay together when a row change is
+     * split and that fragments of a non-final fragment are never last.
+     */
+    public void testSplitUpdates() throws Exception
+    {
+        EventFragmenter fragmenter = new EventFragmenter(2000);
+        DBMSEvent event = createEvent(false, createRowChange(
+                ActionType.UPDATE, 20, 100));
+        List<DBMSEvent> fragments = fragmenter.fragment(event);
+        assertTrue("Fragments: " + fragments.size(), fragments.size() > 1);
+
+        int rows = 0;
+        for (DBMSEvent fragment : fragments)
+        {
+            assertFalse("Not last", fragment.isLastFrag());
+            OneRowChange orc = ((RowChangeData) fragment.getData().get(0))
+                    .getRowChanges().get(0);
+            assertEquals("Keys match values", orc.getColumnValues().size(),
+                    orc.getKeyValues().size());
+            for (int i = 0; i < orc.getKeyValues().size(); i++)
+            {
+                assertEquals("Key matches value", orc.getColumnValues().get(i)
+                        .get(0).getValue(), orc.getKeyValues().get(i).get(0)
+                        .getValue());
+                rows++;
+            }
+        }
+        assertEquals("Rows", 20, rows);
+    }
+
+    /**
+     * Verify that statements move between fragments as a whole and that a
+     * statement larger than the maximum goes into a fragment by itself.
+     */
+    public void testStatements() throws Exception
+    {
+        EventFragmenter fragmenter = new EventFragmenter(1000);
+        StatementData small1 = new StatementData(repeat('a', 300));
+        StatementData large = new StatementData(repeat('b', 3000));
+        StatementData small2 = new StatementData(repeat('c', 300));
+        StatementData small3 = new StatementData(repeat('d', 300));
+        DBMSEvent event = createEvent(true, small1, large, small2, small3);
+
+        List<DBMSEvent> fragments = fragmenter.fragment(event);
+        assertEquals("Fragments", 3, fragments.size());
+        assertSame("First", small1, fragments.get(0).getData().get(0));
+        assertEquals("Large alone", 1, fragments.get(1).getData().size());
+        assertSame("Large", large, fragments.get(1).getData().get(0));
+        assertEquals("Remaining", 2, fragments.get(2).getData().size());
+        assertTrue("Last", fragments.get(2).isLastFrag());
+    }
+
+    // Creates an event with the given data.
+    private DBMSEvent createEvent(boolean lastFrag, DBMSData... data)
+    {
+        ArrayList<DBMSData> list = new ArrayList<DBMSData>();
+        for (DBMSData d : data)
+            list.add(d);
+        DBMSEvent event = new DBMSEvent("mysql-bin.000001:100", list,
+                lastFrag, new Timestamp(System.currentTimeMillis()));
+        event.addMetadataOption(ReplOptionParams.SHARD_ID, "db1");
+        return event;
+    }
+
+    // Creates row changes with an integer column and a string column; updates
+    // also have keys.
+    private RowChangeData createRowChange(ActionType action, int rows,
+            int stringSize)
+    {
+        OneRowChange orc = new OneRowChange("db1", "t1", action);
+        orc.getColumnSpec().add(createSpec(orc, 1, "id", Types.INTEGER));
+        orc.getColumnSpec().add(createSpec(orc, 2, "data", Types.VARCHAR));
+        if (action == ActionType.UPDATE)
+            orc.getKeySpec().add(createSpec(orc, 1, "id", Types.INTEGER));
+
+        String value = repeat('x', stringSize);
+        for (int i = 0; i < rows; i++)
+        {
+            ArrayList<ColumnVal> row = new ArrayList<ColumnVal>();
+            row.add(createValue(orc, i));
+            row.add(createValue(orc, value));
+            orc.getColumnValues().add(row);
+            if (action == ActionType.UPDATE)
+            {
+                ArrayList<ColumnVal> key = new ArrayList<ColumnVal>();
+                key.add(createValue(orc, i));
+                orc.getKeyValues().add(key);
+            }
+        }
+
+        RowChangeData rowChanges = new RowChangeData();
+        rowChanges.appendOneRowChange(orc);
+        return rowChanges;
+    }
+
+    private ColumnSpec createSpec(OneRowChange orc, int index, String name,
+            int type)
+    {
+        ColumnSpec spec = orc.new ColumnSpec();
+        spec.setIndex(index);
+        spec.setName(name);
+        spec.setType(type);
+        return spec;
+    }
+
+    private ColumnVal createValue(OneRowChange orc, java.io.Serializable value)
+    {
+        ColumnVal val = orc.new ColumnVal();
+        val.setValue(value);
+        return val;
+    }
+
+    private String repeat(char c, int count)
+    {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < count; i++)
+            sb.append(c);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Implements a simple unit test on the BinlogTailWatcher class.
+ */
+public class BinlogTailWatcherTest extends TestCase
+{
+    /**
+     * Verify that a wait ends shortly after another thread appends to a
+     * binlog, well inside the 10ms the extractor used to sleep at the end of
+     * the active binlog, and long before the wait would time out.
+     */
+    public void testWakeOnWrite() throws Exception
+    {
+        File dir = prepareDir("testWakeOnWrite");
+        final File binlog = new File(dir, "mysql-bin.000001");
+        append(binlog);
+        BinlogTailWatcher watcher = new BinlogTailWatcher(dir);
+        watcher.start();
+        if (!watcher.isWatching())
+        {
+            // No watch service on this platform; waits just sleep.
+            watcher.release();
+            return;
+        }
+
+        // Take the median of several trials so a stray scheduling delay on a
+        // busy host does not fail the test.
+        long[] latencies = new long[9];
+        for (int i = 0; i < latencies.length; i++)
+        {
+            final long[] writeNanos = new long[1];
+            Thread writer = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        Thread.sleep(100);
+                        writeNanos[0] = System.nanoTime();
+                        append(binlog);
+                    }
+                    catch (Exception e)
+                    {
+                    }
+                }
+            };
+            writer.start();
+            assertTrue("Woken by write", watcher.await(5000));
+            long wakeNanos = System.nanoTime();
+            writer.join();
+            latencies[i] = (wakeNanos - writeNanos[0]) / 1000000;
+        }
+        Arrays.sort(latencies);
+        assertTrue("Median wake latency well under old poll interval: "
+                + Arrays.toString(latencies), latencies[4] < 5);
+        watcher.release();
+    }
+
+    /**
+     * Verify that a write that happens before a wait is not lost and that a
+     * released watcher just sleeps.
+     */
+    public void testEarlyWriteAndRelease() throws Exception
+    {
+        File dir = prepareDir("testEarlyWriteAndRelease");
+        File binlog = new File(dir, "mysql-bin.000001");
+        BinlogTailWatcher watcher = new BinlogTailWatcher(dir);
+        watcher.start();
+        append(binlog);
+        if (watcher.isWatching())
+        {
+            long start = System.currentTimeMillis();
+            assertTrue("Woken by earlier write", watcher.await(5000));
+            assertTrue("Did not wait for timeout",
+                    System.currentTimeMillis() - start < 1000);
+        }
+
+        watcher.release();
+        assertFalse("Released", watcher.isWatching());
+        append(binlog);
+        assertFalse("Released watcher only sleeps", watcher.await(10));
+    }
+
+    // Appends a few bytes to a file.
+    private static void append(File file) throws Exception
+    {
+        FileOutputStream fos = new FileOutputStream(file, true);
+        fos.write(new byte[]{1, 2, 3, 4});
+        fos.close();
+    }
+
+    // Creates an empty directory.
+    private File prepareDir(String name) throws Exception
+    {
+        File dir = new File(name);
+        if (dir.exists())
+        {
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+        if (!dir.mkdirs())
+            throw new Exception("Unable to create directory: "
+                    + dir.getAbsolutePath());
+        return dir;
+    }
+}
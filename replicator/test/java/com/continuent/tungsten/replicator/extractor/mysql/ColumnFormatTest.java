@@ -0,0 +1,227 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.math.BigDecimal;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests resolution of column formats from table map metadata and the direct
+ * decoding of DECIMAL and DATETIME values used when extracting rows.
+ */
+public class ColumnFormatTest extends TestCase
+{
+    // Exposes the original decimal extraction for comparison.
+    private LogEvent event = new LogEvent()
+                           {
+                           };
+
+    /**
+     * Verify that the real type and length of CHAR, ENUM and long CHAR columns
+     * are resolved from MYSQL_TYPE_STRING metadata and that DECIMAL size is
+     * computed from precision and scale.
+     */
+    public void testResolveFormats() throws Exception
+    {
+        ColumnFormat charCol = new ColumnFormat(MysqlBinlog.MYSQL_TYPE_STRING,
+                0xFE0A);
+        assertEquals("CHAR type", MysqlBinlog.MYSQL_TYPE_STRING,
+                charCol.getType());
+        assertEquals("CHAR length", 10, charCol.getLength());
+
+        ColumnFormat enumCol = new ColumnFormat(MysqlBinlog.MYSQL_TYPE_STRING,
+                0xF701);
+        assertEquals("ENUM type", MysqlBinlog.MYSQL_TYPE_ENUM,
+                enumCol.getType());
+        assertEquals("ENUM length", 1, enumCol.getLength());
+
+        // CHAR(255) in utf8 uses 765 bytes, which overflows into the type.
+        ColumnFormat longCol = new ColumnFormat(MysqlBinlog.MYSQL_TYPE_STRING,
+                0xDEFD);
+        assertEquals("Long CHAR type", MysqlBinlog.MYSQL_TYPE_STRING,
+                longCol.getType());
+        assertEquals("Long CHAR length", 765, longCol.getLength());
+
+        ColumnFormat badCol = new ColumnFormat(MysqlBinlog.MYSQL_TYPE_STRING,
+                0xF001);
+        assertFalse("Unknown type", badCol.isKnown());
+
+        ColumnFormat decCol = new ColumnFormat(
+                MysqlBinlog.MYSQL_TYPE_NEWDECIMAL, (10 << 8) | 2);
+        assertEquals("Precision", 10, decCol.getPrecision());
+        assertEquals("Scale", 2, decCol.getScale());
+        assertEquals("Size", 5, decCol.getDecimalSize());
+        assertTrue("Known type", decCol.isKnown());
+    }
+
+    /**
+     * Verify that decimals decoded in place match both the encoded value and
+     * the original extraction for a range of precisions, scales and signs.
+     */
+    public void testDecimalDecoding() throws Exception
+    {
+        Random random = new Random(42);
+        for (int precision = 1; precision <= 18; precision++)
+        {
+            for (int scale = 0; scale <= precision; scale++)
+            {
+                for (int i = 0; i < 20; i++)
+                {
+                    BigDecimal expected = randomDecimal(random, precision,
+                            scale);
+                    byte[] buf = encodeDecimal(expected, precision, scale, 3);
+                    BigDecimal decoded = MysqlBinlog.decimalToBigDecimal(buf,
+                            3, precision, scale);
+                    assertEquals("Decoded " + expected, expected, decoded);
+
+                    byte[] copy = new byte[buf.length - 3];
+                    System.arraycopy(buf, 3, copy, 0, copy.length);
+                    assertEquals("Original extraction " + expected,
+                            event.extractDecimal(copy, precision, scale),
+                            decoded);
+                }
+            }
+        }
+    }
+
+    /**
+     * Verify that decimals too wide for a long are left to the original
+     * extraction.
+     */
+    public void testWideDecimal() throws Exception
+    {
+        BigDecimal expected = new BigDecimal(
+                "-12345678901234567890123.45678901");
+        byte[] buf = encodeDecimal(expected, 31, 8, 2);
+        assertNull("Too wide", MysqlBinlog.decimalToBigDecimal(buf, 2, 31, 8));
+        assertEquals("Extracted", expected, event.extractDecimal(buf, 2, 31, 8));
+    }
+
+    /**
+     * Verify that DATETIME values converted directly match a lenient GMT
+     * calendar, including leap days, zero days and dates before the Gregorian
+     * cutover.
+     */
+    public void testDatetimeMillis() throws Exception
+    {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        int[] years = {1, 1000, 1582, 1583, 1600, 1900, 1969, 1970, 2000,
+                2012, 2038, 2100, 9999};
+        for (int year : years)
+        {
+            for (int month = 0; month <= 12; month++)
+            {
+                for (int day = 0; day <= 31; day += 1)
+                {
+                    int hour = (year + day) % 24;
+                    int minute = (month * 7 + day) % 60;
+                    int second = (day * 13) % 60;
+
+                    Calendar expected = Calendar.getInstance(TimeZone
+                            .getTimeZone("GMT"));
+                    expected.clear();
+                    expected.set(year, month - 1, day, hour, minute, second);
+                    String date = year + "-" + month + "-" + day + " " + hour
+                            + ":" + minute + ":" + second;
+                    assertEquals(date, expected.getTimeInMillis(),
+                            MysqlBinlog.datetimeToGmtMillis(year, month, day,
+                                    hour, minute, second, calendar));
+                }
+            }
+        }
+    }
+
+    // Generates a random decimal with the given precision and scale.
+    private BigDecimal randomDecimal(Random random, int precision, int scale)
+    {
+        StringBuffer digits = new StringBuffer();
+        if (random.nextBoolean())
+            digits.append('-');
+        int length = 1 + random.nextInt(precision);
+        for (int i = 0; i < length; i++)
+            digits.append((char) ('0' + random.nextInt(10)));
+        return new BigDecimal(new java.math.BigInteger(digits.toString()),
+                scale);
+    }
+
+    // Encodes a decimal in the binary format used by the binlog, preceded by
+    // the given number of padding bytes.
+    private byte[] encodeDecimal(BigDecimal value, int precision, int scale,
+            int padding)
+    {
+        int intg = precision - scale;
+        int intg0 = intg / 9;
+        int frac0 = scale / 9;
+        int intg0x = intg - intg0 * 9;
+        int frac0x = scale - frac0 * 9;
+
+        String digits = value.abs().unscaledValue().toString();
+        StringBuffer padded = new StringBuffer();
+        for (int i = digits.length(); i < precision; i++)
+            padded.append('0');
+        padded.append(digits);
+        String all = padded.toString();
+
+        int size = MysqlBinlog.getDecimalBinarySize(precision, scale);
+        byte[] buf = new byte[padding + size];
+        int pos = padding;
+        int digit = 0;
+        pos = putGroup(buf, pos, all, digit, intg0x);
+        digit += intg0x;
+        for (int i = 0; i < intg0 + frac0; i++)
+        {
+            pos = putGroup(buf, pos, all, digit, 9);
+            digit += 9;
+        }
+        putGroup(buf, pos, all, digit, frac0x);
+
+        buf[padding] ^= 0x80;
+        if (value.signum() < 0)
+        {
+            for (int i = padding; i < buf.length; i++)
+                buf[i] ^= 0xFF;
+        }
+        return buf;
+    }
+
+    // Writes a group of digits as a big-endian integer.
+    private int putGroup(byte[] buf, int pos, String digits, int start,
+            int count)
+    {
+        int bytes = MysqlBinlog.dig2bytes[count];
+        if (bytes == 0)
+            return pos;
+        long group = Long.parseLong(digits.substring(start, start + count));
+        for (int i = bytes - 1; i >= 0; i--)
+        {
+            buf[pos + i] = (byte) (group & 0xFF);
+            group >>= 8;
+        }
+        return pos + bytes;
+    }
+}
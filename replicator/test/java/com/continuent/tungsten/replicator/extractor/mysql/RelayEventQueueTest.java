@@ -0,0 +1,106 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import junit.framework.TestCase;
+
+/**
+ * Implements a simple unit test on the RelayEventQueue class.
+ */
+public class RelayEventQueueTest extends TestCase
+{
+    /**
+     * Verify that events come out in order, that the ring wraps around, and
+     * that offers fail when the ring is full.
+     */
+    public void testOrderAndCapacity() throws Exception
+    {
+        RelayEventQueue queue = new RelayEventQueue(3);
+        for (int round = 0; round < 3; round++)
+        {
+            for (int i = 0; i < 3; i++)
+                assertTrue(queue.offer("mysql-bin.000001", 100 * round + i,
+                        new byte[i]));
+            assertFalse("Ring is full",
+                    queue.offer("mysql-bin.000001", 999, null));
+            assertEquals(3, queue.size());
+
+            for (int i = 0; i < 3; i++)
+            {
+                RelayEventQueue.Entry entry = queue.peek(0);
+                assertEquals("Peek returns head", 100 * round + i,
+                        entry.getOffset());
+                assertSame(entry, queue.poll());
+                assertEquals(i, entry.getData().length);
+            }
+            assertNull("Ring is empty", queue.poll());
+        }
+    }
+
+    /**
+     * Verify that a put on a full ring waits until the head is removed.
+     */
+    public void testPutWaitsForRoom() throws Exception
+    {
+        final RelayEventQueue queue = new RelayEventQueue(1);
+        queue.put("mysql-bin.000001", 4, new byte[1]);
+
+        Thread producer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    queue.put("mysql-bin.000001", 5, new byte[1]);
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+        };
+        producer.start();
+        producer.join(200);
+        assertTrue("Producer is blocked", producer.isAlive());
+
+        assertEquals(4, queue.poll().getOffset());
+        producer.join(5000);
+        assertFalse("Producer finished", producer.isAlive());
+        assertEquals(5, queue.peek(1000).getOffset());
+    }
+
+    /**
+     * Verify that entries compare correctly against binlog positions.
+     */
+    public void testCompare() throws Exception
+    {
+        RelayEventQueue queue = new RelayEventQueue(1);
+        queue.offer("mysql-bin.000077", 2333308, null);
+        RelayEventQueue.Entry entry = queue.peek(0);
+
+        assertEquals(0, entry.compareTo("mysql-bin.000077", 2333308));
+        assertTrue(entry.compareTo("mysql-bin.000077", 2333309) < 0);
+        assertTrue(entry.compareTo("mysql-bin.000078", 4) < 0);
+        assertTrue(entry.compareTo("mysql-bin.000077", 2333307) > 0);
+        assertTrue(entry.compareTo("mysql-bin.000076", 9999999) > 0);
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+
+/**
+ * Tests parallel decoding of rows events using the sample row-based binlog
+ * in the test data directory.
+ */
+public class RowsEventDecoderTest extends TestCase
+{
+    private static final String BINLOG = "binlog_rbr_1.000001";
+
+    /**
+     * Verify that decoding rows events on worker threads produces exactly the
+     * same row changes in the same order as decoding them inline.
+     */
+    public void testParallelMatchesInline() throws Exception
+    {
+        List<String> inline = decodeBinlog(new RowsEventDecoder(0, 0, false));
+
+        RowsEventDecoder parallel = new RowsEventDecoder(4, 0, false);
+        parallel.start("test-decoder");
+        try
+        {
+            List<String> fromWorkers = decodeBinlog(parallel);
+            assertTrue("Binlog contains row changes", inline.size() > 0);
+            assertEquals("Parallel decode matches inline", inline,
+                    fromWorkers);
+        }
+        finally
+        {
+            parallel.shutdown();
+        }
+    }
+
+    /**
+     * Verify that a decode failure on a worker thread is reported when the
+     * extractor waits for completion.
+     */
+    public void testFailureIsReported() throws Exception
+    {
+        RowsEventDecoder decoder = new RowsEventDecoder(2, 0, false);
+        decoder.start("test-decoder");
+        try
+        {
+            // Decode the first rows event without a table map, which fails.
+            RowsLogEvent rowsEvent = null;
+            for (LogEvent event : readEvents())
+            {
+                if (event instanceof RowsLogEvent)
+                {
+                    rowsEvent = (RowsLogEvent) event;
+                    break;
+                }
+            }
+            assertNotNull("Found rows event", rowsEvent);
+
+            decoder.decode(rowsEvent, null, new RowChangeData());
+            try
+            {
+                decoder.waitForCompletion();
+                fail("Decode without table map succeeded");
+            }
+            catch (MySQLExtractException e)
+            {
+                // Expected.
+            }
+
+            // Failures are cleared once reported.
+            decoder.waitForCompletion();
+        }
+        finally
+        {
+            decoder.shutdown();
+        }
+    }
+
+    // Decodes all rows events in the test binlog and returns the string
+    // representation of each row.
+    private List<String> decodeBinlog(RowsEventDecoder decoder)
+            throws Exception
+    {
+        HashMap<Long, TableMapLogEvent> tableEvents = new HashMap<Long, TableMapLogEvent>();
+        List<RowChangeData> changes = new ArrayList<RowChangeData>();
+        for (LogEvent event : readEvents())
+        {
+            if (event instanceof TableMapLogEvent)
+            {
+                TableMapLogEvent tableEvent = (TableMapLogEvent) event;
+                tableEvents.put(tableEvent.getTableId(), tableEvent);
+            }
+            else if (event instanceof RowsLogEvent)
+            {
+                RowsLogEvent rowsEvent = (RowsLogEvent) event;
+                RowChangeData rowChangeData = new RowChangeData();
+                decoder.decode(rowsEvent,
+                        tableEvents.get(rowsEvent.getTableId()),
+                        rowChangeData);
+                changes.add(rowChangeData);
+            }
+        }
+        decoder.waitForCompletion();
+
+        List<String> rows = new ArrayList<String>();
+        for (RowChangeData rowChangeData : changes)
+        {
+            for (OneRowChange change : rowChangeData.getRowChanges())
+            {
+                rows.add(change.getSchemaName() + "." + change.getTableName()
+                        + " " + change.getAction() + " keys="
+                        + change.getKeyValues() + " values="
+                        + change.getColumnValues() + " options="
+                        + rowChangeData.getOptions());
+            }
+        }
+        return rows;
+    }
+
+    // Reads all events from the test binlog.
+    private List<LogEvent> readEvents() throws Exception
+    {
+        BinlogReader reader = new BinlogReader(4, BINLOG, ".", "binlog_rbr_1",
+                64000);
+        reader.open();
+        List<LogEvent> events = new ArrayList<LogEvent>();
+        FormatDescriptionLogEvent descriptionEvent = new FormatDescriptionLogEvent(
+                4, 0, false);
+        try
+        {
+            while (reader.available() > 0)
+            {
+                LogEvent event = LogEvent.readLogEvent(null, reader,
+                        descriptionEvent, false, false, false);
+                if (event != null)
+                    events.add(event);
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return events;
+    }
+}
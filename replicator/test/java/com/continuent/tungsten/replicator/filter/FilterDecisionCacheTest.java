@@ -0,0 +1,73 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.filter;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the cache of filtering decisions used by schema, table, and column
+ * filters.
+ */
+public class FilterDecisionCacheTest extends TestCase
+{
+    /**
+     * Verify that table and column decisions are stored independently and
+     * that null and empty table names share a decision.
+     */
+    public void testDecisions() throws Exception
+    {
+        FilterDecisionCache cache = new FilterDecisionCache(100);
+        assertNull("Empty cache", cache.get("s1", "t1"));
+
+        cache.put("s1", "t1", true);
+        cache.put("s1", null, false);
+        cache.put("s1", "t1", "c1", false);
+        assertEquals("Table decision", Boolean.TRUE, cache.get("s1", "t1"));
+        assertEquals("Schema decision", Boolean.FALSE, cache.get("s1", ""));
+        assertEquals("Column decision", Boolean.FALSE,
+                cache.get("s1", "t1", "c1"));
+        assertNull("Unknown column", cache.get("s1", "t1", "c2"));
+        assertNull("Unknown schema", cache.get("s2", "t1"));
+        assertEquals("Size", 3, cache.size());
+
+        cache.invalidate();
+        assertNull("Invalidated", cache.get("s1", "t1"));
+        assertEquals("Size", 0, cache.size());
+    }
+
+    /**
+     * Verify that the cache clears itself rather than growing past its
+     * maximum size.
+     */
+    public void testMaxEntries() throws Exception
+    {
+        FilterDecisionCache cache = new FilterDecisionCache(10);
+        for (int i = 0; i < 25; i++)
+        {
+            cache.put("s" + i, "t", true);
+            assertTrue("Bounded size", cache.size() <= 10);
+            assertEquals("Latest decision", Boolean.TRUE,
+                    cache.get("s" + i, "t"));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.EventGenerationHelper;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+
+/**
+ * Tests fusing of row change filters and single-pass filtering of events
+ * through a RowChangeFilterChain.
+ */
+public class RowChangeFilterChainTest extends TestCase
+{
+    private EventGenerationHelper eventHelper = new EventGenerationHelper();
+
+    /**
+     * Verify that only consecutive row change filters with the same
+     * statelessness are fused and that other filters keep their places.
+     */
+    public void testFuse() throws Exception
+    {
+        List<Filter> filters = new ArrayList<Filter>();
+        filters.add(new ReplicateFilter());
+        filters.add(new ReplicateColumnsFilter());
+        filters.add(new CaseMappingFilter());
+        filters.add(new CaseMappingFilter());
+        filters.add(new DummyFilter());
+        filters.add(new ReplicateFilter());
+
+        List<Filter> fused = RowChangeFilterChain.fuse(filters);
+        assertEquals("Fused filters", 4, fused.size());
+
+        assertTrue("Stateful chain",
+                fused.get(0) instanceof RowChangeFilterChain);
+        assertFalse("Stateful chain",
+                fused.get(0) instanceof StatelessFilter);
+        assertEquals("Chain size", 2,
+                ((RowChangeFilterChain) fused.get(0)).size());
+
+        assertTrue("Stateless chain", fused.get(1) instanceof StatelessFilter);
+        assertEquals("Chain size", 2,
+                ((RowChangeFilterChain) fused.get(1)).size());
+
+        assertSame("Other filter", filters.get(4), fused.get(2));
+        assertSame("Single filter", filters.get(5), fused.get(3));
+    }
+
+    /**
+     * Verify that a chain removes row changes and statements dropped by any
+     * filter and that later filters see only what earlier filters kept.
+     */
+    public void testSinglePass() throws Exception
+    {
+        RowChangeFilterChain chain = createChain("db2");
+        ReplDBMSEvent event = createEvent(1, 0, true, "db1", "db2", "db1");
+        event.getData().add(new StatementData("drop table t1", null, "db2"));
+        event.getData().add(new StatementData("drop table t1", null, "db1"));
+
+        ReplDBMSEvent result = chain.filter(event);
+        assertSame("Same event", event, result);
+        ArrayList<DBMSData> data = result.getData();
+        assertEquals("Data items", 2, data.size());
+
+        ArrayList<OneRowChange> changes = ((RowChangeData) data.get(0))
+                .getRowChanges();
+        assertEquals("Row changes", 2, changes.size());
+        for (OneRowChange orc : changes)
+        {
+            assertEquals("Schema", "DB1", orc.getSchemaName());
+            assertEquals("Table", "T1", orc.getTableName());
+        }
+        assertEquals("Statement schema", "DB1",
+                ((StatementData) data.get(1)).getDefaultSchema());
+    }
+
+    /**
+     * Verify that an event whose data are all removed is dropped unless it is
+     * a fragment of a larger transaction.
+     */
+    public void testEmptyEvents() throws Exception
+    {
+        RowChangeFilterChain chain = createChain("db1,db2");
+        assertNull("Dropped event",
+                chain.filter(createEvent(1, 0, true, "db1", "db2")));
+
+        ReplDBMSEvent fragment = createEvent(2, 0, false, "db1", "db2");
+        assertSame("Kept fragment", fragment, chain.filter(fragment));
+        assertEquals("Empty fragment", 0, fragment.getData().size());
+    }
+
+    // Creates a chain that ignores schemas and maps names to upper case.
+    private RowChangeFilterChain createChain(String ignore) throws Exception
+    {
+        ReplicateFilter rf = new ReplicateFilter();
+        rf.setTungstenSchema("tungsten_foo");
+        rf.setIgnore(ignore);
+        rf.configure(null);
+        rf.prepare(null);
+
+        CaseMappingFilter cmf = new CaseMappingFilter();
+        cmf.setToUpperCase(true);
+        cmf.configure(null);
+        cmf.prepare(null);
+
+        List<RowChangeFilter> filters = new ArrayList<RowChangeFilter>();
+        filters.add(rf);
+        filters.add(cmf);
+        return new RowChangeFilterChain(filters);
+    }
+
+    // Creates an event with one row change on table t1 per schema.
+    private ReplDBMSEvent createEvent(long seqno, int fragno,
+            boolean lastFrag, String... schemas)
+    {
+        String[] names = {"id"};
+        Object[] values = {1};
+        ReplDBMSEvent event = eventHelper.eventFromRowInsert(seqno,
+                schemas[0], "t1", names, values, fragno, lastFrag);
+        RowChangeData rdata = (RowChangeData) event.getData().get(0);
+        for (int i = 1; i < schemas.length; i++)
+        {
+            ReplDBMSEvent other = eventHelper.eventFromRowInsert(seqno,
+                    schemas[i], "t1", names, values, fragno, lastFrag);
+            rdata.appendOneRowChange(((RowChangeData) other.getData().get(0))
+                    .getRowChanges().get(0));
+        }
+        return event;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.pipeline;
+
+import java.sql.SQLException;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.applier.ApplierException;
+
+/**
+ * Tests the rules for growing and shrinking adaptive blocks.
+ */
+public class AdaptiveBlockSizerTest extends TestCase
+{
+    /**
+     * Verify that full blocks grow when commits are a large share of block
+     * time and stop at the maximum size.
+     */
+    public void testGrowOnCommitCost() throws Exception
+    {
+        AdaptiveBlockSizer sizer = new AdaptiveBlockSizer(1, 20, 1000);
+        assertEquals("Initial size", 1, sizer.getBlockSize());
+        assertEquals("Grows by one", 2, sizer.blockCommitted(1, 10, 5, 0));
+        for (int i = 0; i < 20; i++)
+            sizer.blockCommitted(sizer.getBlockSize(), 10, 5, 0);
+        assertEquals("Maximum size", 20, sizer.getBlockSize());
+    }
+
+    /**
+     * Verify that blocks do not grow if they are not full or commits are cheap
+     * and latency is within the target, but do grow when latency exceeds the
+     * target.
+     */
+    public void testNoGrowth() throws Exception
+    {
+        AdaptiveBlockSizer sizer = new AdaptiveBlockSizer(8, 100, 1000);
+        assertEquals("Partial block", 8, sizer.blockCommitted(3, 10, 5, 0));
+        assertEquals("Cheap commit", 8, sizer.blockCommitted(8, 100, 1, 500));
+        assertEquals("Lagging", 10, sizer.blockCommitted(8, 100, 1, 5000));
+    }
+
+    /**
+     * Verify that blocks shrink to no less than the minimum after long blocks
+     * or lock waits.
+     */
+    public void testShrink() throws Exception
+    {
+        AdaptiveBlockSizer sizer = new AdaptiveBlockSizer(4, 100, 1000);
+        for (int i = 0; i < 30; i++)
+            sizer.blockCommitted(sizer.getBlockSize(), 10, 5, 0);
+        assertEquals("Maximum size", 100, sizer.getBlockSize());
+
+        assertEquals("Long block", 50, sizer.blockCommitted(100, 2000, 5, 0));
+        assertEquals("Lock wait", 25, sizer.lockWait());
+        assertEquals("Next block keeps size", 25,
+                sizer.blockCommitted(10, 10, 5, 0));
+        for (int i = 0; i < 10; i++)
+            sizer.blockCommitted(sizer.getBlockSize(), 2000, 5, 0);
+        assertEquals("Minimum size", 4, sizer.getBlockSize());
+    }
+
+    /**
+     * Verify recognition of lock wait timeouts and deadlocks in exception
+     * chains.
+     */
+    public void testLockWaitDetection() throws Exception
+    {
+        assertTrue("MySQL lock wait", AdaptiveBlockSizer
+                .isLockWait(new ApplierException(new SQLException(
+                        "Lock wait timeout exceeded", "HY000", 1205))));
+        assertTrue("Deadlock state", AdaptiveBlockSizer
+                .isLockWait(new ApplierException(new SQLException(
+                        "deadlock detected", "40P01", 0))));
+        assertFalse("Other error", AdaptiveBlockSizer
+                .isLockWait(new ApplierException(new SQLException(
+                        "Duplicate entry", "23000", 1062))));
+        assertFalse("No SQL error",
+                AdaptiveBlockSizer.isLockWait(new ApplierException("failed")));
+    }
+}
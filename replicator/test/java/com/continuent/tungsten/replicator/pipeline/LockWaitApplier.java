@@ -0,0 +1,133 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.pipeline;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.applier.ApplierException;
+import com.continuent.tungsten.replicator.applier.RawApplier;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+
+/**
+ * Applier that fails once with a lock wait timeout on a chosen sequence number
+ * and records the size of each committed block. Commits are made slow so that
+ * adaptive blocks grow.
+ */
+public class LockWaitApplier implements RawApplier
+{
+    private long                 failSeqno    = -1;
+    private boolean              failed       = false;
+    private long                 commitMillis = 2;
+    private final List<Long>     pending      = new ArrayList<Long>();
+    private final List<Long>     committed    = new ArrayList<Long>();
+    private final List<Integer>  blockSizes   = new ArrayList<Integer>();
+    private int                  failedBlock  = -1;
+    private ReplDBMSHeader       lastHeader;
+
+    public void setFailSeqno(long failSeqno)
+    {
+        this.failSeqno = failSeqno;
+    }
+
+    public void setCommitMillis(long commitMillis)
+    {
+        this.commitMillis = commitMillis;
+    }
+
+    /** Returns the committed sequence numbers in commit order. */
+    public synchronized List<Long> getCommitted()
+    {
+        return new ArrayList<Long>(committed);
+    }
+
+    /** Returns the number of events in each committed block. */
+    public synchronized List<Integer> getBlockSizes()
+    {
+        return new ArrayList<Integer>(blockSizes);
+    }
+
+    /** Returns the index of the first block committed after the failure. */
+    public synchronized int getFailedBlock()
+    {
+        return failedBlock;
+    }
+
+    public void setTaskId(int id)
+    {
+    }
+
+    public synchronized void apply(DBMSEvent event, ReplDBMSHeader header,
+            boolean doCommit, boolean doRollback) throws ReplicatorException,
+            InterruptedException
+    {
+        if (header.getSeqno() == failSeqno && !failed)
+        {
+            failed = true;
+            failedBlock = blockSizes.size();
+            throw new ApplierException(new SQLException(
+                    "Lock wait timeout exceeded", "HY000", 1205));
+        }
+        pending.add(header.getSeqno());
+        lastHeader = header;
+        if (doCommit)
+            commit();
+    }
+
+    public synchronized void commit() throws InterruptedException
+    {
+        if (pending.size() == 0)
+            return;
+        Thread.sleep(commitMillis);
+        committed.addAll(pending);
+        blockSizes.add(pending.size());
+        pending.clear();
+    }
+
+    public synchronized void rollback()
+    {
+        pending.clear();
+    }
+
+    public ReplDBMSHeader getLastEvent()
+    {
+        return lastHeader;
+    }
+
+    public void configure(PluginContext context)
+    {
+    }
+
+    public void prepare(PluginContext context)
+    {
+    }
+
+    public void release(PluginContext context)
+    {
+    }
+}
@@ -362,6 +362,75 @@ public class PipelineFilterTest extends TestCase
         }
     }
 
+    /**
+     * Verify that a pipelined task, which extracts and filters on separate
+     * threads, delivers events in order with the same filtering and block
+     * commit results as a single-threaded task and shuts down cleanly.
+     */
+    public void testPipelinedTask() throws Exception
+    {
+        int xacts = 200;
+        int[] blockSizes = {1, 7};
+
+        for (int blockSize : blockSizes)
+        {
+            logger.info("Testing pipelined task: transactions=" + xacts
+                    + " blockSize=" + blockSize);
+
+            // Filter every fifth transaction.
+            SampleFilter.clearCounters();
+            TungstenProperties config = helper.createDoubleQueueWithFilter(
+                    xacts, blockSize, 5, 2, true);
+            config.setInt("replicator.stage.stage.taskPipelineQueueSize", 3);
+            ReplicatorRuntime runtime = new ReplicatorRuntime(config,
+                    new MockOpenReplicatorContext(),
+                    ReplicatorMonitor.getInstance());
+            Pipeline pipeline = prepareAndStartPipeline(config, runtime);
+            assertEquals("Pipeline queue size", 3, pipeline.getStages().get(0)
+                    .getTaskPipelineQueueSize());
+
+            // Write events while the pipeline is running.
+            InMemoryQueueStore input = (InMemoryQueueStore) pipeline
+                    .getStore("q1");
+            this.insertEvents(input, 0, xacts);
+            this.verifyProcessedSeqno(pipeline, xacts - 1);
+
+            // Events must arrive in order with nothing lost.
+            InMemoryQueueStore output = (InMemoryQueueStore) pipeline
+                    .getStore("q2");
+            long seqno = -1;
+            int filteredEvents = 0;
+            int nonFilteredEvents = 0;
+            while (seqno < (xacts - 1))
+            {
+                ReplDBMSEvent event = output.poll();
+                assertNotNull("Expected to read non-null event (last seqno="
+                        + seqno + ")", event);
+                assertEquals("Events in order", seqno + 1, event.getSeqno());
+                if (event instanceof ReplDBMSFilteredEvent)
+                {
+                    ReplDBMSFilteredEvent filteredEvent = (ReplDBMSFilteredEvent) event;
+                    filteredEvents += filteredEvent.getSeqnoEnd()
+                            - event.getSeqno() + 1;
+                    seqno = filteredEvent.getSeqnoEnd();
+                }
+                else
+                {
+                    nonFilteredEvents++;
+                    seqno = event.getSeqno();
+                }
+            }
+            assertEquals("Expected filtered events", 80, filteredEvents);
+            assertEquals("Expected non-filtered events", 120,
+                    nonFilteredEvents);
+
+            // Shut it down.
+            pipeline.shutdown(false);
+            pipeline.release(runtime);
+            assertEquals("released", 1, SampleFilter.released);
+        }
+    }
+
     // Starting with configuration properties and a runtime as input, prepare
     // and start a pipeline.
     private Pipeline prepareAndStartPipeline(TungstenProperties config,
@@ -147,6 +147,40 @@ public class PipelineHelper
         return builder.getConfig();
     }
 
+    /**
+     * Generate a runtime whose single task reads from a queue and applies
+     * with a {@link LockWaitApplier} using adaptive block commit.
+     * 
+     * @param queueSize Size of the input queue
+     * @param blockSize Maximum block commit size
+     * @param failSeqno Sequence number that fails once with a lock wait
+     */
+    public TungstenProperties createLockWaitRuntime(int queueSize,
+            int blockSize, long failSeqno) throws Exception
+    {
+        PipelineConfigBuilder builder = new PipelineConfigBuilder();
+        builder.setProperty(ReplicatorConf.SERVICE_NAME, "test");
+        builder.setRole("master");
+        builder.addPipeline("master", "stage", "q1");
+        builder.addStage("stage", "q-extract", "lock-wait", null);
+        builder.addProperty("stage", "stage", "blockCommitRowCount",
+                new Integer(blockSize).toString());
+        builder.addProperty("stage", "stage", "blockCommitPolicy", "adaptive");
+
+        builder.addComponent("extractor", "q-extract",
+                InMemoryQueueAdapter.class);
+        builder.addProperty("extractor", "q-extract", "storeName", "q1");
+        builder.addComponent("applier", "lock-wait", LockWaitApplier.class);
+        builder.addProperty("applier", "lock-wait", "failSeqno",
+                new Long(failSeqno).toString());
+
+        builder.addComponent("store", "q1", InMemoryQueueStore.class);
+        builder.addProperty("store", "q1", "maxSize",
+                new Integer(queueSize).toString());
+
+        return builder.getConfig();
+    }
+
     /**
      * Generate a simple runtime with a queue on both ends of a simple task that
      * has a sample filter.
@@ -0,0 +1,412 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.pipeline;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import com.continuent.tungsten.common.config.TungstenProperties;
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.applier.ApplierWrapper;
+import com.continuent.tungsten.replicator.applier.LatencyApplier;
+import com.continuent.tungsten.replicator.conf.ReplicatorConf;
+import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
+import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.extractor.LoadGeneratorExtractor;
+import com.continuent.tungsten.replicator.management.MockEventDispatcher;
+import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
+import com.continuent.tungsten.replicator.storage.InMemoryQueueAdapter;
+import com.continuent.tungsten.replicator.storage.InMemoryQueueStore;
+import com.continuent.tungsten.replicator.storage.parallel.HashPartitioner;
+import com.continuent.tungsten.replicator.thl.THL;
+import com.continuent.tungsten.replicator.thl.THLParallelQueue;
+import com.continuent.tungsten.replicator.thl.THLParallelQueueApplier;
+import com.continuent.tungsten.replicator.thl.THLParallelQueueExtractor;
+import com.continuent.tungsten.replicator.thl.THLStoreApplier;
+import com.continuent.tungsten.replicator.thl.THLStoreExtractor;
+
+/**
+ * Runs a synthetic load from a {@link LoadGeneratorExtractor} through a full
+ * pipeline into {@link LatencyApplier} instances and reports throughput and
+ * latency. The following pipelines are supported:
+ * <ul>
+ * <li>queue - Generator to an in-memory queue to the applier</li>
+ * <li>thl - Generator to the THL to the applier</li>
+ * <li>parallel - Generator to the THL to a THLParallelQueue to one applier per
+ * channel, with transactions assigned to channels by hashing the shard ID</li>
+ * </ul>
+ * The harness can be run from the command line with arguments of the form
+ * name=value. The names pipeline, channels, blockCommit, maxFragmentSize,
+ * logDir, and timeout configure the harness; all other names are passed to
+ * the load generator, e.g.:
+ * 
+ * <pre>
+ * PipelineLoadHarness pipeline=parallel channels=8 transactions=100000 maxRows=20 blobSize=1024
+ * </pre>
+ */
+public class PipelineLoadHarness
+{
+    public static final String QUEUE           = "queue";
+    public static final String THL             = "thl";
+    public static final String PARALLEL        = "parallel";
+
+    private String             pipelineType    = PARALLEL;
+    private int                channels        = 4;
+    private int                blockCommit     = 10;
+    private long               maxFragmentSize = 0;
+    private String             logDir          = "loadHarness";
+    private long               timeoutSeconds  = 600;
+    private TungstenProperties loadProperties  = new TungstenProperties();
+
+    /**
+     * Results of a load run.
+     */
+    public static class Result
+    {
+        private final long   elapsedMillis;
+        private final long   events;
+        private final long   transactions;
+        private final long   rows;
+        private final long[] histogram;
+        private final long   maxLatency;
+
+        Result(long elapsedMillis, long events, long transactions, long rows,
+                long[] histogram, long maxLatency)
+        {
+            this.elapsedMillis = elapsedMillis;
+            this.events = events;
+            this.transactions = transactions;
+            this.rows = rows;
+            this.histogram = histogram;
+            this.maxLatency = maxLatency;
+        }
+
+        public long getElapsedMillis()
+        {
+            return elapsedMillis;
+        }
+
+        public long getEvents()
+        {
+            return events;
+        }
+
+        public long getTransactions()
+        {
+            return transactions;
+        }
+
+        public long getRows()
+        {
+            return rows;
+        }
+
+        public double getEventsPerSecond()
+        {
+            return perSecond(events);
+        }
+
+        public double getRowsPerSecond()
+        {
+            return perSecond(rows);
+        }
+
+        /** Returns a latency percentile in milliseconds. */
+        public long getLatency(double fraction)
+        {
+            return LatencyApplier.percentile(histogram, fraction);
+        }
+
+        public long getMaxLatency()
+        {
+            return maxLatency;
+        }
+
+        private double perSecond(long count)
+        {
+            return (count * 1000.0) / Math.max(1, elapsedMillis);
+        }
+
+        /**
+         * {@inheritDoc}
+         * 
+         * @see java.lang.Object#toString()
+         */
+        public String toString()
+        {
+            StringBuffer sb = new StringBuffer();
+            sb.append("elapsed=").append(elapsedMillis).append("ms");
+            sb.append(" events=").append(events);
+            sb.append(" transactions=").append(transactions);
+            sb.append(" rows=").append(rows);
+            sb.append(" events/s=").append((long) getEventsPerSecond());
+            sb.append(" rows/s=").append((long) getRowsPerSecond());
+            sb.append(" latency p50=").append(getLatency(0.50)).append("ms");
+            sb.append(" p99=").append(getLatency(0.99)).append("ms");
+            sb.append(" max=").append(maxLatency).append("ms");
+            return sb.toString();
+        }
+    }
+
+    /** Sets the pipeline type: queue, thl, or parallel. */
+    public void setPipelineType(String pipelineType)
+    {
+        this.pipelineType = pipelineType;
+    }
+
+    /** Sets the number of channels for parallel pipelines. */
+    public void setChannels(int channels)
+    {
+        this.channels = channels;
+    }
+
+    /** Sets the block commit size of each stage. */
+    public void setBlockCommit(int blockCommit)
+    {
+        this.blockCommit = blockCommit;
+    }
+
+    /** Sets the maximum size of extracted fragments; 0 means no splitting. */
+    public void setMaxFragmentSize(long maxFragmentSize)
+    {
+        this.maxFragmentSize = maxFragmentSize;
+    }
+
+    /** Sets the THL directory, which is cleared before each run. */
+    public void setLogDir(String logDir)
+    {
+        this.logDir = logDir;
+    }
+
+    /** Sets the maximum time to wait for the load to be applied. */
+    public void setTimeoutSeconds(long timeoutSeconds)
+    {
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /** Sets a load generator property, e.g. transactions or maxRows. */
+    public void setLoadProperty(String name, String value)
+    {
+        loadProperties.setString(name, value);
+    }
+
+    /**
+     * Generates the pipeline configuration.
+     */
+    public TungstenProperties createConfig() throws Exception
+    {
+        String blockCommitAsString = Integer.toString(blockCommit);
+        PipelineConfigBuilder builder = new PipelineConfigBuilder();
+        builder.setProperty(ReplicatorConf.SERVICE_NAME, "load");
+        builder.setRole("master");
+        builder.setProperty(ReplicatorConf.METADATA_SCHEMA, "tungsten_load");
+        builder.setProperty(ReplicatorConf.MAX_FRAGMENT_SIZE,
+                Long.toString(maxFragmentSize));
+
+        // Load generator and latency applier used in all pipelines.
+        builder.addComponent("extractor", "load", LoadGeneratorExtractor.class);
+        for (String name : loadProperties.keyNames())
+            builder.addProperty("extractor", "load", name,
+                    loadProperties.getString(name));
+        builder.addComponent("applier", "latency", LatencyApplier.class);
+
+        if (QUEUE.equals(pipelineType))
+        {
+            builder.addPipeline("master", "extract,apply", "queue");
+            builder.addComponent("store", "queue", InMemoryQueueStore.class);
+            builder.addProperty("store", "queue", "maxSize", "1000");
+            builder.addStage("extract", "load", "q-apply", null);
+            builder.addStage("apply", "q-extract", "latency", null);
+            builder.addComponent("applier", "q-apply",
+                    InMemoryQueueAdapter.class);
+            builder.addProperty("applier", "q-apply", "storeName", "queue");
+            builder.addComponent("extractor", "q-extract",
+                    InMemoryQueueAdapter.class);
+            builder.addProperty("extractor", "q-extract", "storeName", "queue");
+        }
+        else if (THL.equals(pipelineType) || PARALLEL.equals(pipelineType))
+        {
+            prepareLogDir();
+            builder.addComponent("store", "thl", THL.class);
+            builder.addProperty("store", "thl", "logDir", logDir);
+            builder.addStage("extract", "load", "thl-apply", null);
+            builder.addComponent("applier", "thl-apply", THLStoreApplier.class);
+            builder.addProperty("applier", "thl-apply", "storeName", "thl");
+            builder.addComponent("extractor", "thl-extract",
+                    THLStoreExtractor.class);
+            builder.addProperty("extractor", "thl-extract", "storeName", "thl");
+
+            if (THL.equals(pipelineType))
+            {
+                builder.addPipeline("master", "extract,apply", "thl");
+                builder.addStage("apply", "thl-extract", "latency", null);
+            }
+            else
+            {
+                builder.addPipeline("master", "extract,feed,apply",
+                        "thl,thl-queue");
+                builder.addComponent("store", "thl-queue",
+                        THLParallelQueue.class);
+                builder.addProperty("store", "thl-queue", "maxSize", "1000");
+                builder.addProperty("store", "thl-queue", "partitions",
+                        Integer.toString(channels));
+                builder.addProperty("store", "thl-queue", "partitionerClass",
+                        HashPartitioner.class.getName());
+                builder.addStage("feed", "thl-extract", "thl-queue-apply",
+                        null);
+                builder.addProperty("stage", "feed", "blockCommitRowCount",
+                        blockCommitAsString);
+                builder.addComponent("applier", "thl-queue-apply",
+                        THLParallelQueueApplier.class);
+                builder.addProperty("applier", "thl-queue-apply",
+                        "storeName", "thl-queue");
+                builder.addStage("apply", "thl-queue-extract", "latency",
+                        null);
+                builder.addProperty("stage", "apply", "taskCount",
+                        Integer.toString(channels));
+                builder.addComponent("extractor", "thl-queue-extract",
+                        THLParallelQueueExtractor.class);
+                builder.addProperty("extractor", "thl-queue-extract",
+                        "storeName", "thl-queue");
+            }
+        }
+        else
+            throw new ReplicatorException("Unknown pipeline type: "
+                    + pipelineType);
+
+        builder.addProperty("stage", "extract", "blockCommitRowCount",
+                blockCommitAsString);
+        builder.addProperty("stage", "apply", "blockCommitRowCount",
+                blockCommitAsString);
+        return builder.getConfig();
+    }
+
+    /**
+     * Runs the load through the pipeline and returns the results once every
+     * generated transaction is committed at the end of the pipeline.
+     */
+    public Result run() throws Exception
+    {
+        long transactions = loadProperties.getLong("transactions", "1000",
+                false);
+        loadProperties.setLong("transactions", transactions);
+
+        ReplicatorRuntime runtime = new ReplicatorRuntime(createConfig(),
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        Pipeline pipeline = runtime.getPipeline();
+        try
+        {
+            long start = System.currentTimeMillis();
+            pipeline.start(new MockEventDispatcher());
+            pipeline.watchForCommittedSequenceNumber(transactions - 1, false)
+                    .get(timeoutSeconds, TimeUnit.SECONDS);
+            long elapsed = System.currentTimeMillis() - start;
+
+            // Merge counts from the appliers of all apply tasks.
+            long events = 0;
+            long txns = 0;
+            long rows = 0;
+            long maxLatency = 0;
+            long[] histogram = null;
+            for (SingleThreadStageTask task : pipeline.getLastStage()
+                    .getTaskGroup().getTasks())
+            {
+                LatencyApplier applier = (LatencyApplier) ((ApplierWrapper) task
+                        .getApplier()).getApplier();
+                events += applier.getEventCount();
+                txns += applier.getTxnCount();
+                rows += applier.getRowCount();
+                maxLatency = Math.max(maxLatency, applier.getMaxLatency());
+                long[] taskHistogram = applier.getLatencyHistogram();
+                if (histogram == null)
+                    histogram = taskHistogram;
+                else
+                {
+                    for (int i = 0; i < histogram.length; i++)
+                        histogram[i] += taskHistogram[i];
+                }
+            }
+            return new Result(elapsed, events, txns, rows, histogram,
+                    maxLatency);
+        }
+        finally
+        {
+            pipeline.shutdown(false);
+            runtime.release();
+        }
+    }
+
+    // Creates an empty log directory.
+    private void prepareLogDir() throws Exception
+    {
+        File dir = new File(logDir);
+        if (dir.exists())
+        {
+            for (File f : dir.listFiles())
+                f.delete();
+        }
+        dir.mkdirs();
+    }
+
+    /**
+     * Runs the harness from the command line.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        PipelineLoadHarness harness = new PipelineLoadHarness();
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+            if (eq < 1)
+            {
+                System.err.println("Arguments must have the form name=value: "
+                        + arg);
+                System.exit(1);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if ("pipeline".equals(name))
+                harness.setPipelineType(value);
+            else if ("channels".equals(name))
+                harness.setChannels(Integer.parseInt(value));
+            else if ("blockCommit".equals(name))
+                harness.setBlockCommit(Integer.parseInt(value));
+            else if ("maxFragmentSize".equals(name))
+                harness.setMaxFragmentSize(Long.parseLong(value));
+            else if ("logDir".equals(name))
+                harness.setLogDir(value);
+            else if ("timeout".equals(name))
+                harness.setTimeoutSeconds(Long.parseLong(value));
+            else
+                harness.setLoadProperty(name, value);
+        }
+
+        Result result = harness.run();
+        System.out.println(result);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.pipeline;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplOptionParams;
+import com.continuent.tungsten.replicator.extractor.LoadGeneratorExtractor;
+
+/**
+ * Runs short synthetic loads through each pipeline supported by the load
+ * harness and checks that every generated transaction arrives.
+ */
+public class PipelineLoadTest extends TestCase
+{
+    /**
+     * Verify that events generated again after a restart match the originals
+     * and that transactions respect the configured mix.
+     */
+    public void testGenerator() throws Exception
+    {
+        LoadGeneratorExtractor extractor = new LoadGeneratorExtractor();
+        extractor.setTransactions(100);
+        extractor.setMinRows(2);
+        extractor.setMaxRows(5);
+        extractor.setSchemas(4);
+        extractor.setHotShardPercent(100);
+        extractor.setStatementPercent(50);
+        extractor.configure(null);
+        extractor.setLastEventId(null);
+
+        int statements = 0;
+        for (int i = 0; i < 100; i++)
+        {
+            DBMSEvent event = extractor.extract();
+            assertEquals("Event ID", Integer.toString(i), event.getEventId());
+            assertEquals("Hot shard", "load_0",
+                    event.getMetadataOptionValue(ReplOptionParams.SHARD_ID));
+
+            Object data = event.getData().get(0);
+            if (data instanceof StatementData)
+            {
+                statements++;
+                assertEquals("Default schema", "load_0",
+                        ((StatementData) data).getDefaultSchema());
+            }
+            else
+            {
+                OneRowChange orc = ((RowChangeData) data).getRowChanges()
+                        .get(0);
+                int rows = orc.getColumnValues().size();
+                assertTrue("Rows in range: " + rows, rows >= 2 && rows <= 5);
+            }
+
+            DBMSEvent replay = extractor.extract(event.getEventId());
+            assertEquals("Replayed content", describe(data), describe(replay
+                    .getData().get(0)));
+        }
+        assertTrue("Mix of statements and row changes: " + statements,
+                statements > 0 && statements < 100);
+        assertEquals("Current event ID", "99",
+                extractor.getCurrentResourceEventId());
+    }
+
+    /**
+     * Verify a load through an in-memory queue.
+     */
+    public void testQueuePipeline() throws Exception
+    {
+        runLoad(PipelineLoadHarness.QUEUE, 1);
+    }
+
+    /**
+     * Verify a load through the THL.
+     */
+    public void testTHLPipeline() throws Exception
+    {
+        runLoad(PipelineLoadHarness.THL, 1);
+    }
+
+    /**
+     * Verify a load through the THL and a parallel queue with several
+     * channels.
+     */
+    public void testParallelPipeline() throws Exception
+    {
+        runLoad(PipelineLoadHarness.PARALLEL, 3);
+    }
+
+    /**
+     * Verify that transactions larger than the maximum fragment size are
+     * split into several fragments in the THL and still arrive complete.
+     */
+    public void testFragmentedTHLPipeline() throws Exception
+    {
+        PipelineLoadHarness harness = new PipelineLoadHarness();
+        harness.setPipelineType(PipelineLoadHarness.THL);
+        harness.setLogDir("testPipelineLoad");
+        harness.setTimeoutSeconds(30);
+        harness.setMaxFragmentSize(4000);
+        harness.setLoadProperty("transactions", "50");
+        harness.setLoadProperty("minRows", "20");
+        harness.setLoadProperty("maxRows", "40");
+        harness.setLoadProperty("stringSize", "200");
+        harness.setLoadProperty("statementPercent", "0");
+
+        PipelineLoadHarness.Result result = harness.run();
+        assertEquals("Transactions", 50, result.getTransactions());
+        assertTrue("Fragments: " + result.getEvents(),
+                result.getEvents() > 100);
+        assertTrue("Rows: " + result.getRows(), result.getRows() >= 1000
+                && result.getRows() <= 2000);
+    }
+
+    // Returns a string containing the content of a statement or row change.
+    private String describe(Object data)
+    {
+        if (data instanceof StatementData)
+            return ((StatementData) data).getQuery();
+
+        OneRowChange orc = ((RowChangeData) data).getRowChanges().get(0);
+        StringBuffer sb = new StringBuffer();
+        sb.append(orc.getSchemaName()).append(".").append(orc.getTableName());
+        for (ArrayList<ColumnVal> row : orc.getColumnValues())
+            sb.append(" ").append(row);
+        return sb.toString();
+    }
+
+    // Runs a load including blobs and statements and checks the results.
+    private void runLoad(String pipelineType, int channels) throws Exception
+    {
+        PipelineLoadHarness harness = new PipelineLoadHarness();
+        harness.setPipelineType(pipelineType);
+        harness.setChannels(channels);
+        harness.setLogDir("testPipelineLoad");
+        harness.setTimeoutSeconds(30);
+        harness.setLoadProperty("transactions", "200");
+        harness.setLoadProperty("minRows", "1");
+        harness.setLoadProperty("maxRows", "4");
+        harness.setLoadProperty("blobSize", "100");
+        harness.setLoadProperty("statementPercent", "10");
+
+        PipelineLoadHarness.Result result = harness.run();
+        assertEquals("Transactions", 200, result.getTransactions());
+        assertEquals("Events", 200, result.getEvents());
+        assertTrue("Rows: " + result.getRows(), result.getRows() >= 200
+                && result.getRows() <= 800);
+        assertTrue("Latency", result.getLatency(0.99) >= 0);
+        assertTrue("Latency order", result.getLatency(0.99) <= result
+                .getMaxLatency());
+    }
+}
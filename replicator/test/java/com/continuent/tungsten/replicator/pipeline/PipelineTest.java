@@ -571,6 +571,104 @@ public class PipelineTest extends TestCase
         }
     }
 
+    /**
+     * Verify that adaptive block commit starts with small blocks and grows them
+     * when the input queue is full and commits are cheap, and that the task
+     * reports its effective block size.
+     */
+    public void testAdaptiveBlockCommit() throws Exception
+    {
+        int xacts = 200;
+        TungstenProperties config = helper.createDoubleQueueRuntime(xacts, 50,
+                0);
+        config.setString("replicator.stage.stage.blockCommitPolicy",
+                "adaptive");
+        ReplicatorRuntime runtime = new ReplicatorRuntime(config,
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        Pipeline pipeline = runtime.getPipeline();
+        Stage stage = pipeline.getStages().get(0);
+        TaskProgress progress = stage.getProgressTracker().getTaskProgress(0);
+        assertEquals("Initial block size", 1, progress.getEffectiveBlockSize());
+
+        // Load data into the queue and start the pipeline.
+        InMemoryQueueStore input = (InMemoryQueueStore) pipeline
+                .getStore("q1");
+        for (int i = 0; i < xacts; i++)
+            input.put(helper.createEvent(i, "db0"));
+        pipeline.start(new MockEventDispatcher());
+
+        Future<ReplDBMSHeader> future = pipeline
+                .watchForCommittedSequenceNumber(xacts - 1, false);
+        future.get(5, TimeUnit.SECONDS);
+
+        // Blocks must grow but not beyond the maximum.
+        int blockSize = progress.getEffectiveBlockSize();
+        assertTrue("Block size grew: " + blockSize, blockSize > 1);
+        assertTrue("Block size within maximum: " + blockSize, blockSize <= 50);
+        assertTrue("Fewer commits than transactions: "
+                + progress.getBlockCount(), progress.getBlockCount() < xacts);
+
+        pipeline.shutdown(false);
+        pipeline.release(runtime);
+    }
+
+    /**
+     * Verify that a lock wait in an adaptive block rolls the block back and
+     * applies it again in smaller blocks, without stopping the pipeline or
+     * losing or repeating transactions.
+     */
+    public void testAdaptiveBlockRetryAfterLockWait() throws Exception
+    {
+        int xacts = 400;
+        TungstenProperties config = helper.createLockWaitRuntime(xacts, 64,
+                300);
+        ReplicatorRuntime runtime = new ReplicatorRuntime(config,
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        Pipeline pipeline = runtime.getPipeline();
+        LockWaitApplier applier = (LockWaitApplier) ((ApplierWrapper) pipeline
+                .getTailApplier()).getApplier();
+
+        InMemoryQueueStore input = (InMemoryQueueStore) pipeline
+                .getStore("q1");
+        for (int i = 0; i < xacts; i++)
+            input.put(helper.createEvent(i, "db0"));
+        pipeline.start(new MockEventDispatcher());
+
+        Future<ReplDBMSHeader> future = pipeline
+                .watchForCommittedSequenceNumber(xacts - 1, false);
+        future.get(10, TimeUnit.SECONDS);
+
+        // Every transaction is committed once and in order.
+        List<Long> committed = applier.getCommitted();
+        assertEquals("Committed transactions", xacts, committed.size());
+        for (int i = 0; i < xacts; i++)
+            assertEquals("Committed seqno", i, committed.get(i).longValue());
+
+        // The block that failed had grown past the last committed size and
+        // is retried in blocks of half its size, which are smaller than any
+        // recent block before the lock wait.
+        List<Integer> blockSizes = applier.getBlockSizes();
+        int failedBlock = applier.getFailedBlock();
+        assertTrue("Lock wait happened", failedBlock > 0);
+        int largest = 0;
+        for (int i = 0; i < failedBlock; i++)
+            largest = Math.max(largest, blockSizes.get(i));
+        int retried = blockSizes.get(failedBlock);
+        assertTrue("Blocks grew before lock wait: " + blockSizes, largest > 4);
+        assertTrue("Retried block is smaller: largest=" + largest
+                + " retried=" + retried + " sizes=" + blockSizes,
+                retried < largest);
+
+        pipeline.shutdown(false);
+        pipeline.release(runtime);
+    }
+
     /**
      * Verify that if an event has the force_commit flag in the header metadata
      * it will always commit the current block regardless of the block commit
@@ -0,0 +1,333 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.event.ReplEvent;
+import com.continuent.tungsten.replicator.extractor.Extractor;
+import com.continuent.tungsten.replicator.filter.Filter;
+import com.continuent.tungsten.replicator.filter.StatelessFilter;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+
+/**
+ * Tests the threads that feed a pipelined stage task, in particular that
+ * stateless filters running on several threads deliver events in order.
+ */
+public class StageTaskFeederTest extends TestCase
+{
+    private PipelineHelper helper = new PipelineHelper();
+
+    /**
+     * Verify that events pass through parallel stateless filters and a
+     * following stateful filter in extraction order, including events that
+     * are discarded or fail in a stateless filter.
+     */
+    public void testParallelFilterOrdering() throws Exception
+    {
+        QueueExtractor extractor = new QueueExtractor();
+        OrderFilter order = new OrderFilter();
+        List<Filter> filters = new ArrayList<Filter>();
+        filters.add(new DelayFilter());
+        filters.add(new DelayFilter());
+        filters.add(order);
+
+        StageTaskFeeder feeder = new StageTaskFeeder("test", extractor,
+                filters, 10, 4);
+        assertEquals("Parallel filters", 2, feeder.getParallelFilters());
+        feeder.start();
+        try
+        {
+            for (long seqno = 0; seqno < 500; seqno++)
+                extractor.queue.put(helper.createEvent(seqno, "db0"));
+
+            for (long seqno = 0; seqno < 500; seqno++)
+            {
+                StageTaskFeeder.Item item = feeder.take();
+                ReplDBMSEvent event = (ReplDBMSEvent) item.getEvent();
+                assertEquals("Extraction order", seqno, event.getSeqno());
+                if (seqno % 10 == 3)
+                {
+                    assertNull("Discarded: " + seqno, item.getFilteredEvent());
+                }
+                else if (seqno % 10 == 7)
+                {
+                    try
+                    {
+                        item.getFilteredEvent();
+                        fail("Expected filter failure: " + seqno);
+                    }
+                    catch (ReplicatorException e)
+                    {
+                    }
+                }
+                else
+                {
+                    assertEquals("Filtered: " + seqno, seqno, item
+                            .getFilteredEvent().getSeqno());
+                }
+            }
+            assertFalse("No more events", feeder.hasMoreEvents());
+        }
+        finally
+        {
+            feeder.stop();
+        }
+
+        // The stateful filter saw surviving events in order.
+        assertEquals("Events seen", 400, order.seen.size());
+        for (int i = 1; i < order.seen.size(); i++)
+        {
+            assertTrue("Ascending order",
+                    order.seen.get(i - 1) < order.seen.get(i));
+        }
+    }
+
+    /**
+     * Verify that filters after a stateful filter never run in parallel.
+     */
+    public void testStatefulFilterFirst() throws Exception
+    {
+        List<Filter> filters = new ArrayList<Filter>();
+        filters.add(new OrderFilter());
+        filters.add(new DelayFilter());
+        StageTaskFeeder feeder = new StageTaskFeeder("test",
+                new QueueExtractor(), filters, 10, 4);
+        assertEquals("Parallel filters", 0, feeder.getParallelFilters());
+
+        filters.remove(0);
+        feeder = new StageTaskFeeder("test", new QueueExtractor(), filters,
+                10, 1);
+        assertEquals("Single filter thread", 0, feeder.getParallelFilters());
+    }
+
+    /**
+     * Verify that each item carries the time spent extracting and filtering
+     * it, with both a single filter thread and parallel filters.
+     */
+    public void testItemTimings() throws Exception
+    {
+        for (int filterThreads = 1; filterThreads <= 2; filterThreads++)
+        {
+            QueueExtractor extractor = new QueueExtractor();
+            extractor.delayMillis = 20;
+            List<Filter> filters = new ArrayList<Filter>();
+            filters.add(new SleepFilter());
+            StageTaskFeeder feeder = new StageTaskFeeder("test", extractor,
+                    filters, 10, filterThreads);
+            feeder.start();
+            try
+            {
+                for (long seqno = 0; seqno < 3; seqno++)
+                    extractor.queue.put(helper.createEvent(seqno, "db0"));
+                for (long seqno = 0; seqno < 3; seqno++)
+                {
+                    StageTaskFeeder.Item item = feeder.take();
+                    assertNotNull("Filtered", item.getFilteredEvent());
+                    assertTrue("Extract time: " + item.getExtractMillis(),
+                            item.getExtractMillis() >= 15);
+                    assertTrue("Filter time: " + item.getFilterMillis(),
+                            item.getFilterMillis() >= 15);
+                }
+            }
+            finally
+            {
+                feeder.stop();
+            }
+        }
+    }
+
+    /**
+     * Verify that stop does not return while the extract thread is still
+     * inside the extractor, even if the extractor ignores interrupts for
+     * longer than a single join timeout.
+     */
+    public void testStopWaitsForExtractor() throws Exception
+    {
+        StubbornExtractor extractor = new StubbornExtractor();
+        StageTaskFeeder feeder = new StageTaskFeeder("test", extractor,
+                new ArrayList<Filter>(), 10, 1);
+        feeder.start();
+        extractor.entered.await();
+        feeder.stop();
+        assertFalse("Extractor still in use after stop", extractor.inExtract);
+    }
+
+    // Extractor that returns events from a queue.
+    class QueueExtractor implements Extractor
+    {
+        long delayMillis = 0;
+
+        LinkedBlockingQueue<ReplEvent> queue = new LinkedBlockingQueue<ReplEvent>();
+
+        public ReplEvent extract() throws InterruptedException
+        {
+            ReplEvent event = queue.take();
+            if (delayMillis > 0)
+                Thread.sleep(delayMillis);
+            return event;
+        }
+
+        public boolean hasMoreEvents()
+        {
+            return queue.size() > 0;
+        }
+
+        public void setLastEvent(ReplDBMSHeader header)
+        {
+        }
+
+        public void setLastEventId(String eventId)
+        {
+        }
+
+        public String getCurrentResourceEventId()
+        {
+            return null;
+        }
+
+        public void configure(PluginContext context)
+        {
+        }
+
+        public void prepare(PluginContext context)
+        {
+        }
+
+        public void release(PluginContext context)
+        {
+        }
+    }
+
+    // Stateless filter that takes a variable time so that workers finish out
+    // of order. Discards seqnos ending in 3 and fails on those ending in 7.
+    class DelayFilter implements StatelessFilter
+    {
+        public ReplDBMSEvent filter(ReplDBMSEvent event)
+                throws ReplicatorException, InterruptedException
+        {
+            Thread.sleep((event.getSeqno() * 7) % 3);
+            if (event.getSeqno() % 10 == 3)
+                return null;
+            else if (event.getSeqno() % 10 == 7)
+                throw new ReplicatorException("Failed: " + event.getSeqno());
+            else
+                return event;
+        }
+
+        public void configure(PluginContext context)
+        {
+        }
+
+        public void prepare(PluginContext context)
+        {
+        }
+
+        public void release(PluginContext context)
+        {
+        }
+    }
+
+    // Extractor that ignores interrupts for six seconds, which is longer than
+    // the interval between interrupts in stop().
+    class StubbornExtractor extends QueueExtractor
+    {
+        CountDownLatch   entered   = new CountDownLatch(1);
+        volatile boolean inExtract = false;
+
+        public ReplEvent extract() throws InterruptedException
+        {
+            inExtract = true;
+            entered.countDown();
+            long end = System.currentTimeMillis() + 6000;
+            long now;
+            while ((now = System.currentTimeMillis()) < end)
+            {
+                try
+                {
+                    Thread.sleep(end - now);
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+            inExtract = false;
+            throw new InterruptedException();
+        }
+    }
+
+    // Stateless filter that takes a fixed time.
+    class SleepFilter implements StatelessFilter
+    {
+        public ReplDBMSEvent filter(ReplDBMSEvent event)
+                throws InterruptedException
+        {
+            Thread.sleep(20);
+            return event;
+        }
+
+        public void configure(PluginContext context)
+        {
+        }
+
+        public void prepare(PluginContext context)
+        {
+        }
+
+        public void release(PluginContext context)
+        {
+        }
+    }
+
+    // Stateful filter that records the order of events it sees.
+    class OrderFilter implements Filter
+    {
+        List<Long> seen = new ArrayList<Long>();
+
+        public ReplDBMSEvent filter(ReplDBMSEvent event)
+        {
+            seen.add(event.getSeqno());
+            return event;
+        }
+
+        public void configure(PluginContext context)
+        {
+        }
+
+        public void prepare(PluginContext context)
+        {
+        }
+
+        public void release(PluginContext context)
+        {
+        }
+    }
+}
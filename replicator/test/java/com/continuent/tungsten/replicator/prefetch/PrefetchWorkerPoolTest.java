@@ -0,0 +1,163 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+
+package com.continuent.tungsten.replicator.prefetch;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.database.Column;
+import com.continuent.tungsten.replicator.database.Key;
+import com.continuent.tungsten.replicator.database.Table;
+
+/**
+ * Tests handling of failures on prefetch worker threads.
+ */
+public class PrefetchWorkerPoolTest extends TestCase
+{
+    /**
+     * Prefetcher that fails according to the key value and records the
+     * values it prefetched successfully.
+     */
+    static class StubPrefetcher extends IndexPrefetcher
+    {
+        final List<Object> prefetched = Collections
+                .synchronizedList(new ArrayList<Object>());
+
+        StubPrefetcher()
+        {
+            super(null);
+        }
+
+        public boolean prefetch(KeySelect keySelect,
+                SlowQueryCache slowQueryCache) throws ReplicatorException
+        {
+            Object value = keySelect.getValue(1);
+            if ("bad".equals(value))
+                throw new ReplicatorException("Query failed");
+            else if ("boom".equals(value))
+                throw new IllegalStateException("Unexpected failure");
+            else if ("fatal".equals(value))
+                throw new AssertionError("Fatal failure");
+            prefetched.add(value);
+            return true;
+        }
+    }
+
+    /**
+     * Verify that a worker keeps going after failed queries and that only
+     * keys whose query succeeded are marked warm.
+     */
+    public void testWorkerSurvivesQueryFailures() throws Exception
+    {
+        WarmKeyCache cache = new WarmKeyCache(100, 60000);
+        StubPrefetcher prefetcher = new StubPrefetcher();
+        PrefetchWorkerPool pool = createPool(prefetcher, 2);
+        pool.setWarmKeyCache(cache);
+
+        String[] values = {"bad", "boom", "ok1", "bad", "ok2"};
+        for (String value : values)
+            pool.submit(createKeySelect(value), System.currentTimeMillis(),
+                    null);
+        waitFor(prefetcher, 2);
+
+        assertEquals("Errors", 3, pool.getErrors());
+        assertEquals("Prefetched", 2, prefetcher.prefetched.size());
+        long now = System.currentTimeMillis();
+        assertTrue("Succeeded key is warm",
+                cache.isWarm(createKeySelect("ok1").generateKey(), now));
+        assertFalse("Failed key is not warm",
+                cache.isWarm(createKeySelect("bad").generateKey(), now));
+        assertFalse("Failed key is not warm",
+                cache.isWarm(createKeySelect("boom").generateKey(), now));
+        pool.shutdown();
+    }
+
+    /**
+     * Verify that once a worker dies, submits fail instead of blocking on a
+     * full queue that nobody drains.
+     */
+    public void testSubmitFailsAfterWorkerDies() throws Exception
+    {
+        StubPrefetcher prefetcher = new StubPrefetcher();
+        PrefetchWorkerPool pool = createPool(prefetcher, 1);
+        pool.submit(createKeySelect("fatal"), System.currentTimeMillis(),
+                null);
+
+        try
+        {
+            for (int i = 0; i < 10; i++)
+                pool.submit(createKeySelect("ok" + i),
+                        System.currentTimeMillis(), null);
+            fail("Submit succeeded after worker died");
+        }
+        catch (ReplicatorException e)
+        {
+            assertTrue("Cause is worker failure",
+                    e.getCause() instanceof AssertionError);
+        }
+        assertEquals("Nothing prefetched", 0, prefetcher.prefetched.size());
+        pool.shutdown();
+    }
+
+    // Creates a pool with a single worker using the given prefetcher.
+    private PrefetchWorkerPool createPool(IndexPrefetcher prefetcher,
+            int queueSize)
+    {
+        PrefetchWorkerPool pool = new PrefetchWorkerPool("test-worker", null,
+                null, null, false, 1, queueSize);
+        List<IndexPrefetcher> prefetchers = new ArrayList<IndexPrefetcher>();
+        prefetchers.add(prefetcher);
+        pool.startWorkers(null, prefetchers);
+        return pool;
+    }
+
+    // Creates a key select with a single value.
+    private KeySelect createKeySelect(String value) throws Exception
+    {
+        Table table = new Table("test", "t1");
+        Column column = new Column("c1", Types.VARCHAR);
+        table.AddColumn(column);
+        Key key = new Key(Key.NonUnique);
+        key.AddColumn(column);
+        KeySelect keySelect = new KeySelect(table, key);
+        keySelect.setValue(1, value);
+        return keySelect;
+    }
+
+    // Waits until the prefetcher has run the given number of queries.
+    private void waitFor(StubPrefetcher prefetcher, int count)
+            throws Exception
+    {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (prefetcher.prefetched.size() < count
+                && System.currentTimeMillis() < timeout)
+            Thread.sleep(10);
+        assertEquals("Prefetched queries", count, prefetcher.prefetched.size());
+    }
+}
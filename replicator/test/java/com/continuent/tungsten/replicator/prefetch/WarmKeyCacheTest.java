@@ -0,0 +1,69 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.prefetch;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests de-duplication of prefetched keys.
+ */
+public class WarmKeyCacheTest extends TestCase
+{
+    /**
+     * Verify that a key is warm within the window and cold after it.
+     */
+    public void testWindow() throws Exception
+    {
+        WarmKeyCache cache = new WarmKeyCache(10, 1000);
+
+        assertFalse("Unmarked key is cold", cache.isWarm("k1", 5000));
+        cache.mark("k1", 5000);
+        assertTrue("Marked key is warm", cache.isWarm("k1", 5500));
+        assertFalse("Check after window is cold", cache.isWarm("k1", 6000));
+        cache.mark("k1", 6000);
+        assertTrue("Key is warm again after refresh",
+                cache.isWarm("k1", 6999));
+
+        assertEquals("Checks", 4, cache.getChecks());
+        assertEquals("Hits", 2, cache.getHits());
+        assertEquals("Hit ratio", 0.5, cache.getHitRatio(), 0.0001);
+    }
+
+    /**
+     * Verify that the oldest keys are evicted once capacity is reached and
+     * that invalidated keys are forgotten.
+     */
+    public void testEvictionAndInvalidation() throws Exception
+    {
+        WarmKeyCache cache = new WarmKeyCache(3, 60000);
+        for (int i = 0; i < 5; i++)
+            cache.mark("k" + i, 1000 + i);
+        assertEquals("Size limited to capacity", 3, cache.size());
+
+        assertFalse("Evicted key is cold", cache.isWarm("k0", 2000));
+        assertTrue("Recent key is warm", cache.isWarm("k4", 2000));
+
+        cache.invalidate("k4");
+        assertFalse("Invalidated key is cold", cache.isWarm("k4", 2001));
+    }
+}
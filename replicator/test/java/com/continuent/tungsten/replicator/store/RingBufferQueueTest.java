@@ -0,0 +1,289 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.event.EventGenerationHelper;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.storage.InMemoryQueueStore;
+import com.continuent.tungsten.replicator.storage.RingBufferQueue;
+import com.continuent.tungsten.replicator.storage.RingBufferQueue.WaitStrategy;
+
+/**
+ * Tests the ring buffer queue and compares hand-over throughput of in-memory
+ * queue stores with and without ring buffers.
+ */
+public class RingBufferQueueTest extends TestCase
+{
+    private static Logger logger = Logger.getLogger(RingBufferQueueTest.class);
+
+    /**
+     * Verify queue semantics on a single thread, including a capacity that is
+     * not a power of two and wrapping around the end of the buffer.
+     */
+    public void testBasicOperations() throws Exception
+    {
+        RingBufferQueue<Integer> q = new RingBufferQueue<Integer>(3,
+                WaitStrategy.BLOCK);
+        assertNull("Empty queue", q.poll());
+        assertNull("Empty queue", q.peek());
+
+        for (int round = 0; round < 5; round++)
+        {
+            assertTrue("Offer 1", q.offer(1));
+            assertTrue("Offer 2", q.offer(2));
+            assertTrue("Offer 3", q.offer(3));
+            assertFalse("Queue full", q.offer(4));
+            assertEquals("Size", 3, q.size());
+            assertEquals("Remaining capacity", 0, q.remainingCapacity());
+
+            assertEquals("Peek", new Integer(1), q.peek());
+            assertEquals("Poll", new Integer(1), q.poll());
+            assertEquals("Take", new Integer(2), q.take());
+
+            List<Integer> drained = new ArrayList<Integer>();
+            assertEquals("Drained", 1, q.drainTo(drained));
+            assertEquals("Drained value", new Integer(3), drained.get(0));
+            assertTrue("Empty", q.isEmpty());
+        }
+
+        try
+        {
+            q.offer(null);
+            fail("Accepted null element");
+        }
+        catch (NullPointerException e)
+        {
+        }
+    }
+
+    /**
+     * Verify that timed operations give up when the queue stays full or empty.
+     */
+    public void testTimeouts() throws Exception
+    {
+        for (WaitStrategy strategy : WaitStrategy.values())
+        {
+            RingBufferQueue<Integer> q = new RingBufferQueue<Integer>(1,
+                    strategy);
+            assertNull("Timed poll", q.poll(10, TimeUnit.MILLISECONDS));
+            assertTrue("Offer", q.offer(1, 10, TimeUnit.MILLISECONDS));
+            assertFalse("Timed offer", q.offer(2, 10, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Verify that wait strategy names are checked.
+     */
+    public void testWaitStrategyNames() throws Exception
+    {
+        assertEquals("Yield", WaitStrategy.YIELD,
+                RingBufferQueue.parseWaitStrategy(" Yield"));
+        try
+        {
+            RingBufferQueue.parseWaitStrategy("sleep");
+            fail("Accepted unknown wait strategy");
+        }
+        catch (ReplicatorException e)
+        {
+        }
+    }
+
+    /**
+     * Verify that elements pass in order from a producer to a consumer thread
+     * with every wait strategy and a small buffer that fills constantly.
+     */
+    public void testProducerConsumer() throws Exception
+    {
+        for (WaitStrategy strategy : WaitStrategy.values())
+        {
+            final RingBufferQueue<Integer> q = new RingBufferQueue<Integer>(
+                    4, strategy);
+            final int count = 50000;
+            Thread producer = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < count; i++)
+                            q.put(i);
+                    }
+                    catch (InterruptedException e)
+                    {
+                    }
+                }
+            }, "producer");
+            producer.setDaemon(true);
+            producer.start();
+
+            for (int i = 0; i < count; i++)
+            {
+                Integer value = q.poll(10, TimeUnit.SECONDS);
+                assertEquals("Value in order: strategy=" + strategy,
+                        new Integer(i), value);
+            }
+            producer.join(10000);
+            assertTrue("Empty at end", q.isEmpty());
+        }
+    }
+
+    /**
+     * Compare the rate at which events pass between two threads through an
+     * in-memory queue store using a linked queue and ring buffers with each
+     * wait strategy. Results are logged.
+     */
+    public void testStoreThroughput() throws Exception
+    {
+        int count = 200000;
+        ReplDBMSEvent event = new EventGenerationHelper().eventFromStatement(
+                1, "test", "insert into foo values(1)");
+
+        // Calibrate the underlying queues first.
+        logger.info("Linked queue: events/sec="
+                + measure(new LinkedBlockingQueue<ReplDBMSEvent>(100), event,
+                        count));
+        for (WaitStrategy strategy : WaitStrategy.values())
+        {
+            logger.info("Ring buffer queue: strategy="
+                    + strategy
+                    + " events/sec="
+                    + measure(new RingBufferQueue<ReplDBMSEvent>(100,
+                            strategy), event, count));
+        }
+
+        // Now measure the stores.
+        logger.info("Linked queue store: events/sec="
+                + measure(createStore(false, "block"), event, count));
+        for (WaitStrategy strategy : WaitStrategy.values())
+        {
+            logger.info("Ring buffer store: strategy="
+                    + strategy
+                    + " events/sec="
+                    + measure(createStore(true, strategy.toString()), event,
+                            count));
+        }
+    }
+
+    // Creates and prepares an in-memory queue store.
+    private InMemoryQueueStore createStore(boolean ringBuffer,
+            String waitStrategy) throws Exception
+    {
+        InMemoryQueueStore store = new InMemoryQueueStore();
+        store.setName("queue");
+        store.setMaxSize(100);
+        store.setRingBuffer(ringBuffer);
+        store.setWaitStrategy(waitStrategy);
+        store.configure(null);
+        store.prepare(null);
+        return store;
+    }
+
+    // Passes events through a queue from a producer thread and returns the
+    // rate in events per second.
+    private long measure(final BlockingQueue<ReplDBMSEvent> q,
+            final ReplDBMSEvent event, final int count) throws Exception
+    {
+        Thread producer = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    for (int i = 0; i < count; i++)
+                        q.put(event);
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+        }, "producer");
+        return measure(producer, new Taker()
+        {
+            public ReplDBMSEvent take() throws Exception
+            {
+                return q.take();
+            }
+        }, count);
+    }
+
+    // Same as above for an in-memory queue store.
+    private long measure(final InMemoryQueueStore store,
+            final ReplDBMSEvent event, final int count) throws Exception
+    {
+        Thread producer = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    for (int i = 0; i < count; i++)
+                        store.put(event);
+                }
+                catch (Exception e)
+                {
+                    logger.error("Producer failed", e);
+                }
+            }
+        }, "producer");
+        long rate = measure(producer, new Taker()
+        {
+            public ReplDBMSEvent take() throws Exception
+            {
+                return store.get();
+            }
+        }, count);
+        store.release(null);
+        return rate;
+    }
+
+    // Removes an element from a queue under test.
+    private interface Taker
+    {
+        public ReplDBMSEvent take() throws Exception;
+    }
+
+    // Runs a producer and consumes its output.
+    private long measure(Thread producer, Taker taker, int count)
+            throws Exception
+    {
+        producer.setDaemon(true);
+        long start = System.nanoTime();
+        producer.start();
+        for (int i = 0; i < count; i++)
+            assertNotNull("Event", taker.take());
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        producer.join(10000);
+        return count * 1000000000L / elapsed;
+    }
+}
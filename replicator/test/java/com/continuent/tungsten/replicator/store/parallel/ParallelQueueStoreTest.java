@@ -156,6 +156,44 @@ public class ParallelQueueStoreTest extends TestCase
         pqs.release(context);
     }
 
+    /**
+     * Confirm that partitions backed by ring buffers deliver events and
+     * control events in order.
+     */
+    public void testRingBufferPartitions() throws Exception
+    {
+        TungstenProperties conf = generateConfig();
+        PluginContext context = new ReplicatorRuntime(conf,
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        ParallelQueueStore pqs = new ParallelQueueStore();
+        pqs.setPartitions(3);
+        pqs.setMaxSize(10);
+        pqs.setSyncEnabled(false);
+        pqs.setRingBuffer(true);
+        pqs.setWaitStrategy("yield");
+        pqs.configure(context);
+        pqs.prepare(context);
+
+        for (int i = 0; i < 6; i++)
+            pqs.put(i % 3, createEvent(i));
+        pqs.insertStopEvent();
+        assertEquals("Store size", 9, pqs.getStoreSize());
+
+        for (int i = 0; i < 6; i++)
+        {
+            ReplDBMSEvent event = (ReplDBMSEvent) pqs.get(i % 3);
+            assertEquals("Event in order", i, event.getSeqno());
+        }
+        for (int i = 0; i < 3; i++)
+        {
+            ReplEvent event = pqs.get(i);
+            assertTrue("Stop event", event instanceof ReplControlEvent);
+        }
+        assertEquals("Store empty", 0, pqs.getStoreSize());
+        pqs.release(context);
+    }
+
     /**
      * Confirm that stop events go to all partitions and appear in total order
      * compared to all other events. We implement the test by sending a stop
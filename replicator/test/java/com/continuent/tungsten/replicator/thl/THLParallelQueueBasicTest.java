@@ -46,6 +46,7 @@ import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
 import com.continuent.tungsten.replicator.event.ReplOptionParams;
+import com.continuent.tungsten.replicator.filter.DummyFilter;
 import com.continuent.tungsten.replicator.management.MockEventDispatcher;
 import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
 import com.continuent.tungsten.replicator.pipeline.Pipeline;
@@ -54,6 +55,7 @@ import com.continuent.tungsten.replicator.storage.CommitAction;
 import com.continuent.tungsten.replicator.storage.InMemoryMultiQueue;
 import com.continuent.tungsten.replicator.storage.InMemoryTransactionalQueue;
 import com.continuent.tungsten.replicator.storage.Store;
+import com.continuent.tungsten.replicator.storage.parallel.SimplePartitioner;
 import com.continuent.tungsten.replicator.thl.log.LogConnection;
 
 /**
@@ -269,6 +271,157 @@ public class THLParallelQueueBasicTest
         }
     }
 
+    /**
+     * Verify that a parallel THL queue that scans the log once for all
+     * partitions assigns each event to the correct channel and that each
+     * channel still sees every event in the log.
+     */
+    @Test
+    public void testMultiChannelSharedScan() throws Exception
+    {
+        logger.info("##### testMultiChannelSharedScan #####");
+
+        // Set up and prepare pipeline with a shared scan.
+        TungstenProperties conf = helper.generateTHLParallelPipeline(
+                "testMultiChannelSharedScan", 3, 50, 100, true);
+        conf.setBoolean("replicator.store.thl-queue.sharedScan", true);
+        runtime = new ReplicatorRuntime(conf, new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        pipeline = runtime.getPipeline();
+        pipeline.start(new MockEventDispatcher());
+
+        // Fetch references to stores.
+        THL thl = (THL) pipeline.getStore("thl");
+        THLParallelQueue tpq = (THLParallelQueue) pipeline
+                .getStore("thl-queue");
+        InMemoryMultiQueue mq = (InMemoryMultiQueue) pipeline
+                .getStore("multi-queue");
+        Assert.assertTrue("Shared scan enabled", tpq.isSharedScan());
+
+        // Write events to the THL with three different shard IDs.
+        LogConnection conn = thl.connect(false);
+        for (int i = 0; i < 90; i++)
+        {
+            ReplDBMSEvent rde = helper.createEvent(i, "db" + (i % 3));
+            THLEvent thlEvent = new THLEvent(rde.getSourceId(), rde);
+            conn.store(thlEvent, false);
+        }
+        conn.commit();
+        thl.disconnect(conn);
+
+        // Confirm that each parallel queue on the other side gets 30 events in
+        // order.
+        for (int q = 0; q < 3; q++)
+        {
+            long seqno = -1;
+            String shardId = "db" + q;
+            for (int i = 0; i < 30; i++)
+            {
+                ReplDBMSEvent rde2 = (ReplDBMSEvent) mq.get(q);
+                Assert.assertTrue("Seqno increases due to partial order",
+                        rde2.getSeqno() > seqno);
+                Assert.assertEquals("Shard ID matches queue", shardId,
+                        rde2.getShardId());
+                seqno = rde2.getSeqno();
+            }
+        }
+
+        // Confirm that a single thread read the log.
+        TungstenProperties status = tpq.status();
+        logger.info("Parallel queue status: " + status);
+        Assert.assertTrue("Shared reader reported",
+                status.getString("sharedReader").contains("read=90"));
+    }
+
+    /**
+     * Verify that a shared scan with a partitioner that assigns every event to
+     * every channel gives each channel its own copy of the event when the
+     * reading stage has filters, and otherwise shares one event.
+     */
+    @Test
+    public void testSharedScanCopies() throws Exception
+    {
+        logger.info("##### testSharedScanCopies #####");
+        for (boolean filtered : new boolean[]{true, false})
+        {
+            // Set up and prepare pipeline with a shared scan.
+            TungstenProperties conf = helper.generateTHLParallelPipeline(
+                    "testSharedScanCopies", 3, 50, 100, true);
+            conf.setBoolean("replicator.store.thl-queue.sharedScan", true);
+            conf.setString("replicator.store.thl-queue.partitionerClass",
+                    SimplePartitioner.class.getName());
+            if (filtered)
+            {
+                conf.setString("replicator.stage.q-to-mq.filters", "dummy");
+                conf.setString("replicator.filter.dummy",
+                        DummyFilter.class.getName());
+            }
+            runtime = new ReplicatorRuntime(conf,
+                    new MockOpenReplicatorContext(),
+                    ReplicatorMonitor.getInstance());
+            runtime.configure();
+            runtime.prepare();
+            pipeline = runtime.getPipeline();
+            pipeline.start(new MockEventDispatcher());
+
+            // Fetch references to stores.
+            THL thl = (THL) pipeline.getStore("thl");
+            InMemoryMultiQueue mq = (InMemoryMultiQueue) pipeline
+                    .getStore("multi-queue");
+
+            // Write events to the THL.
+            LogConnection conn = thl.connect(false);
+            for (int i = 0; i < 30; i++)
+            {
+                ReplDBMSEvent rde = helper.createEvent(i, "db" + (i % 3));
+                THLEvent thlEvent = new THLEvent(rde.getSourceId(), rde);
+                conn.store(thlEvent, false);
+            }
+            conn.commit();
+            thl.disconnect(conn);
+
+            // Confirm that each queue gets every event, as a separate
+            // instance only if the stage filters events.
+            ReplDBMSEvent[][] events = new ReplDBMSEvent[3][30];
+            for (int q = 0; q < 3; q++)
+            {
+                for (int i = 0; i < 30; i++)
+                {
+                    events[q][i] = (ReplDBMSEvent) mq.get(q);
+                    Assert.assertEquals("Seqno", i, events[q][i].getSeqno());
+                }
+            }
+            for (int i = 0; i < 30; i++)
+            {
+                if (filtered)
+                {
+                    Assert.assertNotSame("Copy in queue 1", events[0][i],
+                            events[1][i]);
+                    Assert.assertNotSame("Copy in queue 2", events[0][i],
+                            events[2][i]);
+                    Assert.assertNotSame("Copied data",
+                            events[0][i].getData(), events[1][i].getData());
+                }
+                else
+                {
+                    Assert.assertSame("Shared data", events[0][i].getData(),
+                            events[1][i].getData());
+                    Assert.assertSame("Shared data", events[0][i].getData(),
+                            events[2][i].getData());
+                }
+                Assert.assertEquals("Same shard", events[0][i].getShardId(),
+                        events[2][i].getShardId());
+            }
+
+            pipeline.shutdown(false);
+            runtime.release();
+            pipeline = null;
+            runtime = null;
+        }
+    }
+
     /**
      * Verify that a parallel THL with multiple channels properly do not commit
      * additional transactions after a failure. This includes not committing any
@@ -0,0 +1,178 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.thl.THLEvent;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
+
+/**
+ * Tests seeks by source timestamp and native event ID.
+ */
+public class LogEventIndexTest extends TestCase
+{
+    private static final long BASE_TIME = 1400000000000L;
+
+    /**
+     * Verify that seeks by time and event ID find the first matching event
+     * across multiple log files whether or not event indexes are present.
+     */
+    public void testSeekByTimeAndEventId() throws Exception
+    {
+        for (int indexInterval : new int[]{0, 500})
+        {
+            File logDir = prepareLogDir("testSeekByTimeAndEventId");
+            DiskLog log = openLog(logDir, indexInterval);
+            writeEvents(log, 1000);
+            if (indexInterval > 0)
+            {
+                LogEventIndex eventIndex = new LogEventIndex(new File(logDir,
+                        log.getLastFile()));
+                assertTrue("Event index exists", eventIndex.load());
+                assertTrue("Event index has entries", eventIndex.size() > 0);
+            }
+
+            LogConnection conn = log.connect(true);
+            for (long seqno = 0; seqno < 1000; seqno += 37)
+            {
+                // Times between events position on the following event.
+                assertTrue(conn.seekByTime(new Timestamp(BASE_TIME + seqno
+                        * 1000 - 500)));
+                assertEquals("Seqno by time", seqno, conn.next(false)
+                        .getSeqno());
+                if (seqno < 999)
+                    assertEquals("Next seqno", seqno + 1, conn.next(false)
+                            .getSeqno());
+
+                // Event IDs collate by binlog offset, not as strings.
+                assertTrue(conn.seekByEventId(eventId(seqno)));
+                assertEquals("Seqno by event ID", seqno, conn.next(false)
+                        .getSeqno());
+            }
+
+            assertFalse("Time past end of log",
+                    conn.seekByTime(new Timestamp(BASE_TIME + 1000 * 1000)));
+            assertFalse("Event ID past end of log",
+                    conn.seekByEventId("mysql-bin.000003:4"));
+            conn.release();
+
+            // The log can also resolve seqnos directly.
+            assertEquals("Seqno lookup by time", 500, log
+                    .findSeqnoByTime(new Timestamp(BASE_TIME + 499500)));
+            assertEquals("Seqno lookup by event ID", 740,
+                    log.findSeqnoByEventId(eventId(740)));
+            assertEquals("Seqno lookup past end of log", -1,
+                    log.findSeqnoByEventId("mysql-bin.000003:4"));
+            log.release();
+        }
+    }
+
+    /**
+     * Verify that a missing event index is rebuilt for the last log file when
+     * the log is opened.
+     */
+    public void testEventIndexRecovery() throws Exception
+    {
+        File logDir = prepareLogDir("testEventIndexRecovery");
+        DiskLog log = openLog(logDir, 500);
+        writeEvents(log, 1000);
+        log.release();
+
+        LogEventIndex eventIndex = new LogEventIndex(new File(logDir,
+                log.getLastFile()));
+        assertTrue(eventIndex.load());
+        int size = eventIndex.size();
+        LogEventIndex.Entry last = eventIndex.getLast();
+        assertTrue("Event index deleted", eventIndex.getFile().delete());
+
+        log = openLog(logDir, 500);
+        assertTrue("Event index rebuilt", eventIndex.load());
+        assertEquals("Rebuilt size", size, eventIndex.size());
+        assertEquals("Last seqno", last.getSeqno(), eventIndex.getLast()
+                .getSeqno());
+        assertEquals("Last event ID", last.getEventId(), eventIndex.getLast()
+                .getEventId());
+        log.release();
+    }
+
+    // Returns an event ID that sorts differently as a string and as a binlog
+    // position.
+    private String eventId(long seqno)
+    {
+        return "mysql-bin.000002:" + (seqno * 100) + ";0";
+    }
+
+    // Writes events with ascending timestamps and event IDs.
+    private void writeEvents(DiskLog log, int howMany) throws Exception
+    {
+        LogConnection conn = log.connect(false);
+        for (long seqno = 0; seqno < howMany; seqno++)
+        {
+            ReplDBMSEvent replEvent = new ReplDBMSEvent(seqno, (short) 0,
+                    true, "test", 1, new Timestamp(System.currentTimeMillis()),
+                    new DBMSEvent(eventId(seqno), new ArrayList<DBMSData>(),
+                            new Timestamp(BASE_TIME + seqno * 1000)));
+            conn.store(new THLEvent(eventId(seqno), replEvent), false);
+        }
+        conn.commit();
+        conn.release();
+    }
+
+    // Opens a writable log with small files and the given index interval.
+    private DiskLog openLog(File logDir, int indexInterval) throws Exception
+    {
+        DiskLog log = new DiskLog();
+        log.setReadOnly(false);
+        log.setEventSerializerClass(ProtobufSerializer.class.getName());
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setLogFileSize(50000);
+        log.setTimeoutMillis(10000);
+        log.setLogFileIndexInterval(indexInterval);
+        log.prepare();
+        return log;
+    }
+
+    // Creates an empty log directory.
+    private File prepareLogDir(String logDirName) throws Exception
+    {
+        File logDir = new File(logDirName);
+        if (logDir.exists())
+        {
+            for (File f : logDir.listFiles())
+                f.delete();
+            logDir.delete();
+        }
+        if (!logDir.mkdirs())
+            throw new Exception("Unable to create log directory: "
+                    + logDir.getAbsolutePath());
+        return logDir;
+    }
+}
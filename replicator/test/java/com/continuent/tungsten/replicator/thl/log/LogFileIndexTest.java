@@ -0,0 +1,263 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.sql.Timestamp;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
+import com.continuent.tungsten.replicator.thl.THLEvent;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
+
+/**
+ * Tests maintenance of sparse log file indexes and seeks that use them.
+ */
+public class LogFileIndexTest extends TestCase
+{
+    /**
+     * Verify that index entries are written as the log grows and that seeks
+     * find every event, including events inside a filtered range.
+     */
+    public void testSeekWithIndex() throws Exception
+    {
+        File logDir = prepareLogDir("testSeekWithIndex");
+        DiskLog log = openLog(logDir, false, 1000);
+        LogConnection conn = log.connect(false);
+        writeEvents(conn, 0, 500);
+        conn.store(createFilteredTHLEvent(500, 509), false);
+        writeEvents(conn, 510, 490);
+        conn.commit();
+        conn.release();
+
+        LogFileIndex index = new LogFileIndex(new File(logDir,
+                log.getLastFile()));
+        assertTrue("Index exists", index.load());
+        assertTrue("Index has entries: " + index, index.size() > 10);
+
+        checkSeeks(log);
+        log.release();
+    }
+
+    /**
+     * Verify that a missing index is rebuilt when the log is opened and that a
+     * damaged index does not prevent seeks.
+     */
+    public void testIndexRecovery() throws Exception
+    {
+        File logDir = prepareLogDir("testIndexRecovery");
+        DiskLog log = openLog(logDir, false, 1000);
+        LogConnection conn = log.connect(false);
+        writeEvents(conn, 0, 1000);
+        conn.commit();
+        conn.release();
+        log.release();
+
+        File dataFile = new File(logDir, log.getLastFile());
+        LogFileIndex index = new LogFileIndex(dataFile);
+        assertTrue("Index exists", index.load());
+        int size = index.size();
+        assertTrue("Index deleted", index.getFile().delete());
+
+        // Reopening the log rebuilds the index.
+        log = openLog(logDir, false, 1000);
+        assertTrue("Index rebuilt", index.load());
+        assertEquals("Rebuilt index size", size, index.size());
+        log.release();
+
+        // Point entries at the wrong offsets. Seeks must still work.
+        RandomAccessFile raf = new RandomAccessFile(index.getFile(), "rw");
+        for (int i = 0; i < size; i++)
+        {
+            raf.seek(i * 18 + 10);
+            raf.writeLong(LogFile.HEADER_LENGTH + i);
+        }
+        raf.close();
+        log = openLog(logDir, true, 0);
+        checkSeeks(log);
+        log.release();
+    }
+
+    /**
+     * Verify that seeking into a closed log file without an index, as written
+     * with indexing disabled, works while the missing index is rebuilt in the
+     * background.
+     */
+    public void testRebuildOnSeek() throws Exception
+    {
+        File logDir = prepareLogDir("testRebuildOnSeek");
+        DiskLog log = openLog(logDir, false, 0, 20000);
+        LogConnection conn = log.connect(false);
+        writeEvents(conn, 0, 1000);
+        conn.commit();
+        conn.release();
+        log.release();
+
+        String[] fileNames = log.getLogFileNames();
+        assertTrue("Log has several files", fileNames.length > 2);
+        for (String fileName : fileNames)
+        {
+            LogFileIndex index = new LogFileIndex(new File(logDir, fileName));
+            assertFalse("No index: " + fileName, index.load());
+        }
+
+        // Recovery indexes the last file; seeks start rebuilds of the others
+        // and scan the files until the rebuilds finish.
+        log = openLog(logDir, false, 1000, 20000);
+        LogFileIndex firstIndex = new LogFileIndex(new File(logDir,
+                fileNames[0]));
+        assertFalse("First file not indexed yet", firstIndex.load());
+        checkSeeks(log);
+        log.waitForIndexRebuilds();
+        for (String fileName : fileNames)
+        {
+            LogFileIndex index = new LogFileIndex(new File(logDir, fileName));
+            assertTrue("Index rebuilt: " + fileName, index.load());
+            assertTrue("Index has entries: " + fileName, index.size() > 0);
+        }
+        log.release();
+
+        // Seeks work from the rebuilt indexes alone.
+        log = openLog(logDir, true, 0, 20000);
+        checkSeeks(log);
+        log.release();
+    }
+
+    /**
+     * Verify that deleting the end of the log drops index entries that point
+     * past the end of the truncated file.
+     */
+    public void testTruncate() throws Exception
+    {
+        File logDir = prepareLogDir("testIndexTruncate");
+        DiskLog log = openLog(logDir, false, 1000);
+        LogConnection conn = log.connect(false);
+        writeEvents(conn, 0, 1000);
+        conn.commit();
+        conn.delete(new Long(500), null);
+        conn.release();
+
+        File dataFile = new File(logDir, log.getLastFile());
+        LogFileIndex index = new LogFileIndex(dataFile);
+        assertTrue("Index exists", index.load());
+        assertTrue("Entries remain", index.size() > 0);
+        assertTrue("Last entry is within file",
+                index.getLast().getOffset() < dataFile.length());
+        assertTrue("Last entry is before truncation",
+                index.getLast().getSeqno() < 500);
+
+        // Rewrite the deleted events and confirm seeks find them.
+        conn = log.connect(false);
+        writeEvents(conn, 500, 500);
+        conn.commit();
+        conn.release();
+        checkSeeks(log);
+        log.release();
+    }
+
+    // Seeks a range of sequence numbers and checks the events found.
+    private void checkSeeks(DiskLog log) throws Exception
+    {
+        LogConnection conn = log.connect(true);
+        for (long seqno = 0; seqno < 1000; seqno += 7)
+        {
+            assertTrue("Seek seqno=" + seqno, conn.seek(seqno));
+            THLEvent e = conn.next(false);
+            assertNotNull("Found event: seqno=" + seqno, e);
+            if (e.getReplEvent() instanceof ReplDBMSFilteredEvent)
+            {
+                ReplDBMSFilteredEvent fe = (ReplDBMSFilteredEvent) e
+                        .getReplEvent();
+                assertTrue("Filtered range contains seqno=" + seqno,
+                        fe.getSeqno() <= seqno && seqno <= fe.getSeqnoEnd());
+            }
+            else
+                assertEquals("Seqno", seqno, e.getSeqno());
+        }
+        conn.release();
+    }
+
+    // Writes events with ascending sequence numbers.
+    private void writeEvents(LogConnection conn, long seqno, int howMany)
+            throws Exception
+    {
+        for (int i = 0; i < howMany; i++)
+        {
+            long next = seqno + i;
+            ReplDBMSEvent replEvent = new ReplDBMSEvent(next, (short) 0, true,
+                    "test", 1, new Timestamp(System.currentTimeMillis()),
+                    new DBMSEvent());
+            conn.store(new THLEvent(Long.toString(next), replEvent), false);
+        }
+    }
+
+    // Creates a filtered event.
+    private THLEvent createFilteredTHLEvent(long fromSeqno, long toSeqno)
+    {
+        String eventId = Long.toString(toSeqno);
+        ReplDBMSFilteredEvent filterEvent = new ReplDBMSFilteredEvent(eventId,
+                fromSeqno, toSeqno, (short) 0);
+        return new THLEvent(eventId, filterEvent);
+    }
+
+    // Opens a log with a single large file and the given index interval.
+    private DiskLog openLog(File logDir, boolean readonly, int indexInterval)
+            throws Exception
+    {
+        return openLog(logDir, readonly, indexInterval, 100000000);
+    }
+
+    private DiskLog openLog(File logDir, boolean readonly, int indexInterval,
+            int logFileSize) throws Exception
+    {
+        DiskLog log = new DiskLog();
+        log.setReadOnly(readonly);
+        log.setEventSerializerClass(ProtobufSerializer.class.getName());
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setLogFileSize(logFileSize);
+        log.setTimeoutMillis(10000);
+        log.setLogFileIndexInterval(indexInterval);
+        log.prepare();
+        return log;
+    }
+
+    // Creates an empty log directory.
+    private File prepareLogDir(String logDirName) throws Exception
+    {
+        File logDir = new File(logDirName);
+        if (logDir.exists())
+        {
+            for (File f : logDir.listFiles())
+                f.delete();
+            logDir.delete();
+        }
+        if (!logDir.mkdirs())
+            throw new Exception("Unable to create log directory: "
+                    + logDir.getAbsolutePath());
+        return logDir;
+    }
+}
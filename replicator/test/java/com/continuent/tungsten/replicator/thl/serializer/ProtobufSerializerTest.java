@@ -0,0 +1,300 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2014 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): Robert Hodges
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.extractor.mysql.SerialBlob;
+import com.continuent.tungsten.replicator.thl.THLEvent;
+import com.continuent.tungsten.replicator.thl.protobuf.TungstenProtos.Header;
+import com.continuent.tungsten.replicator.thl.protobuf.TungstenProtos.ProtobufReplDBMSEvent;
+
+/**
+ * Tests deferred decoding of row changes and direct encoding of events by the
+ * protobuf serializer.
+ */
+public class ProtobufSerializerTest extends TestCase
+{
+    /**
+     * Verify that row changes keep names available without decoding rows and
+     * decode to the original values on first access.
+     */
+    public void testLazyRowDecoding() throws Exception
+    {
+        ProtobufSerializer serializer = new ProtobufSerializer();
+        THLEvent thlEvent = roundTrip(serializer, createEvent(1));
+
+        OneRowChange orc = getRowChange(thlEvent);
+        assertNotNull("Rows not yet decoded", orc.getDecoder());
+        assertEquals("Schema", "db1", orc.getSchemaName());
+        assertEquals("Table", "t1", orc.getTableName());
+        assertEquals("Table ID", 33, orc.getTableId());
+        assertNotNull("Rows still not decoded", orc.getDecoder());
+
+        checkRows(orc, "db1");
+        assertNull("Rows decoded", orc.getDecoder());
+    }
+
+    /**
+     * Verify that an event whose rows were never decoded serializes to the
+     * same rows, including changes to names made without decoding.
+     */
+    public void testPassThrough() throws Exception
+    {
+        ProtobufSerializer serializer = new ProtobufSerializer();
+        THLEvent thlEvent = roundTrip(serializer, createEvent(2));
+        OneRowChange orc = getRowChange(thlEvent);
+        orc.setSchemaName("db2");
+
+        THLEvent thlEvent2 = roundTrip(serializer, thlEvent);
+        assertNotNull("First copy not decoded", orc.getDecoder());
+        checkRows(getRowChange(thlEvent2), "db2");
+    }
+
+    /**
+     * Verify that events encoded directly into the serializer buffer are byte
+     * for byte the same as the encoding generated protobuf classes produce for
+     * the same message, and that values survive a round trip.
+     */
+    public void testCanonicalEncoding() throws Exception
+    {
+        ProtobufSerializer serializer = new ProtobufSerializer();
+        THLEvent thlEvent = createTypedEvent(3);
+        ProtobufReplDBMSEvent parsed = checkCanonical(serializer, thlEvent);
+        assertEquals("Changes", 2, parsed.getChangeCount());
+        assertEquals("Metadata", 1, parsed.getMetadataCount());
+        assertEquals("Options", 1, parsed.getOptionsCount());
+
+        // Decoded rows must encode canonically as well.
+        THLEvent thlEvent2 = roundTrip(serializer, thlEvent);
+        OneRowChange orc = getRowChange(thlEvent2);
+        ArrayList<ColumnVal> row = orc.getColumnValues().get(0);
+        assertEquals("Long", new Long(-5000000000L), row.get(1).getValue());
+        assertEquals("Decimal", new BigDecimal("-12345.678"), row.get(2)
+                .getValue());
+        assertEquals("Double", new Double(-1.5), row.get(4).getValue());
+        assertNull("Null", row.get(9).getValue());
+        checkCanonical(serializer, thlEvent2);
+    }
+
+    /**
+     * Verify that the serializer buffer may be reused for a small event after
+     * a large one.
+     */
+    public void testBufferReuse() throws Exception
+    {
+        ProtobufSerializer serializer = new ProtobufSerializer();
+        THLEvent large = createEvent(4);
+        OneRowChange orc = getRowChange(large);
+        char[] chars = new char[200000];
+        Arrays.fill(chars, 'x');
+        orc.getColumnValues().get(1).get(1).setValue(new String(chars));
+
+        THLEvent large2 = roundTrip(serializer, large);
+        assertEquals("Large value", 200000, ((String) getRowChange(large2)
+                .getColumnValues().get(1).get(1).getValue()).length());
+        checkRows(getRowChange(roundTrip(serializer, createEvent(5))), "db1");
+    }
+
+    // Confirms that the serialized event matches the encoding of the same
+    // message by generated protobuf classes and returns the message.
+    private ProtobufReplDBMSEvent checkCanonical(
+            ProtobufSerializer serializer, THLEvent thlEvent) throws Exception
+    {
+        byte[] body = serializeBody(serializer, thlEvent);
+        ProtobufReplDBMSEvent parsed = ProtobufReplDBMSEvent
+                .parseDelimitedFrom(new ByteArrayInputStream(body));
+        ByteArrayOutputStream canonical = new ByteArrayOutputStream();
+        parsed.writeDelimitedTo(canonical);
+        assertTrue("Canonical encoding",
+                Arrays.equals(canonical.toByteArray(), body));
+        return parsed;
+    }
+
+    // Serializes an event and returns its contents after the header.
+    private byte[] serializeBody(ProtobufSerializer serializer,
+            THLEvent thlEvent) throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        serializer.serializeEvent(thlEvent, baos);
+        ByteArrayInputStream in = new ByteArrayInputStream(baos.toByteArray());
+        Header.parseDelimitedFrom(in);
+        byte[] body = new byte[in.available()];
+        in.read(body);
+        return body;
+    }
+
+    // Serializes and deserializes an event.
+    private THLEvent roundTrip(ProtobufSerializer serializer, THLEvent thlEvent)
+            throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        serializer.serializeEvent(thlEvent, baos);
+        return serializer.deserializeEvent(new ByteArrayInputStream(baos
+                .toByteArray()));
+    }
+
+    // Returns the first row change of an event.
+    private OneRowChange getRowChange(THLEvent thlEvent)
+    {
+        ReplDBMSEvent event = (ReplDBMSEvent) thlEvent.getReplEvent();
+        RowChangeData rcd = (RowChangeData) event.getData().get(0);
+        return rcd.getRowChanges().get(0);
+    }
+
+    // Confirms that row change contents match those of createEvent().
+    private void checkRows(OneRowChange orc, String schema)
+    {
+        assertEquals("Schema", schema, orc.getSchemaName());
+        assertEquals("Column specs", 2, orc.getColumnSpec().size());
+        assertEquals("Column name", "c2", orc.getColumnSpec().get(1)
+                .getName());
+        assertEquals("Key specs", 1, orc.getKeySpec().size());
+        assertEquals("Column rows", 2, orc.getColumnValues().size());
+        assertEquals("Value", 7, orc.getColumnValues().get(1).get(0)
+                .getValue());
+        assertEquals("Value", "row1", orc.getColumnValues().get(1).get(1)
+                .getValue());
+        assertEquals("Key rows", 1, orc.getKeyValues().size());
+        assertEquals("Key value", 99, orc.getKeyValues().get(0).get(0)
+                .getValue());
+        assertTrue("Type count", orc.hasType(Types.VARCHAR));
+    }
+
+    // Creates an update with two rows.
+    private THLEvent createEvent(long seqno)
+    {
+        OneRowChange orc = new OneRowChange("db1", "t1",
+                RowChangeData.ActionType.UPDATE);
+        orc.setTableId(33);
+        orc.getColumnSpec().add(createSpec(orc, 1, "c1", Types.INTEGER));
+        orc.getColumnSpec().add(createSpec(orc, 2, "c2", Types.VARCHAR));
+        orc.getKeySpec().add(createSpec(orc, 1, "c1", Types.INTEGER));
+        for (int i = 0; i < 2; i++)
+        {
+            ArrayList<ColumnVal> row = new ArrayList<ColumnVal>();
+            row.add(createValue(orc, new Integer(6 + i)));
+            row.add(createValue(orc, "row" + i));
+            orc.getColumnValues().add(row);
+        }
+        ArrayList<ColumnVal> key = new ArrayList<ColumnVal>();
+        key.add(createValue(orc, new Integer(99)));
+        orc.getKeyValues().add(key);
+
+        RowChangeData rcd = new RowChangeData();
+        rcd.appendOneRowChange(orc);
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(rcd);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        DBMSEvent dbmsEvent = new DBMSEvent("event-" + seqno, data, now);
+        ReplDBMSEvent event = new ReplDBMSEvent(seqno, dbmsEvent);
+        return new THLEvent("event-" + seqno, event);
+    }
+
+    // Creates an insert covering common column types followed by a statement.
+    private THLEvent createTypedEvent(long seqno) throws Exception
+    {
+        OneRowChange orc = new OneRowChange("db1", "t2",
+                RowChangeData.ActionType.INSERT);
+        orc.setTableId(-1);
+        int[] types = {Types.INTEGER, Types.INTEGER, Types.DECIMAL,
+                Types.FLOAT, Types.DOUBLE, Types.BIT, Types.TIMESTAMP,
+                Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.BLOB,
+                Types.NULL};
+        for (int i = 0; i < types.length; i++)
+        {
+            ColumnSpec spec = createSpec(orc, i + 1, "c" + i, types[i]);
+            if (i == 0)
+            {
+                spec.setName(null);
+                spec.setTypeDescription("INT UNSIGNED");
+                spec.setSigned(false);
+            }
+            else if (i == 1)
+                spec.setLength(8);
+            spec.setNotNull(i % 2 == 0);
+            orc.getColumnSpec().add(spec);
+        }
+        Timestamp ts = new Timestamp(1400000000123L);
+        ts.setNanos(123456789);
+        Serializable[] values = {new Integer(Integer.MIN_VALUE),
+                new Long(-5000000000L), new BigDecimal("-12345.678"),
+                new Float(2.5f), new Double(-1.5), new Integer(1), ts,
+                "gr\u00fc\u00dfe \u65e5\u672c", new byte[]{0, -1, 127}, null,
+                new SerialBlob(new byte[]{1, 2, 3, 4}), null};
+        for (int r = 0; r < 3; r++)
+        {
+            ArrayList<ColumnVal> row = new ArrayList<ColumnVal>();
+            for (Serializable value : values)
+                row.add(createValue(orc, value));
+            orc.getColumnValues().add(row);
+        }
+
+        RowChangeData rcd = new RowChangeData();
+        rcd.appendOneRowChange(orc);
+        rcd.addOption("foreign_key_checks", "1");
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(rcd);
+        data.add(new StatementData("delete from db1.t2", 1000L, "db1"));
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        DBMSEvent dbmsEvent = new DBMSEvent("event-" + seqno, data, now);
+        dbmsEvent.addMetadataOption("service", "test");
+        dbmsEvent.addOption("unique_checks", "0");
+        ReplDBMSEvent event = new ReplDBMSEvent(seqno, dbmsEvent);
+        return new THLEvent("event-" + seqno, event);
+    }
+
+    private ColumnSpec createSpec(OneRowChange orc, int index, String name,
+            int type)
+    {
+        ColumnSpec spec = orc.new ColumnSpec();
+        spec.setIndex(index);
+        spec.setName(name);
+        spec.setType(type);
+        return spec;
+    }
+
+    private ColumnVal createValue(OneRowChange orc, Serializable value)
+    {
+        ColumnVal val = orc.new ColumnVal();
+        val.setValue(value);
+        return val;
+    }
+}
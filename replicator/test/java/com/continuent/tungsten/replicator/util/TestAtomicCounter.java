@@ -132,4 +132,72 @@ public class TestAtomicCounter extends TestCase
         counter.waitSeqnoGreaterEqual(100000);
         assertEquals("Thread should be set to 100000", 100000, counter.getSeqno());
     }
+
+    /**
+     * Show that waiters with different thresholds are released only once
+     * their own threshold is reached, that timed waits expire, and that
+     * waiting threads may be interrupted.
+     */
+    public void testSelectiveWakeup() throws Exception
+    {
+        final AtomicCounter counter = new AtomicCounter(0);
+        Thread[] waiters = new Thread[5];
+        final boolean[] released = new boolean[waiters.length];
+        for (int i = 0; i < waiters.length; i++)
+        {
+            final int threshold = (i + 1) * 10;
+            final int index = i;
+            waiters[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        counter.waitSeqnoGreaterEqual(threshold);
+                        synchronized (released)
+                        {
+                            released[index] = true;
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                    }
+                }
+            };
+            waiters[i].start();
+        }
+
+        // Advance to 25; only the first two waiters may finish.
+        for (int i = 0; i < 25; i++)
+            counter.incrAndGetSeqno();
+        waiters[0].join(5000);
+        waiters[1].join(5000);
+        Thread.sleep(100);
+        synchronized (released)
+        {
+            assertTrue("Waiter 0 released", released[0]);
+            assertTrue("Waiter 1 released", released[1]);
+            assertFalse("Waiter 2 still waiting", released[2]);
+        }
+
+        // A timed wait for an unreached value times out.
+        assertFalse("Timed out", counter.waitSeqnoGreaterEqual(100, 50));
+        assertTrue("Reached value", counter.waitSeqnoGreaterEqual(25, 50));
+
+        // Interrupt one remaining waiter and release the others.
+        waiters[2].interrupt();
+        waiters[2].join(5000);
+        assertFalse("Interrupted waiter exited", waiters[2].isAlive());
+        counter.setSeqno(50);
+        for (int i = 3; i < waiters.length; i++)
+        {
+            waiters[i].join(5000);
+            assertFalse("Waiter exited: " + i, waiters[i].isAlive());
+        }
+        synchronized (released)
+        {
+            assertFalse("Interrupted waiter not released", released[2]);
+            assertTrue("Waiter 4 released", released[4]);
+        }
+    }
 }
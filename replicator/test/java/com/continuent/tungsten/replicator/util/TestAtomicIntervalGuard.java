@@ -240,6 +240,63 @@ public class TestAtomicIntervalGuard extends TestCase
         }
     }
 
+    /**
+     * Show that a thread waiting for the trailing time is released when the
+     * lagging task reports a later time or is removed from the array.
+     */
+    public void testWaitRelease() throws Exception
+    {
+        final AtomicIntervalGuard<String> ati = new AtomicIntervalGuard<String>(
+                2);
+        ati.report(0, 1, 10);
+        ati.report(1, 2, 20);
+        final long[] result = {-1, -1};
+        Thread waiter1 = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    result[0] = ati.waitMinTime(15, 0);
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+        };
+        Thread waiter2 = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    result[1] = ati.waitMinTime(100, 0);
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+        };
+        waiter1.start();
+        waiter2.start();
+
+        // Advancing the lagging task releases only the first waiter.
+        Thread.sleep(50);
+        ati.report(0, 3, 30);
+        waiter1.join(500);
+        assertFalse("First waiter released", waiter1.isAlive());
+        assertEquals("Trailing time", 20, result[0]);
+        assertTrue("Second waiter still waiting", waiter2.isAlive());
+
+        // Emptying the array releases the second waiter.
+        ati.unreport(0);
+        ati.unreport(1);
+        waiter2.join(500);
+        assertFalse("Second waiter released", waiter2.isAlive());
+        assertEquals("Empty array", 0, result[1]);
+        ati.validate();
+    }
+
     /**
      * Show that time intervals work correctly when a large number of threads
      * whose progress is gated by an atomic counter are simultaneously updating